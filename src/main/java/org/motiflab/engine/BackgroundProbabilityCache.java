@@ -0,0 +1,201 @@
+package org.motiflab.engine;
+
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+import org.motiflab.engine.data.BackgroundModel;
+import org.motiflab.engine.data.DNASequenceData;
+import org.motiflab.engine.data.DNASequenceDataset;
+import org.motiflab.engine.data.Data;
+import org.motiflab.engine.data.FeatureSequenceData;
+import org.motiflab.engine.util.MotifScoringKernel;
+
+/**
+ * This class keeps precomputed background probabilities for DNA sequences according
+ * to (higher-order) background models. For each combination of sequence, model and strand
+ * the cache holds an array with the log-transformed probability of observing the base at each position
+ * given the preceding bases (on that strand). The arrays are computed in a single pass over
+ * the sequence and can be shared by all motif scanners and operations that need them,
+ * so that scoring against a Markov background is just as fast as scoring against SNFs.
+ * The probabilities of non-ACGT bases are always 0 (i.e. log(1)).
+ * <br>
+ * The cache is owned by the engine (see MotifLabEngine.getBackgroundProbabilityCache())
+ * and entries are discarded when the DNA track or background model is updated or deleted.
+ * Sequences that are no longer referenced are removed from the cache automatically.
+ *
+ * @author kjetikl
+ */
+public class BackgroundProbabilityCache implements DataListener {
+
+    private final WeakHashMap<DNASequenceData,WeakHashMap<BackgroundModel,Entry>> cache=new WeakHashMap<DNASequenceData,WeakHashMap<BackgroundModel,Entry>>();
+
+    private static class Entry {
+        double[] direct=null;
+        double[] reverse=null;
+    }
+
+    /**
+     * Returns an array with the log-transformed background probability for every position in the sequence
+     * (relative to the start of the sequence). If the array is not already present in the cache it will be computed.
+     * The returned array is shared and should not be modified
+     * @param sequence
+     * @param model
+     * @param reverse If TRUE, the probabilities are calculated for the reverse strand, i.e. the probability of the
+     *                complementary base given the complement of the following bases in the sequence
+     */
+    public double[] getLogProbabilities(DNASequenceData sequence, BackgroundModel model, boolean reverse) throws ExecutionError {
+        Entry entry;
+        synchronized(cache) {
+            WeakHashMap<BackgroundModel,Entry> models=cache.get(sequence);
+            if (models==null) {
+                models=new WeakHashMap<BackgroundModel,Entry>();
+                cache.put(sequence, models);
+            }
+            entry=models.get(model);
+            if (entry==null) {
+                entry=new Entry();
+                models.put(model, entry);
+            }
+        }
+        synchronized(entry) { // tasks processing different parts of the same sequence will wait for the first one to compute the array
+            if (reverse) {
+                if (entry.reverse==null) entry.reverse=computeLogProbabilities(getBases(sequence), model, true);
+                return entry.reverse;
+            } else {
+                if (entry.direct==null) entry.direct=computeLogProbabilities(getBases(sequence), model, false);
+                return entry.direct;
+            }
+        }
+    }
+
+    /** 
+     * Returns a copy of the bases in the sequence. This is read through getValueInGenomicInterval() rather than getValue(), 
+     * since the latter prepares the sequence for modification (which would make a private copy of a buffer shared with clones 
+     * and unregister the sequence from the pager)
+     */
+    private static char[] getBases(DNASequenceData sequence) {
+        char[] bases=(char[])sequence.getValueInGenomicInterval(sequence.getRegionStart(), sequence.getRegionEnd());
+        return (bases!=null)?bases:new char[0];
+    }
+
+    /** Removes all entries from the cache */
+    public void clear() {
+        synchronized(cache) {
+            cache.clear();
+        }
+    }
+
+    /** Removes all entries for the given DNA sequence */
+    public void invalidate(DNASequenceData sequence) {
+        synchronized(cache) {
+            cache.remove(sequence);
+        }
+    }
+
+    /** Removes all entries for the given background model */
+    public void invalidate(BackgroundModel model) {
+        synchronized(cache) {
+            for (WeakHashMap<BackgroundModel,Entry> models:cache.values()) models.remove(model);
+        }
+    }
+
+    /**
+     * Computes the log-transformed background probabilities for every position in the sequence
+     * in a single pass. The preceding bases are kept as an integer-encoded oligo which is updated
+     * for each new base, and positions where fewer than 'order' known bases precede the current base
+     * (at the start of the sequence or after an unknown base) use the longest available prefix.
+     * @param sequence
+     * @param model
+     * @param reverse
+     */
+    public static double[] computeLogProbabilities(char[] sequence, BackgroundModel model, boolean reverse) throws ExecutionError {
+        double[] prob=new double[sequence.length];
+        double[][] tables=model.getLogTransitionTables();
+        int order=model.getOrder();
+        int prefix=0;  // the last 'order' bases, encoded as an integer with two bits per base (the most recent base in the least significant bits)
+        int known=0;   // the number of consecutive known bases preceding the current position
+        int mask=(1<<(2*order))-1;
+        for (int k=0;k<sequence.length;k++) {
+            int i=(reverse)?(sequence.length-1-k):k;
+            int base=MotifScoringKernel.getBaseIndex(sequence[i]);
+            if (base==MotifScoringKernel.BASE_OTHER) {
+                prob[i]=0;
+                known=0;
+                prefix=0;
+                continue;
+            }
+            if (reverse) base=3-base; // complement
+            int length=(known<order)?known:order;
+            int prefixmask=(1<<(2*length))-1;
+            prob[i]=tables[length][((prefix & prefixmask)<<2)|base];
+            prefix=((prefix<<2)|base) & mask;
+            known++;
+        }
+        return prob;
+    }
+
+    /**
+     * Returns the smallest and largest log-transformed probability that the model can assign to a base
+     * (which can be used to determine the minimum and maximum obtainable motif scores)
+     */
+    public static double[] getLogProbabilityRange(BackgroundModel model) throws ExecutionError {
+        double min=Double.MAX_VALUE, max=-Double.MAX_VALUE;
+        for (double[] table:model.getLogTransitionTables()) {
+            for (double value:table) {
+                if (value<min) min=value;
+                if (value>max) max=value;
+            }
+        }
+        return new double[]{min,max};
+    }
+
+    /**
+     * Returns cumulative sums for a segment of the given array so that the sum of the values
+     * in positions start+i to start+j-1 can be obtained as result[j]-result[i]
+     * @param values
+     * @param start The first position of the segment
+     * @param end The last position of the segment (inclusive)
+     */
+    public static double[] getCumulativeSums(double[] values, int start, int end) {
+        double[] sums=new double[end-start+2];
+        for (int i=start;i<=end;i++) sums[i-start+1]=sums[i-start]+values[i];
+        return sums;
+    }
+
+    private void dataChanged(Data data) {
+        if (data instanceof DNASequenceDataset) {
+            ArrayList<FeatureSequenceData> sequences=((DNASequenceDataset)data).getAllSequences();
+            synchronized(cache) {
+                for (FeatureSequenceData sequence:sequences) cache.remove(sequence);
+            }
+        }
+        else if (data instanceof DNASequenceData) invalidate((DNASequenceData)data);
+        else if (data instanceof BackgroundModel) invalidate((BackgroundModel)data);
+    }
+
+    @Override
+    public void dataAdded(Data data) {}
+
+    @Override
+    public void dataAddedToSet(Data parentDataset, Data child) {}
+
+    @Override
+    public void dataRemoved(Data data) {
+        dataChanged(data);
+    }
+
+    @Override
+    public void dataRemovedFromSet(Data parentDataset, Data child) {
+        dataChanged(child);
+    }
+
+    @Override
+    public void dataUpdated(Data data) {
+        dataChanged(data);
+    }
+
+    @Override
+    public void dataUpdate(Data oldvalue, Data newvalue) {
+        dataChanged(oldvalue);
+    }
+
+}
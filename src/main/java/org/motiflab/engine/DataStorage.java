@@ -6,8 +6,9 @@
 package org.motiflab.engine;
 
 import org.motiflab.engine.data.Data;
-import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,18 +20,27 @@ import java.util.regex.Pattern;
  * The data storage is decoupled from the MotifLabEngine class itself so
  * that it can be easily substituted at a later time to provide more sophisticated
  * storage if needed (such as support for caching/memory swapping). 
- * However, at present the data is just stored in a HashMap
+ * The data is stored in a ConcurrentHashMap so that lookups can be made by several 
+ * threads at the same time without locking. In addition, the data items are indexed 
+ * by their class, so that the items of a given type can be found without checking 
+ * every item in storage. Updates are serialized so that the two maps are always consistent, 
+ * and methods returning lists of data items return snapshots of the current contents.
+ * Since a ConcurrentHashMap does not allow NULL keys, requests for data items with NULL names 
+ * are handled explicitly (as if no such item exists).
  * 
  * @author kjetikl
  */
 public class DataStorage {
-    private volatile HashMap<String,Data> storage;
+    private final ConcurrentHashMap<String,Data> storage;
+    private final ConcurrentHashMap<Class,ConcurrentHashMap<String,Data>> typeindex; // items in storage grouped by their (concrete) class
+    private final Object writeLock=new Object();
 
     /**
      * Returns a new instance of DataStorage
      */
     public DataStorage() {
-        storage=new HashMap<String,Data>();
+        storage=new ConcurrentHashMap<String,Data>();
+        typeindex=new ConcurrentHashMap<Class,ConcurrentHashMap<String,Data>>();
     }
             
     /**
@@ -38,9 +48,8 @@ public class DataStorage {
      * @param key The name of the data to be retrieved
      */
     protected Data getDataItem(String key) {
-      synchronized(storage){
+        if (key==null) return null;
         return storage.get(key);
-      }
     }
     
     /**
@@ -48,8 +57,11 @@ public class DataStorage {
      * @param dataitem The data to be stored
      */ 
     protected void storeDataItem(Data dataitem) {
-      synchronized(storage){
-        storage.put(dataitem.getName(),dataitem);
+      if (dataitem==null || dataitem.getName()==null) return;
+      synchronized(writeLock){
+        Data olditem=storage.put(dataitem.getName(),dataitem);
+        if (olditem!=null) removeFromTypeIndex(dataitem.getName(), olditem);
+        addToTypeIndex(dataitem.getName(), dataitem);
       }
     }
     
@@ -58,8 +70,11 @@ public class DataStorage {
      * @param dataitem The specified dataitem if found, else null
      */ 
     protected Data removeDataItem(String key) {
-      synchronized(storage){
-          return storage.remove(key);
+      if (key==null) return null;
+      synchronized(writeLock){
+          Data item=storage.remove(key);
+          if (item!=null) removeFromTypeIndex(key, item);
+          return item;
       }
     }
     
@@ -71,13 +86,46 @@ public class DataStorage {
      */ 
     protected Data renameDataItem(String oldname, String newname) {
         Data item=null;
-        synchronized(storage){
+        if (oldname==null || newname==null) return null;
+        synchronized(writeLock){
            item=storage.remove(oldname);
-           if (item!=null) storage.put(newname, item);
+           if (item!=null) {
+               removeFromTypeIndex(oldname, item);
+               Data replaced=storage.put(newname, item);
+               if (replaced!=null) removeFromTypeIndex(newname, replaced);
+               addToTypeIndex(newname, item);
+           }
         }
         return item;
     }
     
+    private void addToTypeIndex(String key, Data item) {
+        ConcurrentHashMap<String,Data> group=typeindex.get(item.getClass());
+        if (group==null) {
+            group=new ConcurrentHashMap<String,Data>();
+            typeindex.put(item.getClass(), group);
+        }
+        group.put(key, item);
+    }
+
+    private void removeFromTypeIndex(String key, Data item) {
+        ConcurrentHashMap<String,Data> group=typeindex.get(item.getClass());
+        if (group!=null) group.remove(key, item);
+    }
+
+    /** 
+     * Returns the groups of data items (from the type index) whose class is the given classtype or a subclass of it. 
+     * Note that the returned groups are live views which can be updated while the caller iterates over them
+     */
+    private ArrayList<Map<String,Data>> getGroupsOfType(Class classtype) {
+        ArrayList<Map<String,Data>> groups=new ArrayList<Map<String,Data>>();
+        if (classtype==Data.class) {groups.add(storage);return groups;}
+        for (Map.Entry<Class,ConcurrentHashMap<String,Data>> entry:typeindex.entrySet()) {
+            if (classtype.isAssignableFrom(entry.getKey()) && !entry.getValue().isEmpty()) groups.add(entry.getValue());
+        }
+        return groups;
+    }
+    
      /**
      * Returns an ArrayList containing all Data of the specified classtype
      * currently available in storage
@@ -87,12 +135,8 @@ public class DataStorage {
      */
     protected ArrayList<Data> getAllDataItemsOfType(Class classtype) {
         ArrayList<Data> datalist=new ArrayList<Data>();
-        synchronized(storage){
-            for (Data element : storage.values()) {
-               if (classtype.isInstance(element)) {
-                   datalist.add(element);
-               }
-            }
+        for (Map<String,Data> group : getGroupsOfType(classtype)) {
+            datalist.addAll(group.values());
         }
         return datalist;
     }
@@ -107,9 +151,10 @@ public class DataStorage {
      */
     protected ArrayList<Data> getAllDataItemsOfTypeMatchingExpression(String expression, Class classtype) {
         ArrayList<Data> datalist=new ArrayList<Data>();
-        synchronized(storage){
-            for (Data element : storage.values()) {
-               if (classtype.isInstance(element) && element.getName().matches(expression)) {
+        Pattern pattern=Pattern.compile(expression);
+        for (Map<String,Data> group : getGroupsOfType(classtype)) {
+            for (Data element : group.values()) {
+               if (pattern.matcher(element.getName()).matches()) {
                    datalist.add(element);
                }
             }
@@ -141,17 +186,15 @@ public class DataStorage {
         String expression=prefix+"(\\d+)"+suffix;
         Pattern pattern=Pattern.compile(expression);
         ArrayList<Data> datalist=new ArrayList<Data>();
-        synchronized(storage){
-            for (Data element : storage.values()) {
-               if (classtype.isInstance(element) && element.getName().matches(expression)) {
-                   Matcher matcher = pattern.matcher(element.getName());
-                   if (matcher.matches()) { 
-                       String numberstring=matcher.group(1);
-                       try {
-                           int number=Integer.parseInt(numberstring);
-                           if (number>=start && number<=end) datalist.add(element);
-                       } catch (NumberFormatException nfe) {} 
-                   }
+        for (Map<String,Data> group : getGroupsOfType(classtype)) {
+            for (Data element : group.values()) {
+               Matcher matcher = pattern.matcher(element.getName());
+               if (matcher.matches()) { 
+                   String numberstring=matcher.group(1);
+                   try {
+                       int number=Integer.parseInt(numberstring);
+                       if (number>=start && number<=end) datalist.add(element);
+                   } catch (NumberFormatException nfe) {} 
                }                                
             }
         }
@@ -168,11 +211,9 @@ public class DataStorage {
      */
     protected ArrayList<String> getNamesForAllDataItemsOfType(Class classtype) {
         ArrayList<String> nameslist=new ArrayList<String>();
-        synchronized(storage)  {
-            for (Data element : storage.values()) {
-               if (classtype.isInstance(element)) {
-                   nameslist.add(element.getName());
-               }
+        for (Map<String,Data> group : getGroupsOfType(classtype)) {
+            for (Data element : group.values()) {
+               nameslist.add(element.getName());
             }
         }
         return nameslist;
@@ -187,11 +228,12 @@ public class DataStorage {
      */
     protected ArrayList<String> getNamesForAllDataItemsOfTypes(Class[] classtypes) {
         ArrayList<String> nameslist=new ArrayList<String>();
-        synchronized(storage)  {
-            for (Data element : storage.values()) {
-               for (Class classtype : classtypes) {
-                   if (classtype.isInstance(element)) {nameslist.add(element.getName());break;}             
-               }
+        for (Map.Entry<Class,ConcurrentHashMap<String,Data>> entry : typeindex.entrySet()) {
+            for (Class classtype : classtypes) {
+                if (classtype.isAssignableFrom(entry.getKey())) {
+                    for (Data element : entry.getValue().values()) nameslist.add(element.getName());
+                    break;
+                }             
             }
         }
         return nameslist;
@@ -205,12 +247,8 @@ public class DataStorage {
      * @return 
      */
     protected boolean hasDataItemsOfType(Class classtype) {
-        synchronized(storage){
-            for (Data element : storage.values()) {
-               if (classtype.isInstance(element)) {
-                   return true;
-               }
-            }
+        for (Map<String,Data> group : getGroupsOfType(classtype)) {
+            if (!group.isEmpty()) return true;
         }
         return false;
     }
@@ -223,12 +261,8 @@ public class DataStorage {
      */
     protected int countDataItemsOfType(Class classtype) {
         int counter=0;
-        synchronized(storage){
-            for (Data element : storage.values()) {
-               if (classtype.isInstance(element)) {
-                   counter++;
-               }
-            }
+        for (Map<String,Data> group : getGroupsOfType(classtype)) {
+            counter+=group.size();
         }
         return counter;
     }
@@ -79,6 +79,10 @@ public final class MotifLabEngine implements MessageListener, ExtendedDataListen
     public static final String MAX_CONCURRENT_DOWNLOADS="maxConcurrentDownloads";         
     public static final String CONCURRENT_THREADS="concurrentThreadCount"; 
     public static final String PREFERENCES_AUTO_CORRECT_SEQUENCE_NAMES="autocorrectSequenceNames";  
+    public static final String PREFERENCES_PACK_DNA_SEQUENCES="packDNASequences";
+    public static final String PREFERENCES_COMPACT_NUMERIC_DATA="compactNumericData";
+    public static final String PREFERENCES_VECTORIZED_ARITHMETIC="vectorizedArithmetic"; // only has an effect if MotifLab is started with "--add-modules jdk.incubator.vector" (which is not possible with "java -jar")
+    public static final String PREFERENCES_FEATURE_DATA_MEMORY_BUDGET="featureDataMemoryBudget";
 
     private static String version="2.0"; // 
     private static Date releaseDate=getCorrectDate(2025, 9, 12); //
@@ -115,12 +119,19 @@ public final class MotifLabEngine implements MessageListener, ExtendedDataListen
     private int concurrentThreadCount=4;
     private boolean dataUpdatesAllowed=true;
     private boolean autocorrectSequenceNames=false;
+    private boolean packDNASequences=false;
+    private boolean compactNumericData=false;
+    private boolean vectorizedArithmetic=true;
+    private int featureDataMemoryBudget=0; // in megabytes. 0 means no limit (feature data is never paged out to disk)
+    private volatile SequenceDataPager sequenceDataPager=null;
     private HashMap<String,OutputDataDependency> sharedOutputDependencies=null; // key is sharedID
     private ArrayList<MotifComparator> motifcomparators=null;
     private int uniqueCounter=0; // used to create work directories
     private ArrayList<PropertyChangeListener> clientListeners=null; // components can register to know if the client changes
     private WeakHashMap<URLClassLoader,Boolean> pluginClassLoaders=null; // this is used to retrieve classloaders    
     private TaskRunner taskRunner=null;
+    private BackgroundProbabilityCache backgroundProbabilityCache=null;
+    private ScoreDistributionCache scoreDistributionCache=null;
     
     private static Random randomNumberGenerator = new Random();
     private static NaturalOrderComparator naturalordercomparator=new NaturalOrderComparator();     
@@ -157,6 +168,10 @@ public final class MotifLabEngine implements MessageListener, ExtendedDataListen
         geneIDResolver=new GeneIDResolver(this);        
         geneIDResolver.setUseCache(preferences.getBoolean(PREFERENCES_USE_CACHE_GENE_ID_MAPPING, true));
         setAutoCorrectSequenceNames(preferences.getBoolean(PREFERENCES_AUTO_CORRECT_SEQUENCE_NAMES, autocorrectSequenceNames));
+        setPackDNASequences(preferences.getBoolean(PREFERENCES_PACK_DNA_SEQUENCES, packDNASequences));
+        setCompactNumericData(preferences.getBoolean(PREFERENCES_COMPACT_NUMERIC_DATA, compactNumericData));
+        setVectorizedArithmetic(preferences.getBoolean(PREFERENCES_VECTORIZED_ARITHMETIC, vectorizedArithmetic));
+        setFeatureDataMemoryBudget(preferences.getInt(PREFERENCES_FEATURE_DATA_MEMORY_BUDGET, featureDataMemoryBudget));
         setNetworkTimeout(preferences.getInt(PREFERENCES_NETWORK_TIMEOUT, networkTimeoutDelay));
         setConcurrentThreads(preferences.getInt(CONCURRENT_THREADS, concurrentThreadCount));
         setMaxSequenceLength(preferences.getInt(MAX_SEQUENCE_LENGTH, 0)); // 0 means no maximum      
@@ -254,6 +269,10 @@ public final class MotifLabEngine implements MessageListener, ExtendedDataListen
         settings.put(MAX_SEQUENCE_LENGTH, preferences.getInt(MAX_SEQUENCE_LENGTH, maxSequenceLength));       
         settings.put(MAX_CONCURRENT_DOWNLOADS, preferences.getInt(MAX_CONCURRENT_DOWNLOADS, 1));       
         settings.put(CONCURRENT_THREADS, preferences.getInt(CONCURRENT_THREADS, 4));              
+        settings.put(PREFERENCES_PACK_DNA_SEQUENCES, preferences.getBoolean(PREFERENCES_PACK_DNA_SEQUENCES, false));
+        settings.put(PREFERENCES_COMPACT_NUMERIC_DATA, preferences.getBoolean(PREFERENCES_COMPACT_NUMERIC_DATA, false));
+        settings.put(PREFERENCES_VECTORIZED_ARITHMETIC, preferences.getBoolean(PREFERENCES_VECTORIZED_ARITHMETIC, true));
+        settings.put(PREFERENCES_FEATURE_DATA_MEMORY_BUDGET, preferences.getInt(PREFERENCES_FEATURE_DATA_MEMORY_BUDGET, 0));
         return settings;      
     }
     
@@ -561,6 +580,28 @@ public final class MotifLabEngine implements MessageListener, ExtendedDataListen
         if (taskRunner==null) taskRunner=new TaskRunner(this);
         return taskRunner;
     }
+
+    /**
+     * Returns a cache which holds precomputed background probabilities for DNA sequences
+     * according to higher-order background models. The cache is shared by all operations
+     * and entries are automatically discarded when the sequences or models are updated
+     */
+    public synchronized BackgroundProbabilityCache getBackgroundProbabilityCache() {
+        if (backgroundProbabilityCache==null) {
+            backgroundProbabilityCache=new BackgroundProbabilityCache();
+            addDataListener(backgroundProbabilityCache);
+        }
+        return backgroundProbabilityCache;
+    }
+
+    /**
+     * Returns a cache which provides score distributions for motif matrices
+     * (used to convert p-value thresholds to score thresholds)
+     */
+    public synchronized ScoreDistributionCache getScoreDistributionCache() {
+        if (scoreDistributionCache==null) scoreDistributionCache=new ScoreDistributionCache(this);
+        return scoreDistributionCache;
+    }
     
     /** 
      * Returns a string denoting the path of the program directory for this MotifLab installation
@@ -803,6 +844,8 @@ public final class MotifLabEngine implements MessageListener, ExtendedDataListen
         dataitem.addDataListener(this);
         if (dataitem instanceof DataCollection) {((DataCollection)dataitem).initializeFromPayload(this);} // add individual data items within the collection that has not been stored before but currently resides in the collections payload
         storage.storeDataItem(dataitem);
+        if (dataitem instanceof NumericDataset && compactNumericData) ((NumericDataset)dataitem).compact(CompactNumericData.AUTOMATIC);
+        if (dataitem instanceof FeatureDataset && sequenceDataPager!=null) sequenceDataPager.register((FeatureDataset)dataitem);
         HashSet<DataListener> listenerList;
         synchronized(datalisteners) {   
             listenerList=(HashSet<DataListener>)datalisteners.clone();
@@ -898,6 +941,8 @@ public final class MotifLabEngine implements MessageListener, ExtendedDataListen
                 for (DataListener listener:listenerList) listener.dataUpdate(olditem,dataitem); // Notify all datalisteners that an update is about to occur                 
                 if (dataitem instanceof DataCollection) {((DataCollection)dataitem).initializeFromPayload(this);}
                 olditem.importData(dataitem);
+                if (olditem instanceof NumericDataset && compactNumericData) ((NumericDataset)olditem).compact(CompactNumericData.AUTOMATIC);
+                if (olditem instanceof FeatureDataset && sequenceDataPager!=null) sequenceDataPager.register((FeatureDataset)olditem);
                 if (dataitem instanceof Motif) Motif.clearUserDefinedPropertyClassesLookupTable(); // just in case
                 if (dataitem instanceof ModuleCRM) ModuleCRM.clearUserDefinedPropertyClassesLookupTable(); // just in case                
                 if (dataitem instanceof Sequence) Sequence.clearUserDefinedPropertyClassesLookupTable(); // just in case
@@ -919,6 +964,7 @@ public final class MotifLabEngine implements MessageListener, ExtendedDataListen
         Data dataitem=storage.removeDataItem(key);
         if (dataitem==null) return null;
         dataitem.removeDataListener(this);
+        if (dataitem instanceof FeatureDataset && sequenceDataPager!=null) sequenceDataPager.unregister((FeatureDataset)dataitem);
         // notify all datalisteners      
         if (dataitem instanceof Sequence) getDefaultSequenceCollection().removeSequence((Sequence)dataitem);
         // this should be removed from all collections!!!
@@ -1026,6 +1072,7 @@ public final class MotifLabEngine implements MessageListener, ExtendedDataListen
         Motif.clearUserDefinedPropertyClassesLookupTable();
         ModuleCRM.clearUserDefinedPropertyClassesLookupTable();        
         Sequence.clearUserDefinedPropertyClassesLookupTable();
+        if (backgroundProbabilityCache!=null) backgroundProbabilityCache.clear();
     }
     
    /**
@@ -1548,6 +1595,78 @@ public final class MotifLabEngine implements MessageListener, ExtendedDataListen
     public void setAutoCorrectSequenceNames(boolean correct) {
         autocorrectSequenceNames=correct;
     }    
+
+    /** Returns the "pack DNA sequences" setting.
+     *  If this is on, DNA tracks loaded from data sources are stored with 2 bits per base
+     *  instead of 2 bytes per base (see DNASequenceData.pack())
+     */
+    public boolean packDNASequences() {
+        return packDNASequences;
+    }
+
+    /** Sets the "pack DNA sequences" setting.
+     *  If this is on, DNA tracks loaded from data sources are stored with 2 bits per base
+     *  instead of 2 bytes per base (see DNASequenceData.pack())
+     */
+    public void setPackDNASequences(boolean pack) {
+        packDNASequences=pack;
+    }
+
+    /** Returns the "compact numeric data" setting.
+     *  If this is on, numeric tracks are stored in compact form (e.g. run-length encoded) when they are stored
+     *  in the engine, provided that this is considerably smaller than a plain array (see NumericSequenceData.compact())
+     */
+    public boolean compactNumericData() {
+        return compactNumericData;
+    }
+
+    /** Sets the "compact numeric data" setting.
+     *  If this is on, numeric tracks are stored in compact form (e.g. run-length encoded) when they are stored
+     *  in the engine, provided that this is considerably smaller than a plain array (see NumericSequenceData.compact())
+     */
+    public void setCompactNumericData(boolean compact) {
+        compactNumericData=compact;
+    }
+
+    /** Returns the "vectorized arithmetic" setting.
+     *  If this is on, operations that do arithmetic on numeric tracks will process several values at a time
+     *  with SIMD instructions when the Java Vector API is available (see NumericKernels).
+     *  Note that the API is only available if MotifLab is built with the "vector" profile and the JVM is started 
+     *  with "--add-modules jdk.incubator.vector". The latter can not be specified in the manifest, so when MotifLab is launched with "java -jar" the values
+     *  are always processed one at a time, even though this setting is on by default
+     */
+    public boolean useVectorizedArithmetic() {
+        return vectorizedArithmetic;
+    }
+
+    /** Sets the "vectorized arithmetic" setting.
+     *  If this is off (or the jdk.incubator.vector module has not been added to the JVM), numeric tracks are processed one value at a time
+     */
+    public void setVectorizedArithmetic(boolean vectorized) {
+        vectorizedArithmetic=vectorized;
+    }
+
+    /** Returns the maximum amount of memory (in MB) that the values of stored feature datasets
+     *  should occupy before the least recently used sequences are paged out to disk (0 means no limit)
+     */
+    public int getFeatureDataMemoryBudget() {
+        return featureDataMemoryBudget;
+    }
+
+    /** Sets the maximum amount of memory (in MB) that the values of stored feature datasets
+     *  should occupy before the least recently used sequences are paged out to files in the temp directory.
+     *  A value of 0 (or less) means that feature data is never paged out
+     */
+    public synchronized void setFeatureDataMemoryBudget(int megabytes) {
+        if (megabytes<0) megabytes=0;
+        featureDataMemoryBudget=megabytes;
+        long budget=(megabytes==0)?Long.MAX_VALUE:megabytes*1024L*1024L;
+        if (sequenceDataPager!=null) sequenceDataPager.setBudget(budget);
+        else if (megabytes>0) {
+            sequenceDataPager=new SequenceDataPager(this, new File(getTempDirectory(),"paging"), budget);
+            for (Data dataset:getAllDataItemsOfType(FeatureDataset.class)) sequenceDataPager.register((FeatureDataset)dataset);
+        }
+    }
         
     /** Specifies a directory location for the data cache */
     public void setDataCacheDirectory(String cacheDirectory) {
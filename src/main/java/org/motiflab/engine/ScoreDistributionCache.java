@@ -0,0 +1,210 @@
+package org.motiflab.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import org.motiflab.engine.task.ExecutableTask;
+import org.motiflab.engine.util.MotifScoreDistribution;
+
+/**
+ * This class provides score distributions for motif matrices, which can be used
+ * to convert p-value thresholds into score thresholds for each motif.
+ * Distributions are identified by a hash of the matrix, the background SNF, the
+ * pseudocount and the granularity of the scores. Recently used distributions are kept in memory
+ * (the least recently used are discarded when the cache grows too large) and all
+ * distributions are also saved to a directory below the MotifLab directory so that
+ * they do not have to be computed again in later sessions.
+ * The cache is owned by the engine (see MotifLabEngine.getScoreDistributionCache())
+ *
+ * @author kjetikl
+ */
+public class ScoreDistributionCache {
+
+    /** The default resolution of the scores in the distributions */
+    public static final double DEFAULT_GRANULARITY=0.01;
+
+    private static final int MAX_CACHED_VALUES=1<<23; // the maximum total number of values held in memory (8M values or 64MB)
+    private static final int FILE_FORMAT_VERSION=1;
+
+    private final MotifLabEngine engine;
+    private final LinkedHashMap<String,MotifScoreDistribution> cache;
+    private long cachedValues=0;
+
+    public ScoreDistributionCache(MotifLabEngine engine) {
+        this.engine=engine;
+        this.cache=new LinkedHashMap<String,MotifScoreDistribution>(256,0.75f,true) { // access order
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,MotifScoreDistribution> eldest) {
+                if (cachedValues>MAX_CACHED_VALUES && size()>1) {
+                    cachedValues-=eldest.getValue().size();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns score distributions for the given motif matrices. Distributions that are not found in
+     * memory or on disc are computed in parallel using the engine's task runner (and then stored in the cache).
+     * @param matrices Frequency matrices (with the pseudocount already added) for each motif
+     * @param snf The background probabilities of the bases A,C,G and T
+     * @param pseudo The pseudocount that was added to the matrices
+     * @param granularity The resolution of the scores in the distributions
+     * @param task The task requesting the distributions (can be null)
+     * @return a map containing the distribution for each motif in the matrices map
+     */
+    public HashMap<String,MotifScoreDistribution> getDistributions(HashMap<String,double[][]> matrices, final double[] snf, double pseudo, final double granularity, ExecutableTask task) throws Exception {
+        HashMap<String,MotifScoreDistribution> result=new HashMap<String,MotifScoreDistribution>(matrices.size());
+        final ArrayList<String> missingNames=new ArrayList<String>();
+        final ArrayList<String> missingKeys=new ArrayList<String>();
+        for (String motifname:matrices.keySet()) {
+            double[][] matrix=matrices.get(motifname);
+            String key=getKey(matrix, snf, pseudo, granularity);
+            MotifScoreDistribution distribution=getCachedDistribution(key);
+            if (distribution==null) distribution=loadDistribution(key);
+            if (distribution!=null) result.put(motifname, distribution);
+            else {
+                missingNames.add(motifname);
+                missingKeys.add(key);
+            }
+        }
+        if (missingNames.isEmpty()) return result;
+        ArrayList<Callable<MotifScoreDistribution>> computetasks=new ArrayList<Callable<MotifScoreDistribution>>(missingNames.size());
+        for (String motifname:missingNames) {
+            final double[][] matrix=matrices.get(motifname);
+            computetasks.add(new Callable<MotifScoreDistribution>() {
+                @Override
+                public MotifScoreDistribution call() throws Exception {
+                    return MotifScoreDistribution.compute(getLogOddsMatrix(matrix, snf), snf, granularity);
+                }
+            });
+        }
+        if (task!=null) task.setStatusMessage("Computing score distributions for "+missingNames.size()+" motif"+((missingNames.size()==1)?"":"s"));
+        TaskRunner taskRunner=engine.getTaskRunner();
+        List<Future<MotifScoreDistribution>> futures=null;
+        try {
+            futures=taskRunner.invokeAll(computetasks);
+            for (int i=0;i<futures.size();i++) {
+                Future<MotifScoreDistribution> future=futures.get(i);
+                if (!future.isDone() || future.isCancelled()) throw new ExecutionError("Unable to compute score distribution for motif '"+missingNames.get(i)+"'");
+                MotifScoreDistribution distribution=future.get();
+                result.put(missingNames.get(i), distribution);
+                storeDistribution(missingKeys.get(i), distribution);
+            }
+        } catch (Exception e) {
+            taskRunner.shutdownNow();
+            if (e instanceof java.util.concurrent.ExecutionException) throw (Exception)e.getCause();
+            else throw e;
+        }
+        return result;
+    }
+
+    /** Removes all distributions from memory (but not from disc) */
+    public synchronized void clear() {
+        cache.clear();
+        cachedValues=0;
+    }
+
+    private synchronized MotifScoreDistribution getCachedDistribution(String key) {
+        return cache.get(key);
+    }
+
+    private synchronized void putCachedDistribution(String key, MotifScoreDistribution distribution) {
+        MotifScoreDistribution old=cache.get(key);
+        if (old!=null) cachedValues-=old.size();
+        cachedValues+=distribution.size();
+        cache.put(key, distribution);
+    }
+
+    /** Adds the distribution to the memory cache and saves it to disc */
+    private void storeDistribution(String key, MotifScoreDistribution distribution) {
+        putCachedDistribution(key, distribution);
+        File file=getFile(key);
+        if (file==null) return;
+        DataOutputStream output=null;
+        try {
+            File tempfile=new File(file.getParentFile(), file.getName()+".tmp");
+            output=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempfile)));
+            output.writeInt(FILE_FORMAT_VERSION);
+            output.writeUTF(key);
+            distribution.write(output);
+            output.close();
+            output=null;
+            if (!tempfile.renameTo(file)) tempfile.delete(); // another thread or process could have saved the same distribution
+        } catch (Exception e) {
+            engine.logMessage("Unable to save score distribution: "+e.getMessage());
+        } finally {
+            try {if (output!=null) output.close();} catch (Exception x) {}
+        }
+    }
+
+    /** Loads the distribution with the given key from disc and adds it to the memory cache. Returns null if the distribution is not found */
+    private MotifScoreDistribution loadDistribution(String key) {
+        File file=getFile(key);
+        if (file==null || !file.exists()) return null;
+        DataInputStream input=null;
+        try {
+            input=new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            int version=input.readInt();
+            if (version!=FILE_FORMAT_VERSION || !key.equals(input.readUTF())) return null;
+            MotifScoreDistribution distribution=MotifScoreDistribution.read(input);
+            putCachedDistribution(key, distribution);
+            return distribution;
+        } catch (Exception e) {
+            return null; // the distribution will just be computed again
+        } finally {
+            try {if (input!=null) input.close();} catch (Exception x) {}
+        }
+    }
+
+    /** Returns the file used to store the distribution with the given key, or null if distributions can not be stored */
+    private File getFile(String key) {
+        String motiflabDirectory=engine.getMotifLabDirectory();
+        if (motiflabDirectory==null || motiflabDirectory.isEmpty()) return null;
+        File dir=new File(motiflabDirectory, "scoredistributions");
+        if (!dir.exists() && !dir.mkdirs()) return null;
+        return new File(dir, key);
+    }
+
+    /** Returns a key (a hexadecimal SHA-1 hash) which identifies the distribution for the given matrix and settings */
+    private static String getKey(double[][] matrix, double[] snf, double pseudo, double granularity) throws Exception {
+        StringBuilder builder=new StringBuilder();
+        for (double[] column:matrix) {
+            for (double value:column) {builder.append(value);builder.append(',');}
+            builder.append(';');
+        }
+        builder.append("SNF:");
+        for (double value:snf) {builder.append(value);builder.append(',');}
+        builder.append("pseudo:");
+        builder.append(pseudo);
+        builder.append(",granularity:");
+        builder.append(granularity);
+        byte[] digest=MessageDigest.getInstance("SHA-1").digest(builder.toString().getBytes("UTF-8"));
+        StringBuilder key=new StringBuilder(digest.length*2);
+        for (byte b:digest) key.append(String.format("%02x", b));
+        return key.toString();
+    }
+
+    /** Converts a frequency matrix to a log-odds matrix according to the background SNF */
+    private static double[][] getLogOddsMatrix(double[][] matrix, double[] snf) {
+        double[][] logodds=new double[matrix.length][4];
+        for (int i=0;i<matrix.length;i++) {
+            for (int b=0;b<4;b++) logodds[i][b]=Math.log(matrix[i][b])-Math.log(snf[b]);
+        }
+        return logodds;
+    }
+
+}
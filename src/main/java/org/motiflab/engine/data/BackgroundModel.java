@@ -39,6 +39,7 @@ public class BackgroundModel extends Data {
     private boolean trackStrandRelative=true; // this is only used if Background is based on a track (trackname!=null)
     private int organism=0; // Taxonomy ID
     private double[] snf=new double[]{0.25,0.25,0.25,0.25}; // single nucleotide frequencies
+    private transient double[][] logTransitionTables=null; // lookup tables derived from the model (see getLogTransitionTables()). These are cleared when the model is changed
     
     /**
      * Creates a default Markov Model of 0th order with equal base probabilities
@@ -262,13 +263,14 @@ public class BackgroundModel extends Data {
     
     public int getOrder() {return order;}
     
-    public void setOrder(int neworder) {this.order=neworder;}
+    public void setOrder(int neworder) {this.order=neworder;logTransitionTables=null;}
     
     public void setValue(double[] newSNF, double[] newOligoFrequencies, double[] newMatrix) {     
         this.snf=newSNF;
         this.oligoFrequencies=newOligoFrequencies;
         this.transitionMatrix=createTransitionMatrix(newMatrix);
         this.order=(int)(Math.log(transitionMatrix.size())/Math.log(4))-1;
+        this.logTransitionTables=null;
         predefined=null;
         notifyListenersOfDataUpdate();
     }
@@ -453,6 +455,51 @@ public class BackgroundModel extends Data {
         return result;
     }
     
+    /**
+     * Returns log-transformed transition probabilities for this model as a set of lookup tables
+     * indexed by integer-encoded oligos (see patternToInteger()). Table number j (for j=0 to order)
+     * contains the probabilities of observing the last base of a (j+1)-mer given the first j bases,
+     * so the last table is derived from the transition matrix and the first table corresponds to the SNF.
+     * The intermediate tables (used at the start of sequences or after unknown bases where the full prefix
+     * is not available) are derived from the oligo frequencies, or from the SNF if these are not available.
+     * The tables are shared and should not be modified.
+     * @return an array with order+1 tables, where table j has 4^(j+1) entries
+     * @throws ExecutionError if the transition matrix is missing values
+     */
+    public double[][] getLogTransitionTables() throws ExecutionError {
+        double[][] tables=logTransitionTables;
+        if (tables!=null && tables.length==order+1) return tables;
+        tables=new double[order+1][];
+        tables[0]=new double[]{Math.log(snf[0]),Math.log(snf[1]),Math.log(snf[2]),Math.log(snf[3])};
+        if (order==0) {logTransitionTables=tables; return tables;}
+        int size=1<<(2*(order+1));
+        double[] full=new double[size];
+        for (int i=0;i<size;i++) {
+            String oligo=integerToPattern(i, order+1);
+            Double prob=transitionMatrix.get(oligo); if (prob==null) throw new ExecutionError("Background model '"+name+"' is missing value for prefix="+oligo);
+            full[i]=Math.log(prob.doubleValue());
+        }
+        tables[order]=full;
+        boolean useOligos=(oligoFrequencies!=null && oligoFrequencies.length==(1<<(2*order)));
+        for (int j=1;j<order;j++) {
+            double[] table=new double[1<<(2*(j+1))];
+            if (useOligos) { // P(base|prefix)=f(prefix+base)/f(prefix) where the frequencies of shorter oligos are obtained by summing over the suffixes of the longer oligos
+                int shift=2*(order-(j+1));
+                for (int i=0;i<oligoFrequencies.length;i++) table[i>>shift]+=oligoFrequencies[i];
+                for (int prefix=0;prefix<(table.length>>2);prefix++) {
+                    int index=prefix<<2;
+                    double sum=table[index]+table[index+1]+table[index+2]+table[index+3];
+                    for (int b=0;b<4;b++) table[index+b]=(sum>0)?Math.log(table[index+b]/sum):tables[0][b];
+                }
+            } else {
+                for (int i=0;i<table.length;i++) table[i]=tables[0][i&3];
+            }
+            tables[j]=table;
+        }
+        logTransitionTables=tables;
+        return tables;
+    }
+
     /**
      * Returns the transitionMatrix for this model as a large string of comma-separated numbers
      * @return
@@ -552,6 +599,7 @@ public class BackgroundModel extends Data {
         this.snf=datasource.snf;
         this.oligoFrequencies=datasource.oligoFrequencies;
         this.transitionMatrix=datasource.transitionMatrix;
+        this.logTransitionTables=null;
         this.trackStrandRelative=datasource.trackStrandRelative;
         //notifyListenersOfDataUpdate(); 
     }
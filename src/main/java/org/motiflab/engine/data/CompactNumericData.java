@@ -0,0 +1,459 @@
+package org.motiflab.engine.data;
+
+import java.io.Serializable;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+
+/**
+ * This class stores the values of a NumericSequenceData object in a more compact form than
+ * a double[] array with one entry per position. Many numeric tracks are piecewise constant or
+ * mostly equal to a baseline value (e.g. counts and thresholded masks), and these can be stored
+ * much more efficiently with one of the following encodings:
+ * <ul>
+ * <li>RUN_LENGTH: runs of identical values are stored as (start,value) pairs</li>
+ * <li>SPARSE: only the positions that differ from a default value are stored, as (position,value) pairs</li>
+ * <li>FLOAT: the values are stored with single precision (4 bytes per position)</li>
+ * <li>QUANTIZED: the values are stored with one byte per position, which is decoded as offset+scale*code</li>
+ * </ul>
+ * The RUN_LENGTH and SPARSE encodings are always exact, while the FLOAT and QUANTIZED encodings are only exact
+ * if the values can be represented with the reduced precision. The AUTOMATIC mode selects the smallest encoding
+ * that is exact for the given values (if any of them are considerably smaller than the plain array).
+ * <br>
+ * The encoded values are never modified after construction, so objects of this class can be shared between clones
+ * (and read by several threads). Single values are decoded with getValue(), which remembers the most recently used run 
+ * (or entry) in a cursor so that sequential access is O(1) amortised rather than requiring a binary search for every position.
+ * The cursor is the only mutable state and is just a hint: it is read once into a local variable, always holds a valid index,
+ * and is checked against the (immutable) positions before it is used, falling back to a binary search if it does not fit.
+ * A stale or racy value written by another thread therefore only costs a binary search and never gives a wrong result.
+ *
+ * @author kjetikl
+ */
+public abstract class CompactNumericData implements Serializable {
+
+    /** Selects the smallest exact encoding for the values */
+    public static final int AUTOMATIC=0;
+    public static final int RUN_LENGTH=1;
+    public static final int SPARSE=2;
+    public static final int FLOAT=3;
+    public static final int QUANTIZED=4;
+
+    private static final int QUANTIZATION_LEVELS=256;
+
+    protected final int length;
+    private transient volatile SoftReference<double[]> decoded=null; // a decoded copy of the values used for bulk reads. This will be reclaimed by the garbage collector if memory is needed
+
+    CompactNumericData(int length) {
+        this.length=length;
+    }
+
+    /** Returns the number of positions */
+    public final int length() {
+        return length;
+    }
+
+    /** Returns the encoding used (RUN_LENGTH, SPARSE, FLOAT or QUANTIZED) */
+    public abstract int getMode();
+
+    /** Returns the value at the given position. The position must be within the bounds 0 to length()-1 */
+    public abstract double getValue(int position);
+
+    /** Decodes the values in the segment from start to end (exclusive) into the destination array */
+    public abstract void getValues(int start, int end, double[] destination, int destinationOffset);
+
+    /** Returns the (approximate) number of bytes occupied by the encoded values */
+    public abstract long getMemoryUsage();
+
+    /** Returns all the values decoded into a new array */
+    public double[] toArray() {
+        double[] values=new double[length];
+        getValues(0, length, values, 0);
+        return values;
+    }
+
+    /**
+     * Returns all the values decoded into an array which is cached (with a soft reference) and shared
+     * by all users of this object, so the returned array must not be modified
+     */
+    double[] getDecodedValues() {
+        SoftReference<double[]> reference=decoded;
+        double[] values=(reference!=null)?reference.get():null;
+        if (values==null) {
+            values=toArray();
+            decoded=new SoftReference<double[]>(values);
+        }
+        return values;
+    }
+
+    /** Returns a new object containing the segment from start to end (exclusive), using the same encoding as this object */
+    public CompactNumericData getSegment(int start, int end) {
+        if (start<0 || end>length || start>end) throw new IndexOutOfBoundsException("Segment ["+start+","+end+") is outside data of length "+length);
+        double[] values=new double[end-start];
+        getValues(start, end, values, 0);
+        return create(values, getMode());
+    }
+
+    /** Returns the name of the given encoding mode */
+    public static String getModeName(int mode) {
+        switch (mode) {
+            case AUTOMATIC: return "automatic";
+            case RUN_LENGTH: return "run-length";
+            case SPARSE: return "sparse";
+            case FLOAT: return "float";
+            case QUANTIZED: return "quantized";
+            default: return "unknown";
+        }
+    }
+
+    /**
+     * Encodes the given values with the selected mode. Note that the FLOAT and QUANTIZED modes
+     * will reduce the precision of values that can not be represented exactly
+     * @param values
+     * @param mode RUN_LENGTH, SPARSE, FLOAT, QUANTIZED or AUTOMATIC
+     * @return the encoded values, or null if the mode is AUTOMATIC and no encoding is considerably smaller than the plain array
+     */
+    public static CompactNumericData create(double[] values, int mode) {
+        if (mode==AUTOMATIC) return createCompact(values);
+        Statistics statistics=new Statistics(values);
+        switch (mode) {
+            case RUN_LENGTH: return new RunLengthData(values, statistics.runs);
+            case SPARSE: return new SparseData(values, statistics.longestRunValue, countDifferentValues(values, statistics.longestRunValue));
+            case FLOAT: return new FloatData(values);
+            case QUANTIZED:
+                if (statistics.isQuantizable()) return new QuantizedData(values, statistics.levels[0], statistics.getQuantizationScale());
+                double scale=(statistics.max>statistics.min)?(statistics.max-statistics.min)/(QUANTIZATION_LEVELS-1):1.0;
+                return new QuantizedData(values, (statistics.min<=statistics.max)?statistics.min:0, scale);
+            default: throw new IllegalArgumentException("Unknown encoding mode: "+mode);
+        }
+    }
+
+    /**
+     * Encodes the given values with the smallest encoding that can represent them exactly.
+     * @return the encoded values, or null if no encoding is at least a quarter smaller than the plain array
+     */
+    public static CompactNumericData createCompact(double[] values) {
+        Statistics statistics=new Statistics(values);
+        long best=values.length*6L; // 3/4 of the size of the plain array
+        int mode=-1;
+        if (statistics.runs*12L<best) {
+            best=statistics.runs*12L;
+            mode=RUN_LENGTH;
+        }
+        int different=countDifferentValues(values, statistics.longestRunValue);
+        if (different*12L<best) {
+            best=different*12L;
+            mode=SPARSE;
+        }
+        if (statistics.isQuantizable() && values.length<best) {
+            best=values.length;
+            mode=QUANTIZED;
+        }
+        if (statistics.floatExact && values.length*4L<best) {
+            best=values.length*4L;
+            mode=FLOAT;
+        }
+        switch (mode) {
+            case RUN_LENGTH: return new RunLengthData(values, statistics.runs);
+            case SPARSE: return new SparseData(values, statistics.longestRunValue, different);
+            case QUANTIZED: return new QuantizedData(values, statistics.levels[0], statistics.getQuantizationScale());
+            case FLOAT: return new FloatData(values);
+            default: return null;
+        }
+    }
+
+    /** Returns TRUE if the two values are identical (this also considers NaN values to be identical) */
+    private static boolean same(double a, double b) {
+        return Double.doubleToLongBits(a)==Double.doubleToLongBits(b);
+    }
+
+    private static int countDifferentValues(double[] values, double value) {
+        int count=0;
+        for (int i=0;i<values.length;i++) {
+            if (!same(values[i], value)) count++;
+        }
+        return count;
+    }
+
+    /** Properties of the values that are used to select and set up the encodings. These are determined with a single pass over the values */
+    private static final class Statistics {
+        int runs=0;
+        double longestRunValue=0;
+        boolean floatExact=true;
+        double min=Double.POSITIVE_INFINITY, max=Double.NEGATIVE_INFINITY; // of the finite values
+        double[] levels=new double[QUANTIZATION_LEVELS]; // the distinct values in sorted order (only if there are no more than 256 of them)
+        int numberOfLevels=0;
+        boolean withinLevels=true;
+
+        Statistics(double[] values) {
+            int runLength=0, longestRun=0;
+            for (int i=0;i<values.length;i++) {
+                double value=values[i];
+                if (i>0 && same(value, values[i-1])) {
+                    runLength++;
+                    continue;
+                }
+                if (runLength>longestRun) {
+                    longestRun=runLength;
+                    longestRunValue=values[i-1];
+                }
+                runs++;
+                runLength=1;
+                if (floatExact && (double)(float)value!=value && !Double.isNaN(value)) floatExact=false;
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    withinLevels=false;
+                    continue;
+                }
+                if (value<min) min=value;
+                if (value>max) max=value;
+                if (withinLevels) {
+                    int index=Arrays.binarySearch(levels, 0, numberOfLevels, value);
+                    if (index>=0) continue;
+                    if (numberOfLevels==QUANTIZATION_LEVELS) {withinLevels=false;continue;}
+                    index=-index-1;
+                    System.arraycopy(levels, index, levels, index+1, numberOfLevels-index);
+                    levels[index]=value;
+                    numberOfLevels++;
+                }
+            }
+            if (runLength>longestRun) longestRunValue=values[values.length-1];
+        }
+
+        /** Returns the smallest difference between two distinct values, which is used as the scale for exact quantization */
+        double getQuantizationScale() {
+            double scale=Double.POSITIVE_INFINITY;
+            for (int i=1;i<numberOfLevels;i++) {
+                double difference=levels[i]-levels[i-1];
+                if (difference<scale) scale=difference;
+            }
+            return (numberOfLevels>1)?scale:1.0;
+        }
+
+        /** Returns TRUE if all the values can be represented exactly as offset+scale*code (with codes from 0 to 255) */
+        boolean isQuantizable() {
+            if (!withinLevels || numberOfLevels==0) return false;
+            double offset=levels[0];
+            double scale=getQuantizationScale();
+            if (!(scale>0) || Double.isInfinite(scale)) return false;
+            for (int i=0;i<numberOfLevels;i++) {
+                double code=Math.rint((levels[i]-offset)/scale);
+                if (code<0 || code>=QUANTIZATION_LEVELS || !same(offset+scale*code, levels[i])) return false;
+            }
+            return true;
+        }
+    }
+
+    /** Runs of identical values stored as the start position and value of each run */
+    private static final class RunLengthData extends CompactNumericData {
+        private final int[] starts;
+        private final double[] values;
+        private transient int cursor=0; // the most recently used run (only a hint, see class documentation)
+
+        RunLengthData(double[] data, int runs) {
+            super(data.length);
+            starts=new int[runs];
+            values=new double[runs];
+            int run=-1;
+            for (int i=0;i<data.length;i++) {
+                if (run<0 || !same(data[i], values[run])) {
+                    run++;
+                    starts[run]=i;
+                    values[run]=data[i];
+                }
+            }
+        }
+
+        @Override
+        public int getMode() {
+            return RUN_LENGTH;
+        }
+
+        @Override
+        public double getValue(int position) {
+            int run=cursor;
+            if (run+1<starts.length && starts[run+1]<=position) run++; // sequential access will usually continue in the next run
+            if (starts[run]>position || (run+1<starts.length && starts[run+1]<=position)) {
+                run=Arrays.binarySearch(starts, position);
+                if (run<0) run=-run-2;
+            }
+            cursor=run;
+            return values[run];
+        }
+
+        @Override
+        public void getValues(int start, int end, double[] destination, int destinationOffset) {
+            if (start>=end) return;
+            int run=Arrays.binarySearch(starts, start);
+            if (run<0) run=-run-2;
+            int position=start;
+            while (position<end) {
+                int runEnd=(run+1<starts.length)?Math.min(starts[run+1], end):end;
+                Arrays.fill(destination, destinationOffset+position-start, destinationOffset+runEnd-start, values[run]);
+                position=runEnd;
+                run++;
+            }
+        }
+
+        @Override
+        public long getMemoryUsage() {
+            return starts.length*12L;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Values that differ from a default value, stored as the position and value of each of these */
+    private static final class SparseData extends CompactNumericData {
+        private final double defaultValue;
+        private final int[] positions;
+        private final double[] values;
+        private transient int cursor=0; // the first entry at or after the most recently used position (only a hint, see class documentation)
+
+        SparseData(double[] data, double defaultValue, int count) {
+            super(data.length);
+            this.defaultValue=defaultValue;
+            positions=new int[count];
+            values=new double[count];
+            int entry=0;
+            for (int i=0;i<data.length;i++) {
+                if (!same(data[i], defaultValue)) {
+                    positions[entry]=i;
+                    values[entry]=data[i];
+                    entry++;
+                }
+            }
+        }
+
+        @Override
+        public int getMode() {
+            return SPARSE;
+        }
+
+        @Override
+        public double getValue(int position) {
+            int entry=cursor;
+            if (entry<positions.length && positions[entry]<position) entry++; // sequential access will usually continue with the next entry
+            if ((entry<positions.length && positions[entry]<position) || (entry>0 && positions[entry-1]>=position)) {
+                entry=Arrays.binarySearch(positions, position);
+                if (entry<0) entry=-entry-1;
+            }
+            cursor=entry;
+            return (entry<positions.length && positions[entry]==position)?values[entry]:defaultValue;
+        }
+
+        @Override
+        public void getValues(int start, int end, double[] destination, int destinationOffset) {
+            if (start>=end) return;
+            Arrays.fill(destination, destinationOffset, destinationOffset+end-start, defaultValue);
+            int entry=Arrays.binarySearch(positions, start);
+            if (entry<0) entry=-entry-1;
+            for (;entry<positions.length && positions[entry]<end;entry++) destination[destinationOffset+positions[entry]-start]=values[entry];
+        }
+
+        @Override
+        public long getMemoryUsage() {
+            return positions.length*12L;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Values stored with single precision */
+    private static final class FloatData extends CompactNumericData {
+        private final float[] values;
+
+        FloatData(double[] data) {
+            super(data.length);
+            values=new float[data.length];
+            for (int i=0;i<data.length;i++) values[i]=(float)data[i];
+        }
+
+        private FloatData(float[] values) {
+            super(values.length);
+            this.values=values;
+        }
+
+        @Override
+        public CompactNumericData getSegment(int start, int end) {
+            if (start<0 || end>length || start>end) throw new IndexOutOfBoundsException("Segment ["+start+","+end+") is outside data of length "+length);
+            return new FloatData(Arrays.copyOfRange(values, start, end));
+        }
+
+        @Override
+        public int getMode() {
+            return FLOAT;
+        }
+
+        @Override
+        public double getValue(int position) {
+            return values[position];
+        }
+
+        @Override
+        public void getValues(int start, int end, double[] destination, int destinationOffset) {
+            for (int i=start;i<end;i++) destination[destinationOffset+i-start]=values[i];
+        }
+
+        @Override
+        public long getMemoryUsage() {
+            return values.length*4L;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Values stored as one byte per position (with the value given by offset+scale*code) */
+    private static final class QuantizedData extends CompactNumericData {
+        private final double offset;
+        private final double scale;
+        private final byte[] codes;
+
+        QuantizedData(double[] data, double offset, double scale) {
+            super(data.length);
+            this.offset=offset;
+            this.scale=scale;
+            codes=new byte[data.length];
+            for (int i=0;i<data.length;i++) {
+                double code=Math.rint((data[i]-offset)/scale);
+                if (code<0 || Double.isNaN(code)) code=0;
+                else if (code>=QUANTIZATION_LEVELS) code=QUANTIZATION_LEVELS-1;
+                codes[i]=(byte)code;
+            }
+        }
+
+        private QuantizedData(byte[] codes, double offset, double scale) {
+            super(codes.length);
+            this.offset=offset;
+            this.scale=scale;
+            this.codes=codes;
+        }
+
+        @Override
+        public CompactNumericData getSegment(int start, int end) { // the codes are copied directly so that lossy values are not quantized again
+            if (start<0 || end>length || start>end) throw new IndexOutOfBoundsException("Segment ["+start+","+end+") is outside data of length "+length);
+            return new QuantizedData(Arrays.copyOfRange(codes, start, end), offset, scale);
+        }
+
+        @Override
+        public int getMode() {
+            return QUANTIZED;
+        }
+
+        @Override
+        public double getValue(int position) {
+            return offset+scale*(codes[position]&0xFF);
+        }
+
+        @Override
+        public void getValues(int start, int end, double[] destination, int destinationOffset) {
+            for (int i=start;i<end;i++) destination[destinationOffset+i-start]=offset+scale*(codes[i]&0xFF);
+        }
+
+        @Override
+        public long getMemoryUsage() {
+            return codes.length;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final long serialVersionUID = 1L;
+}
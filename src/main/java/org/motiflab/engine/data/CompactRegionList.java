@@ -0,0 +1,256 @@
+package org.motiflab.engine.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A CompactRegionList holds a list of simple regions (such as motif sites) in a columnar
+ * format where the location, orientation and score of each region is stored in primitive arrays,
+ * the type is stored as an index into a table of type names, and a fixed set of numeric properties
+ * can be stored in parallel columns. This requires far less memory than individual Region objects
+ * and is used by RegionSequenceData to hold the results of motif scans until Region objects are needed.
+ * Values that have not been set for a numeric property are stored as NaN.
+ *
+ * @author kjetikl
+ */
+public class CompactRegionList implements Cloneable {
+    private static final int INITIAL_CAPACITY=16;
+
+    private final String[] propertyNames;
+    private ArrayList<String> types=new ArrayList<String>();
+    private HashMap<String,Integer> typeIndex=new HashMap<String,Integer>();
+    private int size=0;
+    private int[] start;
+    private int[] end;
+    private int[] type;
+    private byte[] orientation;
+    private double[] score;
+    private double[][] properties;
+
+    /**
+     * Creates a new empty list
+     * @param propertyNames The names of numeric properties (in addition to score) that should be stored for each region
+     */
+    public CompactRegionList(String... propertyNames) {
+        this.propertyNames=(propertyNames!=null)?propertyNames:new String[0];
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        start=new int[capacity];
+        end=new int[capacity];
+        type=new int[capacity];
+        orientation=new byte[capacity];
+        score=new double[capacity];
+        properties=new double[propertyNames.length][capacity];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity<=start.length) return;
+        int newcapacity=Math.max(capacity, start.length+(start.length>>1)+1);
+        start=Arrays.copyOf(start, newcapacity);
+        end=Arrays.copyOf(end, newcapacity);
+        type=Arrays.copyOf(type, newcapacity);
+        orientation=Arrays.copyOf(orientation, newcapacity);
+        score=Arrays.copyOf(score, newcapacity);
+        for (int p=0;p<properties.length;p++) properties[p]=Arrays.copyOf(properties[p], newcapacity);
+    }
+
+    /** Releases unused capacity */
+    public void trimToSize() {
+        if (start.length==size) return;
+        start=Arrays.copyOf(start, size);
+        end=Arrays.copyOf(end, size);
+        type=Arrays.copyOf(type, size);
+        orientation=Arrays.copyOf(orientation, size);
+        score=Arrays.copyOf(score, size);
+        for (int p=0;p<properties.length;p++) properties[p]=Arrays.copyOf(properties[p], size);
+    }
+
+    /** Returns the index of the given type name in the type table (adding the type if it is new) */
+    private int getTypeIndex(String typename) {
+        Integer index=typeIndex.get(typename);
+        if (index==null) {
+            index=types.size();
+            types.add(typename);
+            typeIndex.put(typename, index);
+        }
+        return index;
+    }
+
+    /**
+     * Adds a new region to the end of the list
+     * @param start The start of the region (relative to the parent sequence)
+     * @param end The end of the region (relative to the parent sequence)
+     * @param type The type of the region
+     * @param score The score of the region
+     * @param orientation The orientation of the region (Region.DIRECT, Region.REVERSE or Region.INDETERMINED)
+     * @return The index of the new region
+     */
+    public int add(int start, int end, String type, double score, int orientation) {
+        if (start>end) {int swap=start;start=end;end=swap;}
+        ensureCapacity(size+1);
+        this.start[size]=start;
+        this.end[size]=end;
+        this.type[size]=getTypeIndex(type);
+        this.orientation[size]=(byte)orientation;
+        this.score[size]=score;
+        for (int p=0;p<properties.length;p++) properties[p][size]=Double.NaN;
+        return size++;
+    }
+
+    /**
+     * Adds all the regions in the other list to the end of this list.
+     * The other list must store the same numeric properties as this list
+     */
+    public void addAll(CompactRegionList other) {
+        if (!hasSameProperties(other)) throw new IllegalArgumentException("The lists do not have the same properties");
+        ensureCapacity(size+other.size);
+        int[] typemap=new int[other.types.size()];
+        for (int t=0;t<typemap.length;t++) typemap[t]=getTypeIndex(other.types.get(t));
+        System.arraycopy(other.start, 0, start, size, other.size);
+        System.arraycopy(other.end, 0, end, size, other.size);
+        System.arraycopy(other.orientation, 0, orientation, size, other.size);
+        System.arraycopy(other.score, 0, score, size, other.size);
+        for (int p=0;p<properties.length;p++) System.arraycopy(other.properties[p], 0, properties[p], size, other.size);
+        for (int i=0;i<other.size;i++) type[size+i]=typemap[other.type[i]];
+        size+=other.size;
+    }
+
+    /** Returns TRUE if the other list stores the same numeric properties as this list (so that they can be combined with addAll) */
+    public boolean hasSameProperties(CompactRegionList other) {
+        return Arrays.equals(propertyNames, other.propertyNames);
+    }
+
+    /** Sets the value of a numeric property for the region with the given index */
+    public void setProperty(int index, int column, double value) {
+        properties[column][index]=value;
+    }
+
+    /** Returns the column used for the given numeric property, or -1 if the property is not stored in this list */
+    public int getPropertyColumn(String property) {
+        for (int p=0;p<propertyNames.length;p++) {
+            if (propertyNames[p].equals(property)) return p;
+        }
+        return -1;
+    }
+
+    /** Returns the number of regions in the list */
+    public int size() {
+        return size;
+    }
+
+    public int getStart(int index) {
+        return start[index];
+    }
+
+    public int getEnd(int index) {
+        return end[index];
+    }
+
+    public String getType(int index) {
+        return types.get(type[index]);
+    }
+
+    public double getScore(int index) {
+        return score[index];
+    }
+
+    public int getOrientation(int index) {
+        return orientation[index];
+    }
+
+    /** Returns the value of the numeric property in the given column for the region with the given index (NaN if the value is not set) */
+    public double getProperty(int index, int column) {
+        return properties[column][index];
+    }
+
+    /** Returns the names of all the different region types in the list */
+    public ArrayList<String> getTypes() {
+        return new ArrayList<String>(types);
+    }
+
+    /**
+     * Creates a new Region object with the same properties as the region with the given index
+     * @param index
+     * @param parent The parent of the new Region
+     */
+    public Region createRegion(int index, RegionSequenceData parent) {
+        Region region=new Region(parent, start[index], end[index], types.get(type[index]), score[index], orientation[index]);
+        for (int p=0;p<properties.length;p++) {
+            double value=properties[p][index];
+            if (!Double.isNaN(value)) region.setProperty(propertyNames[p], value);
+        }
+        return region;
+    }
+
+    /**
+     * Sorts the regions by increasing start position. Regions that start at the same position
+     * are sorted by increasing length, and regions with the same start and length keep their relative order.
+     * This is the same order as used by RegionSequenceData
+     * @param companion If not NULL, the elements of this array are rearranged in the same way as the regions
+     */
+    public void sort(Object[] companion) {
+        boolean sorted=true;
+        for (int i=1;i<size;i++) {
+            if (compare(i-1,i)>0) {sorted=false;break;}
+        }
+        if (sorted) return;
+        int[] order=new int[size];
+        for (int i=0;i<size;i++) order[i]=i;
+        int[] buffer=new int[size];
+        for (int width=1;width<size;width*=2) { // bottom-up merge sort, which is stable
+            for (int low=0;low<size-width;low+=2*width) {
+                int mid=low+width;
+                int high=Math.min(low+2*width, size);
+                int i=low, j=mid, k=low;
+                while (i<mid && j<high) buffer[k++]=(compare(order[j],order[i])<0)?order[j++]:order[i++];
+                while (i<mid) buffer[k++]=order[i++];
+                while (j<high) buffer[k++]=order[j++];
+                System.arraycopy(buffer, low, order, low, high-low);
+            }
+        }
+        start=permute(start, order);
+        end=permute(end, order);
+        type=permute(type, order);
+        score=permute(score, order);
+        for (int p=0;p<properties.length;p++) properties[p]=permute(properties[p], order);
+        byte[] neworientation=new byte[orientation.length];
+        for (int i=0;i<size;i++) neworientation[i]=orientation[order[i]];
+        orientation=neworientation;
+        if (companion!=null) {
+            Object[] copy=Arrays.copyOf(companion, size);
+            for (int i=0;i<size;i++) companion[i]=copy[order[i]];
+        }
+    }
+
+    private int compare(int a, int b) {
+        if (start[a]!=start[b]) return (start[a]<start[b])?-1:1;
+        int lengthA=end[a]-start[a];
+        int lengthB=end[b]-start[b];
+        return (lengthA<lengthB)?-1:((lengthA==lengthB)?0:1);
+    }
+
+    private int[] permute(int[] values, int[] order) {
+        int[] result=new int[values.length];
+        for (int i=0;i<size;i++) result[i]=values[order[i]];
+        return result;
+    }
+
+    private double[] permute(double[] values, int[] order) {
+        double[] result=new double[values.length];
+        for (int i=0;i<size;i++) result[i]=values[order[i]];
+        return result;
+    }
+
+    /** Returns a deep copy of this list */
+    @Override
+    public CompactRegionList clone() {
+        CompactRegionList copy=new CompactRegionList(propertyNames);
+        copy.addAll(this);
+        copy.trimToSize();
+        return copy;
+    }
+
+}
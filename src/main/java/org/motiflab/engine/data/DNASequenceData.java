@@ -5,18 +5,25 @@
 
 package org.motiflab.engine.data;
 
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import org.motiflab.engine.ExecutionError;
 import org.motiflab.engine.MotifLabEngine;
 import org.motiflab.engine.util.CodonUsage;
 
 /**
- * This class contains DNA data for a single sequence from a specific region in a genome
+ * This class contains DNA data for a single sequence from a specific region in a genome.
+ * Unpacked sequence buffers can be paged out to disk when the sequence is registered with a SequenceDataPager,
+ * so the buffer should be accessed through buffer() (for reading) or after calling ensureOwnData() (for writing)
  * 
  * @author kjetikl
  */
 public class DNASequenceData extends FeatureSequenceData {
     private char[] sequencedata; // the DNA sequence it self. The data should come from the direct strand so that sequencedata[0] corresponds to the smaller genomic coordinate
+    private PackedDNASequence packedsequence=null; // the DNA sequence in packed form (2 bits per base). If this is set, the sequencedata buffer will be null
+    private transient volatile boolean dataShared=false; // TRUE if the sequence buffer (or packed sequence) could be shared with a clone (or the original). It must then be copied before it is modified
     private static String typedescription = "DNA sequence data";
     
     // the transient fields below are only used when sequence data is read from file (in FASTA format or similar).
@@ -118,8 +125,90 @@ public class DNASequenceData extends FeatureSequenceData {
          }
     }
 
+    /**
+     * Returns the DNA sequence as a char[] buffer. Note that if the sequence is packed,
+     * the returned buffer will be a decoded copy and changes to it will not affect this sequence.
+     * If the buffer is shared with a clone, a private copy is made first since the caller can modify it
+     */
     @Override
-    public Object getValue() {return sequencedata;}
+    public Object getValue() {
+        if (packedsequence!=null) return packedsequence.toCharArray();
+        ensureOwnData();
+        return sequencedata;
+    }
+
+    /** Returns the unpacked sequence buffer, reading it back from disk first if it has been paged out (or null if the sequence is packed) */
+    private char[] buffer() {
+        char[] buffer=sequencedata;
+        if (buffer==null && packedsequence==null) buffer=(char[])pageIn();
+        if (!accessed) accessed=true;
+        return buffer;
+    }
+
+    /** 
+     * Makes sure that the sequence buffer (or packed sequence) is in memory and not shared 
+     * with other sequences (or paged out to disk) before it is modified 
+     */
+    private void ensureOwnData() {
+        prepareForUpdate();
+        if (dataShared) copySharedData();
+    }
+
+    private synchronized void copySharedData() {
+        if (!dataShared) return; // another thread has already made the copy
+        if (packedsequence!=null) packedsequence=packedsequence.clone();
+        else if (sequencedata!=null) sequencedata=sequencedata.clone();
+        dataShared=false;
+    }
+
+    /** Returns TRUE if the sequence is stored in packed form (2 bits per base) */
+    public boolean isPacked() {
+        return packedsequence!=null;
+    }
+
+    /**
+     * Returns the packed representation of the sequence, which gives direct access to the
+     * 2-bit encoded bases 32 at a time, or null if the sequence is not packed
+     */
+    public PackedDNASequence getPackedSequence() {
+        return packedsequence;
+    }
+
+    /**
+     * Converts the sequence to packed form with 2 bits per base.
+     * Lowercase (masked) bases and other letters than A,C,G and T are kept in separate run tables,
+     * so the packed sequence will decode to exactly the same letters as before
+     */
+    public void pack() {
+        prepareForUpdate(); // this must be called without holding the lock on this object
+        synchronized(this) {
+            if (packedsequence!=null || sequencedata==null) return;
+            packedsequence=new PackedDNASequence(sequencedata);
+            sequencedata=null;
+            dataShared=false;
+        }
+    }
+
+    /** Converts a packed sequence back to a plain char[] buffer (with 2 bytes per base) */
+    public synchronized void unpack() {
+        if (packedsequence==null) return;
+        sequencedata=packedsequence.toCharArray();
+        packedsequence=null;
+        dataShared=false;
+    }
+
+    /** Returns the number of bases in the sequence buffer (or 0 if the buffer has not been set) */
+    private int getBufferSize() {
+        if (packedsequence!=null) return packedsequence.length();
+        char[] buffer=buffer();
+        return (buffer==null)?0:buffer.length;
+    }
+
+    /** Returns the base at the given position relative to the start of the sequence (no bounds checking) */
+    private char getBase(int position) {
+        if (packedsequence!=null) return packedsequence.charAt(position);
+        return buffer()[position];
+    }
     
     
      @Override
@@ -130,9 +219,8 @@ public class DNASequenceData extends FeatureSequenceData {
         int length=end-start+1;
         int relativeStart=getRelativePositionFromGenomic(start);
         char[] subset=new char[length];
-        for (int i=0;i<length;i++) {
-            subset[i]=sequencedata[relativeStart+i];
-        }
+        if (packedsequence!=null) packedsequence.getChars(relativeStart, relativeStart+length, subset, 0);
+        else System.arraycopy(buffer(), relativeStart, subset, 0, length);
         return subset;
     }
     
@@ -142,12 +230,14 @@ public class DNASequenceData extends FeatureSequenceData {
      *  so the returned interval could be shorter than the interval requested!
      */
     public Object getValueInInterval(int start, int end) {
-        if (end<0 || start>=sequencedata.length || end<start) return null;
+        int size=getBufferSize();
+        if (end<0 || start>=size || end<start) return null;
         if (start<0) start=0;
-        if (end>=sequencedata.length) end=sequencedata.length-1;
+        if (end>=size) end=size-1;
         int length=end-start+1;
         char[] subset=new char[length];
-        System.arraycopy(sequencedata, start, subset, 0, length);
+        if (packedsequence!=null) packedsequence.getChars(start, end+1, subset, 0);
+        else System.arraycopy(buffer(), start, subset, 0, length);
         return subset;
     }    
     
@@ -159,7 +249,7 @@ public class DNASequenceData extends FeatureSequenceData {
         int start=getRegionStart();
         if (pos<start || pos>getRegionEnd()-length+1) return false;
         for (int i=0;i<length;i++) {
-            if (Character.toUpperCase(sequencedata[pos-start+i])!=oligo.charAt(i)) return false;
+            if (Character.toUpperCase(getBase(pos-start+i))!=oligo.charAt(i)) return false;
         }
         return true;
     }
@@ -176,8 +266,8 @@ public class DNASequenceData extends FeatureSequenceData {
      */
     @Override
     public Character getValueAtRelativePosition(int position) {
-        if (position<0 || position>=sequencedata.length) return null;
-        else return new Character(sequencedata[position]);
+        if (position<0 || position>=getBufferSize()) return null;
+        else return new Character(getBase(position));
     }
 
    /**
@@ -192,7 +282,7 @@ public class DNASequenceData extends FeatureSequenceData {
     public Character getValueAtGenomicPosition(String chromosome, int position) {
         if (!chromosome.equalsIgnoreCase(this.chromosome)) return null;
         if (position<this.startPosition || position>this.endPosition) return null;
-        return new Character(sequencedata[position-this.startPosition]);
+        return new Character(getBase(position-this.startPosition));
     }
 
    /**
@@ -205,11 +295,13 @@ public class DNASequenceData extends FeatureSequenceData {
     @Override
     public Character getValueAtGenomicPosition(int position) {
         if (position<this.startPosition || position>this.endPosition) return null;
-        return new Character(sequencedata[position-this.startPosition]);
+        return new Character(getBase(position-this.startPosition));
     }
 
    /**
      * Sets the DNA base at the specified genomic position.
+     * If the sequence is packed and the new base can not be stored without changing
+     * the run tables (e.g. if an N or lowercase base is introduced), the sequence will be unpacked
      * 
      * @param position The genomic position
      * @param base The new base
@@ -217,19 +309,25 @@ public class DNASequenceData extends FeatureSequenceData {
      */       
     public boolean setValueAtGenomicPosition(int position, char base) {
         if (position<this.startPosition || position>this.endPosition) return false;
-        sequencedata[position-this.startPosition]=base;
-        return true;
+        return setValueAtRelativePosition(position-this.startPosition, base);
     }
     
    /**
      * Sets the DNA base at the specified position relative to the start of the sequence.
+     * If the sequence is packed and the new base can not be stored without changing
+     * the run tables, the sequence will be unpacked
      * 
      * @param position The relative position
      * @param base The new base 
      * @return false if position is outside sequence bounds else true
      */       
     public boolean setValueAtRelativePosition(int position, char base) {
-        if (position<0 || position>=sequencedata.length) return false;
+        if (position<0 || position>=getBufferSize()) return false;
+        ensureOwnData();
+        if (packedsequence!=null) {
+            if (packedsequence.setBase(position, base)) return true;
+            unpack();
+        }
         sequencedata[position]=base;
         return true;
     }
@@ -241,7 +339,8 @@ public class DNASequenceData extends FeatureSequenceData {
      * @return the whole sequence  as a string
      */       
     public String getSequenceAsString() {
-        return new String(sequencedata);
+        if (packedsequence!=null) return packedsequence.toString();
+        return new String(buffer());
     }
 
     /**
@@ -252,17 +351,24 @@ public class DNASequenceData extends FeatureSequenceData {
         if (sequence!=null) {
             if (sequence.length!=getSize()) throw new ExecutionError("New sequence buffer size ("+sequence.length+" bp) does not match current sequence length ("+getSize()+" bp)");
         }
+        prepareForUpdate();
         this.sequencedata=sequence;
+        this.packedsequence=null;
+        this.dataShared=false;
     }
     
      /**
-     * Returns a deep copy of this DNASequenceData object
+     * Returns a copy of this DNASequenceData object.
+     * The copy initially shares the sequence buffer (or packed sequence) with this object,
+     * and the buffer is copied by whichever of the two objects is modified first (copy-on-write)
      */
     @Override
     public DNASequenceData clone() {
-        char[] newvalues=new char[sequencedata.length];
-        System.arraycopy(sequencedata, 0, newvalues, 0, sequencedata.length);
-        DNASequenceData newdata=new DNASequenceData(sequenceName, chromosome, startPosition, endPosition, newvalues);
+        PackedDNASequence packed=packedsequence;
+        DNASequenceData newdata=new DNASequenceData(sequenceName, chromosome, startPosition, endPosition, (packed!=null)?null:buffer());
+        newdata.packedsequence=packed;
+        newdata.dataShared=true;
+        this.dataShared=true;
         newdata.parent=this.parent;
         return newdata;
     }      
@@ -270,7 +376,12 @@ public class DNASequenceData extends FeatureSequenceData {
     @Override
     public void importData(Data source) throws ClassCastException {
         super.importData(source);
-        this.sequencedata=((DNASequenceData)source).sequencedata;
+        prepareForUpdate();
+        PackedDNASequence packed=((DNASequenceData)source).packedsequence;
+        this.sequencedata=(packed!=null)?null:((DNASequenceData)source).buffer();
+        this.packedsequence=packed;
+        this.dataShared=true; // the buffer is shared with the source
+        ((DNASequenceData)source).dataShared=true;
         //notifyListenersOfDataUpdate(); 
     }
 
@@ -331,16 +442,25 @@ public class DNASequenceData extends FeatureSequenceData {
     public boolean containsSameData(Data other) {
         if (other==null || !(other instanceof DNASequenceData)) return false;
         if (!super.containsSameData(other)) return false;
-        return (Arrays.equals(this.sequencedata,((DNASequenceData)other).sequencedata));
+        DNASequenceData otherdata=(DNASequenceData)other;
+        if (this.packedsequence!=null && otherdata.packedsequence!=null) return this.packedsequence.equals(otherdata.packedsequence);
+        if (this.packedsequence==null && otherdata.packedsequence==null) return (Arrays.equals(this.buffer(),otherdata.buffer()));
+        return Arrays.equals((char[])this.getValue(),(char[])otherdata.getValue());
     }
 
     @Override  
     public void cropTo(int relativeStart, int relativeEnd) throws ExecutionError {
+        prepareForUpdate();
         int oldstart=getRegionStart();
-        if (relativeStart<0 || relativeStart>=sequencedata.length || relativeEnd<0 || relativeEnd>=sequencedata.length || relativeEnd<relativeStart) throw new ExecutionError("Crop out of bounds");
-        if (relativeStart==0 && relativeEnd==sequencedata.length-1) return;
-        char[] newsequencedata=Arrays.copyOfRange(sequencedata, relativeStart, relativeEnd+1);
-        sequencedata=newsequencedata;        
+        int size=getBufferSize();
+        if (relativeStart<0 || relativeStart>=size || relativeEnd<0 || relativeEnd>=size || relativeEnd<relativeStart) throw new ExecutionError("Crop out of bounds");
+        if (relativeStart==0 && relativeEnd==size-1) return;
+        if (packedsequence!=null) packedsequence=packedsequence.getSegment(relativeStart, relativeEnd+1);
+        else {
+            char[] newsequencedata=Arrays.copyOfRange(sequencedata, relativeStart, relativeEnd+1);
+            sequencedata=newsequencedata;
+        }        
+        dataShared=false;
         setRegionStart(oldstart+relativeStart);         
         setRegionEnd(oldstart+relativeEnd);    
     }  
@@ -366,11 +486,11 @@ public class DNASequenceData extends FeatureSequenceData {
          else if (frame.endsWith("2")) offset=2;
          else throw new ExecutionError("Unknown reading frame: "+frame);
          
-         int seqlength=sequencedata.length-offset; // only complete triplets starting from offset
+         int seqlength=getBufferSize()-offset; // only complete triplets starting from offset
          seqlength=seqlength-seqlength%3; // remove incomplete triplet at the end
          for (int i=0;i<seqlength;i+=3) {
             int start=i+offset;
-            String codon=""+sequencedata[start]+sequencedata[start+1]+sequencedata[start+2];
+            String codon=""+getBase(start)+getBase(start+1)+getBase(start+2);
             if (!direct) codon=MotifLabEngine.reverseSequence(codon);
             String aminoAcid=CodonUsage.getAminoAcidForCodon(codon);
             if (aminoAcid!=null) {
@@ -386,24 +506,56 @@ public class DNASequenceData extends FeatureSequenceData {
     /** Outputs information about this dataset into the buffer */
     public StringBuilder debug(StringBuilder builder) {
         if (builder==null) builder=new StringBuilder();
-        builder.append(" - "+getName()+" : "+getRegionAsString()+", size="+getSize()+", buffersize="+((sequencedata==null)?0:sequencedata.length)+",   ["+System.identityHashCode(this)+"] buffer="+System.identityHashCode(sequencedata));
+        builder.append(" - "+getName()+" : "+getRegionAsString()+", size="+getSize()+", buffersize="+getBufferSize()+((packedsequence!=null)?" (packed)":"")+((sequencedata==null && packedsequence==null && getPager()!=null)?" (paged out)":"")+",   ["+System.identityHashCode(this)+"] buffer="+System.identityHashCode((packedsequence!=null)?packedsequence:sequencedata));
         return builder;
     }    
     
+    // ------------ Paging ---------
+    // Only unpacked sequence buffers are paged out, since packed sequences are already compact
+
+    @Override
+    long getPageablePayloadSize() {
+        return (packedsequence!=null)?0:(long)getSize()*2;
+    }
+
+    @Override
+    Object getResidentPayload() {
+        return (packedsequence!=null)?packedsequence:sequencedata;
+    }
+
+    @Override
+    void writePayload(FileChannel channel) throws IOException {
+        channel.map(FileChannel.MapMode.READ_WRITE, 0, (long)sequencedata.length*2).asCharBuffer().put(sequencedata);
+    }
+
+    @Override
+    void readPayload(FileChannel channel) throws IOException {
+        CharBuffer buffer=channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asCharBuffer();
+        char[] data=new char[buffer.remaining()];
+        buffer.get(data);
+        sequencedata=data;
+    }
+
+    @Override
+    void discardPayload() {
+        if (packedsequence==null) sequencedata=null;
+    }
+    
     // ------------ Serialization ---------
     private static final long serialVersionUID = 1L;
 
-    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
-         short currentinternalversion=1; // this is an internal version number for serialization of objects of this type
+    private synchronized void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+         short currentinternalversion=(packedsequence!=null)?(short)2:(short)1; // this is an internal version number for serialization of objects of this type. Version 2 (packed sequences) can not be read by older versions
          out.writeShort(currentinternalversion);
+         loadPayloadForSerialization();
          out.defaultWriteObject();
     }
 
     private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
          short currentinternalversion=in.readShort(); // the internalversion number is used to determine correct format of data
-         if (currentinternalversion==1) {
+         if (currentinternalversion==1 || currentinternalversion==2) {
              in.defaultReadObject();
-         } else if (currentinternalversion>1) throw new ClassNotFoundException("Newer version");
+         } else if (currentinternalversion>2) throw new ClassNotFoundException("Newer version");
     }
 
 }
@@ -43,6 +43,7 @@ public class DNASequenceDataset extends FeatureDataset {
             if (seq==null) throw new ConcurrentModificationException("Sequence was deleted before the dataset could be cloned"); // not sure what else to do
             newdataset.addSequence((DNASequenceData)seq.clone());
         }
+        newdataset.shareNameIndex(this);
         return newdataset;
     }  
     
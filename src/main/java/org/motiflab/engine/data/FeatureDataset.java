@@ -22,6 +22,9 @@ public abstract class FeatureDataset extends Data {
     protected boolean isderived=false;
     protected String dataSourceName="unknown_source";
     
+    private transient volatile SequenceNameIndex nameIndex=null; // maps sequence names to their position in the storage list. This is built on demand
+    private transient boolean nameIndexShared=false; // TRUE if the name index is shared with other datasets (and can not be extended)
+    
     public transient String displayDirectives=null; // if this is set, MotifLab will execute these display settings (and then remove them) when the data item is added to the engine 
     
     /**
@@ -122,10 +125,8 @@ public abstract class FeatureDataset extends Data {
      * @return the specified sequence (if found) or null
      */
     public FeatureSequenceData getSequenceByName(String name) {
-        for (FeatureSequenceData sequence : storage) {
-            if (sequence.getName().equals(name)) return sequence;
-        }
-        return null;
+        int index=getIndexForSequence(name);
+        return (index>=0)?storage.get(index):null;
     }
     
     /**
@@ -154,11 +155,39 @@ public abstract class FeatureDataset extends Data {
      * @return index of the sequence (between 0 and size-1) or -1
      */
     public int getIndexForSequence(String name) {
-        for (int i=0;i<storage.size();i++) {
-            FeatureSequenceData data=storage.get(i);
-            if (data.getName().equals(name)) return i;
+        if (name==null) return -1;
+        SequenceNameIndex index=nameIndex;
+        if (index==null || index.size()!=storage.size()) index=rebuildNameIndex(); // the size is checked in case the list has been modified directly
+        int i=index.getIndex(name);
+        if (i>=0 && !storage.get(i).getName().equals(name)) { // the index is out of date
+            index=rebuildNameIndex();
+            i=index.getIndex(name);
         }
-        return -1;
+        return i;
+    }
+
+    private SequenceNameIndex rebuildNameIndex() {
+        SequenceNameIndex index=SequenceNameIndex.createForSequences(storage);
+        nameIndexShared=false;
+        nameIndex=index;
+        return index;
+    }
+
+    /** Discards the name index. This should be called if sequences are renamed or the storage list is modified directly */
+    protected void sequenceNamesChanged() {
+        nameIndex=null;
+    }
+
+    /**
+     * Lets this dataset use the same name index as the given dataset, which must contain
+     * sequences with the same names in the same order (e.g. because this dataset is a clone of the other)
+     */
+    protected void shareNameIndex(FeatureDataset other) {
+        SequenceNameIndex index=other.nameIndex;
+        if (index==null || index.size()!=storage.size()) return;
+        other.nameIndexShared=true;
+        nameIndexShared=true;
+        nameIndex=index;
     }
     
     
@@ -171,6 +200,9 @@ public abstract class FeatureDataset extends Data {
      */
     public void addSequence(FeatureSequenceData sequence) {
         storage.add(sequence);
+        SequenceNameIndex index=nameIndex;
+        if (index!=null && !nameIndexShared && index.size()==storage.size()-1) index.add(sequence.getName());
+        else nameIndex=null;
         sequence.setParent(this);
         notifyListenersOfDataAddition(sequence);
     }
@@ -181,12 +213,10 @@ public abstract class FeatureDataset extends Data {
      * @param sequence The name of the sequence to be removed
      */
     public void removeSequence(String sequenceName) {
-        FeatureSequenceData target=null;
-        for (FeatureSequenceData seq:storage) {
-            if (seq.getName().equals(sequenceName)) {target=seq;break;}
-        }
-        if (target!=null) {;
-            storage.remove(target);
+        int index=getIndexForSequence(sequenceName);
+        if (index>=0) {
+            FeatureSequenceData target=storage.remove(index);
+            nameIndex=null;
             target.setParent(null);
             notifyListenersOfDataRemoval(target);            
         }
@@ -201,10 +231,7 @@ public abstract class FeatureDataset extends Data {
      * @param sequence The FeatureSequenceData to be changed
      */
     public void replaceSequence(FeatureSequenceData sequence) {
-        int index=-1;
-        for (int i=0;i<storage.size();i++) {
-            if (storage.get(i).getName().equals(sequence.getName())) {index=i;break;}
-        }
+        int index=getIndexForSequence(sequence.getName());
         if (index<0) return;
         FeatureSequenceData oldsequence=storage.get(index);
         oldsequence.importData(sequence);
@@ -221,6 +248,7 @@ public abstract class FeatureDataset extends Data {
     public void reorderSequences(int currentposition, int newposition) {
         FeatureSequenceData temp=storage.remove(currentposition);
         storage.add(newposition,temp);
+        nameIndex=null;
         notifyListenersOfDataUpdate();
     }   
     
@@ -284,7 +312,8 @@ public abstract class FeatureDataset extends Data {
         for (int i=0;i<size;i++) {
             FeatureSequenceData data=dataset.getSequenceByIndex(i);
             storage.add(data); // I use this directly instead of calling addSequence() to limit the number of notifications sent 
-        }              
+        }
+        nameIndex=null;              
         notifyListenersOfDataAddition(dataset);
     }
     
@@ -1,6 +1,10 @@
 
 package org.motiflab.engine.data;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import org.motiflab.engine.ExecutionError;
 import org.motiflab.engine.MotifLabEngine;
 
@@ -106,6 +110,7 @@ public abstract class FeatureSequenceData extends Data {
      */
     public void setSequenceName(String sequenceName) {
         this.sequenceName=sequenceName;
+        if (parent!=null) parent.sequenceNamesChanged();
     }
     
     /**
@@ -383,6 +388,7 @@ public abstract class FeatureSequenceData extends Data {
     public void importData(Data source) throws ClassCastException {
         FeatureSequenceData data=(FeatureSequenceData)source;
         this.sequenceName=data.sequenceName;
+        if (parent!=null) parent.sequenceNamesChanged();
         this.chromosome=data.chromosome;
         this.startPosition=data.startPosition;
         this.endPosition=data.endPosition;
@@ -392,6 +398,110 @@ public abstract class FeatureSequenceData extends Data {
     
     /** Outputs information about this sequence into the buffer */
     public abstract StringBuilder debug(StringBuilder builder);  
+
+    // ------------ Paging of payloads to disk (see SequenceDataPager) ---------
+    
+    private transient volatile SequenceDataPager pager=null; // the pager that this sequence is registered with (if any). The payload of a registered sequence can be paged out at any time and must not be modified
+    private transient volatile File pagefile=null; // a file with a copy of the payload. The file is kept until the payload is modified, so that the payload can be paged out again without being rewritten
+    transient volatile boolean accessed=false; // this should be set whenever the payload is used. The pager will not page out sequences that have been used since its previous visit
+
+    /** 
+     * Returns the number of bytes used by the payload of this sequence (e.g. the array of values) 
+     * if the payload can be paged out to disk, or 0 if paging is not supported 
+     */
+    long getPageablePayloadSize() {return 0;}
+
+    /** Returns the payload of this sequence, or null if the payload has been paged out */
+    Object getResidentPayload() {return this;}
+
+    /** Writes the payload to the given file */
+    void writePayload(FileChannel channel) throws IOException {}
+
+    /** Reads the payload back from the given file (as written by writePayload) and makes it the current payload */
+    void readPayload(FileChannel channel) throws IOException {}
+
+    /** Releases the payload from memory after it has been written to file */
+    void discardPayload() {}
+
+    final SequenceDataPager getPager() {
+        return pager;
+    }
+
+    final synchronized void setPager(SequenceDataPager pager) {
+        this.pager=pager;
+    }
+
+    /**
+     * Writes the payload to file (unless a copy has already been written) and releases it from memory.
+     * This is called by the pager
+     * @return TRUE if the payload was paged out
+     */
+    final synchronized boolean pageOut(File directory) throws IOException {
+        if (pager==null || getResidentPayload()==null) return false;
+        if (pagefile==null) {
+            File file=File.createTempFile("sequence", ".page", directory);
+            try (FileChannel channel=FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                writePayload(channel);
+            } catch (IOException e) {
+                file.delete();
+                throw e;
+            }
+            pagefile=file;
+        }
+        discardPayload();
+        return true;
+    }
+
+    /** Reads the payload back from file (if it has been paged out) and returns the resident payload */
+    private synchronized Object loadPayload() {
+        Object payload=getResidentPayload();
+        if (payload!=null || pagefile==null) return payload;
+        try (FileChannel channel=FileChannel.open(pagefile.toPath(), StandardOpenOption.READ)) {
+            readPayload(channel);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read data for sequence '"+sequenceName+"' from paging file "+pagefile.getAbsolutePath()+" : "+e.getMessage(), e);
+        }
+        accessed=true;
+        return getResidentPayload();
+    }
+
+    /**
+     * Reads the payload back into memory if it has been paged out to disk and returns it.
+     * Subclasses should call this whenever they find that the payload is missing.
+     * Note that the payload may be paged out again as soon as this method returns,
+     * so the returned object should be used rather than the payload field
+     */
+    protected final Object pageIn() {
+        Object payload=loadPayload();
+        SequenceDataPager registered=pager;
+        if (registered!=null) registered.pagedIn(this);
+        return payload;
+    }
+
+    /**
+     * Detaches this sequence from its pager and makes sure that the payload is in memory.
+     * Subclasses must call this before the payload is modified
+     */
+    protected final void prepareForUpdate() {
+        if (pager==null && pagefile==null) return;
+        SequenceDataPager registered=pager;
+        if (registered!=null) registered.unregister(this);
+        synchronized(this) {
+            loadPayload();
+            if (pagefile!=null) {
+                pagefile.delete();
+                pagefile=null;
+            }
+        }
+    }
+
+    /** 
+     * Reads the payload back from file (if necessary) without notifying the pager. This should be used
+     * by writeObject() methods while they hold the lock on this object, so that the payload is not paged out again before it has been serialized
+     */
+    protected final void loadPayloadForSerialization() {
+        loadPayload();
+    }
     
     private static final long serialVersionUID = -3983766859272820043L;    
     
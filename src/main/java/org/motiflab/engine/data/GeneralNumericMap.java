@@ -30,7 +30,7 @@ public class GeneralNumericMap extends NumericMap {
 
     public GeneralNumericMap(String name, HashMap<String,Double>values, double defaultvalue) {
         this.name=name;
-        this.values=values;
+        this.values.putAll(values);
         this.defaultvalue=new Double(defaultvalue);
     }
 
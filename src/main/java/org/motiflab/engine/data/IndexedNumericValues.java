@@ -0,0 +1,179 @@
+package org.motiflab.engine.data;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class holds the explicitly assigned values of a NumericMap.
+ * The values are stored in a dense array of primitive doubles indexed by a MapKeyIndex
+ * which is shared between all maps of the same type, together with a bitset that records
+ * which of the entries have been explicitly assigned a value (entries that have not been
+ * assigned should use the default value of the map).
+ * Compared to a HashMap with boxed Double values this uses much less memory and allows
+ * the assigned entries to be processed with tight loops over the arrays:
+ * <pre>
+ *   for (int i=values.nextAssignedIndex(0);i>=0;i=values.nextAssignedIndex(i+1)) {...values.getValueAt(i)...}
+ * </pre>
+ * Like HashMap, this class is not thread-safe for concurrent updates.
+ *
+ * @author kjetikl
+ */
+public class IndexedNumericValues implements Cloneable {
+
+    private static final double[] EMPTY=new double[0];
+
+    private final MapKeyIndex index;
+    private double[] values=EMPTY;
+    private BitSet assigned=new BitSet();
+    private int size=0;
+
+    public IndexedNumericValues(MapKeyIndex index) {
+        this.index=index;
+    }
+
+    /** Returns the key index used by these values */
+    public MapKeyIndex getKeyIndex() {
+        return index;
+    }
+
+    /** Returns the value assigned to the given key, or null if no value has been assigned */
+    public Double get(String key) {
+        int i=index.getIndex(key);
+        if (i<0 || !assigned.get(i)) return null;
+        return values[i];
+    }
+
+    /** Returns the value assigned to the given key, or the given default value if no value has been assigned */
+    public double get(String key, double defaultvalue) {
+        int i=index.getIndex(key);
+        if (i<0 || !assigned.get(i)) return defaultvalue;
+        return values[i];
+    }
+
+    /** Returns TRUE if a value has been assigned to the given key */
+    public boolean containsKey(String key) {
+        int i=index.getIndex(key);
+        return (i>=0 && assigned.get(i));
+    }
+
+    /** Assigns a value to the given key */
+    public void put(String key, double value) {
+        setValueAt(index.getOrAddIndex(key), value);
+    }
+
+    /** Assigns the values in the given map */
+    public void putAll(Map<String,Double> map) {
+        if (map==null) return;
+        for (Map.Entry<String,Double> entry:map.entrySet()) {
+            if (entry.getValue()!=null) put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /** Removes the value assigned to the given key (if any) */
+    public void remove(String key) {
+        int i=index.getIndex(key);
+        if (i<0 || !assigned.get(i)) return;
+        assigned.clear(i);
+        size--;
+    }
+
+    /** Removes all assigned values */
+    public void clear() {
+        values=EMPTY;
+        assigned=new BitSet();
+        size=0;
+    }
+
+    /** Returns the number of keys that have been assigned values */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the first index at or after the given index which has been assigned a value, or -1 if there are no such indices */
+    public int nextAssignedIndex(int fromIndex) {
+        return assigned.nextSetBit(fromIndex);
+    }
+
+    /** Returns TRUE if the entry with the given index has been assigned a value */
+    public boolean isAssigned(int i) {
+        return assigned.get(i);
+    }
+
+    /** Returns the value at the given index. This should only be called for assigned indices */
+    public double getValueAt(int i) {
+        return values[i];
+    }
+
+    /** Assigns a value to the entry with the given index (as given by the key index) */
+    public void setValueAt(int i, double value) {
+        if (i>=values.length) {
+            double[] newvalues=new double[Math.max(i+1, Math.max(16, values.length+(values.length>>1)))];
+            System.arraycopy(values, 0, newvalues, 0, values.length);
+            values=newvalues;
+        }
+        values[i]=value;
+        if (!assigned.get(i)) {
+            assigned.set(i);
+            size++;
+        }
+    }
+
+    /** Returns the keys that have been assigned values (in index order) */
+    public Set<String> keySet() {
+        LinkedHashSet<String> keys=new LinkedHashSet<String>(size*2);
+        for (int i=assigned.nextSetBit(0);i>=0;i=assigned.nextSetBit(i+1)) keys.add(index.getKey(i));
+        return keys;
+    }
+
+    /** Returns a list of the keys that have been assigned values (in index order) */
+    public ArrayList<String> getKeys() {
+        ArrayList<String> keys=new ArrayList<String>(size);
+        for (int i=assigned.nextSetBit(0);i>=0;i=assigned.nextSetBit(i+1)) keys.add(index.getKey(i));
+        return keys;
+    }
+
+    /** Returns the assigned values (in index order, i.e. in the same order as the keys returned by getKeys()) */
+    public double[] getAssignedValues() {
+        double[] result=new double[size];
+        int j=0;
+        for (int i=assigned.nextSetBit(0);i>=0;i=assigned.nextSetBit(i+1)) result[j++]=values[i];
+        return result;
+    }
+
+    /** Returns a new HashMap containing the assigned key-value pairs */
+    public HashMap<String,Double> toHashMap() {
+        HashMap<String,Double> map=new HashMap<String,Double>((int)(size/0.75f)+1);
+        for (int i=assigned.nextSetBit(0);i>=0;i=assigned.nextSetBit(i+1)) map.put(index.getKey(i), values[i]);
+        return map;
+    }
+
+    /** Returns TRUE if the other object has the same keys assigned to the same values */
+    public boolean hasSameValues(IndexedNumericValues other) {
+        if (other.size!=this.size) return false;
+        if (other.index==this.index) {
+            if (!other.assigned.equals(this.assigned)) return false;
+            for (int i=assigned.nextSetBit(0);i>=0;i=assigned.nextSetBit(i+1)) {
+                if (values[i]!=other.values[i]) return false;
+            }
+            return true;
+        }
+        for (int i=assigned.nextSetBit(0);i>=0;i=assigned.nextSetBit(i+1)) {
+            Double othervalue=other.get(index.getKey(i));
+            if (othervalue==null || values[i]!=othervalue) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public IndexedNumericValues clone() {
+        IndexedNumericValues copy=new IndexedNumericValues(index);
+        copy.values=(size==0)?EMPTY:values.clone();
+        copy.assigned=(BitSet)assigned.clone();
+        copy.size=size;
+        return copy;
+    }
+}
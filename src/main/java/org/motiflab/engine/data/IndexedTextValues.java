@@ -0,0 +1,146 @@
+package org.motiflab.engine.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class holds the explicitly assigned values of a TextMap.
+ * The values are stored in a dense array indexed by a MapKeyIndex which is shared between all
+ * maps of the same type (see also IndexedNumericValues). Entries that have not been assigned
+ * a value are NULL in the array and should use the default value of the map.
+ * Like HashMap, this class is not thread-safe for concurrent updates.
+ *
+ * @author kjetikl
+ */
+public class IndexedTextValues implements Cloneable {
+
+    private static final String[] EMPTY=new String[0];
+
+    private final MapKeyIndex index;
+    private String[] values=EMPTY;
+    private int size=0;
+
+    public IndexedTextValues(MapKeyIndex index) {
+        this.index=index;
+    }
+
+    /** Returns the key index used by these values */
+    public MapKeyIndex getKeyIndex() {
+        return index;
+    }
+
+    /** Returns the value assigned to the given key, or null if no value has been assigned */
+    public String get(String key) {
+        int i=index.getIndex(key);
+        return (i>=0 && i<values.length)?values[i]:null;
+    }
+
+    /** Returns TRUE if a value has been assigned to the given key */
+    public boolean containsKey(String key) {
+        return get(key)!=null;
+    }
+
+    /** Assigns a value to the given key. Assigning a NULL value removes the current value */
+    public void put(String key, String value) {
+        if (value==null) remove(key);
+        else setValueAt(index.getOrAddIndex(key), value);
+    }
+
+    /** Assigns the values in the given map */
+    public void putAll(Map<String,String> map) {
+        if (map==null) return;
+        for (Map.Entry<String,String> entry:map.entrySet()) put(entry.getKey(), entry.getValue());
+    }
+
+    /** Removes the value assigned to the given key (if any) */
+    public void remove(String key) {
+        int i=index.getIndex(key);
+        if (i<0 || i>=values.length || values[i]==null) return;
+        values[i]=null;
+        size--;
+    }
+
+    /** Removes all assigned values */
+    public void clear() {
+        values=EMPTY;
+        size=0;
+    }
+
+    /** Returns the number of keys that have been assigned values */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the first index at or after the given index which has been assigned a value, or -1 if there are no such indices */
+    public int nextAssignedIndex(int fromIndex) {
+        for (int i=fromIndex;i<values.length;i++) {
+            if (values[i]!=null) return i;
+        }
+        return -1;
+    }
+
+    /** Returns the value at the given index, or NULL if the entry has not been assigned a value */
+    public String getValueAt(int i) {
+        return (i<values.length)?values[i]:null;
+    }
+
+    /** Assigns a (non-null) value to the entry with the given index (as given by the key index) */
+    public void setValueAt(int i, String value) {
+        if (i>=values.length) {
+            String[] newvalues=new String[Math.max(i+1, Math.max(16, values.length+(values.length>>1)))];
+            System.arraycopy(values, 0, newvalues, 0, values.length);
+            values=newvalues;
+        }
+        if (values[i]==null) size++;
+        values[i]=value;
+    }
+
+    /** Returns the keys that have been assigned values (in index order) */
+    public Set<String> keySet() {
+        LinkedHashSet<String> keys=new LinkedHashSet<String>(size*2);
+        for (int i=0;i<values.length;i++) {
+            if (values[i]!=null) keys.add(index.getKey(i));
+        }
+        return keys;
+    }
+
+    /** Returns a list of the keys that have been assigned values (in index order) */
+    public ArrayList<String> getKeys() {
+        ArrayList<String> keys=new ArrayList<String>(size);
+        for (int i=0;i<values.length;i++) {
+            if (values[i]!=null) keys.add(index.getKey(i));
+        }
+        return keys;
+    }
+
+    /** Returns a new HashMap containing the assigned key-value pairs */
+    public HashMap<String,String> toHashMap() {
+        HashMap<String,String> map=new HashMap<String,String>((int)(size/0.75f)+1);
+        for (int i=0;i<values.length;i++) {
+            if (values[i]!=null) map.put(index.getKey(i), values[i]);
+        }
+        return map;
+    }
+
+    /** Returns TRUE if the other object has the same keys assigned to the same values */
+    public boolean hasSameValues(IndexedTextValues other) {
+        if (other.size!=this.size) return false;
+        for (int i=0;i<values.length;i++) {
+            if (values[i]==null) continue;
+            String othervalue=(other.index==this.index)?other.getValueAt(i):other.get(index.getKey(i));
+            if (!values[i].equals(othervalue)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public IndexedTextValues clone() {
+        IndexedTextValues copy=new IndexedTextValues(index);
+        copy.values=(size==0)?EMPTY:values.clone();
+        copy.size=size;
+        return copy;
+    }
+}
@@ -0,0 +1,85 @@
+package org.motiflab.engine.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class assigns a unique integer index to each key (data object name) used in
+ * Numeric Maps and Text Maps. All maps for the same type of data objects (e.g. all
+ * Sequence Numeric Maps and Sequence Text Maps) share the same index, so that the values
+ * of a map can be stored in a dense array and maps of the same type can be combined
+ * by looping over aligned arrays rather than by looking up every key in a hash table.
+ * <br>
+ * Indices are assigned in the order that the keys are first encountered and are never
+ * reused or removed during the session (the number of distinct names of each type is
+ * usually not much larger than the number of data objects of that type).
+ * Lookups are thread-safe and do not require locking.
+ *
+ * @author kjetikl
+ */
+public final class MapKeyIndex {
+
+    private static final HashMap<Class,MapKeyIndex> indices=new HashMap<Class,MapKeyIndex>();
+
+    private final ConcurrentHashMap<String,Integer> keyToIndex=new ConcurrentHashMap<String,Integer>();
+    private volatile String[] keys=new String[16];
+    private volatile int size=0;
+
+    private MapKeyIndex() {}
+
+    /** Returns the index shared by all maps for the given type of data objects (the members class of the maps) */
+    public static MapKeyIndex getIndexForType(Class membersClass) {
+        synchronized(indices) {
+            MapKeyIndex index=indices.get(membersClass);
+            if (index==null) {
+                index=new MapKeyIndex();
+                indices.put(membersClass, index);
+            }
+            return index;
+        }
+    }
+
+    /** Returns the index assigned to the given key, or -1 if the key has not been assigned an index */
+    public int getIndex(String key) {
+        Integer index=keyToIndex.get(key);
+        return (index!=null)?index:-1;
+    }
+
+    /** Returns the index assigned to the given key, assigning a new index if necessary */
+    public int getOrAddIndex(String key) {
+        Integer index=keyToIndex.get(key);
+        if (index!=null) return index;
+        synchronized(this) {
+            index=keyToIndex.get(key);
+            if (index!=null) return index;
+            if (size==keys.length) {
+                String[] newkeys=new String[keys.length*2];
+                System.arraycopy(keys, 0, newkeys, 0, size);
+                keys=newkeys;
+            }
+            int newindex=size;
+            keys[newindex]=key;
+            size=newindex+1;
+            keyToIndex.put(key, newindex);
+            return newindex;
+        }
+    }
+
+    /** Returns the key with the given index */
+    public String getKey(int index) {
+        return keys[index];
+    }
+
+    /** Returns the number of keys that have been assigned an index */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the indices assigned to the given keys (adding new indices for keys that have not been seen before) */
+    public int[] getOrAddIndices(ArrayList<String> keys) {
+        int[] result=new int[keys.size()];
+        for (int i=0;i<result.length;i++) result[i]=getOrAddIndex(keys.get(i));
+        return result;
+    }
+}
@@ -50,7 +50,7 @@ public class ModuleNumericMap extends NumericMap {
 
     public ModuleNumericMap(String name, HashMap<String,Double>values, double defaultvalue) {
         this.name=name;
-        this.values=values;
+        this.values.putAll(values);
         this.defaultvalue=new Double(defaultvalue);
     }
 
@@ -25,7 +25,7 @@ public class ModuleTextMap extends TextMap {
     
     public ModuleTextMap(String name, HashMap<String,String>values, String defaultvalue) {
         this.name=name;
-        this.values=values;
+        this.values.putAll(values);
         this.defaultvalue=defaultvalue;
     }
     
@@ -12,6 +12,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.motiflab.engine.ExecutionError;
 import org.motiflab.engine.MotifLabEngine;
 import org.motiflab.engine.SystemError;
@@ -53,6 +54,7 @@ public class Motif extends Data implements Comparable, BasicDataType {
     private String description=null;
     private int matrixtype=COUNT_MATRIX;
     private double[][] matrix; // x rows, 4 columns
+    private transient volatile DerivedMatrices derivedMatrices=null; // cached matrices and values derived from the current matrix
     private ArrayList<String> interactionpartners=null; // A list which stores the names (Motif IDs) of known interaction partners
     private ArrayList<String> knownduplicates=null; // A list which stores the names (Motif IDs) of known duplicate motif models
     private int[] GOterms=null; // The GO terms associated with this motif stored as numbers rather than strings
@@ -206,7 +208,9 @@ public class Motif extends Data implements Comparable, BasicDataType {
     public void setMatrixType(int type) {matrixtype=type;}
     
     /** This will returned the stored matrix 'as is'
-     * The values in the matrix could either be raw frequency counts, normalized counts or log-odds values
+     * The values in the matrix could either be raw frequency counts, normalized counts or log-odds values.
+     * If the returned matrix is modified in place, setMatrix() should be called afterwards
+     * so that matrices derived from the old values are discarded
      */
     public double[][] getMatrix() {return matrix;}
 
@@ -219,6 +223,7 @@ public class Motif extends Data implements Comparable, BasicDataType {
         int type=findProbableMatrixType(newmatrix);  
         setMatrixType(type);        
         matrix=newmatrix;
+        derivedMatrices=null;
         double[][] frequencymatrix=matrix; 
         if (type==LOG_ODDS_MATRIX) frequencymatrix=getMatrixAsFrequencyMatrix(); // its easier this way
         IC_content=calculateInformationContent(frequencymatrix, false);
@@ -245,11 +250,12 @@ public class Motif extends Data implements Comparable, BasicDataType {
      *  @param normalize If TRUE the IC-content will be normalized to [0,1] by dividing by 2
      */
     public double[] getICcontentForColumns(boolean reverse, boolean normalize) {
-        if (matrix==null) return null;
-        int upper=matrix.length-1;
-        double ic[]=new double[matrix.length];
-        for (int i=0;i<matrix.length;i++) {
-            ic[i]=calculateColumnIC(matrix[(reverse)?(upper-i):i][0], matrix[(reverse)?(upper-i):i][1], matrix[(reverse)?(upper-i):i][2], matrix[(reverse)?(upper-i):i][3], false);
+        double[] columnIC=getDerivedMatrices().getColumnIC();
+        if (columnIC==null) return null;
+        int upper=columnIC.length-1;
+        double ic[]=new double[columnIC.length];
+        for (int i=0;i<columnIC.length;i++) {
+            ic[i]=columnIC[(reverse)?(upper-i):i];
             if (normalize) ic[i]=ic[i]/2;
         }
         return ic;        
@@ -258,8 +264,9 @@ public class Motif extends Data implements Comparable, BasicDataType {
     /** Returns the IC-content for the specified column (position) in the motif
      */
     public double getICcontentForColumn(int column) {
-        if (matrix==null || column<0 || column>=matrix.length) return 0;
-        return calculateColumnIC(matrix[column][0], matrix[column][1], matrix[column][2], matrix[column][3], false);      
+        double[] columnIC=getDerivedMatrices().getColumnIC();
+        if (columnIC==null || column<0 || column>=columnIC.length) return 0;
+        return columnIC[column];      
     }      
 
     public void setICcontent(double ic) {this.IC_content=ic;}
@@ -605,7 +612,7 @@ public class Motif extends Data implements Comparable, BasicDataType {
      * automatically be returned
      */
     public double calculatePWMmatchScore(String sequence) {
-         double[][] pfm=getMatrixAsFrequencyMatrix();
+         double[][] pfm=getSharedFrequencyMatrix(false);
          if (sequence.isEmpty() || pfm==null || pfm.length!=sequence.length()) return 0;
          double rawscorevalue=0;
          double minscore=0;
@@ -1037,6 +1044,7 @@ public class Motif extends Data implements Comparable, BasicDataType {
         double[][] sourcematrix=((Motif)source).matrix;
         //this.matrix=(double[][])sourcematrix.clone();
         this.matrix=sourcematrix;
+        this.derivedMatrices=((Motif)source).derivedMatrices; // the matrix is shared, so the derived matrices can be shared also
         this.properties=((Motif)source).properties;
         this.GOterms=((Motif)source).GOterms;
         //notifyListenersOfDataUpdate(); 
@@ -1404,6 +1412,172 @@ public class Motif extends Data implements Comparable, BasicDataType {
         return result;
     }
 
+    /**
+     * Returns a normalized frequency matrix for this motif (or its reverse complement).
+     * The matrix is computed on first request and shared with subsequent callers (also across threads)
+     * until the matrix of the motif is changed, so the returned matrix must NOT be modified!
+     */
+    public double[][] getSharedFrequencyMatrix(boolean reverseComplement) {
+        DerivedMatrices derived=getDerivedMatrices();
+        return (reverseComplement)?derived.getReverseFrequencyMatrix():derived.getFrequencyMatrix();
+    }
+
+    /**
+     * Returns a frequency matrix with pseudo frequencies added (see getMatrixAsFrequencyMatrixWithPseudo)
+     * for this motif or its reverse complement. The returned matrix is shared and must NOT be modified!
+     */
+    public double[][] getSharedFrequencyMatrixWithPseudo(double pseudo, boolean reverseComplement) {
+        DerivedMatrices derived=getDerivedMatrices();
+        String key="pseudo:"+pseudo;
+        double[][] result=(double[][])derived.get(key);
+        if (result==null) result=(double[][])derived.put(key, getMatrixAsFrequencyMatrixWithPseudo(pseudo));
+        if (!reverseComplement) return result;
+        double[][] reverse=(double[][])derived.get("reverse:"+key);
+        if (reverse==null) reverse=(double[][])derived.put("reverse:"+key, reverseComplementMatrix(result));
+        return reverse;
+    }
+
+    /**
+     * Returns the natural logarithm of the frequency matrix with pseudo frequencies added.
+     * This is the matrix used by the log-odds scanners (with the background subtracted in the scoring kernels).
+     * The returned matrix is shared and must NOT be modified!
+     */
+    public double[][] getSharedLogMatrixWithPseudo(double pseudo) {
+        DerivedMatrices derived=getDerivedMatrices();
+        String key="log:"+pseudo;
+        double[][] result=(double[][])derived.get(key);
+        if (result==null) {
+            double[][] frequencies=getSharedFrequencyMatrixWithPseudo(pseudo, false);
+            result=new double[frequencies.length][4];
+            for (int i=0;i<frequencies.length;i++) {
+                for (int j=0;j<4;j++) result[i][j]=Math.log(frequencies[i][j]);
+            }
+            result=(double[][])derived.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a log-odds matrix for the frequency matrix with pseudo frequencies added
+     * with respect to the given background single nucleotide frequencies (not log-transformed).
+     * The returned matrix is shared and must NOT be modified!
+     */
+    public double[][] getSharedLogOddsMatrix(double pseudo, double[] snf) {
+        DerivedMatrices derived=getDerivedMatrices();
+        String key="logodds:"+pseudo+":"+Arrays.toString(snf);
+        double[][] result=(double[][])derived.get(key);
+        if (result==null) {
+            double[][] logmatrix=getSharedLogMatrixWithPseudo(pseudo);
+            result=new double[logmatrix.length][4];
+            for (int i=0;i<logmatrix.length;i++) {
+                for (int j=0;j<4;j++) result[i][j]=logmatrix[i][j]-Math.log(snf[j]);
+            }
+            result=(double[][])derived.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the lowest and highest scores that can be obtained with the log-transformed frequency matrix
+     * (with pseudo frequencies added) minus a background log-probability for each position.
+     * @param logBackground The log-probabilities of the background. Only the smallest and largest values are used
+     * @return a new array with two values: [0]=lowest obtainable score, [1]=highest obtainable score
+     */
+    public double[] getLogOddsScoreRange(double pseudo, double[] logBackground) {
+        double minBackground=Double.MAX_VALUE, maxBackground=-Double.MAX_VALUE;
+        for (double value:logBackground) {
+            if (value<minBackground) minBackground=value;
+            if (value>maxBackground) maxBackground=value;
+        }
+        DerivedMatrices derived=getDerivedMatrices();
+        String key="range:"+pseudo+":"+minBackground+":"+maxBackground;
+        double[] minmax=(double[])derived.get(key);
+        if (minmax==null) {
+            double[][] logmatrix=getSharedLogMatrixWithPseudo(pseudo);
+            minmax=new double[2];
+            for (int i=0;i<logmatrix.length;i++) {
+                minmax[0]+=(MotifLabEngine.getMinimumValue(logmatrix[i])-maxBackground);
+                minmax[1]+=(MotifLabEngine.getMaximumValue(logmatrix[i])-minBackground);
+            }
+            minmax=(double[])derived.put(key, minmax);
+        }
+        return new double[]{minmax[0],minmax[1]};
+    }
+
+    /** Returns the cached derived matrices for the current matrix, creating a new (empty) cache if the matrix has changed */
+    private DerivedMatrices getDerivedMatrices() {
+        DerivedMatrices derived=derivedMatrices;
+        double[][] currentmatrix=matrix;
+        int currenttype=matrixtype;
+        if (derived==null || derived.source!=currentmatrix || derived.type!=currenttype) {
+            derived=new DerivedMatrices(this, currentmatrix, currenttype);
+            derivedMatrices=derived;
+        }
+        return derived;
+    }
+
+    /**
+     * This class holds matrices and values derived from the matrix of a motif, such as the
+     * normalized frequency matrix, the reverse complement and the IC-content of each column.
+     * These are computed on demand and kept until the matrix (or matrix type) of the motif changes.
+     * All values are effectively immutable once stored, so they can be shared between threads
+     * (if two threads compute the same value at the same time, the first one stored is used by both).
+     */
+    private static final class DerivedMatrices {
+        final double[][] source;
+        final int type;
+        private final Motif motif;
+        private volatile double[][] frequencyMatrix=null;
+        private volatile double[][] reverseFrequencyMatrix=null;
+        private volatile double[] columnIC=null;
+        private final ConcurrentHashMap<String,Object> values=new ConcurrentHashMap<String,Object>(8); // other derived matrices (keyed by kind and parameters)
+
+        DerivedMatrices(Motif motif, double[][] source, int type) {
+            this.motif=motif;
+            this.source=source;
+            this.type=type;
+        }
+
+        double[][] getFrequencyMatrix() {
+            double[][] result=frequencyMatrix;
+            if (result==null && source!=null) {
+                result=motif.getMatrixAsFrequencyMatrix();
+                if (result==source) result=copyMatrix(source); // do not share the original matrix since that could be modified
+                frequencyMatrix=result;
+            }
+            return result;
+        }
+
+        double[][] getReverseFrequencyMatrix() {
+            double[][] result=reverseFrequencyMatrix;
+            if (result==null && source!=null) {
+                result=reverseComplementMatrix(getFrequencyMatrix());
+                reverseFrequencyMatrix=result;
+            }
+            return result;
+        }
+
+        double[] getColumnIC() {
+            double[] result=columnIC;
+            if (result==null && source!=null) {
+                result=new double[source.length];
+                for (int i=0;i<source.length;i++) result[i]=calculateColumnIC(source[i][0], source[i][1], source[i][2], source[i][3], false);
+                columnIC=result;
+            }
+            return result;
+        }
+
+        Object get(String key) {
+            return values.get(key);
+        }
+
+        /** Stores the value unless another value has already been stored for the key, and returns the value that is stored */
+        Object put(String key, Object value) {
+            Object previous=values.putIfAbsent(key, value);
+            return (previous!=null)?previous:value;
+        }
+    }
+
     /** Given a matrix, this method will normalize it to a frequency matrix with each column summing to 1.0 */
     public static double[][] normalizeMatrix(double[][] matrix) {
       double[][] normalized=new double[matrix.length][4];
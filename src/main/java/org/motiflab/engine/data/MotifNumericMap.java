@@ -51,7 +51,7 @@ public class MotifNumericMap extends NumericMap {
 
     public MotifNumericMap(String name, HashMap<String,Double>values, double defaultvalue) {
         this.name=name;
-        this.values=values;
+        this.values.putAll(values);
         this.defaultvalue=new Double(defaultvalue);
     }
 
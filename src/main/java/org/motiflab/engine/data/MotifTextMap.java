@@ -25,7 +25,7 @@ public class MotifTextMap extends TextMap {
     
     public MotifTextMap(String name, HashMap<String,String>values, String defaultvalue) {
         this.name=name;
-        this.values=values;
+        this.values.putAll(values);
         this.defaultvalue=defaultvalue;
     }
     
@@ -48,6 +48,16 @@ public class NumericDataset extends FeatureDataset implements Cloneable {
             ((NumericSequenceData)seq).setAllPositionsToValue(value);
         }
     }
+
+    /** 
+     * Stores the values of every sequence in this dataset in compact form with the given encoding
+     * (see NumericSequenceData.compact() and CompactNumericData)
+     */
+    public void compact(int mode) {
+        for (FeatureSequenceData seq:getAllSequences()) {
+            ((NumericSequenceData)seq).compact(mode);
+        }
+    }
     
    /**
      * Returns the maximum value allowed for this dataset
@@ -178,6 +188,7 @@ public class NumericDataset extends FeatureDataset implements Cloneable {
             if (seq==null) throw new ConcurrentModificationException("Sequence was deleted before the dataset could be cloned"); // not sure what else to do
             newdataset.addSequence((NumericSequenceData)seq.clone());
         }
+        newdataset.shareNameIndex(this);
         return newdataset;
     }      
 
@@ -5,7 +5,12 @@
 
 package org.motiflab.engine.data;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -16,12 +21,14 @@ import org.motiflab.engine.MotifLabEngine;
 import org.motiflab.engine.protocol.ParseError;
 
 /**
+ * The explicitly assigned values in a NumericMap are kept in an IndexedNumericValues table
+ * (a dense array of primitive doubles indexed by a MapKeyIndex shared by all maps of the same type)
  *
  * @author kjetikl
  */
 public abstract class NumericMap extends DataMap {
     protected String name;    
-    protected HashMap<String,Double> values=new HashMap<String,Double>();
+    protected IndexedNumericValues values=new IndexedNumericValues(MapKeyIndex.getIndexForType(getMembersClass()));
     protected Double defaultvalue=new Double(0);
 
 
@@ -44,10 +51,11 @@ public abstract class NumericMap extends DataMap {
     @Override
     public String getValueAsParameterString() {
         StringBuilder string=new StringBuilder();
-        for (String seq:values.keySet()) {
-            string.append(seq);
+        MapKeyIndex keyindex=values.getKeyIndex();
+        for (int i=values.nextAssignedIndex(0);i>=0;i=values.nextAssignedIndex(i+1)) {
+            string.append(keyindex.getKey(i));
             string.append('=');
-            string.append(values.get(seq).toString());
+            string.append(values.getValueAt(i));
             string.append(',');
         }
         string.append(DEFAULT_KEY);
@@ -59,10 +67,11 @@ public abstract class NumericMap extends DataMap {
     @Override
     public String output() {
         StringBuilder string=new StringBuilder();
-        for (String seq:values.keySet()) {
-            string.append(seq);
+        MapKeyIndex keyindex=values.getKeyIndex();
+        for (int i=values.nextAssignedIndex(0);i>=0;i=values.nextAssignedIndex(i+1)) {
+            string.append(keyindex.getKey(i));
             string.append('=');
-            string.append(values.get(seq).toString());
+            string.append(values.getValueAt(i));
             string.append('\n');
         }
         string.append(DEFAULT_KEY);
@@ -126,15 +135,12 @@ public abstract class NumericMap extends DataMap {
        
     @Override
     public Double getValue(String dataname) {
-        Double val=values.get(dataname);
-        if (val==null) return defaultvalue;
-        else return val;
+        return values.get(dataname, defaultvalue);
     }
 
     @Override
     public boolean contains(String dataname) {
-        Double val=values.get(dataname);
-        return (val!=null);
+        return values.containsKey(dataname);
     }
 
     /**
@@ -144,7 +150,8 @@ public abstract class NumericMap extends DataMap {
      */
     public double getMinValue() {
         double min=Double.MAX_VALUE;
-        for (double value:values.values()) {
+        for (int i=values.nextAssignedIndex(0);i>=0;i=values.nextAssignedIndex(i+1)) {
+            double value=values.getValueAt(i);
             if (value<min) min=value;
         }
         if (defaultvalue<min) return defaultvalue;
@@ -158,7 +165,8 @@ public abstract class NumericMap extends DataMap {
      */
     public double getMaxValue() {
         double max=-Double.MAX_VALUE;
-        for (double value:values.values()) {
+        for (int i=values.nextAssignedIndex(0);i>=0;i=values.nextAssignedIndex(i+1)) {
+            double value=values.getValueAt(i);
             if (value>max) max=value;
         }
         if (defaultvalue>max) return defaultvalue;
@@ -172,10 +180,7 @@ public abstract class NumericMap extends DataMap {
      */
     public double getMaxValue(ArrayList<String> list) {
         double max=-Double.MAX_VALUE;
-        for (String key:list) {
-            double value=0;
-            if (values.containsKey(key)) value=values.get(key);
-            else value = defaultvalue;
+        for (double value:getValues(list)) {
             if (value>max) max=value;
         }
         return max;
@@ -188,28 +193,26 @@ public abstract class NumericMap extends DataMap {
      */
     public double getMinValue(ArrayList<String> list) {
         double min=Double.MAX_VALUE;
-        for (String key:list) {
-            double value=0;
-            if (values.containsKey(key)) value=values.get(key);
-            else value = defaultvalue;
+        for (double value:getValues(list)) {
             if (value<min) min=value;
         }
         return min;
     }
     
     /**
-     * Returns the (original) HashMap containing the key-value pairs registered
-     * in this NumericMap
+     * Returns a HashMap containing the key-value pairs registered in this NumericMap.
+     * Note that this is a copy, so changes to the returned map will not affect this NumericMap
      * @return
      */
     public HashMap<String,Double> getValues() {
-        return values;
+        return values.toHashMap();
     }
 
     @Override
     public HashMap<String,Object> getColumnData() {
         HashMap<String,Object> map=new HashMap<String,Object>();
-        for (String key:values.keySet()) map.put(key,values.get(key));
+        MapKeyIndex keyindex=values.getKeyIndex();
+        for (int i=values.nextAssignedIndex(0);i>=0;i=values.nextAssignedIndex(i+1)) map.put(keyindex.getKey(i),values.getValueAt(i));
         return map;
     }
     /**
@@ -217,11 +220,12 @@ public abstract class NumericMap extends DataMap {
      * @return
      */
     public double[] getValues(ArrayList<String> list) {
+        MapKeyIndex keyindex=values.getKeyIndex();
+        double defaultval=defaultvalue;
         double[] result=new double[list.size()];
-        for (int i=0;i<list.size();i++) {
-            String key=list.get(i);
-            if (values.containsKey(key)) result[i]=values.get(key);
-            else result[i] = defaultvalue;
+        for (int i=0;i<result.length;i++) {
+            int index=keyindex.getIndex(list.get(i));
+            result[i]=(index>=0 && values.isAssigned(index))?values.getValueAt(index):defaultval;
         }
         return result;
     }
@@ -294,25 +298,35 @@ public abstract class NumericMap extends DataMap {
          
    @Override
     public HashMap<String,Double> getRankOrder(boolean ascending) {
-         ArrayList<String> entries=getRegisteredKeys();
-         Collections.sort(entries,new SortOrderComparator(ascending));
-         HashMap<String,Double> result=new HashMap<String,Double>(entries.size());
-         if (entries.size()==1) result.put(entries.get(0), 1d);
-         if (entries.size()<=1) return result; // the map is either empty or has just one value
+         // sort the positions of the assigned entries in the arrays rather than the entry names, so that the comparisons do not require lookups
+         final String[] entries=values.getKeys().toArray(new String[0]);
+         final double[] entryvalues=values.getAssignedValues();
+         int size=entries.length;
+         HashMap<String,Double> result=new HashMap<String,Double>((int)(size/0.75f)+1);
+         if (size==1) result.put(entries[0], 1d);
+         if (size<=1) return result; // the map is either empty or has just one value
+         Integer[] order=new Integer[size];
+         for (int i=0;i<size;i++) order[i]=i;
+         final boolean sortAscending=ascending;
+         Arrays.sort(order, new Comparator<Integer>() {
+             @Override
+             public int compare(Integer index1, Integer index2) {
+                 return compareEntries(entries[index1], entryvalues[index1], entries[index2], entryvalues[index2], sortAscending);
+             }
+         });
          int lastend=0;
-         double lastvalue=getValue(entries.get(0));
-         for (int i=1;i<entries.size();i++) {
-             String entry=entries.get(i);
-             double value=getValue(entry);
+         double lastvalue=entryvalues[order[0]];
+         for (int i=1;i<size;i++) {
+             double value=entryvalues[order[i]];
              if (value==lastvalue || (Double.isNaN(value) && Double.isNaN(lastvalue))) continue;
              // new value
              double rank=result.size()+1;
-             for (int j=lastend;j<i;j++) result.put(entries.get(j),rank);
+             for (int j=lastend;j<i;j++) result.put(entries[order[j]],rank);
              lastvalue=value;
              lastend=i;
          }
          double rank=result.size()+1;
-         for (int j=lastend;j<entries.size();j++) result.put(entries.get(j),rank);
+         for (int j=lastend;j<size;j++) result.put(entries[order[j]],rank);
          return result;
     }
     
@@ -323,9 +337,7 @@ public abstract class NumericMap extends DataMap {
     
     @Override
     public ArrayList<String> getRegisteredKeys() {
-        ArrayList<String> list=new ArrayList<String>();
-        list.addAll(values.keySet());
-        return list;
+        return values.getKeys();
     }
 
 
@@ -348,12 +360,7 @@ public abstract class NumericMap extends DataMap {
         if (data==null || !(data instanceof NumericMap)) return false;
         NumericMap other=(NumericMap)data;
         if (((double)this.defaultvalue)!=((double)other.defaultvalue)) return false;
-        if (other.values.size()!=this.values.size()) return false;
-        for (String key:values.keySet()) {
-            if (!other.contains(key)) return false;
-            if (((double)values.get(key))!=((double)other.values.get(key))) return false;
-        }
-        return true;
+        return values.hasSameValues(other.values);
     }
     
     @Override 
@@ -361,13 +368,7 @@ public abstract class NumericMap extends DataMap {
         if (data==null || !(data instanceof NumericMap)) return false;
         NumericMap other=(NumericMap)data;
         if (((double)this.defaultvalue)!=((double)other.defaultvalue)) return false;
-        if (other.values.size()!=this.values.size()) return false;
-        for (String key:values.keySet()) {
-            if (!other.contains(key)) return false;
-            System.err.println(((double)values.get(key))+" <=> "+((double)other.values.get(key))+"    : "+(((double)values.get(key))!=((double)other.values.get(key))));
-            if (((double)values.get(key))!=((double)other.values.get(key))) return false;
-        }
-        return true;        
+        return values.hasSameValues(other.values);
     }
 
 
@@ -406,24 +407,27 @@ public abstract class NumericMap extends DataMap {
 
         @Override
         public int compare(String entry1, String entry2) { // these are two entry names
-            double value1=getValue(entry1);
-            double value2=getValue(entry2);
-            // always sort NaNs at the "bottom" irrespective of 
-            if (!Double.isNaN(value1) && Double.isNaN(value2)) return -1;
-            else if (Double.isNaN(value1) && !Double.isNaN(value2)) return 1;
-            else if (Double.isNaN(value1) && Double.isNaN(value2)) {
-                int val=entry1.compareTo(entry2); // both are NaN: sort by name
-                return (ascending)?val:-val;
-            }        
-            // both map entries are non-null and non-NaN            
-                 if (value1<value2) return (ascending)?-1:1;
-            else if (value1>value2) return (ascending)?1:-1;
-            else { // same map value. sort by name.
-                int val=entry1.compareTo(entry2);
-                return (ascending)?val:-val;
-            }
+            return compareEntries(entry1, getValue(entry1), entry2, getValue(entry2), ascending);
         }    
     }
+
+    /** Compares two map entries according to their values. NaN values are always sorted at the "bottom" and ties are broken by entry name */
+    private static int compareEntries(String entry1, double value1, String entry2, double value2, boolean ascending) {
+        // always sort NaNs at the "bottom" irrespective of 
+        if (!Double.isNaN(value1) && Double.isNaN(value2)) return -1;
+        else if (Double.isNaN(value1) && !Double.isNaN(value2)) return 1;
+        else if (Double.isNaN(value1) && Double.isNaN(value2)) {
+            int val=entry1.compareTo(entry2); // both are NaN: sort by name
+            return (ascending)?val:-val;
+        }        
+        // both map entries are non-null and non-NaN            
+             if (value1<value2) return (ascending)?-1:1;
+        else if (value1>value2) return (ascending)?1:-1;
+        else { // same map value. sort by name.
+            int val=entry1.compareTo(entry2);
+            return (ascending)?val:-val;
+        }
+    }
     
     protected class SortOrderComparatorData implements Comparator<Data> {
         boolean ascending=true;
@@ -489,5 +493,29 @@ public abstract class NumericMap extends DataMap {
     }
 
     private static final long serialVersionUID = -5906307498325056582L;
+
+    // the values are serialized as a HashMap (as in previous versions) since the key indices are only valid within a session
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("name", String.class),
+        new ObjectStreamField("values", HashMap.class),
+        new ObjectStreamField("defaultvalue", Double.class)
+    };
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields=out.putFields();
+        fields.put("name", name);
+        fields.put("values", values.toHashMap());
+        fields.put("defaultvalue", defaultvalue);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields=in.readFields();
+        name=(String)fields.get("name", null);
+        defaultvalue=(Double)fields.get("defaultvalue", new Double(0));
+        values=new IndexedNumericValues(MapKeyIndex.getIndexForType(getMembersClass()));
+        values.putAll((HashMap<String,Double>)fields.get("values", null));
+    }
     
 }
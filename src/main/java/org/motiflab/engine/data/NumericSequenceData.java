@@ -5,6 +5,9 @@
 
 package org.motiflab.engine.data;
 
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import org.motiflab.engine.ExecutionError;
 
@@ -14,15 +17,21 @@ import org.motiflab.engine.ExecutionError;
  * that specify a different value for each position along the sequence.
  * 
  * The data in this object is stored as an array of double values with one entry for each position in the sequence (direct orientation).
+ * The array can be paged out to disk when the sequence is registered with a SequenceDataPager, so all methods
+ * should access it through values() (for reading) or call ensureOwnData() before modifying it.
+ * Tracks that are piecewise constant or mostly equal to a baseline value can also be stored in compact
+ * form (see compact() and CompactNumericData). The array is then decoded again when the sequence is modified.
  * 
  * @author kjetikl
  */
 public class NumericSequenceData extends FeatureSequenceData implements Cloneable {
-    private double[] numericdata; //  The data should come from the direct strand so that numericdata[0] corresponds to the smaller genomic coordinate
+    private volatile double[] numericdata; //  The data should come from the direct strand so that numericdata[0] corresponds to the smaller genomic coordinate. This is volatile so that readers always see either this array or the compact data (see values())
+    private volatile CompactNumericData compactdata=null; // the values in compact form. If this is set, the numericdata array will be null
+    private transient volatile boolean dataShared=false; // TRUE if the numericdata array could be shared with a clone (or the original). The array must then be copied before it is modified
     
     // the three values below should only be used to determine range for visualization purposes
-    private double min=0; // these are only for local use. Query the parent to find dataset min/max/baseline values
-    private double max=1;  // these are only for local use. Query the parent to find dataset min/max/baseline values
+    private volatile double min=0; // these are only for local use. Query the parent to find dataset min/max/baseline values
+    private volatile double max=1;  // these are only for local use. Query the parent to find dataset min/max/baseline values. Updates after construction go through includeInRange()
     private double baseline=0;  // these are only for local use. Query the parent to find dataset min/max/baseline values
 
     private static String typedescription="Numeric data";    
@@ -117,11 +126,12 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      * @return a double array with two components [0]=>min, [1]=>max
      */
     public double[] updateAllowedMinMaxValuesFromDataRange() {
+       double[] data=values();
        min=getBaselineValue();
        max=getBaselineValue();
-       for (int i=0;i<numericdata.length;i++) {
-         if (numericdata[i]>max) max=numericdata[i];
-         if (numericdata[i]<min) min=numericdata[i];
+       for (int i=0;i<data.length;i++) {
+         if (data[i]>max) max=data[i];
+         if (data[i]<min) min=data[i];
        }       
        return new double[]{min,max};         
     }
@@ -130,11 +140,12 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      * @return a double array with two components [0]=>min, [1]=>max
      */
     public double[] getMinMaxFromData() {
+       double[] data=values();
        double datamin=Double.MAX_VALUE;
        double datamax=-Double.MAX_VALUE;
-       for (int i=0;i<numericdata.length;i++) {
-         if (numericdata[i]>datamax) datamax=numericdata[i];
-         if (numericdata[i]<datamin) datamin=numericdata[i];
+       for (int i=0;i<data.length;i++) {
+         if (data[i]>datamax) datamax=data[i];
+         if (data[i]<datamin) datamin=data[i];
        }       
        return new double[]{datamin,datamax};         
     }
@@ -146,23 +157,126 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      * @return 
      */
     public double[] getMinMaxFromData(int fromPos, int toPos) {
+       double[] data=values();
        double datamin=Double.MAX_VALUE;
        double datamax=-Double.MAX_VALUE;
        for (int i=fromPos;i<=toPos;i++) {
-         if (numericdata[i]>datamax) datamax=numericdata[i];
-         if (numericdata[i]<datamin) datamin=numericdata[i];
+         if (data[i]>datamax) datamax=data[i];
+         if (data[i]<datamin) datamin=data[i];
        }       
        return new double[]{datamin,datamax};         
     }    
     
     public final void setAllPositionsToValue(double defaultvalue)  { 
-        for (int i=0;i<numericdata.length;i++) numericdata[i]=defaultvalue; 
+        ensureOwnData();
+        double[] data=numericdata;
+        for (int i=0;i<data.length;i++) data[i]=defaultvalue; 
         min=defaultvalue;
         max=defaultvalue;
     }
     
+    /** 
+     * Returns the array with the values in this sequence. Since the array can be modified by the caller,
+     * a private copy is made first if the array is currently shared with a clone.
+     * Note that if the sequence is stored in compact form, the returned array will be a decoded copy
+     * and changes to it will not affect this sequence
+     */
     @Override
-    public Object getValue() {return numericdata;}
+    public Object getValue() {
+        CompactNumericData compact=compactdata;
+        if (compact!=null) return compact.toArray();
+        ensureOwnData();
+        return numericdata;
+    }
+
+    /** 
+     * Returns the array of values, reading it back from disk first if it has been paged out.
+     * If the sequence is stored in compact form, this returns a shared decoded copy, so the array must not be modified
+     */
+    private double[] values() {
+        double[] data=numericdata;
+        if (data==null) {
+            Object payload=compactdata;
+            if (payload==null) payload=pageIn();
+            data=(payload instanceof CompactNumericData)?((CompactNumericData)payload).getDecodedValues():(double[])payload;
+        }
+        if (!accessed) accessed=true;
+        return data;
+    }
+
+    /** Returns the number of values in the sequence */
+    private int getBufferSize() {
+        CompactNumericData compact=compactdata;
+        if (compact!=null) return compact.length();
+        return values().length;
+    }
+
+    /** Returns the value at the given position relative to the start of the sequence (no bounds checking) */
+    private double getValueAt(int position) {
+        CompactNumericData compact=compactdata;
+        if (compact!=null) return compact.getValue(position);
+        return values()[position];
+    }
+
+    /** 
+     * Makes sure that the numericdata array is in memory and not shared with other sequences 
+     * (or paged out to disk or stored in compact form) before it is modified 
+     */
+    private void ensureOwnData() {
+        prepareForUpdate();
+        if (compactdata!=null) expand();
+        if (dataShared) copySharedData();
+    }
+
+    private synchronized void copySharedData() {
+        if (!dataShared) return; // another thread has already made the copy
+        numericdata=numericdata.clone();
+        dataShared=false;
+    }
+
+    /** Returns TRUE if the values are stored in compact form */
+    public boolean isCompact() {
+        return compactdata!=null;
+    }
+
+    /** Returns the compact representation of the values, or null if the values are stored in a plain array */
+    public CompactNumericData getCompactData() {
+        return compactdata;
+    }
+
+    /**
+     * Stores the values in compact form with the given encoding (see CompactNumericData).
+     * Producing operations can call this with an explicit mode when they know the nature of their output,
+     * but note that the FLOAT and QUANTIZED modes will reduce the precision of values that can not be represented exactly.
+     * With the AUTOMATIC mode, the smallest encoding that is exact for the current values will be selected
+     * (and the values are left as they are if no encoding is considerably smaller than the plain array)
+     * @param mode One of the modes defined in CompactNumericData
+     * @return TRUE if the values are stored in compact form after the call
+     */
+    public boolean compact(int mode) {
+        prepareForUpdate(); // this must be called without holding the lock on this object
+        synchronized(this) {
+            CompactNumericData current=compactdata;
+            if (current!=null && (mode==CompactNumericData.AUTOMATIC || mode==current.getMode())) return true;
+            double[] data=(current!=null)?current.toArray():numericdata;
+            if (data==null) return false;
+            CompactNumericData compact=CompactNumericData.create(data, mode);
+            if (compact==null) return (current!=null);
+            compactdata=compact; // this must be set before the array is released (see values())
+            numericdata=null;
+            dataShared=false;
+            return true;
+        }
+    }
+
+    /** Converts values stored in compact form back to a plain array (with 8 bytes per position) */
+    public synchronized void expand() {
+        CompactNumericData compact=compactdata;
+        if (compact==null) return;
+        numericdata=compact.toArray();
+        compactdata=null;
+        dataShared=false;
+    }
     
     @Override
      public Object getValueInGenomicInterval(int start, int end) {
@@ -172,9 +286,9 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
         int length=end-start+1;
         int relativeStart=getRelativePositionFromGenomic(start);
         double[] subset=new double[end-start+1];
-        for (int i=0;i<length;i++) {
-            subset[i]=numericdata[relativeStart+i];
-        }
+        CompactNumericData compact=compactdata;
+        if (compact!=null) compact.getValues(relativeStart, relativeStart+length, subset, 0);
+        else System.arraycopy(values(), relativeStart, subset, 0, length);
         return subset;
     } 
     
@@ -188,8 +302,8 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      */
     @Override
     public Double getValueAtRelativePosition(int position) {
-        if (position<0 || position>=numericdata.length) return null;
-        else return new Double(numericdata[position]);
+        if (position<0 || position>=getBufferSize()) return null;
+        else return new Double(getValueAt(position));
     }
 
    /**
@@ -203,7 +317,7 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
     public Double getValueAtGenomicPosition(String chromosome, int position) {
         if (!chromosome.equalsIgnoreCase(this.chromosome)) return null;
         if (position<this.startPosition || position>this.endPosition) return null;
-        return new Double(numericdata[position-this.startPosition]);
+        return new Double(getValueAt(position-this.startPosition));
     }
 
    /**
@@ -215,7 +329,7 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
     @Override
     public Double getValueAtGenomicPosition(int position) {
         if (position<this.startPosition || position>this.endPosition) return null;
-        return new Double(numericdata[position-this.startPosition]);
+        return new Double(getValueAt(position-this.startPosition));
     }
 
    /**
@@ -226,13 +340,9 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      */       
     public boolean setValueAtGenomicPosition(int position, double value) {
         if (position<this.startPosition || position>this.endPosition) return false;
+        ensureOwnData();
         numericdata[position-this.startPosition]=value;
-        if (value>max) max=value;
-        if (value<min) min=value;
-        if (parent!=null) {
-            if (max>((NumericDataset)parent).getMaxAllowedValue()) ((NumericDataset)parent).setMaxAllowedValue(max);
-            if (min<((NumericDataset)parent).getMinAllowedValue()) ((NumericDataset)parent).setMinAllowedValue(min);
-        }
+        if (value>max || value<min) includeInRange(value, value);
         return true;
     }
     
@@ -246,13 +356,9 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
     public boolean setValueAtGenomicPosition(String chrom, int position, double value) {
         if (chrom==null || chrom.equals(this.chromosome)) return false;
         if (position<this.startPosition || position>this.endPosition) return false;
+        ensureOwnData();
         numericdata[position-this.startPosition]=value;
-        if (value>max) max=value;
-        if (value<min) min=value;
-        if (parent!=null) {
-            if (max>((NumericDataset)parent).getMaxAllowedValue()) ((NumericDataset)parent).setMaxAllowedValue(max);
-            if (min<((NumericDataset)parent).getMinAllowedValue()) ((NumericDataset)parent).setMinAllowedValue(min);
-        }
+        if (value>max || value<min) includeInRange(value, value);
         return true;
     }
 
@@ -263,17 +369,52 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      * @return FALSE if position is outside bounds of sequence else true
      */       
     public boolean setValueAtRelativePosition(int position, double value) {
+        ensureOwnData();
         if (position<0 || position>=numericdata.length) return false;
         numericdata[position]=value;
-        if (value>max) max=value;
-        if (value<min) min=value;
-        if (parent!=null) {
-            if (max>((NumericDataset)parent).getMaxAllowedValue()) ((NumericDataset)parent).setMaxAllowedValue(max);
-            if (min<((NumericDataset)parent).getMinAllowedValue()) ((NumericDataset)parent).setMinAllowedValue(min);
-        }
+        if (value>max || value<min) includeInRange(value, value);
         return true;
     }
 
+   /**
+     * Replaces the values in an interval with the values provided (the interval has the same length as the array).
+     * This has the same effect as calling setValueAtGenomicPosition() for each position in the interval,
+     * but the min and max values are only updated once
+     * @param start The genomic start position of the interval
+     * @param values The new values. Values that fall outside the sequence are ignored
+     */
+    public void setValuesInGenomicInterval(int start, double[] values) {
+        int first=Math.max(start, this.startPosition);
+        int last=Math.min(start+values.length-1, this.endPosition);
+        if (last<first) return;
+        ensureOwnData();
+        System.arraycopy(values, first-start, numericdata, first-this.startPosition, last-first+1);
+        double intervalMin=Double.MAX_VALUE, intervalMax=-Double.MAX_VALUE;
+        for (int i=first-start;i<=last-start;i++) {
+            double value=values[i];
+            if (value>intervalMax) intervalMax=value;
+            if (value<intervalMin) intervalMin=value;
+        }
+        if (intervalMax>max || intervalMin<min) includeInRange(intervalMin, intervalMax);
+    }
+
+    /**
+     * Extends the min and max values of this sequence (and the allowed range of the parent dataset) to include the given range.
+     * Tiles of the same sequence can be written to by different threads at the same time, so the range is updated under a lock 
+     * rather than by each setter (the values are only ever extended, so the order of the updates does not matter)
+     */
+    private synchronized void includeInRange(double low, double high) {
+        if (high>max) max=high;
+        if (low<min) min=low;
+        FeatureDataset dataset=parent;
+        if (dataset!=null) {
+            synchronized(dataset) {
+                if (max>((NumericDataset)dataset).getMaxAllowedValue()) ((NumericDataset)dataset).setMaxAllowedValue(max);
+                if (min<((NumericDataset)dataset).getMinAllowedValue()) ((NumericDataset)dataset).setMinAllowedValue(min);
+            }
+        }
+    }
+
    
     @Override
     public void setParent(FeatureDataset parent) {
@@ -326,11 +467,14 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
     }
         
     public void setData(double[] data) { // replaces the current array of values with the one provided
+        prepareForUpdate();
         numericdata=data;
+        compactdata=null;
+        dataShared=false;
         min=baseline; max=baseline;
-        for (int i=0;i<numericdata.length;i++) {
-          if (numericdata[i]>max) max=numericdata[i];       
-          else if (numericdata[i]<min) min=numericdata[i]; 
+        for (int i=0;i<data.length;i++) {
+          if (data[i]>max) max=data[i];       
+          else if (data[i]<min) min=data[i]; 
         }  
         if (parent!=null) {
             if (max>((NumericDataset)parent).getMaxAllowedValue()) ((NumericDataset)parent).setMaxAllowedValue(max);
@@ -338,7 +482,9 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
         }
     }
       
+    /** Returns the array with the values in this sequence (a private copy is made first if the array is shared with a clone) */
     public double[] getData() {
+       ensureOwnData();
        return numericdata;   
     }
     
@@ -352,13 +498,14 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      *
      */
     public Double getMinValueInInterval(int start, int end) {
+        double[] data=values();
         if (end<start) {int end2=end;end=start;start=end2;} // swap           
-        if (end<0 || start>numericdata.length-1) return null;
+        if (end<0 || start>data.length-1) return null;
         double minval=Double.MAX_VALUE;     
         if (start<0) start=0;
-        if (end>numericdata.length-1) end=numericdata.length-1;
+        if (end>data.length-1) end=data.length-1;
         for (int i=start;i<=end;i++) {
-            if (numericdata[i]<minval) minval=numericdata[i];
+            if (data[i]<minval) minval=data[i];
         }
         return minval;
     }
@@ -373,13 +520,14 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      *
      */
     public Double getMaxValueInInterval(int start, int end) {
+        double[] data=values();
         if (end<start) {int end2=end;end=start;start=end2;} // swap        
-        if (end<0 || start>numericdata.length-1) return null;
+        if (end<0 || start>data.length-1) return null;
         double maxval=-Double.MAX_VALUE; // Note: Double.MIN_VALUE is the smallest POSITIVE number!
         if (start<0) start=0;
-        if (end>numericdata.length-1) end=numericdata.length-1;
+        if (end>data.length-1) end=data.length-1;
         for (int i=start;i<=end;i++) {
-            if (numericdata[i]>maxval) maxval=numericdata[i];
+            if (data[i]>maxval) maxval=data[i];
         }
         return maxval;
     }
@@ -394,13 +542,14 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      *
      */
     public Double getExtremeValueInInterval(int start, int end) {
+        double[] data=values();
         if (end<start) {int end2=end;end=start;start=end2;} // swap           
-        if (end<0 || start>numericdata.length-1) return null; // outside range
+        if (end<0 || start>data.length-1) return null; // outside range
         double extreme=0;
         if (start<0) start=0;
-        if (end>numericdata.length-1) end=numericdata.length-1;
+        if (end>data.length-1) end=data.length-1;
         for (int i=start;i<=end;i+=1) {
-            if (Math.abs(numericdata[i])>Math.abs(extreme)) extreme=numericdata[i];
+            if (Math.abs(data[i])>Math.abs(extreme)) extreme=data[i];
         }
         return extreme;
     }
@@ -416,26 +565,28 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      * @param sample The number of positions to sample in the interval 
      */
     public Double getExtremeValueInInterval(int start, int end, int cutoff, int sample) {        
+        double[] data=values();
         if (end<start) {int end2=end;end=start;start=end2;} // swap           
-        if (end<0 || start>numericdata.length-1) return null; // outside range     
+        if (end<0 || start>data.length-1) return null; // outside range     
         double extreme=0;
         if (start<0) start=0;
-        if (end>numericdata.length-1) end=numericdata.length-1;
+        if (end>data.length-1) end=data.length-1;
         int step=(end-start<=cutoff)?1:(int)((end-start)/sample); //
         if (step<=0) step=1;
         for (int i=start;i<=end;i+=step) {
-            if (Math.abs(numericdata[i])>Math.abs(extreme)) extreme=numericdata[i];
+            if (Math.abs(data[i])>Math.abs(extreme)) extreme=data[i];
         }
         return extreme;
     } 
     
     public Double getCenterValueInInterval(int start, int end) {
+        double[] data=values();
         if (end<start) {int end2=end;end=start;start=end2;} // swap           
-        if (end<0 || start>numericdata.length-1) return null; // outside range
+        if (end<0 || start>data.length-1) return null; // outside range
         if (start<0) start=0;
-        if (end>numericdata.length-1) end=numericdata.length-1;    
+        if (end>data.length-1) end=data.length-1;    
         int centerPosition=start+(end-start)/2;
-        return numericdata[centerPosition];
+        return data[centerPosition];
     } 
     
     /**
@@ -448,14 +599,15 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      *
      */
     public Double getAverageValueInInterval(int start, int end) {
+        double[] data=values();
         if (end<start) {int end2=end;end=start;start=end2;} // swap           
-        if (end<0 || start>numericdata.length-1) return null;
+        if (end<0 || start>data.length-1) return null;
         double avg=0;
         if (start<0) start=0;
-        if (end>numericdata.length-1) end=numericdata.length-1;
+        if (end>data.length-1) end=data.length-1;
         double length=end-start+1;
         for (int i=start;i<=end;i++) {
-            avg+=numericdata[i];
+            avg+=data[i];
         }        
         avg=avg/length; // note that length can not be 0 since length=end-start+1 (and start is always smaller than end)
         return avg;
@@ -474,16 +626,17 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      * @return 
      */
     public Double getAverageValueInInterval(int start, int end, int cutoff, int sample) {
+        double[] data=values();
         if (end<start) {int end2=end;end=start;start=end2;} // swap           
-        if (end<0 || start>numericdata.length-1) return null;
+        if (end<0 || start>data.length-1) return null;
         double avg=0;
         if (start<0) start=0;
-        if (end>numericdata.length-1) end=numericdata.length-1;
+        if (end>data.length-1) end=data.length-1;
         double length=0;
         int step=(end-start<=cutoff)?1:(int)((end-start)/sample); // if the segment is very long, sample only a few positions for efficiency
         if (step<=0) step=1;        
         for (int i=start;i<=end;i+=step) {
-            avg+=numericdata[i]; length++;
+            avg+=data[i]; length++;
         }        
         return (length>0)?(avg=avg/length):avg; 
     }    
@@ -498,13 +651,14 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      *
      */
     public Double getSumValueInInterval(int start, int end) {
+        double[] data=values();
         if (end<start) {int end2=end;end=start;start=end2;} // swap           
-        if (end<0 || start>numericdata.length-1) return null;
+        if (end<0 || start>data.length-1) return null;
         double sum=0;
         if (start<0) start=0;
-        if (end>numericdata.length-1) end=numericdata.length-1;
+        if (end>data.length-1) end=data.length-1;
         for (int i=start;i<=end;i++) {
-            sum+=numericdata[i];
+            sum+=data[i];
         }
         return sum;
     }
@@ -518,13 +672,14 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      *
      */
     public Double getProductValueInInterval(int start, int end) {
+        double[] data=values();
         if (end<start) {int end2=end;end=start;start=end2;} // swap           
-        if (end<0 || start>numericdata.length-1) return null;
+        if (end<0 || start>data.length-1) return null;
         double product=1.0f;
         if (start<0) start=0;
-        if (end>numericdata.length-1) end=numericdata.length-1;
+        if (end>data.length-1) end=data.length-1;
         for (int i=start;i<=end;i++) {
-            product*=numericdata[i];
+            product*=data[i];
         }
         return product;
     }
@@ -539,16 +694,17 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      *
      */
     public Double getMedianValueInInterval(int start, int end) {
+        double[] data=values();
         if (end<start) {int end2=end;end=start;start=end2;} // swap           
-        if (end<0 || start>numericdata.length-1) return null;
+        if (end<0 || start>data.length-1) return null;
         double median=0;
         if (start<0) start=0;
-        if (end>numericdata.length-1) end=numericdata.length-1;
+        if (end>data.length-1) end=data.length-1;
         int length=end-start+1;
         double[] buffer=new double[length];  
         int j=0;
         for (int i=start;i<=end;i++) {
-            buffer[j]=numericdata[i];
+            buffer[j]=data[i];
             j++;
         }
         Arrays.sort(buffer);
@@ -572,13 +728,14 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      *
      */
     public Double getWeightedMinValueInInterval(int start, int end, double[] weights) {
+        double[] data=values();
         if (end<start) {int end2=end;end=start;start=end2;} // swap           
-        if (end<0 || start>numericdata.length-1) return null;
+        if (end<0 || start>data.length-1) return null;
         double minval=Double.MAX_VALUE;     
         for (int i=0;i<weights.length;i++) {
             int pos=start+i;
-            if (pos<0 || pos>=numericdata.length) continue;
-            double weightedvalue=numericdata[pos]*weights[i];
+            if (pos<0 || pos>=data.length) continue;
+            double weightedvalue=data[pos]*weights[i];
             if (weightedvalue<minval) minval=weightedvalue;
         }
         return minval;
@@ -595,13 +752,14 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      *
      */
     public Double getWeightedMaxValueInInterval(int start, int end, double[] weights) {
+        double[] data=values();
         if (end<start) {int end2=end;end=start;start=end2;} // swap           
-        if (end<0 || start>numericdata.length-1) return null;
+        if (end<0 || start>data.length-1) return null;
         double maxval=-Double.MAX_VALUE;     
         for (int i=0;i<weights.length;i++) {
             int pos=start+i;
-            if (pos<0 || pos>=numericdata.length) continue;
-            double weightedvalue=numericdata[pos]*weights[i];
+            if (pos<0 || pos>=data.length) continue;
+            double weightedvalue=data[pos]*weights[i];
             if (weightedvalue>maxval) maxval=weightedvalue;
         }
         return maxval;
@@ -618,8 +776,9 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      *
      */
     public Double getWeightedAverageValueInInterval(int start, int end, double[] weights) {
+        double[] data=values();
         if (end<start) {int end2=end;end=start;start=end2;} // swap           
-        if (end<0 || start>numericdata.length-1) return null;
+        if (end<0 || start>data.length-1) return null;
         double sum=0;
         if (weights==null || weights.length!=(end-start+1)) return null;
         double weightssum=0;
@@ -627,8 +786,8 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
         if (weightssum==0) return sum;
         for (int i=0;i<weights.length;i++) {
             int pos=start+i;
-            if (pos<0 || pos>=numericdata.length) continue;
-            sum+=(numericdata[pos]*(weights[i]/weightssum)); // the weights are normalized here so they sum to 1 by diving by the sum
+            if (pos<0 || pos>=data.length) continue;
+            sum+=(data[pos]*(weights[i]/weightssum)); // the weights are normalized here so they sum to 1 by diving by the sum
         }
         return sum; // 
     }
@@ -644,14 +803,15 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      *
      */
     public Double getWeightedSumValueInInterval(int start, int end, double[] weights) {
+        double[] data=values();
         if (end<start) {int end2=end;end=start;start=end2;} // swap           
-        if (end<0 || start>numericdata.length-1) return null;
+        if (end<0 || start>data.length-1) return null;
         double sum=0;
         if (weights==null || weights.length!=(end-start+1)) return null;
         for (int i=0;i<weights.length;i++) {
             int pos=start+i;
-            if (pos<0 || pos>=numericdata.length) continue;
-            sum+=(numericdata[pos]*weights[i]);
+            if (pos<0 || pos>=data.length) continue;
+            sum+=(data[pos]*weights[i]);
         }
         return sum;
     }
@@ -667,14 +827,15 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      *
      */
     public Double getWeightedProductValueInInterval(int start, int end, double[] weights) {
+        double[] data=values();
         if (end<start) {int end2=end;end=start;start=end2;} // swap           
-        if (end<0 || start>numericdata.length-1) return null;
+        if (end<0 || start>data.length-1) return null;
         double product=1f;
         if (weights==null || weights.length!=(end-start+1)) return null;
         for (int i=0;i<weights.length;i++) {
             int pos=start+i;
-            if (pos<0 || pos>=numericdata.length) continue;
-            product*=(numericdata[pos]*weights[i]);
+            if (pos<0 || pos>=data.length) continue;
+            product*=(data[pos]*weights[i]);
         }
         return product;
     }
@@ -689,18 +850,19 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
      *
      */
     public Double getWeightedMedianValueInInterval(int start, int end, double[] weights) {
+        double[] data=values();
         if (end<start) {int end2=end;end=start;start=end2;} // swap           
-        if (end<0 || start>numericdata.length-1) return null;
+        if (end<0 || start>data.length-1) return null;
         double median=0; 
         int seqstart=start;
         if (start<0) start=0;
-        if (end>numericdata.length-1) end=numericdata.length-1;
+        if (end>data.length-1) end=data.length-1;
         int length=end-start+1;
         double[] buffer=new double[length];  
         for (int i=0;i<=weights.length;i++) {
             int pos=seqstart+i;
-            if (pos<0 || pos>=numericdata.length) continue;            
-            buffer[i]=(numericdata[pos]*weights[i]);
+            if (pos<0 || pos>=data.length) continue;            
+            buffer[i]=(data[pos]*weights[i]);
         }
         Arrays.sort(buffer);
         if (length%2==0) { // even number of values. Note that the length can NOT be 0!
@@ -713,13 +875,20 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
     }   
     
     /**
-     * Returns a deep copy of this NumericSequenceData object
+     * Returns a copy of this NumericSequenceData object.
+     * The copy initially shares the array of values with this object, and the array 
+     * is copied by whichever of the two objects is modified first (copy-on-write)
      */
     @Override
     public NumericSequenceData clone() {
-        double[] newvalues=new double[numericdata.length];
-        System.arraycopy(numericdata, 0, newvalues, 0, numericdata.length);
-        NumericSequenceData newdata=new NumericSequenceData(sequenceName, chromosome, startPosition, endPosition, newvalues);
+        CompactNumericData compact=compactdata;
+        NumericSequenceData newdata=new NumericSequenceData(sequenceName, chromosome, startPosition, endPosition, (compact!=null)?new double[0]:values());
+        if (compact!=null) {
+            newdata.numericdata=null;
+            newdata.compactdata=compact; // compact data is never modified, so it can be shared without copying
+        }
+        newdata.dataShared=true;
+        this.dataShared=true;
         newdata.max=this.max;
         newdata.min=this.min;
         newdata.baseline=this.baseline;
@@ -734,16 +903,34 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
         this.max=((NumericSequenceData)source).max;
         this.min=((NumericSequenceData)source).min;
         this.baseline=((NumericSequenceData)source).baseline;
-        setData(((NumericSequenceData)source).numericdata);
+        CompactNumericData compact=((NumericSequenceData)source).compactdata;
+        if (compact!=null) {
+            prepareForUpdate();
+            synchronized(this) {
+                this.compactdata=compact;
+                this.numericdata=null;
+                this.dataShared=false;
+            }
+            return;
+        }
+        setData(((NumericSequenceData)source).values());
+        this.dataShared=true; // the array is shared with the source
+        ((NumericSequenceData)source).dataShared=true;
         //notifyListenersOfDataUpdate(); 
     }
     
     @Override  
     public void cropTo(int relativeStart, int relativeEnd) throws ExecutionError {
-        if (relativeStart<0 || relativeStart>=numericdata.length || relativeEnd<0 || relativeEnd>=numericdata.length || relativeEnd<relativeStart) throw new ExecutionError("Crop out of bounds");
-        if (relativeStart==0 && relativeEnd==numericdata.length-1) return;
-        double[] newnumericdata=Arrays.copyOfRange(numericdata, relativeStart, relativeEnd+1);
-        numericdata=newnumericdata;  
+        prepareForUpdate();
+        int size=getBufferSize();
+        if (relativeStart<0 || relativeStart>=size || relativeEnd<0 || relativeEnd>=size || relativeEnd<relativeStart) throw new ExecutionError("Crop out of bounds");
+        if (relativeStart==0 && relativeEnd==size-1) return;
+        if (compactdata!=null) compactdata=compactdata.getSegment(relativeStart, relativeEnd+1);
+        else {
+            double[] newnumericdata=Arrays.copyOfRange(numericdata, relativeStart, relativeEnd+1);
+            numericdata=newnumericdata;  
+        }
+        dataShared=false;
         int oldstart=getRegionStart();
         setRegionStart(oldstart+relativeStart);         
         setRegionEnd(oldstart+relativeEnd);         
@@ -766,36 +953,70 @@ public class NumericSequenceData extends FeatureSequenceData implements Cloneabl
         if (this.max!=((NumericSequenceData)other).max) return false;
         if (this.min!=((NumericSequenceData)other).min) return false;
         if (this.baseline!=((NumericSequenceData)other).baseline) return false;
-        return (Arrays.equals(this.numericdata,((NumericSequenceData)other).numericdata));
+        return (Arrays.equals(this.values(),((NumericSequenceData)other).values()));
     }
 
 
     /** Returns a hashcode based on the contents of the numeric sequence */
     public int getDebugHashCode() {
-        return Arrays.hashCode(numericdata);
+        double[] data=values();
+        return Arrays.hashCode(data);
     }
 
     /** Outputs information about this dataset into the buffer */
     public StringBuilder debug(StringBuilder builder) {
         if (builder==null) builder=new StringBuilder();
-        builder.append(" - "+getName()+" : "+getRegionAsString()+", size="+getSize()+", buffersize="+((numericdata==null)?0:numericdata.length)+", dataDebugHashcode="+getDebugHashCode()+",   ["+System.identityHashCode(this)+"]");
+        CompactNumericData compact=compactdata;
+        builder.append(" - "+getName()+" : "+getRegionAsString()+", size="+getSize()+", buffersize="+((compact!=null)?compact.length():(numericdata==null)?0:numericdata.length)+((compact!=null)?" ("+CompactNumericData.getModeName(compact.getMode())+", "+compact.getMemoryUsage()+" bytes)":"")+((numericdata==null && compact==null && getPager()!=null)?" (paged out)":"")+", dataDebugHashcode="+getDebugHashCode()+",   ["+System.identityHashCode(this)+"]");
         return builder;
     }        
     
+    // ------------ Paging ---------
+
+    @Override
+    long getPageablePayloadSize() {
+        return (compactdata!=null)?0:(long)getSize()*8; // compact data is not paged out
+    }
+
+    @Override
+    Object getResidentPayload() {
+        CompactNumericData compact=compactdata;
+        return (compact!=null)?compact:numericdata;
+    }
+
+    @Override
+    void writePayload(FileChannel channel) throws IOException {
+        channel.map(FileChannel.MapMode.READ_WRITE, 0, (long)numericdata.length*8).asDoubleBuffer().put(numericdata);
+    }
+
+    @Override
+    void readPayload(FileChannel channel) throws IOException {
+        DoubleBuffer buffer=channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asDoubleBuffer();
+        double[] data=new double[buffer.remaining()];
+        buffer.get(data);
+        numericdata=data;
+    }
+
+    @Override
+    void discardPayload() {
+        if (compactdata==null) numericdata=null;
+    }
+    
     // ------------ Serialization ---------
     private static final long serialVersionUID = 1L;
 
-    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
-         short currentinternalversion=1; // this is an internal version number for serialization of objects of this type
+    private synchronized void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+         short currentinternalversion=(compactdata!=null)?(short)2:(short)1; // this is an internal version number for serialization of objects of this type. Version 2 (compact data) can not be read by older versions
          out.writeShort(currentinternalversion);
+         loadPayloadForSerialization();
          out.defaultWriteObject();
     }
 
     private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
          short currentinternalversion=in.readShort(); // the internalversion number is used to determine correct format of data
-         if (currentinternalversion==1) {
+         if (currentinternalversion==1 || currentinternalversion==2) {
              in.defaultReadObject();
-         } else if (currentinternalversion>1) throw new ClassNotFoundException("Newer version");
+         } else if (currentinternalversion>2) throw new ClassNotFoundException("Newer version");
     }
 
 }
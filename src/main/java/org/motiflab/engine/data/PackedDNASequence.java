@@ -0,0 +1,287 @@
+package org.motiflab.engine.data;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * This class stores a DNA sequence with 2 bits per base, using the same layout as
+ * the UCSC .2bit format: The bases A,C,G and T are packed 32 to a long word, while
+ * runs of other letters (such as N) and runs of lowercase (masked) bases are kept in
+ * separate tables of (start,length) pairs. Letters are decoded on demand, so the sequence
+ * only occupies about 1/8 of the memory required by a char[] buffer for typical genomic DNA.
+ * <br>
+ * The base at position i is found in word i/32 at bit offset 2*(i%32), encoded as
+ * A=0, C=1, G=2 and T=3 (the same codes used by MotifScoringKernel). Positions covered
+ * by a run of other letters are encoded as 0 in the words and must be checked with
+ * getNextUnknownPosition() or isUnknown().
+ *
+ * @author kjetikl
+ */
+public class PackedDNASequence implements CharSequence, Serializable, Cloneable {
+
+    /** The number of bases packed into each word */
+    public static final int BASES_PER_WORD=32;
+
+    private static final char[] BASES=new char[]{'A','C','G','T'};
+    private static final int[] EMPTY=new int[0];
+
+    private int length;
+    private long[] words;
+    private int[] unknownStarts=EMPTY;   // the starts of runs of letters other than A,C,G and T
+    private int[] unknownLengths=EMPTY;
+    private char[] unknownLetters=new char[0]; // the (uppercase) letter of each run
+    private int[] maskStarts=EMPTY;      // the starts of runs of lowercase letters
+    private int[] maskLengths=EMPTY;
+
+    private PackedDNASequence() {}
+
+    /** Creates a packed copy of the given sequence */
+    public PackedDNASequence(char[] sequence) {
+        this(sequence, 0, sequence.length);
+    }
+
+    /** Creates a packed copy of a segment of the given sequence */
+    public PackedDNASequence(char[] sequence, int offset, int length) {
+        this.length=length;
+        words=new long[(length+BASES_PER_WORD-1)/BASES_PER_WORD];
+        int unknownRuns=0, maskRuns=0;
+        int previousUnknown=-1;
+        boolean previousMasked=false;
+        for (int i=0;i<length;i++) { // count the runs first so that the tables can be allocated with the correct size
+            char c=sequence[offset+i];
+            boolean masked=(c>='a' && c<='z');
+            if (masked) c=(char)(c-32);
+            int code=encode(c);
+            if (code<0 && c!=previousUnknown) unknownRuns++;
+            previousUnknown=(code<0)?c:-1;
+            if (masked && !previousMasked) maskRuns++;
+            previousMasked=masked;
+        }
+        unknownStarts=new int[unknownRuns];
+        unknownLengths=new int[unknownRuns];
+        unknownLetters=new char[unknownRuns];
+        maskStarts=new int[maskRuns];
+        maskLengths=new int[maskRuns];
+        int unknownIndex=-1, maskIndex=-1;
+        previousUnknown=-1;
+        previousMasked=false;
+        for (int i=0;i<length;i++) {
+            char c=sequence[offset+i];
+            boolean masked=(c>='a' && c<='z');
+            if (masked) c=(char)(c-32);
+            int code=encode(c);
+            if (code>=0) words[i>>>5]|=((long)code)<<((i&31)<<1);
+            else {
+                if (c!=previousUnknown) {
+                    unknownIndex++;
+                    unknownStarts[unknownIndex]=i;
+                    unknownLetters[unknownIndex]=c;
+                }
+                unknownLengths[unknownIndex]++;
+            }
+            previousUnknown=(code<0)?c:-1;
+            if (masked) {
+                if (!previousMasked) {
+                    maskIndex++;
+                    maskStarts[maskIndex]=i;
+                }
+                maskLengths[maskIndex]++;
+            }
+            previousMasked=masked;
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index<0 || index>=length) throw new IndexOutOfBoundsException("Position "+index+" is outside sequence of length "+length);
+        int run=findRun(unknownStarts, unknownLengths, index);
+        char c=(run>=0)?unknownLetters[run]:BASES[getBaseCode(index)];
+        if (findRun(maskStarts, maskLengths, index)>=0 && c>='A' && c<='Z') c=(char)(c+32);
+        return c;
+    }
+
+    /**
+     * Decodes the segment from start to end (exclusive) into the destination array.
+     * This is much faster than calling charAt() for each position
+     */
+    public void getChars(int start, int end, char[] destination, int destinationOffset) {
+        if (start<0 || end>length || start>end) throw new IndexOutOfBoundsException("Segment ["+start+","+end+") is outside sequence of length "+length);
+        for (int i=start;i<end;i++) destination[destinationOffset+i-start]=BASES[(int)(words[i>>>5]>>>((i&31)<<1))&3];
+        int run=findFirstRunEndingAfter(unknownStarts, unknownLengths, start);
+        for (;run<unknownStarts.length && unknownStarts[run]<end;run++) {
+            int from=Math.max(unknownStarts[run], start);
+            int to=Math.min(unknownStarts[run]+unknownLengths[run], end);
+            Arrays.fill(destination, destinationOffset+from-start, destinationOffset+to-start, unknownLetters[run]);
+        }
+        run=findFirstRunEndingAfter(maskStarts, maskLengths, start);
+        for (;run<maskStarts.length && maskStarts[run]<end;run++) {
+            int from=Math.max(maskStarts[run], start);
+            int to=Math.min(maskStarts[run]+maskLengths[run], end);
+            for (int i=from;i<to;i++) {
+                char c=destination[destinationOffset+i-start];
+                if (c>='A' && c<='Z') destination[destinationOffset+i-start]=(char)(c+32);
+            }
+        }
+    }
+
+    /** Returns the whole sequence decoded into a new char array */
+    public char[] toCharArray() {
+        char[] buffer=new char[length];
+        getChars(0, length, buffer, 0);
+        return buffer;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        char[] buffer=new char[end-start];
+        getChars(start, end, buffer, 0);
+        return new String(buffer);
+    }
+
+    @Override
+    public String toString() {
+        return new String(toCharArray());
+    }
+
+    /** Returns a new packed sequence containing the segment from start to end (exclusive) */
+    public PackedDNASequence getSegment(int start, int end) {
+        char[] buffer=new char[end-start];
+        getChars(start, end, buffer, 0);
+        return new PackedDNASequence(buffer);
+    }
+
+    /** Returns the number of words used to store the bases */
+    public int getNumberOfWords() {
+        return words.length;
+    }
+
+    /**
+     * Returns the word containing the bases from position index*32 to index*32+31, with the first
+     * of these bases in the two least significant bits. Positions beyond the end of the sequence
+     * and positions with unknown letters are encoded as 0 (A)
+     */
+    public long getWord(int index) {
+        return words[index];
+    }
+
+    /** Returns the 2-bit code (A=0, C=1, G=2, T=3) stored for the given position (this will be 0 for unknown letters) */
+    public int getBaseCode(int position) {
+        return (int)(words[position>>>5]>>>((position&31)<<1))&3;
+    }
+
+    /** Returns TRUE if the letter at the given position is something other than A,C,G or T (regardless of case) */
+    public boolean isUnknown(int position) {
+        return findRun(unknownStarts, unknownLengths, position)>=0;
+    }
+
+    /** Returns TRUE if the letter at the given position is lowercase */
+    public boolean isMasked(int position) {
+        return findRun(maskStarts, maskLengths, position)>=0;
+    }
+
+    /**
+     * Returns the first position at or after the given position which contains a letter other than A,C,G or T,
+     * or the length of the sequence if there are no such positions
+     */
+    public int getNextUnknownPosition(int position) {
+        int run=findFirstRunEndingAfter(unknownStarts, unknownLengths, position);
+        if (run>=unknownStarts.length) return length;
+        return Math.max(unknownStarts[run], position);
+    }
+
+    /**
+     * Returns the first position at or after the given position which contains one of the bases A,C,G or T
+     * (i.e. the end of the run of other letters covering the position), or the length of the sequence if there are no such positions
+     */
+    public int getNextKnownPosition(int position) {
+        int run=findRun(unknownStarts, unknownLengths, position);
+        while (run>=0) { // adjacent runs can have different letters
+            position=unknownStarts[run]+unknownLengths[run];
+            run=(run+1<unknownStarts.length && unknownStarts[run+1]==position)?run+1:-1;
+        }
+        return Math.min(position, length);
+    }
+
+    /**
+     * Replaces the letter at the given position if this can be done without changing the run tables,
+     * i.e. if both the old and the new letter are A,C,G or T with the same case.
+     * @return TRUE if the letter was replaced, or FALSE if the sequence must be repacked to store the new letter
+     */
+    public boolean setBase(int position, char base) {
+        boolean masked=(base>='a' && base<='z');
+        int code=encode((masked)?(char)(base-32):base);
+        if (code<0 || isUnknown(position) || isMasked(position)!=masked) return false;
+        int shift=(position&31)<<1;
+        words[position>>>5]=(words[position>>>5] & ~(3L<<shift))|(((long)code)<<shift);
+        return true;
+    }
+
+    /** Returns the approximate number of bytes used to store this sequence */
+    public long getMemoryUsage() {
+        return words.length*8L+unknownStarts.length*10L+maskStarts.length*8L;
+    }
+
+    @Override
+    public PackedDNASequence clone() {
+        PackedDNASequence copy=new PackedDNASequence();
+        copy.length=length;
+        copy.words=words.clone();
+        copy.unknownStarts=unknownStarts.clone();
+        copy.unknownLengths=unknownLengths.clone();
+        copy.unknownLetters=unknownLetters.clone();
+        copy.maskStarts=maskStarts.clone();
+        copy.maskLengths=maskLengths.clone();
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other==this) return true;
+        if (!(other instanceof PackedDNASequence)) return false;
+        PackedDNASequence seq=(PackedDNASequence)other;
+        return length==seq.length && Arrays.equals(words, seq.words)
+            && Arrays.equals(unknownStarts, seq.unknownStarts) && Arrays.equals(unknownLengths, seq.unknownLengths) && Arrays.equals(unknownLetters, seq.unknownLetters)
+            && Arrays.equals(maskStarts, seq.maskStarts) && Arrays.equals(maskLengths, seq.maskLengths);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31*length+Arrays.hashCode(words);
+    }
+
+    /** Returns the 2-bit code for the given uppercase base, or -1 if it is not A,C,G or T */
+    private static int encode(char c) {
+        switch (c) {
+            case 'A': return 0;
+            case 'C': return 1;
+            case 'G': return 2;
+            case 'T': return 3;
+            default: return -1;
+        }
+    }
+
+    /** Returns the index of the run covering the given position, or -1 if the position is not covered by any run */
+    private static int findRun(int[] starts, int[] lengths, int position) {
+        int run=findFirstRunEndingAfter(starts, lengths, position);
+        return (run<starts.length && starts[run]<=position)?run:-1;
+    }
+
+    /** Returns the index of the first run which ends after the given position (or the number of runs if there is no such run) */
+    private static int findFirstRunEndingAfter(int[] starts, int[] lengths, int position) {
+        int low=0, high=starts.length;
+        while (low<high) { // the runs are sorted and do not overlap, so the ends are also sorted
+            int mid=(low+high)>>>1;
+            if (starts[mid]+lengths[mid]<=position) low=mid+1; else high=mid;
+        }
+        return low;
+    }
+
+    // ------------ Serialization ---------
+    private static final long serialVersionUID = 1L;
+
+}
@@ -4,10 +4,12 @@
  */
 
 package org.motiflab.engine.data;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Set;
+import java.util.HashSet;
 import org.motiflab.engine.ExecutionError;
 import org.motiflab.engine.MotifLabEngine;
 
@@ -29,7 +31,7 @@ public class Region implements Cloneable,Serializable {
     private double score;
     private String sequence=null;
     //private boolean ismodule=false;
-    private HashMap<String,Object> properties=null; // useful properties: name, score, source, orientation. All names should be lowercase (properties are case-insensitive)
+    private RegionProperties properties=null; // user-defined properties. The names are interned in the property schema of the track (see RegionPropertySchema)
     public short row=-1; // this is used by track visualizers that display regions on multiple rows
 
     /**
@@ -89,8 +91,8 @@ public class Region implements Cloneable,Serializable {
     public void setParent(RegionSequenceData newparent) {
         parent=newparent;
         if (properties!=null) {
-            for (String key:properties.keySet()) {
-                Object value=properties.get(key);
+            for (int i=0;i<properties.size();i++) {
+                Object value=properties.getValue(i);
                 if (value instanceof Region) ((Region)value).setParent(newparent);
                 else if (value instanceof ArrayList) {
                     for (Object obj:(ArrayList)value) {
@@ -98,9 +100,14 @@ public class Region implements Cloneable,Serializable {
                     }
                 }
             }
-
+            rebindPropertySchema();
         }
     }   
+
+    /** Moves the user-defined properties of this region to the property schema of the track that the region belongs to (if they are not already there) */
+    void rebindPropertySchema() {
+        if (properties!=null) properties.rebind(getPropertySchemaForTrack());
+    }
     
     /** Returns the RegionDataset that this region is part of.
      *  This is the same as its 'grandparent' returned by region.getParent().getParent()
@@ -208,6 +215,7 @@ public class Region implements Cloneable,Serializable {
      */
     public void setRelativeStart(int start) {
         this.start=start;
+        if (parent!=null) parent.regionLocationChanged();
     }
     
    /**
@@ -216,6 +224,7 @@ public class Region implements Cloneable,Serializable {
      */
     public void setRelativeEnd(int end) {
         this.end=end;
+        if (parent!=null) parent.regionLocationChanged();
     }    
     
    /**
@@ -332,6 +341,7 @@ public class Region implements Cloneable,Serializable {
      * @return The value of the property, if specified, else null
      */
     public Object getProperty(String property) {
+            if (properties!=null && !property.endsWith("]") && !isStandardProperty(property)) return properties.get(property); // user-defined property (skips the comparisons below)
             int offset=0; boolean xoffset=false;
             if (property.endsWith("[0]")) {xoffset=true;property=property.substring(0,property.length()-3);}
             else if (property.endsWith("[1]")) {offset=1;xoffset=true;property=property.substring(0,property.length()-3);}
@@ -435,36 +445,77 @@ public class Region implements Cloneable,Serializable {
             }
         }                
         else { // Set user-defined property. Note that these are case-sensitive
-            if (properties==null) properties=new HashMap<String, Object>(2);
-            if (value==null || value.toString().isEmpty()) properties.remove(property); //
-            else {
+            if (value==null || value.toString().isEmpty()) {
+                if (properties!=null) properties.remove(property);
+            } else {
                 if (value instanceof ArrayList) value=MotifLabEngine.splice((ArrayList)value, ",");
+                if (properties==null) properties=new RegionProperties(getPropertySchemaForTrack(), 2);
                 properties.put(property, value); //
             }
         }
     }
+
+    /**
+     * Returns the value of the user-defined property with the given name, or NULL if this region does not have the property.
+     * Unlike getProperty(), this does not check if the name refers to a standard property
+     */
+    public Object getUserDefinedProperty(String property) {
+        return (properties!=null)?properties.get(property):null;
+    }
+
+    /**
+     * Returns the value of the user-defined property with the given name as a double,
+     * or the default value if this region does not have the property or the value is not a number
+     */
+    public double getNumericUserDefinedProperty(String property, double defaultValue) {
+        return (properties!=null)?properties.getNumeric(property, defaultValue):defaultValue;
+    }
+
+    /** 
+     * Returns the property schema of the track that this region belongs to. 
+     * If the region is not part of a track, the current schema of the region is kept (or a new private schema is created)
+     */
+    private RegionPropertySchema getPropertySchemaForTrack() {
+        FeatureDataset dataset=(parent!=null)?parent.getParent():null;
+        if (dataset instanceof RegionDataset) return ((RegionDataset)dataset).getPropertySchema();
+        else if (properties!=null) return properties.getSchema();
+        else return new RegionPropertySchema();
+    }
+
+    // the names of standard properties recognized by getProperty() (in lowercase and without [0] or [1] suffixes)
+    private static final HashSet<String> standardProperties=new HashSet<String>(Arrays.asList(new String[]{
+        "type","score","orientation","strand","relative orientation","relative strand","orientation sign","strand sign",
+        "orientation string","strand string","relative orientation sign","relative strand sign","relative orientation string",
+        "relative strand string","sequence","sequence name","start","end","relative start","relative end","genomic start","genomic end",
+        "size","length","chr","chromosome","chr string","chromosome string","tss-relative start","tss-relative end","tes-relative start",
+        "tes-relative end","tss[0]-relative start","tss[0]-relative end","tes[0]-relative start","tes[0]-relative end",
+        "tss[1]-relative start","tss[1]-relative end","tes[1]-relative start","tes[1]-relative end","location"
+    }));
+
+    /** Returns TRUE if the given name refers to a standard property of regions (or a property of the motif, module or sequence) rather than a user-defined property */
+    public static boolean isStandardProperty(String property) {
+        String name=property.toLowerCase();
+        if (name.endsWith("[0]") || name.endsWith("[1]")) name=name.substring(0,name.length()-3);
+        return standardProperties.contains(name) || name.startsWith("sequence:") || name.startsWith("motif:") || name.startsWith("module:");
+    }
     
     /**
      * Returns a list containing the names of all non-standard properties associated with this Region 
      */
     public String[] getAllPropertyNames() {
         if (properties==null) return new String[0];
-        Set<String> keySet=properties.keySet();
-        String[] result=new String[keySet.size()];
-        int i=0;
-        for (String key:keySet) {
-            result[i]=key;
-            i++;
-        }
+        String[] result=new String[properties.size()];
+        for (int i=0;i<result.length;i++) result[i]=properties.getName(i);
         return result;
     }    
     
     /** 
-     * Returns the (original) map of user-defined properties
+     * Returns a map containing the user-defined properties of this region (or NULL if the region has no user-defined properties).
+     * Note that this is a copy, so changes to the map will not affect the region
      * @return 
      */
     public HashMap<String, Object> getUserDefinedProperties() {
-       return properties; 
+       return (properties!=null)?properties.toHashMap():null; 
     }
     
     public static boolean isReservedProperty(String name) {
@@ -542,8 +593,8 @@ public class Region implements Cloneable,Serializable {
     public ArrayList<Region> getNestedRegions(boolean clone) {
         ArrayList<Region> nested=new ArrayList<Region>();
         if (properties!=null) {
-            for (String key:properties.keySet()) {
-                Object value=properties.get(key);
+            for (int i=0;i<properties.size();i++) {
+                Object value=properties.getValue(i);
                 if (value instanceof Region) nested.add((clone)?(Region)((Region)value).clone():(Region)value);
                 else if (value instanceof ArrayList) {
                    for (Object obj:(ArrayList)value) {
@@ -557,8 +608,8 @@ public class Region implements Cloneable,Serializable {
     
     public boolean hasNestedRegions() {
         if (properties!=null) {
-            for (String key:properties.keySet()) {
-                Object value=properties.get(key);
+            for (int i=0;i<properties.size();i++) {
+                Object value=properties.getValue(i);
                 if (value instanceof Region) return true;
                 else if (value instanceof ArrayList) {
                    for (Object obj:(ArrayList)value) {
@@ -580,8 +631,9 @@ public class Region implements Cloneable,Serializable {
     public HashMap<String,Object> getNestedRegionProperties(boolean clone) {
         HashMap<String,Object> result=new HashMap<String, Object>();
         if (properties!=null) {
-            for (String key:properties.keySet()) {
-                Object value=properties.get(key);
+            for (int i=0;i<properties.size();i++) {
+                String key=properties.getName(i);
+                Object value=properties.getValue(i);
                 if (value instanceof Region) result.put(key,(clone)?(Region)((Region)value).clone():(Region)value);
                 else if (value instanceof ArrayList) {
                    ArrayList<Region> nested=new ArrayList<Region>();
@@ -637,17 +689,17 @@ public class Region implements Cloneable,Serializable {
         Region newdata=new Region(parent, start, end, type, score, orientation);
         newdata.sequence=this.sequence;
         if (properties!=null) {
-            newdata.properties=new HashMap<String, Object>(properties.size());
-            for (String key:properties.keySet()) {
-                Object value=properties.get(key);
-                if (value instanceof Region) newdata.properties.put(key, ((Region)value).clone());
+            newdata.properties=properties.copy();
+            for (int i=0;i<properties.size();i++) {
+                Object value=properties.getValue(i);
+                if (value instanceof Region) newdata.properties.setValue(i, ((Region)value).clone());
                 else if (value instanceof ArrayList) {
                    ArrayList<Region> list=new ArrayList<Region>();
                    for (Object obj:(ArrayList)value) {
                        list.add((Region)((Region)obj).clone());
                    }
-                   newdata.properties.put(key, list);
-                } else newdata.properties.put(key, value);
+                   newdata.properties.setValue(i, list);
+                }
             }
 
         }
@@ -712,16 +764,16 @@ public class Region implements Cloneable,Serializable {
     public String getPropertiesAsString(String separator, int maxlength, boolean includeNested) {      
         if (properties==null) return "";
         StringBuilder result=new StringBuilder(); // (type!=null)?("type="+type+", "):"";
-        Set<String> keys=properties.keySet();
         int i=0;
-        int total=keys.size();
-        for (String key:keys) {
+        int total=properties.size();
+        for (int j=0;j<total;j++) {
+            String key=properties.getName(j);
             if (key.equalsIgnoreCase("thickStart") || key.equalsIgnoreCase("thickEnd") || key.equalsIgnoreCase("thick")) continue;
             if (maxlength>0 && result.length()>maxlength) {
                 result.append("...");
                 break;
             }
-            Object value=properties.get(key);
+            Object value=properties.getValue(j);
             if (!includeNested && value instanceof Region) continue;
             if (value instanceof Region) value=((Region)value).getType(); // nested region
             result.append(key);
@@ -802,9 +854,10 @@ public class Region implements Cloneable,Serializable {
         else if (this.properties==null && otherregion.properties!=null) return false;
         else if (this.properties!=null && otherregion.properties==null) return false;
         if (this.properties.size()!=otherregion.properties.size()) return false;
-        for (String key:this.properties.keySet()) {
+        for (int i=0;i<this.properties.size();i++) {
+            String key=this.properties.getName(i);
             if (!otherregion.properties.containsKey(key)) return false;
-            Object thisPropertyObject=this.properties.get(key);
+            Object thisPropertyObject=this.properties.getValue(i);
             Object otherPropertyObject=otherregion.properties.get(key);
             if (thisPropertyObject==null && otherPropertyObject==null) continue;
             else if (thisPropertyObject!=null && otherPropertyObject==null) return false;
@@ -824,9 +877,10 @@ public class Region implements Cloneable,Serializable {
         else if (this.properties==null && otherregion.properties!=null) return "This region has no properties (other has)";
         else if (this.properties!=null && otherregion.properties==null) return "Other region has no properties (this one has)";
         if (this.properties.size()!=otherregion.properties.size()) return "Different number of user-defined properties";
-        for (String key:this.properties.keySet()) {
+        for (int i=0;i<this.properties.size();i++) {
+            String key=this.properties.getName(i);
             if (!otherregion.properties.containsKey(key)) return "Other region missing property:"+key;
-            Object thisobject=this.properties.get(key);
+            Object thisobject=this.properties.getValue(i);
             Object otherobject=otherregion.properties.get(key);
             if (thisobject==null && otherobject==null) continue;
             else if (thisobject!=null && otherobject==null) return "Other region property==null:"+key;
@@ -901,16 +955,53 @@ public class Region implements Cloneable,Serializable {
     // ------------ Serialization ---------
     private static final long serialVersionUID = 1L;
 
+    // the user-defined properties are serialized as a HashMap (as in previous versions) since the property schemas are not serialized
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("start", Integer.TYPE),
+        new ObjectStreamField("end", Integer.TYPE),
+        new ObjectStreamField("parent", RegionSequenceData.class),
+        new ObjectStreamField("type", String.class),
+        new ObjectStreamField("orientation", Integer.TYPE),
+        new ObjectStreamField("score", Double.TYPE),
+        new ObjectStreamField("sequence", String.class),
+        new ObjectStreamField("properties", HashMap.class),
+        new ObjectStreamField("row", Short.TYPE)
+    };
+
     private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
          short currentinternalversion=1; // this is an internal version number for serialization of objects of this type
          out.writeShort(currentinternalversion);
-         out.defaultWriteObject();
+         java.io.ObjectOutputStream.PutField fields=out.putFields();
+         fields.put("start", start);
+         fields.put("end", end);
+         fields.put("parent", parent);
+         fields.put("type", type);
+         fields.put("orientation", orientation);
+         fields.put("score", score);
+         fields.put("sequence", sequence);
+         fields.put("properties", getUserDefinedProperties());
+         fields.put("row", row);
+         out.writeFields();
     }
 
+    @SuppressWarnings("unchecked")
     private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
          short currentinternalversion=in.readShort(); // the internalversion number is used to determine correct format of data
          if (currentinternalversion==1) {
-             in.defaultReadObject();
+             java.io.ObjectInputStream.GetField fields=in.readFields();
+             start=fields.get("start", 0);
+             end=fields.get("end", 0);
+             parent=(RegionSequenceData)fields.get("parent", null);
+             type=(String)fields.get("type", null);
+             orientation=fields.get("orientation", 0);
+             score=fields.get("score", 0.0);
+             sequence=(String)fields.get("sequence", null);
+             row=fields.get("row", (short)-1);
+             HashMap<String,Object> map=(HashMap<String,Object>)fields.get("properties", null);
+             if (map!=null && !map.isEmpty()) { // the parent track might not be fully restored yet, so a private schema is used until the region is added to a track
+                 properties=new RegionProperties(new RegionPropertySchema(), map.size());
+                 for (String key:map.keySet()) properties.put(key, map.get(key));
+             }
          } else if (currentinternalversion>1) throw new ClassNotFoundException("Newer version");
     }
 
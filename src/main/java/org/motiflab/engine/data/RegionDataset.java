@@ -26,6 +26,7 @@ public class RegionDataset extends FeatureDataset implements Cloneable {
     private boolean ismotiftrack=false; // these flags should not be true at the same time
     private boolean ismoduletrack=false;
     private boolean isnestedtrack=false; // if the track contains "Regions within Regions" that are not modules 
+    private transient volatile RegionPropertySchema propertySchema=null; // interns the names of user-defined properties of the regions in this track
 
 
   
@@ -43,6 +44,18 @@ public class RegionDataset extends FeatureDataset implements Cloneable {
         }
     }       
     
+   /**
+     * Returns the schema used to store the user-defined properties of the regions in this track
+     */
+    public RegionPropertySchema getPropertySchema() {
+        RegionPropertySchema schema=propertySchema;
+        if (schema!=null) return schema;
+        synchronized(this) {
+            if (propertySchema==null) propertySchema=new RegionPropertySchema();
+            return propertySchema;
+        }
+    }
+
    /**
      * Returns the maximum score value for this dataset
      * @return the maximum score value
@@ -167,6 +180,7 @@ public class RegionDataset extends FeatureDataset implements Cloneable {
             if (seq==null) throw new ConcurrentModificationException("Sequence was deleted before the dataset could be cloned"); // not sure what else to do
             newdataset.addSequence((RegionSequenceData)seq.clone());
         }
+        newdataset.shareNameIndex(this);
         return newdataset;
     }  
     
@@ -0,0 +1,187 @@
+package org.motiflab.engine.data;
+
+import java.util.Arrays;
+
+/**
+ * This class is an index over the locations of the regions in a RegionSequenceData object
+ * which can be used to find all regions overlapping a position or segment in O(log n + k) time.
+ * The index is an implicit augmented interval tree laid out over the region list itself
+ * (as in the "cgranges" library): each position in the list is a node in a binary tree and
+ * the node records the largest end coordinate found in its subtree, so that subtrees which end
+ * before the query segment can be skipped. Since the regions are sorted by start position,
+ * no additional ordering is required and all results are reported in list order.
+ * <br>
+ * The index only holds copies of the coordinates and must be rebuilt if regions are added,
+ * removed or moved. If the coordinates are not sorted by start position (e.g. in between calls
+ * to addRegionWithoutSorting() and updateRegionSortOrder()) the index can not be used
+ * and isSorted() will return FALSE.
+ * All coordinates are relative to the start of the sequence and segments are inclusive at both ends.
+ *
+ * @author kjetikl
+ */
+public class RegionIntervalIndex {
+
+    private static final int SMALL_SUBTREE_LEVEL=3; // subtrees at this level or below are searched linearly
+
+    private final int size;
+    private final boolean sorted;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] maxEnd;       // the largest end coordinate in the subtree rooted at each node
+    private final int[] prefixMaxEnd; // the largest end coordinate among the regions up to and including each index
+    private final int[] suffixMinEnd; // the smallest end coordinate among the regions from each index to the end of the list
+    private final int rootLevel;
+
+    /**
+     * Creates a new index for regions with the given coordinates (listed in the same order as the regions)
+     * @param starts The relative start coordinates of the regions
+     * @param ends The relative end coordinates of the regions
+     */
+    public RegionIntervalIndex(int[] starts, int[] ends) {
+        this.size=starts.length;
+        this.starts=starts;
+        this.ends=ends;
+        boolean inOrder=true;
+        for (int i=1;i<size;i++) {
+            if (starts[i]<starts[i-1]) {inOrder=false;break;}
+        }
+        this.sorted=inOrder;
+        if (!sorted || size==0) {
+            maxEnd=null;
+            prefixMaxEnd=null;
+            suffixMinEnd=null;
+            rootLevel=0;
+            return;
+        }
+        prefixMaxEnd=new int[size];
+        prefixMaxEnd[0]=ends[0];
+        for (int i=1;i<size;i++) prefixMaxEnd[i]=Math.max(prefixMaxEnd[i-1], ends[i]);
+        suffixMinEnd=new int[size];
+        suffixMinEnd[size-1]=ends[size-1];
+        for (int i=size-2;i>=0;i--) suffixMinEnd[i]=Math.min(suffixMinEnd[i+1], ends[i]);
+        maxEnd=new int[size];
+        rootLevel=buildTree();
+    }
+
+    /**
+     * Fills in the maxEnd values for all nodes in the implicit tree. The leaves are the even indices
+     * and a node at level k has index i where the k lowest bits of i are set. The right-most part of
+     * the tree can be incomplete, in which case the missing children inherit the value of the last
+     * complete subtree
+     * @return the level of the root node
+     */
+    private int buildTree() {
+        int lastIndex=0, last=0;
+        for (int i=0;i<size;i+=2) {
+            lastIndex=i;
+            last=maxEnd[i]=ends[i];
+        }
+        int k;
+        for (k=1;(1L<<k)<=size;k++) {
+            int x=1<<(k-1), first=(x<<1)-1, step=x<<2;
+            for (int i=first;i<size;i+=step) {
+                int leftEnd=maxEnd[i-x];
+                int rightEnd=(i+x<size)?maxEnd[i+x]:last;
+                maxEnd[i]=Math.max(ends[i], Math.max(leftEnd, rightEnd));
+            }
+            lastIndex=(((lastIndex>>k)&1)!=0)?lastIndex-x:lastIndex+x;
+            if (lastIndex<size && maxEnd[lastIndex]>last) last=maxEnd[lastIndex];
+        }
+        return k-1;
+    }
+
+    /** Returns the number of regions in the index */
+    public int size() {
+        return size;
+    }
+
+    /** Returns TRUE if the regions were sorted by start position when the index was built (otherwise the index can not be queried) */
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * Returns the indices of all regions that overlap the segment between start and end (inclusive).
+     * The indices are returned in ascending order
+     */
+    public int[] getOverlapping(int start, int end) {
+        if (size==0) return new int[0];
+        int[] result=new int[8];
+        int found=0;
+        int[] stackNode=new int[64], stackLevel=new int[64];
+        boolean[] stackLeftDone=new boolean[64];
+        int top=0;
+        stackNode[top]=(1<<rootLevel)-1; stackLevel[top]=rootLevel; stackLeftDone[top]=false; top++;
+        while (top>0) { // top-down traversal which visits the nodes in list order
+            top--;
+            int node=stackNode[top], level=stackLevel[top];
+            if (level<=SMALL_SUBTREE_LEVEL) { // search the whole subtree linearly
+                int first=(node>>level)<<level;
+                int last=Math.min(first+(1<<(level+1))-1, size);
+                for (int i=first;i<last && starts[i]<=end;i++) {
+                    if (ends[i]>=start) {
+                        if (found==result.length) result=Arrays.copyOf(result, found*2);
+                        result[found++]=i;
+                    }
+                }
+            } else if (!stackLeftDone[top]) { // process the left child first. Note that this child can be out of range
+                int left=node-(1<<(level-1));
+                stackLeftDone[top]=true; // the node itself remains on the stack
+                top++;
+                if (left>=size || maxEnd[left]>=start) {
+                    stackNode[top]=left; stackLevel[top]=level-1; stackLeftDone[top]=false; top++;
+                }
+            } else if (node<size && starts[node]<=end) { // check the node and then the right child
+                if (ends[node]>=start) {
+                    if (found==result.length) result=Arrays.copyOf(result, found*2);
+                    result[found++]=node;
+                }
+                stackNode[top]=node+(1<<(level-1)); stackLevel[top]=level-1; stackLeftDone[top]=false; top++;
+            }
+        }
+        return (found==result.length)?result:Arrays.copyOf(result, found);
+    }
+
+    /** Returns the index of the first region that starts at or after the given position (or size() if there is no such region) */
+    public int getFirstIndexStartingAtOrAfter(int position) {
+        int low=0, high=size;
+        while (low<high) {
+            int mid=(low+high)>>>1;
+            if (starts[mid]<position) low=mid+1; else high=mid;
+        }
+        return low;
+    }
+
+    /** Returns the index of the last region that starts at or before the given position (or -1 if there is no such region) */
+    public int getLastIndexStartingAtOrBefore(int position) {
+        if (position==Integer.MAX_VALUE) return size-1;
+        return getFirstIndexStartingAtOrAfter(position+1)-1;
+    }
+
+    /**
+     * Returns the index of the first region that ends at or after the given position (or size() if there is no such region).
+     * All regions before this index end before the position
+     */
+    public int getFirstIndexEndingAtOrAfter(int position) {
+        int low=0, high=size;
+        while (low<high) { // the prefix maximums are non-decreasing
+            int mid=(low+high)>>>1;
+            if (prefixMaxEnd[mid]<position) low=mid+1; else high=mid;
+        }
+        return low;
+    }
+
+    /**
+     * Returns the smallest index such that this region and all regions after it end at or after the given position
+     * (or size() if the last region ends before the position)
+     */
+    public int getFirstIndexOfTrailingRegionsEndingAtOrAfter(int position) {
+        int low=0, high=size;
+        while (low<high) { // the suffix minimums are non-decreasing
+            int mid=(low+high)>>>1;
+            if (suffixMinEnd[mid]<position) low=mid+1; else high=mid;
+        }
+        return low;
+    }
+
+}
@@ -0,0 +1,146 @@
+package org.motiflab.engine.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class holds the user-defined properties of a single Region.
+ * The property names are interned in a RegionPropertySchema and the region only stores
+ * the slot numbers of its properties together with the values (in the order they were added).
+ * Double values are stored as primitives in a separate array (with a NULL entry in the value array),
+ * while all other values (Strings, Integers, Booleans and nested Regions) are stored as objects.
+ * Regions typically have only a handful of properties, so they are located by a linear search.
+ *
+ * @author kjetikl
+ */
+final class RegionProperties {
+
+    private RegionPropertySchema schema;
+    private int[] slots;
+    private Object[] values; // NULL entries mean that the value is a Double stored in numericValues
+    private double[] numericValues=null;
+    private int size=0;
+
+    RegionProperties(RegionPropertySchema schema, int capacity) {
+        this.schema=schema;
+        this.slots=new int[capacity];
+        this.values=new Object[capacity];
+    }
+
+    RegionPropertySchema getSchema() {
+        return schema;
+    }
+
+    /** 
+     * Moves these properties to a different schema (e.g. when the region is added to a track).
+     * The slots of the properties are looked up (or added) in the new schema
+     */
+    void rebind(RegionPropertySchema newschema) {
+        if (newschema==schema) return;
+        for (int i=0;i<size;i++) slots[i]=newschema.getOrAddSlot(schema.getName(slots[i]));
+        schema=newschema;
+    }
+
+    /** Returns the number of properties */
+    int size() {
+        return size;
+    }
+
+    /** Returns the name of the property at the given position */
+    String getName(int i) {
+        return schema.getName(slots[i]);
+    }
+
+    /** Returns the value of the property at the given position */
+    Object getValue(int i) {
+        Object value=values[i];
+        return (value!=null)?value:(Double)numericValues[i];
+    }
+
+    /** Replaces the value of the property at the given position */
+    void setValue(int i, Object value) {
+        if (value instanceof Double) {
+            if (numericValues==null) numericValues=new double[values.length];
+            numericValues[i]=(Double)value;
+            values[i]=null;
+        } else values[i]=value;
+    }
+
+    /** Returns the position of the property with the given name, or -1 if the property is not set */
+    private int indexOf(String name) {
+        int slot=schema.getSlot(name);
+        if (slot<0) return -1;
+        for (int i=0;i<size;i++) {
+            if (slots[i]==slot) return i;
+        }
+        return -1;
+    }
+
+    boolean containsKey(String name) {
+        return indexOf(name)>=0;
+    }
+
+    /** Returns the value of the property with the given name, or NULL if the property is not set */
+    Object get(String name) {
+        int i=indexOf(name);
+        return (i>=0)?getValue(i):null;
+    }
+
+    /** Returns the value of the property with the given name as a double, or the default value if the property is not set or is not a number */
+    double getNumeric(String name, double defaultValue) {
+        int i=indexOf(name);
+        if (i<0) return defaultValue;
+        Object value=values[i];
+        if (value==null) return numericValues[i];
+        else if (value instanceof Number) return ((Number)value).doubleValue();
+        else return defaultValue;
+    }
+
+    /** Sets the value of the property with the given name. The value should not be NULL */
+    void put(String name, Object value) {
+        int i=indexOf(name);
+        if (i<0) {
+            if (size==slots.length) {
+                int capacity=Math.max(2, size*2);
+                slots=Arrays.copyOf(slots, capacity);
+                values=Arrays.copyOf(values, capacity);
+                if (numericValues!=null) numericValues=Arrays.copyOf(numericValues, capacity);
+            }
+            i=size;
+            slots[i]=schema.getOrAddSlot(name);
+            size++;
+        }
+        setValue(i, value);
+    }
+
+    /** Removes the property with the given name (if set) */
+    void remove(String name) {
+        int i=indexOf(name);
+        if (i<0) return;
+        int remaining=size-i-1;
+        if (remaining>0) {
+            System.arraycopy(slots, i+1, slots, i, remaining);
+            System.arraycopy(values, i+1, values, i, remaining);
+            if (numericValues!=null) System.arraycopy(numericValues, i+1, numericValues, i, remaining);
+        }
+        size--;
+        values[size]=null;
+    }
+
+    /** Returns a copy of these properties which shares the same schema and property values */
+    RegionProperties copy() {
+        RegionProperties copy=new RegionProperties(schema, size);
+        System.arraycopy(slots, 0, copy.slots, 0, size);
+        System.arraycopy(values, 0, copy.values, 0, size);
+        if (numericValues!=null) copy.numericValues=Arrays.copyOf(numericValues, size);
+        copy.size=size;
+        return copy;
+    }
+
+    /** Returns the properties as a new HashMap */
+    HashMap<String,Object> toHashMap() {
+        HashMap<String,Object> map=new HashMap<String,Object>((int)(size/0.75f)+1);
+        for (int i=0;i<size;i++) map.put(getName(i), getValue(i));
+        return map;
+    }
+}
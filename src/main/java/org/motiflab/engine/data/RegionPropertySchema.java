@@ -0,0 +1,59 @@
+package org.motiflab.engine.data;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class interns the names of user-defined region properties and assigns each name
+ * a slot number, so that regions can store their properties in small arrays indexed by
+ * slot rather than in a HashMap of their own. Each RegionDataset has its own schema
+ * (which is shared by all regions in the track), and regions that are not part of
+ * a track get a private schema. The properties of a region are moved to the schema
+ * of the track when the region is added to it.
+ * <br>
+ * Slots are assigned in the order the property names are first encountered and are never
+ * removed. Lookups are thread-safe and do not require locking.
+ *
+ * @author kjetikl
+ */
+public final class RegionPropertySchema {
+
+    private final ConcurrentHashMap<String,Integer> slots=new ConcurrentHashMap<String,Integer>();
+    private volatile String[] names=new String[8];
+    private volatile int size=0;
+
+    /** Returns the slot assigned to the property with the given name, or -1 if the name has not been assigned a slot */
+    public int getSlot(String name) {
+        Integer slot=slots.get(name);
+        return (slot!=null)?slot:-1;
+    }
+
+    /** Returns the slot assigned to the property with the given name, assigning a new slot if necessary */
+    public int getOrAddSlot(String name) {
+        Integer slot=slots.get(name);
+        if (slot!=null) return slot;
+        synchronized(this) {
+            slot=slots.get(name);
+            if (slot!=null) return slot;
+            if (size==names.length) {
+                String[] newnames=new String[names.length*2];
+                System.arraycopy(names, 0, newnames, 0, size);
+                names=newnames;
+            }
+            int newslot=size;
+            names[newslot]=name;
+            size=newslot+1;
+            slots.put(name, newslot);
+            return newslot;
+        }
+    }
+
+    /** Returns the name of the property assigned to the given slot */
+    public String getName(int slot) {
+        return names[slot];
+    }
+
+    /** Returns the number of property names in this schema */
+    public int size() {
+        return size;
+    }
+}
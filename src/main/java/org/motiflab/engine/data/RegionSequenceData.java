@@ -6,6 +6,7 @@
 package org.motiflab.engine.data;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -30,9 +31,13 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
     private static String typedescription="Region data";
     private static Comparator defaultRegionSortOrderComparator=null;
     
-    private ArrayList<Region> regions;  // this list should always be kept sorted according to start position of regions!
+    private volatile ArrayList<Region> regions;  // this list should always be kept sorted according to start position of regions!
                                         // if two elements have the same start position, the shortest is placed first in the list
    
+    private transient volatile CompactRegionList compactRegions=null; // if not NULL, the regions in this sequence are stored in compact form here rather than in the list above (which is then empty)
+    private transient volatile Region[] compactViews=null; // Region objects that have been created for the compact regions (on demand). Views are only created and the compact regions only expanded while holding the lock on this object
+    private transient RegionIntervalIndex intervalIndex=null; // index used to find overlapping regions. This is built on demand and discarded when the regions change
+
     private int sequencesize=0; // keeps track of the length of this sequence. 
                                 // Unlike for DNA and Numeric Data, this type of dataset has
                                 // no array that stores data for each base in a 1-to-1 relationship
@@ -98,7 +103,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
     }
 
     @Override
-    public Object getValue() {return regions;}  
+    public Object getValue() {return getRegionList();}  
     
      @Override
      /**
@@ -147,16 +152,17 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      */       
     public void addRegion(Region region) {
         region.setParent(this);
-        int size=regions.size();
+        intervalIndex=null;
+        int size=getNumberOfRegions();
         double score=region.getScore();
         if (score>maxScore) setMaxScoreValue(score);
-        if (size==0) {regions.add(region);}
-        else if (!region.isLocatedPriorTo(regions.get(size-1))) {regions.add(region);} // add to the end
+        if (size==0) {getRegionList().add(region);}
+        else if (!region.isLocatedPriorTo(getRegionByIndex(size-1))) {getRegionList().add(region);} // add to the end
         else {
           int index=0;      
           while (index<size) {
-            Region nextregion=regions.get(index);
-            if (region.isLocatedPriorTo(nextregion)) {regions.add(index, region);index=size;} // insert at first position where this region is located prior to the subsequent in the list
+            Region nextregion=getRegionByIndex(index);
+            if (region.isLocatedPriorTo(nextregion)) {getRegionList().add(index, region);index=size;} // insert at first position where this region is located prior to the subsequent in the list
             index++;
           }
         }            
@@ -171,19 +177,20 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      */     
     public void addRegionIfnotAlreadyPresent(Region region) {
         region.setParent(this);
-        int size=regions.size();
+        intervalIndex=null;
+        int size=getNumberOfRegions();
         double score=region.getScore();
         if (score>maxScore) setMaxScoreValue(score);
-        if (size==0) {regions.add(region);}
-        else if (!region.isLocatedPriorTo(regions.get(size-1))) { // the new region is either located after the current last region (or at the exact same location)
-            if (!region.isIdenticalTo(regions.get(size-1))) regions.add(region); // add to the end of the list (unless identical to existing last region)
+        if (size==0) {getRegionList().add(region);}
+        else if (!region.isLocatedPriorTo(getRegionByIndex(size-1))) { // the new region is either located after the current last region (or at the exact same location)
+            if (!region.isIdenticalTo(getRegionByIndex(size-1))) getRegionList().add(region); // add to the end of the list (unless identical to existing last region)
         }
         else { 
           int index=0;      
           while (index<size) {
-            Region nextregion=regions.get(index);
+            Region nextregion=getRegionByIndex(index);
             if (region.isIdenticalTo(nextregion)) return;
-            if (region.isLocatedPriorTo(nextregion)) {regions.add(index, region);index=size;} // insert at first position where this region is located prior to the subsequent in the list
+            if (region.isLocatedPriorTo(nextregion)) {getRegionList().add(index, region);index=size;} // insert at first position where this region is located prior to the subsequent in the list
             index++;
           }
         }            
@@ -203,7 +210,8 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
         region.setParent(this);
         double score=region.getScore();
         if (score>maxScore) setMaxScoreValue(score);
-        regions.add(region);
+        getRegionList().add(region);
+        intervalIndex=null;
     }    
 
     
@@ -217,7 +225,9 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      *  after they were added to a sequence. The regions will then be sorted in their proper order again
      */
     public void updateRegionSortOrder() {
-        Collections.sort(regions, getRegionSortOrderComparator());
+        intervalIndex=null;
+        if (compactRegions!=null && compactViews==null) compactRegions.sort(null); // the columns are only used as long as no regions have been materialized (since they could have been modified)
+        else Collections.sort(getRegionList(), getRegionSortOrderComparator());
     }
     
     /**
@@ -226,7 +236,8 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * @param region The region to be removed
      */
     public void removeRegion(Region region) {
-        regions.remove(region);
+        getRegionList().remove(region);
+        intervalIndex=null;
     }
 
     /**
@@ -238,11 +249,12 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      */
     public boolean removeSimilarRegion(Region region) {
         Region target=null;
-        for (Region r:regions) {
+        for (Region r:getRegionList()) {
             if (r.isIdenticalTo(region)) {target=r;break;}
         }
         if (target!=null) {
-            regions.remove(target);
+            getRegionList().remove(target);
+            intervalIndex=null;
             return true;
         } else return false;
     }
@@ -253,7 +265,8 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * @return The number of regions
      */       
     public int getNumberOfRegions() {
-        return regions.size();
+        CompactRegionList compact=compactRegions;
+        return (compact!=null)?compact.size():regions.size();
     }
    
     /**
@@ -264,20 +277,229 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * @param i The index of the Region to be retrieved
      */       
     public Region getRegionByIndex(int i) {
-        if (i<0 || i>=regions.size()) return null;
+        if (i<0 || i>=getNumberOfRegions()) return null;
+        if (compactRegions!=null) { // create a Region object for this site (if it has not been done before)
+            Region region=getCompactRegionView(i);
+            if (region!=null) return region;
+        }
         return (Region)regions.get(i);
     }
+
+    /**
+     * Returns the Region object for the compact region with the given index, creating it if necessary,
+     * or NULL if the regions are no longer stored in compact form
+     */
+    private synchronized Region getCompactRegionView(int i) {
+        if (compactRegions==null) return null; // the regions were expanded by another thread
+        Region[] views=compactViews;
+        if (views==null) {views=new Region[compactRegions.size()];compactViews=views;}
+        if (views[i]==null) views[i]=compactRegions.createRegion(i, this);
+        return views[i];
+    }
     
     
 
+    /**
+     * Returns the list of Region objects for this sequence. If the regions are currently
+     * stored in compact form, they will first be converted to regular Region objects.
+     */
+    private ArrayList<Region> getRegionList() {
+        if (compactRegions!=null) expandCompactRegions();
+        return regions;
+    }
+
+    /**
+     * Converts the regions stored in compact form to regular Region objects.
+     * Region objects that have already been handed out to callers are kept as they are
+     */
+    private synchronized void expandCompactRegions() {
+        if (compactRegions==null) return; // already expanded by another thread
+        int size=compactRegions.size();
+        ArrayList<Region> list=new ArrayList<Region>(Math.max(size,regions.size()));
+        for (int i=0;i<size;i++) {
+            Region region=(compactViews!=null)?compactViews[i]:null;
+            list.add((region!=null)?region:compactRegions.createRegion(i, this));
+        }
+        regions=list; // the expanded list must be published before the compact regions are cleared
+        compactRegions=null;
+        compactViews=null;
+    }
+
+    /** Returns the score of the region with the given index (without creating a Region object for compact regions) */
+    private double getRegionScore(int i) {
+        CompactRegionList compact=compactRegions;
+        if (compact!=null) {
+            Region[] views=compactViews;
+            if (views!=null && views[i]!=null) return views[i].getScore();
+            return compact.getScore(i);
+        }
+        return regions.get(i).getScore();
+    }
+
+    /** Returns the type of the region with the given index (without creating a Region object for compact regions) */
+    private String getRegionType(int i) {
+        CompactRegionList compact=compactRegions;
+        if (compact!=null) {
+            Region[] views=compactViews;
+            if (views!=null && views[i]!=null) return views[i].getType();
+            return compact.getType(i);
+        }
+        return regions.get(i).getType();
+    }
+
+    /** Returns the relative start of the region with the given index (without creating a Region object for compact regions) */
+    private int getRegionStart(int i) {
+        CompactRegionList compact=compactRegions;
+        if (compact!=null) {
+            Region[] views=compactViews;
+            if (views!=null && views[i]!=null) return views[i].getRelativeStart();
+            return compact.getStart(i);
+        }
+        return regions.get(i).getRelativeStart();
+    }
+
+    /** Returns the relative end of the region with the given index (without creating a Region object for compact regions) */
+    private int getRegionEnd(int i) {
+        CompactRegionList compact=compactRegions;
+        if (compact!=null) {
+            Region[] views=compactViews;
+            if (views!=null && views[i]!=null) return views[i].getRelativeEnd();
+            return compact.getEnd(i);
+        }
+        return regions.get(i).getRelativeEnd();
+    }
+
+    /**
+     * Returns an interval index for the current regions, which is built if necessary.
+     * The method returns NULL if the regions are not currently sorted by start position,
+     * in which case all the regions must be searched
+     */
+    private RegionIntervalIndex getIntervalIndex() {
+        RegionIntervalIndex index=intervalIndex;
+        int size=getNumberOfRegions();
+        if (index==null || index.size()!=size) { // the size is checked in case the list has been modified directly by a caller
+            int[] starts=new int[size];
+            int[] ends=new int[size];
+            for (int i=0;i<size;i++) {
+                starts[i]=getRegionStart(i);
+                ends[i]=getRegionEnd(i);
+            }
+            index=new RegionIntervalIndex(starts, ends);
+            intervalIndex=index;
+        }
+        return (index.isSorted())?index:null;
+    }
+
+    /**
+     * Discards the interval index. This must be called whenever regions are added or removed
+     * or the location of a region is changed (the latter is done by the Region itself)
+     */
+    void regionLocationChanged() {
+        intervalIndex=null;
+    }
+
+    /** Returns the indices (in ascending order) of the regions that overlap the segment between the relative start and end positions */
+    private int[] getRegionIndicesOverlapping(int start, int end) {
+        RegionIntervalIndex index=getIntervalIndex();
+        if (index!=null) return index.getOverlapping(start, end);
+        int size=getNumberOfRegions();
+        int[] result=new int[size];
+        int found=0;
+        for (int i=0;i<size;i++) {
+            if (getRegionStart(i)<=end && getRegionEnd(i)>=start) result[found++]=i;
+        }
+        return Arrays.copyOf(result, found);
+    }
+
+    /** Returns the indices (in ascending order) of the regions that lie fully within the segment between the relative start and end positions */
+    private int[] getRegionIndicesWithin(int start, int end) {
+        RegionIntervalIndex index=getIntervalIndex();
+        int size=getNumberOfRegions();
+        int first=(index!=null)?index.getFirstIndexStartingAtOrAfter(start):0;
+        int[] result=new int[size-first];
+        int found=0;
+        for (int i=first;i<size;i++) {
+            int rstart=getRegionStart(i);
+            if (rstart>end && index!=null) break;
+            if (rstart>=start && getRegionEnd(i)<=end) result[found++]=i;
+        }
+        return Arrays.copyOf(result, found);
+    }
+
+    /** Returns the indices (in ascending order) of the regions that fully span the segment between the relative start and end positions */
+    private int[] getRegionIndicesSpanning(int start, int end) {
+        int[] candidates=getRegionIndicesOverlapping(Math.min(start,end), start); // all regions that start at or before the start and could reach the end
+        int found=0;
+        for (int i:candidates) {
+            if (getRegionStart(i)<=start && getRegionEnd(i)>=end) candidates[found++]=i;
+        }
+        return Arrays.copyOf(candidates, found);
+    }
+
+    /** Returns the indices (in ascending order) of the regions that have exactly the given relative start and end positions */
+    private int[] getRegionIndicesAt(int start, int end) {
+        RegionIntervalIndex index=getIntervalIndex();
+        int size=getNumberOfRegions();
+        int first=(index!=null)?index.getFirstIndexStartingAtOrAfter(start):0;
+        int[] result=new int[size-first];
+        int found=0;
+        for (int i=first;i<size;i++) {
+            int rstart=getRegionStart(i);
+            if (rstart>start && index!=null) break;
+            if (rstart==start && getRegionEnd(i)==end) result[found++]=i;
+        }
+        return Arrays.copyOf(result, found);
+    }
+
+    /** Returns a list with the regions at the given indices */
+    private ArrayList<Region> getRegionsByIndex(int[] indices) {
+        ArrayList<Region> list=new ArrayList<Region>(indices.length);
+        for (int i:indices) list.add(getRegionByIndex(i));
+        return list;
+    }
+
+    /** Returns TRUE if the type of the region with the given index matches the restriction (see e.g. hasRegionsOverlappingGenomicInterval) */
+    private boolean regionTypeMatches(int i, String restrictType, boolean exact) {
+        if (restrictType==null) return true;
+        String type=getRegionType(i);
+        if (exact) return restrictType.equals(type);
+        else return (restrictType.contains(type) || type.contains(restrictType));
+    }
+
+    /**
+     * Adds all the regions in the given list to this sequence. If this sequence is empty
+     * or the regions are already stored in compact form, the regions will be kept in compact
+     * form and Region objects will only be created for individual regions when they are requested.
+     * Otherwise, the regions are added as regular Region objects.
+     * Like addRegionWithoutSorting(), the regions are not added in sorted order
+     * so updateRegionSortOrder() must be called after all regions have been added.
+     * The list should not be modified by the caller afterwards.
+     * @param list
+     */
+    public synchronized void addCompactRegions(CompactRegionList list) {
+        if (list==null || list.size()==0) return;
+        intervalIndex=null;
+        for (int i=0;i<list.size();i++) {
+            if (list.getScore(i)>maxScore) setMaxScoreValue(list.getScore(i));
+        }
+        if (compactRegions==null && regions.isEmpty()) {
+            compactRegions=list;
+        } else if (compactRegions!=null && compactViews==null && compactRegions.hasSameProperties(list)) {
+            compactRegions.addAll(list);
+        } else {
+            ArrayList<Region> target=getRegionList();
+            for (int i=0;i<list.size();i++) target.add(list.createRegion(i, this));
+        }
+    }
+
     private transient int lastSearchIndex=0;
     
     /** Returns the region that comes after the given region in the track */
     public Region getNextRegion(Region region) { // optimize !!
         int currentRegionIndex=getIndexForRegion(region);
-        if (currentRegionIndex>=0 && currentRegionIndex+1<regions.size()) {
+        if (currentRegionIndex>=0 && currentRegionIndex+1<getNumberOfRegions()) {
             lastSearchIndex=currentRegionIndex+1;
-            return regions.get(currentRegionIndex+1);        
+            return getRegionByIndex(currentRegionIndex+1);        
         }
         return null;
     } 
@@ -287,7 +509,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
         int currentRegionIndex=getIndexForRegion(region);
         if (currentRegionIndex>0) {
             lastSearchIndex=currentRegionIndex-1;
-            return regions.get(currentRegionIndex-1);        
+            return getRegionByIndex(currentRegionIndex-1);        
         }
         return null;
     }   
@@ -295,17 +517,17 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
     private int getIndexForRegion(Region region) { // returns the index of the given region if it is in this track, else -1
         if (region==null) return -1;
         int lastIndex=lastSearchIndex;
-        int size=regions.size();  
+        int size=getNumberOfRegions();  
         int currentRegionIndex=-1;
-        if (lastIndex>=0 && lastIndex<size && region==regions.get(lastIndex)) { // Try same region as last time
+        if (lastIndex>=0 && lastIndex<size && region==getRegionByIndex(lastIndex)) { // Try same region as last time
           currentRegionIndex=lastIndex;
-        } else if (lastIndex>=0 && lastIndex+1<size && region==regions.get(lastIndex+1)) { // try the one directly after
+        } else if (lastIndex>=0 && lastIndex+1<size && region==getRegionByIndex(lastIndex+1)) { // try the one directly after
           currentRegionIndex=lastIndex+1;
-        } else if (lastIndex>0 && lastIndex<size && region==regions.get(lastIndex-1)) { // try the one before
+        } else if (lastIndex>0 && lastIndex<size && region==getRegionByIndex(lastIndex-1)) { // try the one before
           currentRegionIndex=lastIndex-1;
         } else { // search all regions
-            for (int i=0;i<regions.size()-1;i++) {
-                Region current=regions.get(i);
+            for (int i=0;i<getNumberOfRegions()-1;i++) {
+                Region current=getRegionByIndex(i);
                 if (region==current) {currentRegionIndex=i;break;}
             }
         }
@@ -313,12 +535,12 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
     }
     
     public Region getFirstRegion() {
-        if (regions!=null && !regions.isEmpty()) return regions.get(0);
+        if (getNumberOfRegions()>0) return getRegionByIndex(0);
         else return null;
     }
     
     public Region getLastRegion() {
-        if (regions!=null && !regions.isEmpty()) return regions.get(regions.size()-1);
+        if (getNumberOfRegions()>0) return getRegionByIndex(getNumberOfRegions()-1);
         else return null;
     }    
     
@@ -329,9 +551,9 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
     public double[] getMinMaxFromData() {
        double min=Double.MAX_VALUE; 
        double max=-Double.MAX_VALUE;
-       if (regions==null || regions.isEmpty()) return new double[]{0,0}; 
-       for (Region region:regions) {
-         double score=region.getScore();
+       if (regions==null || getNumberOfRegions()==0) return new double[]{0,0}; 
+       for (int i=0;i<getNumberOfRegions();i++) {
+         double score=getRegionScore(i);
          if (score>max) max=score;
          else if (score<min) min=score;
        }       
@@ -346,8 +568,8 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
        if (property==null || property.equalsIgnoreCase("score")) return getMinMaxFromData();
        double min=Double.MAX_VALUE; 
        double max=-Double.MAX_VALUE;
-       if (regions==null || regions.isEmpty()) return new double[]{0,0}; 
-       for (Region region:regions) {
+       if (regions==null || getNumberOfRegions()==0) return new double[]{0,0}; 
+       for (Region region:getRegionList()) {
          Object propvalue=region.getProperty(property);
          if (!(propvalue instanceof Number)) continue;
          double value=((Number)propvalue).doubleValue();
@@ -370,16 +592,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
     @Override
     public ArrayList<Region> getValueAtRelativePosition(int position) {
         if (position<0 || position>=sequencesize) return null;
-        ArrayList<Region> list=new ArrayList<Region>();
-        int startIndex=getSensibleStartIndex(position);
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getRelativeStart();
-            if (rstart>position) break;
-            if (position>=rstart && position<=r.getRelativeEnd()) list.add(r);
-        }
-        return list;
+        return getRegionsByIndex(getRegionIndicesOverlapping(position, position));
     }
 
     /**
@@ -397,16 +610,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
         if (!chromosome.equalsIgnoreCase(this.chromosome)) return null;
         if (position<this.startPosition || position>this.endPosition) return null;
         position-=this.startPosition; // convert genomic position to an offset!
-        ArrayList<Region> list=new ArrayList<Region>();
-        int startIndex=getSensibleStartIndex(position);
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getRelativeStart();
-            if (rstart>position) break;
-            if (position>=rstart && position<=r.getRelativeEnd()) list.add(r);
-        }
-        return list;
+        return getRegionsByIndex(getRegionIndicesOverlapping(position, position));
     }
     /**
      * Returns the data value at the specified genomic position. 
@@ -421,16 +625,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
     public ArrayList<Region> getValueAtGenomicPosition(int position) {
         if (position<this.startPosition || position>this.endPosition) return null;
         position-=this.startPosition; // convert genomic position to an offset!
-        ArrayList<Region> list=new ArrayList<Region>();
-        int startIndex=getSensibleStartIndex(position);
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getRelativeStart();
-            if (rstart>position) break;
-            if (position>=rstart && position<=r.getRelativeEnd()) list.add(r);
-        }
-        return list;
+        return getRegionsByIndex(getRegionIndicesOverlapping(position, position));
     }
 
     /**
@@ -443,13 +638,9 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
     public Region getRegionAtGenomicPositionAndRow(int position, int row) {
         if (position<this.startPosition || position>this.endPosition) return null;
         position-=this.startPosition; // convert genomic position to an offset!
-        int startIndex=getSensibleStartIndex(position);
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getRelativeStart();
-            if (rstart>position) break;
-            if (position>=rstart && position<=r.getRelativeEnd() && r.row==row) return r;
+        for (int i:getRegionIndicesOverlapping(position, position)) {
+            Region r=getRegionByIndex(i);
+            if (r.row==row) return r;
         }
         return null;
     }
@@ -462,15 +653,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      */
     public boolean isWithinRegion(int position) {
         if (position<0 || position>=sequencesize) return false;
-        int startIndex=getSensibleStartIndex(position);
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getRelativeStart();
-            if (rstart>position) break;
-            if (position>=rstart && position<=r.getRelativeEnd()) return true;
-        }
-        return false;
+        return getRegionIndicesOverlapping(position, position).length>0;
     }
 
     /**
@@ -480,18 +663,9 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * @return The number of regions at this position
      */      
     public int getNumberOfRegionsAtGenomicPosition(int position) {
-        int number=0;
         if (position<this.startPosition || position>this.endPosition) return 0;
         position-=this.startPosition; // convert genomic position to an offset!
-        int startIndex=getSensibleStartIndex(position);
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getRelativeStart();
-            if (rstart>position) break;
-            if (position>=rstart && position<=r.getRelativeEnd()) number++;
-        }
-        return number;
+        return getRegionIndicesOverlapping(position, position).length;
     }
 
     /**
@@ -501,17 +675,8 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * @return The number of regions at this position
      */      
     public int getNumberOfRegionsAtRelativePosition(int position) {
-        int number=0;
         if (position<0 || position>=sequencesize) return 0;
-        int startIndex=getSensibleStartIndex(position);
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getRelativeStart();
-            if (rstart>position) break;
-            if (position>=rstart && position<=r.getRelativeEnd()) number++;
-        }
-        return number;
+        return getRegionIndicesOverlapping(position, position).length;
     }
 
     /**
@@ -522,17 +687,8 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * @return The number of regions overlapping this interval
      */      
     public int getNumberOfRegionsOverlappingGenomicInterval(int start, int end) {
-        int number=0;
         if (end<this.startPosition || start>this.endPosition) return 0;
-        int startIndex=getSensibleStartIndex(start);
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getGenomicStart();
-            if (rstart>end) break;
-            if (!(end<rstart || start>r.getGenomicEnd())) number++;
-        }
-        return number;
+        return getRegionIndicesOverlapping(start-this.startPosition, end-this.startPosition).length;
     }
 
     /**
@@ -544,19 +700,10 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      *              in order to be considered. If exact=false the type of the regions just have to 'match' the restrictType
      * @return TRUE if this dataset contains regions overlapping the interval which also satisfy any restrictions on type
      */
-    public boolean hasRegionsOverlappingGenomicInterval(int start, int end, String restrictType, boolean exact) {// optimize !!
+    public boolean hasRegionsOverlappingGenomicInterval(int start, int end, String restrictType, boolean exact) {
         if (end<this.startPosition || start>this.endPosition) return false;
-        int startIndex=getSensibleStartIndex(start);
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getGenomicStart();
-            if (rstart>end) break;
-            if (!(end<rstart || start>r.getGenomicEnd())) {
-                if (restrictType==null) return true;
-                else if (exact && restrictType.equals(r.getType())) return true;
-                else if (!exact && (restrictType.contains(r.getType()) || r.getType().contains(restrictType))) return true;
-            }
+        for (int i:getRegionIndicesOverlapping(start-this.startPosition, end-this.startPosition)) {
+            if (regionTypeMatches(i, restrictType, exact)) return true;
         }
         return false;
     }
@@ -570,17 +717,8 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * @return a list of regions
      */      
     public ArrayList<Region> getRegionsOverlappingGenomicInterval(int start, int end) {
-        ArrayList<Region> list=new ArrayList<Region>();
-        if (end<this.startPosition || start>this.endPosition) return list;
-        int startIndex=getSensibleStartIndex(start);
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getGenomicStart();
-            if (rstart>end) break;
-            if (!(end<rstart || start>r.getGenomicEnd())) list.add(r);
-        }
-        return list;
+        if (end<this.startPosition || start>this.endPosition) return new ArrayList<Region>();
+        return getRegionsByIndex(getRegionIndicesOverlapping(start-this.startPosition, end-this.startPosition));
     }
     
     /**
@@ -601,23 +739,10 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * @return 
      */
     public int[] getRegionsOverlappingGenomicIntervalAsSlice(int start, int end) {
-        int[] result=new int[]{Integer.MAX_VALUE,Integer.MIN_VALUE};
         if (end<this.startPosition || start>this.endPosition) return null;
-        int startIndex=getSensibleStartIndex(start);
-        int size=regions.size();
-        int count=0;
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getGenomicStart();
-            if (rstart>end) break;
-            if (!(end<rstart || start>r.getGenomicEnd())) { // region potentially overlaps slice
-                if (i<result[0]) result[0]=i;
-                if (i>result[1]) result[1]=i;
-                count++;
-            }
-        }
-        if (count==0) return null;
-        return result;
+        int[] indices=getRegionIndicesOverlapping(start-this.startPosition, end-this.startPosition);
+        if (indices.length==0) return null;
+        return new int[]{indices[0],indices[indices.length-1]};
     }    
 
     /**
@@ -628,17 +753,8 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * @return a list of regions
      */      
     public int getNumberOfRegionsWithinGenomicInterval(int start, int end) {
-        int number=0;
         if (end<this.startPosition || start>this.endPosition) return 0;
-        int startIndex=getSensibleStartIndex(start);
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getGenomicStart();
-            if (rstart>end) break;
-            if (rstart>=start && r.getGenomicEnd()<=end) number++;
-        }
-        return number;
+        return getRegionIndicesWithin(start-this.startPosition, end-this.startPosition).length;
     }
 
     /**
@@ -653,17 +769,8 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      */
     public boolean hasRegionsWithinGenomicInterval(int start, int end, String restrictType, boolean exact) {
         if (end<this.startPosition || start>this.endPosition) return false;
-        int startIndex=getSensibleStartIndex(start);
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getGenomicStart();
-            if (rstart>end) break;
-            if (rstart>=start && r.getGenomicEnd()<=end) {
-                if (restrictType==null) return true;
-                else if (exact && restrictType.equals(r.getType())) return true;
-                else if (!exact && (restrictType.contains(r.getType()) || r.getType().contains(restrictType))) return true;
-            }
+        for (int i:getRegionIndicesWithin(start-this.startPosition, end-this.startPosition)) {
+            if (regionTypeMatches(i, restrictType, exact)) return true;
         }
         return false;
     }
@@ -676,17 +783,8 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * @return a list of regions
      */      
     public ArrayList<Region> getRegionsWithinGenomicInterval(int start, int end) {
-        ArrayList<Region> list=new ArrayList<Region>();
-        if (end<this.startPosition || start>this.endPosition) return list;
-        int startIndex=getSensibleStartIndex(start);
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getGenomicStart();
-            if (rstart>end) break;
-            if (rstart>=start && r.getGenomicEnd()<=end) list.add(r);
-        }
-        return list;
+        if (end<this.startPosition || start>this.endPosition) return new ArrayList<Region>();
+        return getRegionsByIndex(getRegionIndicesWithin(start-this.startPosition, end-this.startPosition));
     }
 
     /**
@@ -697,17 +795,8 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * @return a list of regions
      */
     public int getNumberOfRegionsSpanningGenomicInterval(int start, int end) {
-        int number=0;
         if (end<this.startPosition || start>this.endPosition) return 0;
-        int startIndex=getSensibleStartIndex(start);
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getGenomicStart();
-            if (rstart>start) break;
-            if (rstart<=start && r.getGenomicEnd()>=end) number++;
-        }
-        return number;
+        return getRegionIndicesSpanning(start-this.startPosition, end-this.startPosition).length;
     }
 
     /**
@@ -719,19 +808,10 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      *              in order to be considered. If exact=false the type of the regions just have to 'match' the restrictType
      * @return TRUE if this dataset contains regions that fully span (completely cover) the interval and which also satisfy any restrictions on type
      */
-    public boolean hasRegionsSpanningGenomicInterval(int start, int end, String restrictType, boolean exact) {// optimize !!
+    public boolean hasRegionsSpanningGenomicInterval(int start, int end, String restrictType, boolean exact) {
         if (end<this.startPosition || start>this.endPosition) return false;
-        int startIndex=getSensibleStartIndex(start);
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getGenomicStart();
-            if (rstart>start) break;
-            if (rstart<=start && r.getGenomicEnd()>=end) {
-                if (restrictType==null) return true;
-                else if (exact && restrictType.equals(r.getType())) return true;
-                else if (!exact && (restrictType.contains(r.getType()) || r.getType().contains(restrictType))) return true;
-            }
+        for (int i:getRegionIndicesSpanning(start-this.startPosition, end-this.startPosition)) {
+            if (regionTypeMatches(i, restrictType, exact)) return true;
         }
         return false;
     }
@@ -744,17 +824,8 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * @return a list of regions
      */
     public ArrayList<Region> getRegionsSpanningGenomicInterval(int start, int end) {
-        ArrayList<Region> list=new ArrayList<Region>();
-        if (end<this.startPosition || start>this.endPosition) return list;
-        int startIndex=getSensibleStartIndex(start);
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getGenomicStart();
-            if (rstart>start) break;
-            if (rstart<=start && r.getGenomicEnd()>=end) list.add(r);
-        }
-        return list;
+        if (end<this.startPosition || start>this.endPosition) return new ArrayList<Region>();
+        return getRegionsByIndex(getRegionIndicesSpanning(start-this.startPosition, end-this.startPosition));
     }
 
     /**
@@ -769,15 +840,9 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
         int end=region.getGenomicEnd();
         ArrayList<Region> list=new ArrayList<Region>(1);
         if (end<this.startPosition || start>this.endPosition) return list; // the region is not even within this sequence
-        int startIndex=getSensibleStartIndex(region.getRelativeStart());
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getGenomicStart();
-            if (rstart>start) break;
-            if (rstart==start && r.getGenomicEnd()==end) {
-                if (region.isIdenticalTo(r)) list.add(r);
-            }
+        for (int i:getRegionIndicesAt(start-this.startPosition, end-this.startPosition)) {
+            Region r=getRegionByIndex(i);
+            if (region.isIdenticalTo(r)) list.add(r);
         }
         return list;
     }
@@ -794,15 +859,9 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
         int end=region.getGenomicEnd();
         ArrayList<Region> list=new ArrayList<Region>(1);
         if (end<this.startPosition || start>this.endPosition) return list; // the region is not even within this sequence
-        int startIndex=getSensibleStartIndex(region.getRelativeStart());
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            int rstart=r.getGenomicStart();
-            if (rstart>start) break;
-            if (rstart==start && r.getGenomicEnd()==end) {
-                if (region.hasSameLocationAndType(r)) list.add(r);
-            }
+        for (int i:getRegionIndicesAt(start-this.startPosition, end-this.startPosition)) {
+            Region r=getRegionByIndex(i);
+            if (region.hasSameLocationAndType(r)) list.add(r);
         }
         return list;
     }
@@ -814,7 +873,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      */
     public ArrayList<Region> getMatchingRegions(String property, Object value) {
         ArrayList<Region> list=new ArrayList();
-        for (Region region:regions) {
+        for (Region region:getRegionList()) {
             Object regionValue=region.getProperty(property);
             if (regionValue!=null) {
                 if (regionValue.equals(value) || (value instanceof String && ((String)value).equalsIgnoreCase(regionValue.toString()))) list.add(region);
@@ -829,7 +888,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * (e.g. the value (String)"123" will match (Integer)123. 
      */
     public Region getFirstMatchingRegion(String property, Object value) {
-        for (Region region:regions) {
+        for (Region region:getRegionList()) {
             Object regionValue=region.getProperty(property);
             if (regionValue!=null) {
                 if (regionValue.equals(value) || (value instanceof String && ((String)value).equalsIgnoreCase(regionValue.toString()))) return region;
@@ -846,14 +905,14 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      */
     public ArrayList<Region> getCollapsedRegions() {
         ArrayList<Region> list=new ArrayList<Region>();
-        if (regions.isEmpty()) return list;
-        int currentStart=regions.get(0).getRelativeStart();
+        if (getNumberOfRegions()==0) return list;
+        int currentStart=getRegionByIndex(0).getRelativeStart();
         if (currentStart<0) currentStart=0;
-        int currentEnd=regions.get(0).getRelativeEnd();
+        int currentEnd=getRegionByIndex(0).getRelativeEnd();
         if (currentEnd>=sequencesize) currentEnd=sequencesize-1; // crop region if it extends outside the sequence        
         Region current=new Region(this, currentStart, currentEnd);
-        for (int i=1;i<regions.size();i++) {
-            Region next=regions.get(i);
+        for (int i=1;i<getNumberOfRegions();i++) {
+            Region next=getRegionByIndex(i);
             if (next.getRelativeEnd()<=currentEnd) {} // next region is within the previous
             else if (next.getRelativeStart()>current.getRelativeEnd()+1) {
                 list.add(current);
@@ -876,14 +935,14 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * Returns the total number of bases that are spanned by regions within this sequence
      */
     public int getNumberOfBasesSpannedByRegions() {
-        if (regions.isEmpty()) return 0;
+        if (getNumberOfRegions()==0) return 0;
         int count=0;
-        int currentStart=regions.get(0).getRelativeStart(); 
-        int currentEnd=regions.get(0).getRelativeEnd();
+        int currentStart=getRegionByIndex(0).getRelativeStart(); 
+        int currentEnd=getRegionByIndex(0).getRelativeEnd();
         if (currentStart<0) currentStart=0; // crop region if it extends outside the sequence
         if (currentEnd>=sequencesize) currentEnd=sequencesize-1; // crop region if it extends outside the sequence
-        for (int i=1;i<regions.size();i++) {
-            Region next=regions.get(i);        
+        for (int i=1;i<getNumberOfRegions();i++) {
+            Region next=getRegionByIndex(i);        
             if (next.getRelativeEnd()<=currentEnd) {} // next region is within the previous
             else if (next.getRelativeStart()>currentEnd+1) { // no overlap with next region
                 count+=(currentEnd-currentStart+1);
@@ -907,23 +966,10 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * @param position A genomic position
      * @return a Region
      */      
-    public Region getClosestUpstreamRegion(int position) {// optimize !!
-        Region candidate=null;
+    public Region getClosestUpstreamRegion(int position) {
         int relativePos=getRelativePositionFromGenomic(position);
-        if (getStrandOrientation()==DIRECT) {
-               for (Region r:regions) {
-                 if (r.getRelativeStart()>relativePos) break;
-                 else candidate=r;
-               }
-               return candidate;
-        } else {
-             for (int i=regions.size()-1;i>=0;i--) {
-                 Region r=regions.get(i);
-                 if (r.getRelativeEnd()<relativePos) break;
-                 else candidate=r;                 
-             }   
-             return candidate;
-        }            
+        if (getStrandOrientation()==DIRECT) return getLastRegionStartingAtOrBefore(relativePos);
+        else return getFirstOfTrailingRegionsEndingAtOrAfter(relativePos);
     }
     
     
@@ -935,23 +981,38 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * @param position A genomic position
      * @return a Region
      */      
-    public Region getClosestDownstreamRegion(int position) {// optimize !!
-        Region candidate=null;
+    public Region getClosestDownstreamRegion(int position) {
         int relativePos=getRelativePositionFromGenomic(position);
-        if (getStrandOrientation()==REVERSE) {
-               for (Region r:regions) {
-                 if (r.getRelativeStart()>relativePos) break;
-                 else candidate=r;
-               }
-               return candidate;
-        } else {
-             for (int i=regions.size()-1;i>=0;i--) {
-                 Region r=regions.get(i);
-                 if (r.getRelativeEnd()<relativePos) break;
-                 else candidate=r;                 
-             }   
-             return candidate;
-        }            
+        if (getStrandOrientation()==REVERSE) return getLastRegionStartingAtOrBefore(relativePos);
+        else return getFirstOfTrailingRegionsEndingAtOrAfter(relativePos);
+    }
+
+    /** Returns the last region in the list that starts at or before the given relative position (or NULL if the first region starts after the position) */
+    private Region getLastRegionStartingAtOrBefore(int relativePos) {
+        RegionIntervalIndex index=getIntervalIndex();
+        if (index!=null) return getRegionByIndex(index.getLastIndexStartingAtOrBefore(relativePos));
+        int candidate=-1;
+        int size=getNumberOfRegions();
+        for (int i=0;i<size;i++) {
+            if (getRegionStart(i)>relativePos) break;
+            else candidate=i;
+        }
+        return getRegionByIndex(candidate);
+    }
+
+    /**
+     * Returns the first region in the run of regions at the end of the list that all end at or after the given relative position
+     * (or NULL if the last region ends before the position)
+     */
+    private Region getFirstOfTrailingRegionsEndingAtOrAfter(int relativePos) {
+        RegionIntervalIndex index=getIntervalIndex();
+        if (index!=null) return getRegionByIndex(index.getFirstIndexOfTrailingRegionsEndingAtOrAfter(relativePos));
+        int candidate=-1;
+        for (int i=getNumberOfRegions()-1;i>=0;i--) {
+            if (getRegionEnd(i)<relativePos) break;
+            else candidate=i;
+        }
+        return getRegionByIndex(candidate);
     }
     
     /**
@@ -960,7 +1021,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      */   
     @SuppressWarnings("unchecked")
     public ArrayList<Region> getAllRegions() {
-        return (ArrayList<Region>)regions.clone();
+        return (ArrayList<Region>)getRegionList().clone();
     }
 
     /**
@@ -970,7 +1031,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
     @SuppressWarnings("unchecked")
     public ArrayList<Region> getAllRegions(String type) {
         ArrayList<Region> results=new ArrayList<Region>();
-        for (Region r:regions) {
+        for (Region r:getRegionList()) {
             String rtype=r.getType();
             if (rtype!=null && rtype.equals(type)) results.add(r);
         }
@@ -982,7 +1043,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      */    
     public ArrayList<Region> getAllRegions(HashSet<String> types) {
         ArrayList<Region> results=new ArrayList<Region>();
-        for (Region r:regions) {
+        for (Region r:getRegionList()) {
             String rtype=r.getType();
             if (rtype!=null && types.contains(rtype)) results.add(r);
         }
@@ -994,7 +1055,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * The returned ArrayList is the original list (not a copy) and should not be modified!
      */   
     public ArrayList<Region> getOriginalRegions() {
-        return regions;
+        return getRegionList();
     }
           
     /**
@@ -1002,8 +1063,8 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      */
     public int countRegion(String type) {
         int count=0;
-        for (Region r:regions) {
-            if (type.equals(r.getType())) count++;
+        for (int i=0;i<getNumberOfRegions();i++) {
+            if (type.equals(getRegionType(i))) count++;
         }
         return count;
     }      
@@ -1014,8 +1075,8 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      */
     public HashMap<String,Integer> countAllRegions() {
         HashMap<String,Integer> counts=new HashMap<String,Integer>();
-        for (Region r:regions) {
-            String type=r.getType();
+        for (int i=0;i<getNumberOfRegions();i++) {
+            String type=getRegionType(i);
             if (counts.containsKey(type)) counts.put(type,(counts.get(type)+1));
             else counts.put(type,1);
         }
@@ -1025,14 +1086,10 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
     /** 
      * Returns true if this RegionSequenceData object already contains a Region 
      * that is 'identical' to the one supplied (both with respect to location and all other properties).
-     * ToDo: this can be easily optimized
      */
     public boolean containsRegion(Region newregion) {
-        int startIndex=getSensibleStartIndex(newregion.getRelativeStart());
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
-            if (r.isIdenticalTo(newregion)) return true;
+        for (int i:getRegionIndicesAt(newregion.getRelativeStart(), newregion.getRelativeEnd())) {
+            if (getRegionByIndex(i).isIdenticalTo(newregion)) return true;
         }
         return false;
     }
@@ -1040,15 +1097,12 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
     /** 
      * Returns true if this RegionSequenceData object already contains a Region 
      * that is 'similar' to the one supplied (both with respect to location and other properties).
-     * ToDo: this can be easily optimized
      * @param compareStandardProperties If TRUE all standard properties must be equal, including e.g. score (but not userdefined properties). 
      *                                  If false, only location/orientation and type has to be equal
      */
     public boolean hasSimilarRegion(Region newregion, boolean compareStandardProperties) {
-        int startIndex=getSensibleStartIndex(newregion.getRelativeStart());
-        int size=regions.size();
-        for (int i=startIndex;i<size;i++) {
-            Region r=regions.get(i);
+        for (int i:getRegionIndicesAt(newregion.getRelativeStart(), newregion.getRelativeEnd())) {
+            Region r=getRegionByIndex(i);
             if (compareStandardProperties) {
                if (r.hasSameStandardProperties(newregion)) return true;
             } else if (r.hasSameLocationAndType(newregion)) return true;
@@ -1061,7 +1115,8 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * 
      */      
     public void clearRegions() {
-        regions.clear();
+        getRegionList().clear();
+        intervalIndex=null;
     }
 
     
@@ -1070,6 +1125,12 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
         this.parent=parent;
         if (parent==null) return;
         if (maxScore>((RegionDataset)parent).getMaxScoreValue()) ((RegionDataset)parent).setMaxScoreValue(maxScore);
+        // the properties of the regions are moved to the property schema of the new track (compact regions are not expanded, since they use the schema of the track when they are materialized)
+        Region[] views=compactViews;
+        if (views!=null) {
+            for (Region region:views) if (region!=null) region.rebindPropertySchema();
+        }
+        if (regions!=null) for (Region region:regions) region.rebindPropertySchema();
     } 
     
     /** Updates all regions so that their "parent" property points to this object.
@@ -1077,7 +1138,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      */
     public void fixParentChildRelationships(FeatureDataset parent) {
         if (regions==null) return;
-        for (Region region:regions) {
+        for (Region region:getRegionList()) {
             region.setParent(this);
         }
         setParent(parent);
@@ -1151,10 +1212,11 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      *  @return The maximum score value for this sequence (or 0 if the sequence contains no regions)
      */
     public double getMaxScoreValueForThisSequenceFromData() {
-       if (regions==null || regions.isEmpty()) return 0;
+       if (regions==null || getNumberOfRegions()==0) return 0;
        double datamax=-Double.MAX_VALUE;
-       for (Region region:regions) {
-           if (region.getScore()>datamax) datamax=region.getScore();
+       for (int i=0;i<getNumberOfRegions();i++) {
+           double score=getRegionScore(i);
+           if (score>datamax) datamax=score;
        }
        return datamax;
     }
@@ -1166,7 +1228,8 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
     @Override
     public RegionSequenceData clone() {
         RegionSequenceData newdata=new RegionSequenceData(sequenceName, chromosome, startPosition, endPosition);
-        int size=getNumberOfRegions();
+        if (compactRegions!=null && compactViews==null) newdata.compactRegions=compactRegions.clone(); // no Region objects have been created so the columns are still up to date
+        int size=(newdata.compactRegions!=null)?0:getNumberOfRegions();
         for (int i=0;i<size;i++) {
             Region reg=getRegionByIndex(i);
             newdata.addRegion((Region)reg.clone()); // this will also set the parent property of the cloned regions to point to the new sequence
@@ -1184,6 +1247,12 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
         super.importData(source);
         RegionSequenceData rsource=(RegionSequenceData)source;
         this.regions=rsource.regions; // do not clone on import!        
+        this.compactRegions=rsource.compactRegions;
+        this.compactViews=rsource.compactViews;
+        this.intervalIndex=null;
+        if (compactViews!=null) {
+            for (Region region:compactViews) if (region!=null) region.setParent(this);
+        }
         for (Region region:this.regions) region.setParent(this); // Update the region's parent property to point to this sequence. This line was not added until v2.0.-3.  How the hell did this work before?
         this.maxScore=((RegionSequenceData)source).maxScore;
         this.totalRows=((RegionSequenceData)source).totalRows;
@@ -1203,7 +1272,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
         int oldstart=getRegionStart();
         setRegionStart(oldstart+relativeStart);         
         setRegionEnd(oldstart+relativeEnd);          
-        Iterator<Region> iterator=regions.iterator();
+        Iterator<Region> iterator=getRegionList().iterator();
         while (iterator.hasNext()) {
             Region region=iterator.next();
             int oldRegionStart=region.getRelativeStart();
@@ -1233,7 +1302,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
     public boolean containsSameData(Data other) {
         if (other==null || !(other instanceof RegionSequenceData)) return false;
         if (!super.containsSameData(other)) return false;
-        return (regions.equals(((RegionSequenceData)other).regions));
+        return (getRegionList().equals(((RegionSequenceData)other).getRegionList()));
     }
     
     /**
@@ -1246,24 +1315,21 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      */
     public HashMap<String,Class> getUserDefinedProperties(HashMap<String,Class> map) {
         if (map==null) map=new HashMap<String,Class>();
-        for (Region region:regions) {
-            HashMap<String, Object> properties=region.getUserDefinedProperties();
-            if (properties!=null) {
-                for (String key:properties.keySet()) {
-                    Object value=properties.get(key);
-                    if (value!=null) {
-                        Class propClass=value.getClass();
-                        if (map.containsKey(key)) { // check for compatibility
-                            if (map.get(key)!=propClass) { // must 'upgrade' class in map
-                                Class mapclass=map.get(key);
-                                if (mapclass==Number.class && value instanceof Number) {} // ok
-                                else if (Number.class.isAssignableFrom(mapclass) && value instanceof Number) map.put(key,Number.class);
-                                else {
-                                    map.put(key,String.class);
-                                }
+        for (Region region:getRegionList()) {
+            for (String key:region.getAllPropertyNames()) { // the values are looked up one by one rather than copying all the properties of each region into a new map
+                Object value=region.getUserDefinedProperty(key);
+                if (value!=null) {
+                    Class propClass=value.getClass();
+                    if (map.containsKey(key)) { // check for compatibility
+                        if (map.get(key)!=propClass) { // must 'upgrade' class in map
+                            Class mapclass=map.get(key);
+                            if (mapclass==Number.class && value instanceof Number) {} // ok
+                            else if (Number.class.isAssignableFrom(mapclass) && value instanceof Number) map.put(key,Number.class);
+                            else {
+                                map.put(key,String.class);
                             }
-                        } else map.put(key, propClass); // first entry
-                    }
+                        }
+                    } else map.put(key, propClass); // first entry
                 }
             }
         }
@@ -1309,9 +1375,9 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      */
     protected void flattenRegions() {
         ArrayList<Region> flattened=new ArrayList<Region>();
-        if (regions.isEmpty()) return;
-        for (int i=0;i<regions.size();i++) {
-            Region region=regions.get(i);
+        if (getNumberOfRegions()==0) return;
+        for (int i=0;i<getNumberOfRegions();i++) {
+            Region region=getRegionByIndex(i);
             int regionStart=region.getRelativeStart();
             int regionEnd=region.getRelativeEnd();
             if (regionEnd<0 || regionStart>=sequencesize) continue; // region is fully outside sequence. Can this happen?
@@ -1328,6 +1394,8 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
             }
         }
         regions=flattened;
+        compactRegions=null;
+        compactViews=null;
         updateRegionSortOrder();
     }
     
@@ -1372,13 +1440,13 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
          if (buffer!=null && buffer.length<size) throw new AssertionError("Buffer too small in RegionSequenceData.flattenSegment");
          if (buffer==null) buffer=new int[size];
          else {for (int i=0;i<buffer.length;i++) buffer[i]=0;} // initialize current buffer
-         if (regions.isEmpty()) return buffer;
+         if (getNumberOfRegions()==0) return buffer;
          int genomicStart=getGenomicPositionFromRelative(relativeStart);
          int genomicEnd=getGenomicPositionFromRelative(relativeEnd);
          int[] slice=getRegionsOverlappingGenomicIntervalAsSlice(genomicStart,genomicEnd);        
          if (slice==null) return buffer;
          for (int i=slice[0];i<=slice[1];i++) {
-            Region region=regions.get(i);
+            Region region=getRegionByIndex(i);
             int regionStart=region.getRelativeStart();
             int regionEnd=region.getRelativeEnd();           
             if (regionEnd<relativeStart || regionStart>relativeEnd) continue; // region is fully outside segment. Just skip it
@@ -1409,7 +1477,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
     protected RegionSequenceData getNestedRegions() {
         RegionSequenceData newdata=new RegionSequenceData(sequenceName, chromosome, startPosition, endPosition);
         if (isModuleTrack() || isNestedTrack()) {
-            for (Region reg:regions) {
+            for (Region reg:getRegionList()) {
                 for (String property:reg.getAllPropertyNames()) {
                     Object val=reg.getProperty(property);
                     if (val instanceof Region) newdata.addRegion((Region)((Region)val).clone());
@@ -1454,7 +1522,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
             }        
         };        
         if (isModuleTrack() || isNestedTrack()) {
-            for (Region reg:regions) {
+            for (Region reg:getRegionList()) {
                 ArrayList<Region> nestedRegions=new ArrayList<Region>();
                 for (String property:reg.getAllPropertyNames()) {
                     Object val=reg.getProperty(property);
@@ -1492,7 +1560,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
     protected RegionSequenceData getTopLevelRegions() {
         RegionSequenceData newdata=new RegionSequenceData(sequenceName, chromosome, startPosition, endPosition);
         if (isModuleTrack() || isNestedTrack()) {
-            for (Region reg:regions) {
+            for (Region reg:getRegionList()) {
                 Region newregion=(Region)((Region)reg).clone();
                 // remove all nested region from this top level region
                 for (String property:newregion.getAllPropertyNames()) {
@@ -1521,7 +1589,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      */
     protected RegionSequenceData extractRegionsAsPositions(String anchor) throws ExecutionError {
         RegionSequenceData newdata=new RegionSequenceData(sequenceName, chromosome, startPosition, endPosition);
-        for (Region reg:regions) {
+        for (Region reg:getRegionList()) {
             Region copy = (Region)reg.clone();
             int regOr=reg.getOrientation();
                  if (anchor.equals("start")) {copy.setRelativeEnd(reg.getRelativeStart());}
@@ -1567,9 +1635,9 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      * sequence itself if a region extends beyond the sequence boundaries 
      */
     public int[] getMinMaxPositionsOfAllRegions() {
-        if (regions==null || regions.isEmpty()) return null;
-        int[] result=new int[]{regions.get(0).getRelativeStart(),regions.get(0).getRelativeEnd()};
-        for (Region region:regions) {
+        if (regions==null || getNumberOfRegions()==0) return null;
+        int[] result=new int[]{getRegionByIndex(0).getRelativeStart(),getRegionByIndex(0).getRelativeEnd()};
+        for (Region region:getRegionList()) {
             if (region.getRelativeStart()<result[0]) result[0]=region.getRelativeStart();
             if (region.getRelativeEnd()>result[1]) result[1]=region.getRelativeEnd();
         }
@@ -1582,7 +1650,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
      */
     public HashSet<String> getRegionTypes() {
         HashSet<String> types=new HashSet<String>();
-        for (Region region:regions) {
+        for (Region region:getRegionList()) {
             String type=region.getType();
             if (type!=null) types.add(type);
         }
@@ -1591,35 +1659,19 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
 
     
     /**
-     * This method assumes all regions are in sorted order and will use binary search
-     * to return an index into the regions list pointing to a region that can 
+     * Returns an index into the regions list pointing to a region that can 
      * be used as a good starting point when iterating through a subset of 
      * the regions list for a segment that starts at the given position.
-     * Thus, the returned index should point to a region that is either one of the
-     * last regions before the given position or is the first region to start at
-     * or after the given position. (Or said in a different way, there should be no
-     * other regions before the indexed region that lies at or after the given position).
-     * given position
+     * All regions before the returned index end before the given position, so none of them
+     * can overlap the segment. The index is found by binary search in the interval index
+     * (if the regions are not sorted, the method returns 0)
      * @param pos The relative position
      * @return A good index to start iteration at
      */
     public int getSensibleStartIndex(int pos) {
-        return 0; // it is not possible to optimize without further knowledge (e.g. size of longest region), so this is "disabled" for now
-//        //if (regions.size()<20) return 0; // very short list: don't bother optimizing
-//        // the binary search algorithm is copied from the implementation in Collections
-//        int lastBefore=0; // index of last known region whose start pos is < target pos
-//        int low = 0;
-//        int high = regions.size()-1;       
-//        while (low <= high) {
-//            int mid = (low + high) >>> 1; // this is supposedly a clever way of calculating the midpoint
-//            Region region = regions.get(mid);
-//            int regStart=region.getRelativeStart();
-//            if (regStart<pos) // this region is located before target position
-//                 {low = mid + 1; lastBefore=mid;}
-//            else if (regStart>=pos) // this regions is after (or at) target position
-//                 {high = mid - 1;}
-//        }
-//        return lastBefore;
+        RegionIntervalIndex index=getIntervalIndex();
+        if (index==null) return 0; // the regions are not sorted, so all of them must be checked
+        return index.getFirstIndexEndingAtOrAfter(pos);
     }
     
     
@@ -1627,7 +1679,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
     /** Outputs information about this dataset into the buffer */
     public StringBuilder debug(StringBuilder builder) {
         if (builder==null) builder=new StringBuilder();
-        builder.append(" - "+getName()+" : "+getRegionAsString()+", size="+getSize()+", regions="+((regions==null)?0:regions.size())+",   ["+System.identityHashCode(this)+"]");
+        builder.append(" - "+getName()+" : "+getRegionAsString()+", size="+getSize()+", regions="+((regions==null)?0:getNumberOfRegions())+",   ["+System.identityHashCode(this)+"]");
         return builder;
     }      
     
@@ -1638,6 +1690,7 @@ public class RegionSequenceData extends FeatureSequenceData implements Cloneable
     private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
          short currentinternalversion=1; // this is an internal version number for serialization of objects of this type
          out.writeShort(currentinternalversion);
+         if (compactRegions!=null) expandCompactRegions(); // compact regions are always saved as regular Region objects
          out.defaultWriteObject();
     }
 
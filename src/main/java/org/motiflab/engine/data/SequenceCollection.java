@@ -42,6 +42,7 @@ public class SequenceCollection extends DataCollection implements SequenceGroup
     private String fromMap=null; // a configuration string if this collection is based on a map. Format example: "<mapname>,value>=0" or "mapname,value in [0,1]"
     private String fromList=null; // a configuration string if this collection is based on a (non-resolved) list of references
     private String fromStatistic=null; // a configuration string if this collection is based on a statistical function
+    private transient volatile SequenceNameIndex nameIndex=null; // maps sequence names to their position in the storage list. This is built on demand
 
     /**
      * Constructs a new initially "empty" Sequence collection with the given name
@@ -226,7 +227,7 @@ public class SequenceCollection extends DataCollection implements SequenceGroup
         ArrayList<Sequence> list = new ArrayList<Sequence>(storage.size());
         ArrayList<String> allnames=engine.getDefaultSequenceCollection().getAllSequenceNames();
         for (String name:allnames) {
-            if (!storage.contains(name)) continue;
+            if (!contains(name)) continue;
             Data item=engine.getDataItem(name); 
             if (item!=null && item instanceof Sequence) list.add((Sequence)item);
         }
@@ -242,11 +243,9 @@ public class SequenceCollection extends DataCollection implements SequenceGroup
      * @return the specified sequence (if found) or null
      */
     public Sequence getSequenceByName(String name, MotifLabEngine engine) {
-        for (String sequencename : storage) {
-            if (sequencename.equals(name)) {
-                Data item=engine.getDataItem(name); 
-                if (item!=null && item instanceof Sequence) return (Sequence)item;
-            }
+        if (contains(name)) {
+            Data item=engine.getDataItem(name); 
+            if (item!=null && item instanceof Sequence) return (Sequence)item;
         }
         return null;
     }
@@ -290,11 +289,28 @@ public class SequenceCollection extends DataCollection implements SequenceGroup
      * @return index of the sequence (between 0 and size-1) or -1
      */
     public int getIndexForSequence(String name) {
-        for (int i=0;i<storage.size();i++) {
-            String sequenceName=storage.get(i);
-            if (sequenceName.equals(name)) return i;
+        if (name==null) return -1;
+        SequenceNameIndex index=nameIndex;
+        if (index==null || index.size()!=storage.size()) index=rebuildNameIndex(); // the size is checked since the list can be modified directly
+        int i=index.getIndex(name);
+        if (i>=0 && !name.equals(storage.get(i))) { // the index is out of date
+            index=rebuildNameIndex();
+            i=index.getIndex(name);
         }
-        return -1;
+        return i;
+    }
+
+    private SequenceNameIndex rebuildNameIndex() {
+        SequenceNameIndex index=SequenceNameIndex.createForNames(storage);
+        nameIndex=index;
+        return index;
+    }
+
+    /** Appends the name to the end of the storage list and updates the name index */
+    private void appendSequenceName(String name) {
+        storage.add(name);
+        SequenceNameIndex index=nameIndex;
+        if (index!=null && index.size()==storage.size()-1) index.add(name);
     }
     
     /** 
@@ -308,10 +324,7 @@ public class SequenceCollection extends DataCollection implements SequenceGroup
     
     @Override
     public boolean contains(String sequenceName) {
-        for (String name:storage) {
-            if (name.equals(sequenceName)) return true;
-        }
-        return false;
+        return getIndexForSequence(sequenceName)>=0;
     }
     
     /**
@@ -338,8 +351,8 @@ public class SequenceCollection extends DataCollection implements SequenceGroup
      * @param sequence The Sequence to be added
      */
     public void addSequence(Sequence sequence) {
-        if (!storage.contains(sequence.getName())) {
-            storage.add(sequence.getName()); // add to local storage
+        if (!contains(sequence.getName())) {
+            appendSequenceName(sequence.getName()); // add to local storage
             notifyListenersOfDataAddition(sequence);
         }
     }
@@ -352,7 +365,7 @@ public class SequenceCollection extends DataCollection implements SequenceGroup
      * @param name The name of the sequence to be added
      */
     public void addSequenceName(String name) {
-        if (!storage.contains(name)) storage.add(name); //
+        if (!contains(name)) appendSequenceName(name);
     }
     
    /**
@@ -364,7 +377,7 @@ public class SequenceCollection extends DataCollection implements SequenceGroup
      */
     public void addSequenceNames(ArrayList<String> names) {
         for (String name:names) {
-          if (!storage.contains(name)) storage.add(name);      
+          if (!contains(name)) appendSequenceName(name);
         }
     }       
     
@@ -375,6 +388,7 @@ public class SequenceCollection extends DataCollection implements SequenceGroup
      */
     public void removeSequence(Sequence sequence) {
         storage.remove(sequence.getName()); // remove from local storage
+        nameIndex=null;
         notifyListenersOfDataRemoval(sequence);
     }
     
@@ -385,6 +399,7 @@ public class SequenceCollection extends DataCollection implements SequenceGroup
         for (int i=0;i<list.length;i++) {list[i]=storage.get(i);}
         for (String name:list) {
             storage.remove(name);
+            nameIndex=null;
             Data item=null;
             if (engine!=null) item=engine.getDataItem(name);
             if (item!=null && item instanceof Sequence) notifyListenersOfDataRemoval((Sequence)item);
@@ -406,6 +421,7 @@ public class SequenceCollection extends DataCollection implements SequenceGroup
     public void reorderSequences(int currentposition, int newposition) {
         String temp=storage.remove(currentposition);
         storage.add(newposition,temp);
+        nameIndex=null;
         notifyListenersOfDataReorder(currentposition,newposition);
     }   
     
@@ -414,6 +430,7 @@ public class SequenceCollection extends DataCollection implements SequenceGroup
      */
     public void setSequenceOrder(String[] order) {
          storage.clear();
+         nameIndex=null;
          storage.addAll(Arrays.asList(order));
          notifyListenersOfDataReorder(null,null);
     }
@@ -423,6 +440,7 @@ public class SequenceCollection extends DataCollection implements SequenceGroup
      */
     public void setSequenceOrder(ArrayList<String> order) {
          storage.clear();
+         nameIndex=null;
          for(String s:order) storage.add(s);
          notifyListenersOfDataReorder(null,null);
     }
@@ -463,7 +481,7 @@ public class SequenceCollection extends DataCollection implements SequenceGroup
         int size=dataset.getNumberofSequences();
         for (int i=0;i<size;i++) {
             String data=dataset.getSequenceNameByIndex(i);
-            if (!contains(data)) storage.add(data); // I use this directly instead of calling addSequence() to limit the number of notifications sent 
+            if (!contains(data)) appendSequenceName(data); // I use this directly instead of calling addSequence() to limit the number of notifications sent 
         }              
         notifyListenersOfDataAddition(dataset);
     }
@@ -478,6 +496,7 @@ public class SequenceCollection extends DataCollection implements SequenceGroup
         this.fromStatistic=datasource.fromStatistic;
         this.cloneConstructor(datasource);
         storage.clear();
+        nameIndex=null;
         for (String seqName:datasource.storage) {
             storage.add(seqName);
         }
@@ -676,6 +695,7 @@ public class SequenceCollection extends DataCollection implements SequenceGroup
            if ((secondOperandData instanceof Data) && !(secondOperandData instanceof NumericConstant || secondOperandData instanceof NumericVariable || secondOperandData instanceof SequenceNumericMap)) throw new ExecutionError("'"+secondOperand+"' is of a type not applicable in this context");
        }     
        storage.clear();
+       nameIndex=null;
        // configure
        String fromMapString=null;
        if (operator.equals("in") || operator.equals("not in")) {
@@ -713,6 +733,7 @@ public class SequenceCollection extends DataCollection implements SequenceGroup
            if ((secondOperandData instanceof Data) && !(secondOperandData instanceof NumericConstant || secondOperandData instanceof NumericVariable || secondOperandData instanceof SequenceNumericMap)) throw new ExecutionError("'"+secondOperand+"' is of a type not applicable in this context");
        }
        storage.clear();
+       nameIndex=null;
        // configure
        String fromStatisticString=null;
        if (operator.equals("in") || operator.equals("not in")) {
@@ -1152,6 +1173,7 @@ public static SequenceCollection parseSequenceCollectionParameters(String text,
        if (typeclass==null) throw new ExecutionError("Unknown sequence property: "+property);
        if (operands==null || operands.length==0) throw new ExecutionError("Missing property value");       
        storage.clear();
+       nameIndex=null;
        Object[] resolvedoperands=null;
        if (Number.class.isAssignableFrom(typeclass)) { // either a single operand or two for ranges
            resolvedoperands=new Object[operands.length]; // resolve all operands, irrespective of the operator used
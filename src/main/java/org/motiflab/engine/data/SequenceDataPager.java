@@ -0,0 +1,177 @@
+package org.motiflab.engine.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import org.motiflab.engine.MotifLabEngine;
+
+/**
+ * This class keeps the memory used by the payloads of feature sequences (such as the values in
+ * NumericSequenceData objects or the bases in DNASequenceData objects) within a given budget by
+ * paging the payloads of sequences that have not been used recently out to files in a temporary directory.
+ * Paged-out payloads are read back into memory (using memory-mapped files) the next time they are accessed,
+ * so operations and analyses need not know whether the data is resident or not.
+ * <br>
+ * Only sequences belonging to datasets that have been stored in the engine are registered with the pager.
+ * The payloads of these sequences will not change until the sequence is modified, and the sequence
+ * will then be detached from the pager first (see FeatureSequenceData.prepareForUpdate()).
+ * The sequences to page out are selected with the CLOCK algorithm (an approximation of "least recently used"):
+ * the registered sequences form a ring which is visited in turn, and sequences that have been
+ * accessed since the previous visit are given a second chance.
+ *
+ * @author kjetikl
+ */
+public final class SequenceDataPager {
+
+    private static final long MIN_PAGEABLE_SIZE=64*1024; // smaller payloads are not worth the trouble of paging
+
+    private final MotifLabEngine engine;
+    private final File directory;
+    private long budget; // the maximum number of bytes that the payloads of registered sequences should occupy in memory
+    private long residentBytes=0;
+    private final IdentityHashMap<FeatureSequenceData,Entry> entries=new IdentityHashMap<FeatureSequenceData,Entry>();
+    private final ArrayList<Entry> ring=new ArrayList<Entry>();
+    private int hand=0;
+    private int removedEntries=0; // the number of entries in the ring that belong to unregistered sequences
+    private boolean failed=false; // set if payloads can not be written to disk
+
+    private static class Entry {
+        final FeatureSequenceData sequence;
+        final long size;
+        boolean resident;
+        boolean removed=false;
+
+        Entry(FeatureSequenceData sequence, long size, boolean resident) {
+            this.sequence=sequence;
+            this.size=size;
+            this.resident=resident;
+        }
+    }
+
+    /**
+     * Creates a new pager
+     * @param engine
+     * @param directory The directory where paged-out payloads should be written
+     * @param budget The maximum number of bytes that the payloads of registered sequences should occupy in memory
+     */
+    public SequenceDataPager(MotifLabEngine engine, File directory, long budget) {
+        this.engine=engine;
+        this.directory=directory;
+        this.budget=budget;
+        if (!directory.exists()) directory.mkdirs();
+    }
+
+    /** Sets the maximum number of bytes that the payloads of registered sequences should occupy in memory */
+    public synchronized void setBudget(long budget) {
+        this.budget=budget;
+        enforceBudget(null);
+    }
+
+    /** Returns the maximum number of bytes that the payloads of registered sequences should occupy in memory */
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /** Returns the (approximate) number of bytes currently occupied by the payloads of registered sequences */
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * Registers all the sequences in the given dataset with the pager so that their payloads can be paged out.
+     * This should only be called for datasets that are stored in the engine
+     */
+    public synchronized void register(FeatureDataset dataset) {
+        for (FeatureSequenceData sequence:dataset.getAllSequences()) {
+            long size=sequence.getPageablePayloadSize();
+            if (size<MIN_PAGEABLE_SIZE || entries.containsKey(sequence)) continue;
+            boolean resident=(sequence.getResidentPayload()!=null);
+            Entry entry=new Entry(sequence, size, resident);
+            entries.put(sequence, entry);
+            ring.add(entry);
+            if (resident) residentBytes+=size;
+            sequence.setPager(this);
+        }
+        enforceBudget(null);
+    }
+
+    /**
+     * Unregisters all the sequences in the given dataset. Payloads that are currently paged out
+     * will still be read back into memory when they are accessed
+     */
+    public synchronized void unregister(FeatureDataset dataset) {
+        for (FeatureSequenceData sequence:dataset.getAllSequences()) {
+            if (sequence.getPager()==this) unregister(sequence);
+        }
+    }
+
+    /** Unregisters a single sequence (this is called by the sequence before its payload is modified) */
+    synchronized void unregister(FeatureSequenceData sequence) {
+        Entry entry=entries.remove(sequence);
+        sequence.setPager(null);
+        if (entry==null) return;
+        entry.removed=true; // the entry is removed from the ring lazily
+        removedEntries++;
+        if (entry.resident) residentBytes-=entry.size;
+        if (removedEntries>ring.size()/2) { // compact the ring
+            ArrayList<Entry> remaining=new ArrayList<Entry>(ring.size()-removedEntries);
+            for (Entry e:ring) if (!e.removed) remaining.add(e);
+            ring.clear();
+            ring.addAll(remaining);
+            removedEntries=0;
+            hand=0;
+        }
+    }
+
+    /** Called by registered sequences after their payloads have been read back into memory */
+    synchronized void pagedIn(FeatureSequenceData sequence) {
+        Entry entry=entries.get(sequence);
+        if (entry==null) return;
+        if (!entry.resident && sequence.getResidentPayload()!=null) {
+            entry.resident=true;
+            residentBytes+=entry.size;
+        }
+        enforceBudget(sequence);
+    }
+
+    /**
+     * Pages out payloads of registered sequences until the resident payloads fit within the budget.
+     * The hand of the clock makes at most two rounds, since the first round could just clear the access flags
+     * @param keep A sequence that should not be paged out (e.g. because it has just been read back into memory)
+     */
+    private void enforceBudget(FeatureSequenceData keep) {
+        if (failed) return;
+        int steps=ring.size()*2;
+        while (residentBytes>budget && steps>0 && !ring.isEmpty()) {
+            steps--;
+            if (hand>=ring.size()) hand=0;
+            Entry entry=ring.get(hand);
+            if (entry.removed) { // replace the entry with the last one in the ring
+                Entry last=ring.remove(ring.size()-1);
+                if (hand<ring.size()) ring.set(hand, last);
+                removedEntries--;
+                continue;
+            }
+            hand++;
+            FeatureSequenceData sequence=entry.sequence;
+            boolean resident=(sequence.getResidentPayload()!=null);
+            if (resident!=entry.resident) { // the payload has been read back without notification (e.g. for serialization)
+                entry.resident=resident;
+                residentBytes+=(resident)?entry.size:-entry.size;
+            }
+            if (!resident || sequence==keep) continue;
+            if (sequence.accessed) {sequence.accessed=false; continue;} // give it a second chance
+            try {
+                if (sequence.pageOut(directory)) {
+                    entry.resident=false;
+                    residentBytes-=entry.size;
+                }
+            } catch (IOException e) {
+                failed=true;
+                engine.logMessage("Unable to page out feature data to disk (paging has been disabled): "+e.getMessage());
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.motiflab.engine.data;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class maps sequence names to their index in the ordered list of sequences
+ * in a FeatureDataset or SequenceCollection, so that sequences can be looked up by
+ * name in constant time rather than by searching through the list.
+ * The owner can extend the index with add() when a sequence is appended to the end of
+ * the list, but should otherwise discard it (and build a new one on demand) whenever
+ * sequences are removed, renamed or reordered. Datasets that contain the same sequences
+ * in the same order (such as a dataset and its clones) can share the same index, as long
+ * as none of them extends it.
+ * If the list contains several sequences with the same name, the first of these is indexed.
+ *
+ * @author kjetikl
+ */
+public final class SequenceNameIndex {
+
+    private final HashMap<String,Integer> indices;
+    private int size;
+
+    private SequenceNameIndex(int size) {
+        this.size=size;
+        this.indices=new HashMap<String,Integer>((int)(size/0.75f)+1);
+    }
+
+    /** Creates an index for the sequences in the given FeatureDataset storage */
+    public static SequenceNameIndex createForSequences(List<FeatureSequenceData> sequences) {
+        SequenceNameIndex index=new SequenceNameIndex(sequences.size());
+        for (int i=0;i<sequences.size();i++) {
+            String name=sequences.get(i).getName();
+            if (!index.indices.containsKey(name)) index.indices.put(name, i);
+        }
+        return index;
+    }
+
+    /** Creates an index for the given list of sequence names */
+    public static SequenceNameIndex createForNames(List<String> names) {
+        SequenceNameIndex index=new SequenceNameIndex(names.size());
+        for (int i=0;i<names.size();i++) {
+            String name=names.get(i);
+            if (!index.indices.containsKey(name)) index.indices.put(name, i);
+        }
+        return index;
+    }
+
+    /** Returns the index of the sequence with the given name, or -1 if the name is not in the index */
+    public int getIndex(String name) {
+        Integer index=indices.get(name);
+        return (index!=null)?index:-1;
+    }
+
+    /** Updates the index after a sequence with the given name has been appended to the end of the list */
+    void add(String name) {
+        if (!indices.containsKey(name)) indices.put(name, size);
+        size++;
+    }
+
+    /** Returns the number of sequences in the list that this index was built for */
+    public int size() {
+        return size;
+    }
+}
@@ -48,7 +48,7 @@ public class SequenceNumericMap extends NumericMap {
     
     public SequenceNumericMap(String name, HashMap<String,Double>values, double defaultvalue) {
         this.name=name;
-        this.values=values;
+        this.values.putAll(values);
         this.defaultvalue=new Double(defaultvalue);
     }
 
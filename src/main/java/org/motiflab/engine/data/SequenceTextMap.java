@@ -25,7 +25,7 @@ public class SequenceTextMap extends TextMap {
     
     public SequenceTextMap(String name, HashMap<String,String>values, String defaultvalue) {
         this.name=name;
-        this.values=values;
+        this.values.putAll(values);
         this.defaultvalue=defaultvalue;
     }
     
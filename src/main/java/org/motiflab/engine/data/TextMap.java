@@ -5,6 +5,10 @@
 
 package org.motiflab.engine.data;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -12,12 +16,14 @@ import org.motiflab.engine.MotifLabEngine;
 import org.motiflab.engine.protocol.ParseError;
 
 /**
+ * The explicitly assigned values in a TextMap are kept in an IndexedTextValues table
+ * (an array indexed by a MapKeyIndex shared by all maps of the same type)
  *
  * @author kjetikl
  */
 public abstract class TextMap extends DataMap {
     protected String name;    
-    protected HashMap<String,String> values=new HashMap<String,String>();
+    protected IndexedTextValues values=new IndexedTextValues(MapKeyIndex.getIndexForType(getMembersClass()));
     protected String defaultvalue="";
 
     
@@ -138,25 +144,25 @@ public abstract class TextMap extends DataMap {
 
     @Override
     public boolean contains(String dataname) {
-        String val=values.get(dataname);
-        return (val!=null);
+        return values.containsKey(dataname);
     }
 
 
     
     /**
-     * Returns the (original) HashMap containing the key-value pairs registered
-     * in this TextMap
+     * Returns a HashMap containing the key-value pairs registered in this TextMap.
+     * Note that this is a copy, so changes to the returned map will not affect this TextMap
      * @return
      */
     public HashMap<String,String> getValues() {
-        return values;
+        return values.toHashMap();
     }
 
     @Override
     public HashMap<String,Object> getColumnData() {
         HashMap<String,Object> map=new HashMap<String,Object>();
-        for (String key:values.keySet()) map.put(key,values.get(key));
+        MapKeyIndex keyindex=values.getKeyIndex();
+        for (int i=values.nextAssignedIndex(0);i>=0;i=values.nextAssignedIndex(i+1)) map.put(keyindex.getKey(i),values.getValueAt(i));
         return map;
     }
     /**
@@ -164,11 +170,12 @@ public abstract class TextMap extends DataMap {
      * @return
      */
     public String[] getValues(ArrayList<String> list) {
+        MapKeyIndex keyindex=values.getKeyIndex();
         String[] result=new String[list.size()];
-        for (int i=0;i<list.size();i++) {
-            String key=list.get(i);
-            if (values.containsKey(key)) result[i]=values.get(key);
-            else result[i] = defaultvalue;
+        for (int i=0;i<result.length;i++) {
+            int index=keyindex.getIndex(list.get(i));
+            String value=(index>=0)?values.getValueAt(index):null;
+            result[i]=(value!=null)?value:defaultvalue;
         }
         return result;
     }
@@ -180,9 +187,7 @@ public abstract class TextMap extends DataMap {
 
     @Override
     public ArrayList<String> getRegisteredKeys() {
-        ArrayList<String> list=new ArrayList<String>();
-        list.addAll(values.keySet());
-        return list;
+        return values.getKeys();
     }
 
     @Override
@@ -206,15 +211,7 @@ public abstract class TextMap extends DataMap {
         if ((this.defaultvalue==null && other.defaultvalue!=null) || (this.defaultvalue!=null && other.defaultvalue==null)) return false;
         if (this.defaultvalue!=null && other.defaultvalue!=null && !this.defaultvalue.equals(other.defaultvalue)) return false;
         if (((String)this.defaultvalue) == null ? ((String)other.defaultvalue) != null : !((String)this.defaultvalue).equals((String)other.defaultvalue)) return false;
-        if (other.values.size()!=this.values.size()) return false;
-        for (String key:values.keySet()) {
-            if (!other.contains(key)) return false;
-            String thisValue=values.get(key);
-            String otherValue=other.values.get(key);
-            if ((thisValue==null && otherValue!=null) || (thisValue!=null && otherValue==null)) return false;
-            if (thisValue!=null && otherValue!=null && !thisValue.equals(otherValue)) return false;
-        }
-        return true;
+        return values.hasSameValues(other.values);
     }
 
     @Override 
@@ -224,15 +221,7 @@ public abstract class TextMap extends DataMap {
         if ((this.defaultvalue==null && other.defaultvalue!=null) || (this.defaultvalue!=null && other.defaultvalue==null)) return false;
         if (this.defaultvalue!=null && other.defaultvalue!=null && !this.defaultvalue.equals(other.defaultvalue)) return false;
         if (((String)this.defaultvalue) == null ? ((String)other.defaultvalue) != null : !((String)this.defaultvalue).equals((String)other.defaultvalue)) return false;
-        if (other.values.size()!=this.values.size()) return false;
-        for (String key:values.keySet()) {
-            if (!other.contains(key)) return false;
-            String thisValue=values.get(key);
-            String otherValue=other.values.get(key);
-            if ((thisValue==null && otherValue!=null) || (thisValue!=null && otherValue==null)) return false;
-            if (thisValue!=null && otherValue!=null && !thisValue.equals(otherValue)) return false;
-        }
-        return true;       
+        return values.hasSameValues(other.values);       
     }    
     
 
@@ -320,5 +309,29 @@ public abstract class TextMap extends DataMap {
     }
 
     private static final long serialVersionUID = 1L;
+
+    // the values are serialized as a HashMap (as in previous versions) since the key indices are only valid within a session
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("name", String.class),
+        new ObjectStreamField("values", HashMap.class),
+        new ObjectStreamField("defaultvalue", String.class)
+    };
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields=out.putFields();
+        fields.put("name", name);
+        fields.put("values", values.toHashMap());
+        fields.put("defaultvalue", defaultvalue);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields=in.readFields();
+        name=(String)fields.get("name", null);
+        defaultvalue=(String)fields.get("defaultvalue", "");
+        values=new IndexedTextValues(MapKeyIndex.getIndexForType(getMembersClass()));
+        values.putAll((HashMap<String,String>)fields.get("values", null));
+    }
     
 }
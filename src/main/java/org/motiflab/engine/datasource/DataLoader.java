@@ -389,6 +389,7 @@ public class DataLoader {
         for (DataSegment segment:segments) { 
             if (segment.containsData()) segment.copyData(sequencedata);
         }        
+        if (sequencedata instanceof DNASequenceData && engine.packDNASequences()) ((DNASequenceData)sequencedata).pack(); // store the sequence with 2 bits per base
         // Save the obtained data in the cache if applicable. Note that data will not be saved if something has gone wrong (if an exception has been thrown this point will not be reached)
         if (useCache && cache!=null && shouldSaveToCache(segments) && !oneHitWonder) {
             saveDatathreadpool.execute(new saveDataRunnable(datatrackName, organism, genomebuild, sequencedata)); // save on separate thread
@@ -9,7 +9,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 import org.motiflab.engine.task.ExecutableTask;
 import org.motiflab.engine.ExecutionError;
@@ -391,11 +390,10 @@ public abstract class ArithmeticOperation extends FeatureTransformOperation {
             }
             
             TaskRunner taskRunner=engine.getTaskRunner();
-            task.setProgress(0L,sequences.size());
-            long[] counters=new long[]{0,0,sequences.size()}; // counters[0]=sequences started, [1]=sequences completed, [2]=total number of sequences
+            long[] counters=new long[]{0,0,sequences.size()}; // counters[0]=sequences (or tiles) started, [1]=sequences completed, [2]=total number of sequences
 
-            ArrayList<ProcessSequenceTask> processTasks=new ArrayList<ProcessSequenceTask>(sequences.size());
-            for (Sequence sequence:sequences) processTasks.add(new ProcessSequenceTask(sourceDataset,targetDataset, sequence.getName(), task, counters));
+            ArrayList<ProcessSequenceTask> processTasks=createProcessTasks(sequences, sourceDataset, targetDataset, task, counters);
+            task.setProgress(0L,processTasks.size());
             List<Future<FeatureSequenceData>> futures=null;
             int countOK=0;            
             try {
@@ -412,7 +410,7 @@ public abstract class ArithmeticOperation extends FeatureTransformOperation {
                else throw e; 
             } 
             // if (threadpool!=null) threadpool.shutdownNow();        
-            if (countOK!=sequences.size()) {
+            if (countOK!=processTasks.size()) {
                 throw new ExecutionError("Some mysterious error occurred while scanning");
             }            
 
@@ -433,22 +431,41 @@ public abstract class ArithmeticOperation extends FeatureTransformOperation {
         return true;
     }
 
+    @Override
+    protected boolean canTransformSubranges(OperationTask task) {
+        return (task.getParameter(OperationTask.SOURCE) instanceof NumericDataset); // numeric positions are updated independently
+    }
+
     @Override
     public void transformSequence(FeatureSequenceData sourceSequence, FeatureSequenceData targetSequence, OperationTask task) throws Exception {
-             if (sourceSequence instanceof NumericSequenceData) transformNumericSequence((NumericSequenceData)sourceSequence, (NumericSequenceData)targetSequence, task);
+             if (sourceSequence instanceof NumericSequenceData) transformNumericSequence((NumericSequenceData)sourceSequence, (NumericSequenceData)targetSequence, sourceSequence.getRegionStart(), sourceSequence.getRegionEnd(), task);
         else if (sourceSequence instanceof RegionSequenceData)  transformRegionSequence((RegionSequenceData)sourceSequence, (RegionSequenceData)targetSequence, task);
     }
 
+    @Override
+    public void transformSequence(FeatureSequenceData sourceSequence, FeatureSequenceData targetSequence, int start, int end, OperationTask task) throws Exception {
+        if (sourceSequence instanceof NumericSequenceData) transformNumericSequence((NumericSequenceData)sourceSequence, (NumericSequenceData)targetSequence, start, end, task);
+        else super.transformSequence(sourceSequence, targetSequence, start, end, task);
+    }
 
-    private void transformNumericSequence(NumericSequenceData sourceSequence, NumericSequenceData targetSequence, OperationTask task) throws Exception {
+    private void transformNumericSequence(NumericSequenceData sourceSequence, NumericSequenceData targetSequence, int start, int end, OperationTask task) throws Exception {
         Data operandData=(Data)task.getParameter(OPERAND_DATA);
         Data operand;
         if (operandData instanceof NumericDataset) operand=((NumericDataset)operandData).getSequenceByName(sourceSequence.getName());
         else operand=operandData;
+        int operator=getKernelOperator();
+        if (operator>=0 && (operand instanceof NumericConstant || operand instanceof SequenceNumericMap || operand instanceof NumericVariable || operand instanceof NumericSequenceData)) {
+            transformNumericSequenceWithKernel(sourceSequence, targetSequence, operand, operator, start, end, task);
+            return;
+        }
         String seqname=sourceSequence.getName();
         String exceptionMsg=null;
         int skipped=0;
-        for (int i=sourceSequence.getRegionStart();i<=sourceSequence.getRegionEnd();i++) {
+        start=Math.max(start, sourceSequence.getRegionStart());
+        end=Math.min(end, sourceSequence.getRegionEnd());
+        if (end<start) return;
+        double[] newValues=(double[])targetSequence.getValueInGenomicInterval(start, end); // the new values are written in one go so that the range of the sequence is only updated once per tile
+        for (int i=start;i<=end;i++) {
             if (positionSatisfiesCondition(seqname,i,task)) {
               double operandValue=0;
               if (operand instanceof NumericConstant) {
@@ -465,19 +482,41 @@ public abstract class ArithmeticOperation extends FeatureTransformOperation {
               //engine.logMessage("operandValue="+operandValue+"  operandData="+operandData.toString()+" (class)="+operandData.getClass().toString());
               double oldvalue=sourceSequence.getValueAtGenomicPosition(i);
               try {
-                  double newvalue=calculateNewValue(oldvalue,operandValue);
-                  targetSequence.setValueAtGenomicPosition(i, newvalue);
+                  newValues[i-start]=calculateNewValue(oldvalue,operandValue);
               } catch (ExecutionError e) {
                   skipped++;
                   if (exceptionMsg==null) exceptionMsg=e.getMessage();
               }
            } // satisfies 'where'-condition
         }
+        targetSequence.setValuesInGenomicInterval(start, newValues);
         if (skipped>0) {
             engine.logMessage("WARNING: "+skipped+((skipped==1)?" position was skipped":" positions were skipped")+" in "+seqname+" because of : "+exceptionMsg);
         }
     }
 
+    /** Transforms all the values in the interval at once with the numeric kernel for the given operator */
+    private void transformNumericSequenceWithKernel(NumericSequenceData sourceSequence, NumericSequenceData targetSequence, Data operand, int operator, int start, int end, OperationTask task) throws Exception {
+        String seqname=sourceSequence.getName();
+        start=Math.max(start, sourceSequence.getRegionStart());
+        end=Math.min(end, sourceSequence.getRegionEnd());
+        if (end<start) return;
+        double[] values=(double[])sourceSequence.getValueInGenomicInterval(start, end);
+        double[] newValues=(double[])targetSequence.getValueInGenomicInterval(start, end);
+        double[] operands=null;
+        double operandValue=0;
+             if (operand instanceof NumericConstant) operandValue=((NumericConstant)operand).getValue();
+        else if (operand instanceof SequenceNumericMap) operandValue=((SequenceNumericMap)operand).getValue(seqname);
+        else if (operand instanceof NumericVariable) operandValue=((NumericVariable)operand).getValue();
+        else operands=(double[])((NumericSequenceData)operand).getValueInGenomicInterval(start, end);
+        long[] selection=NumericKernels.getSelection(getPositionMask(seqname, task), start, end);
+        int skipped=getNumericKernels().arithmetic(operator, values, operands, operandValue, newValues, selection);
+        targetSequence.setValuesInGenomicInterval(start, newValues);
+        if (skipped>0) {
+            engine.logMessage("WARNING: "+skipped+((skipped==1)?" position was skipped":" positions were skipped")+" in "+seqname+" because of : "+NumericKernels.getSkipReason(operator));
+        }
+    }
+
     private void transformRegionSequence(RegionSequenceData sourceSequence, RegionSequenceData targetSequence, OperationTask task) throws Exception {
         Object operandData=task.getParameter(OPERAND_DATA); // The object containing the "target value" (which will be assigned to the specified property). This can be a data object, a boolean, a string, an ArrayList<String> or an Object[] (the last one is a region property marker)
         String operator=(String)task.getParameter(REGION_OPERATOR);
@@ -577,6 +616,15 @@ public abstract class ArithmeticOperation extends FeatureTransformOperation {
     /** Calculates a new numeric value based on the present value and an additional argument value */
     public abstract double calculateNewValue(double oldvalue, double argument) throws ExecutionError;
 
+    /**
+     * Returns the operator in NumericKernels (such as NumericKernels.ADD) which calculates the same values as calculateNewValue(),
+     * or -1 if there is no such operator. If an operator is returned, the values in numeric tracks are transformed with this kernel
+     * rather than one position at a time
+     */
+    protected int getKernelOperator() {
+        return -1;
+    }
+
     /** Calculates a new value based on the present value and an additional argument value. The values could be numeric, boolean or text values (or ArrayList of Strings) */
     public abstract Object calculateNewPropertyValue(Object oldvalue, Object argument) throws ExecutionError;
 
@@ -672,43 +720,5 @@ public abstract class ArithmeticOperation extends FeatureTransformOperation {
     
     
     
-    private class ProcessSequenceTask implements Callable<FeatureSequenceData> {
-        final FeatureDataset targetDataset;
-        final FeatureDataset sourceDataset;
-        final long[] counters; // NB: this array will be shared with other tasks since all tasks are given the same pointer
-        final String sequencename;
-        final OperationTask task;;   
-        
-        public ProcessSequenceTask(FeatureDataset sourceDataset, FeatureDataset targetDataset, String sequencename, OperationTask task, long[] counters) {
-           this.sequencename=sequencename;
-           this.sourceDataset=sourceDataset;
-           this.targetDataset=targetDataset; 
-           this.counters=counters;
-           this.task=task;
-        }
-        
-        @Override
-        @SuppressWarnings("unchecked")
-        public FeatureSequenceData call() throws Exception {
-            synchronized(counters) {
-               counters[0]++; // number of sequences started  
-            }        
-            task.checkExecutionLock(); // checks to see if this task should suspend execution
-            if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();
-            FeatureSequenceData sourceSequence=(FeatureSequenceData)sourceDataset.getSequenceByName(sequencename);
-            FeatureSequenceData targetSequence=(FeatureSequenceData)targetDataset.getSequenceByName(sequencename);
-
-                 if (sourceSequence instanceof NumericSequenceData) transformNumericSequence((NumericSequenceData)sourceSequence, (NumericSequenceData)targetSequence, task);
-            else if (sourceSequence instanceof RegionSequenceData)  transformRegionSequence((RegionSequenceData)sourceSequence, (RegionSequenceData)targetSequence, task);
-            
-            synchronized(counters) { // finished one of the sequences
-                counters[1]++; // number of sequences completed
-                task.setStatusMessage("Executing "+task.getOperationName()+":  ("+counters[1]+"/"+counters[2]+")");
-                task.setProgress(counters[1],counters[2]);                
-            }   
-            if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();           
-            return targetSequence;
-        }   
-    }    
     
 }
@@ -6,8 +6,11 @@
 package org.motiflab.engine.operations;
 
 import org.motiflab.engine.task.OperationTask;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import org.motiflab.engine.MotifLabEngine;
 import org.motiflab.engine.ExecutionError;
 import org.motiflab.engine.data.DNASequenceData;
@@ -30,6 +33,7 @@ import org.motiflab.engine.data.TextVariable;
  */
 public class Condition_position extends Condition {
     private boolean isResolved=false;
+    private final ConcurrentHashMap<String,MaskHolder> masks=new ConcurrentHashMap<String,MaskHolder>(); // masks for each sequence, which are cleared whenever the condition is resolved
     
     public Condition_position() {
         super();
@@ -41,6 +45,7 @@ public class Condition_position extends Condition {
     
     @Override
     public void resolve(MotifLabEngine engine, OperationTask task) throws ExecutionError {
+        clearMasks();
         Data operandA=null;
         Data operandB=null;
         Data operandB2=null;
@@ -215,6 +220,235 @@ public class Condition_position extends Condition {
         else return returnValue;
     } 
     
+    /**
+     * Returns a mask with the positions in the sequence where this condition holds.
+     * The first time this method is called for a sequence, the condition is evaluated for the whole sequence at once,
+     * and the mask is then reused until the condition is resolved again (which happens each time an operation is executed).
+     * Operations write their results to a new copy of the target dataset, so the operands will not change while the mask is in use.
+     * @param sequencename
+     * @param task
+     * @return
+     * @throws java.lang.Exception
+     */
+    public PositionMask getMask(String sequencename, OperationTask task) throws Exception {
+        MaskHolder holder=masks.get(sequencename);
+        if (holder==null) {
+            holder=new MaskHolder();
+            MaskHolder existing=masks.putIfAbsent(sequencename, holder);
+            if (existing!=null) holder=existing;
+        }
+        SoftReference<PositionMask> reference=holder.mask;
+        PositionMask mask=(reference!=null)?reference.get():null;
+        if (mask!=null) return mask;
+        synchronized(holder) { // only one thread evaluates the condition for the sequence while other threads (e.g. processing other tiles of the sequence) wait for the result
+            reference=holder.mask;
+            mask=(reference!=null)?reference.get():null;
+            if (mask==null) {
+                Sequence sequence=(Sequence)task.getEngine().getDataItem(sequencename, Sequence.class);
+                if (sequence==null) throw new ExecutionError("Unknown sequence: "+sequencename,task.getLineNumber());
+                int start=sequence.getRegionStart();
+                int length=sequence.getSize();
+                mask=new PositionMask(start, length, evaluateSequence(sequencename, start, length, task));
+                holder.mask=new SoftReference<PositionMask>(mask);
+            }
+        }
+        return mask;
+    }
+
+    /** Holds the mask for a sequence. The holder is registered before the mask is created, so that the condition is only evaluated once per sequence */
+    private static final class MaskHolder {
+        volatile SoftReference<PositionMask> mask=null;
+    }
+
+    /** Removes all masks created by getMask() */
+    protected void clearMasks() {
+        masks.clear();
+    }
+
+    /**
+     * Evaluates this condition at every position in the sequence. This gives the same results as calling
+     * isConditionSatisfied() for each position, but the operand data is read in bulk and the comparison is only resolved once
+     * @param sequencename
+     * @param start The genomic start position of the sequence
+     * @param length The length of the sequence
+     * @param task
+     * @return a BitSet where the bits are set for positions (relative to the start) where the condition holds
+     * @throws java.lang.Exception
+     */
+    protected BitSet evaluateSequence(String sequencename, int start, int length, OperationTask task) throws Exception {
+        if (!isResolved) {
+            task.getEngine().reportError(new ExecutionError("SLOPPY PROGRAMMING ERROR: Condition_position is not 'resolved' before use"));
+        }
+        BitSet bits=new BitSet(length);
+        String whereString=getOperandAString();
+        if (whereString==null || length==0) {bits.set(0, length);return bits;} // no condition is set, so the transform should be applied everywhere
+        int end=start+length-1;
+        Data operandA=getOperandAData();
+        Data operandB=getOperandBData();
+        Data operandB2=getOperandB2Data();
+        String comparator=getComparator();
+        boolean whereNot=false;
+        Boolean whereNotBoolean=negateAll();
+        if (whereNotBoolean!=null) whereNot=whereNotBoolean.booleanValue();
+        if (operandA instanceof RegionDataset && operandB==null) {// --- single Region comparison
+            RegionSequenceData a=(RegionSequenceData)((RegionDataset)operandA).getSequenceByName(sequencename);
+            if (!comparator.equals("inside")) {throw new Exception("Sloppy programming error: comparator is not 'inside' for single region comparison");}
+            bits=getBasesCoveredByRegions(a, length);
+        } // --------------------------------------------------------
+        else if (operandA instanceof RegionDataset && operandB!=null && operandB instanceof RegionDataset) { // --- compare Region to Region
+            RegionSequenceData a=(RegionSequenceData)((RegionDataset)operandA).getSequenceByName(sequencename);
+            RegionSequenceData b=(RegionSequenceData)((RegionDataset)operandB).getSequenceByName(sequencename);
+            if (comparator.equals("bases overlap")) {
+                bits=getBasesCoveredByRegions(a, length);
+                bits.and(getBasesCoveredByRegions(b, length));
+            } else if (comparator.equals("bases not overlap")) {
+                bits=getBasesCoveredByRegions(a, length);
+                bits.andNot(getBasesCoveredByRegions(b, length));
+            } else if (comparator.equals("regions overlap") || comparator.equals("regions not overlap")) {
+                // a position satisfies "regions overlap" if any of the regions in A at that position overlaps a region in B
+                BitSet overlapping=new BitSet(length);
+                for (Region reg:a.getOriginalRegions()) {
+                    if (b.getNumberOfRegionsOverlappingGenomicInterval(reg.getGenomicStart(), reg.getGenomicEnd())>0) setRange(overlapping, reg.getRelativeStart(), reg.getRelativeEnd(), length);
+                }
+                if (comparator.equals("regions overlap")) bits=overlapping;
+                else { // "regions not overlap" requires that there are regions at the position and none of them overlap regions in B
+                    bits=getBasesCoveredByRegions(a, length);
+                    bits.andNot(overlapping);
+                }
+            } else throw new ExecutionError("comparator '"+comparator+"' not applicable here",task.getLineNumber());
+         } // --------------------------------------------------------
+         else if (operandA instanceof NumericDataset) { //
+            double[] valuesA=getNumericValues(operandA, sequencename, start, end);
+            double[] valuesB=getNumericValues(operandB, sequencename, start, end);
+            double[] valuesB2=getNumericValues(operandB2, sequencename, start, end);
+            double valueB=getNumericValue(operandB, sequencename);
+            double valueB2=getNumericValue(operandB2, sequencename);
+            int compare=getNumericComparator(comparator);
+            for (int i=0;i<length;i++) {
+                double a=valuesA[i];
+                double b=(valuesB!=null)?valuesB[i]:valueB;
+                boolean result;
+                switch (compare) {
+                    case EQUALS: result=(a==b);break;
+                    case GREATER_OR_EQUAL: result=(a>=b);break;
+                    case GREATER: result=(a>b);break;
+                    case LESS: result=(a<b);break;
+                    case LESS_OR_EQUAL: result=(a<=b);break;
+                    case NOT_EQUALS: result=(a!=b);break;
+                    case IN: result=(a>=b && a<=((valuesB2!=null)?valuesB2[i]:valueB2));break;
+                    default: result=true;
+                }
+                if (result) bits.set(i);
+            }
+        } // --------------------------------------------------------
+         else if (operandA instanceof DNASequenceDataset) { //
+            boolean useRelativeStrand=false; // only really needed when comparing to literal characters (i.e. TextVariables)
+            if (comparator.endsWith(" relative strand")) {useRelativeStrand=true; comparator=comparator.substring(0,comparator.indexOf(" relative strand"));}
+            DNASequenceData seqdata=(DNASequenceData)((DNASequenceDataset)operandA).getSequenceByName(sequencename);
+            char[] basesA=(char[])seqdata.getValueInGenomicInterval(start, end);
+            char[] basesB=null;
+            boolean hasB=false;
+            char valueB=0;
+            boolean reverseA=false;
+            if (operandB instanceof DNASequenceDataset) {
+                 DNASequenceData seqdataB=(DNASequenceData)((DNASequenceDataset)operandB).getSequenceByName(sequencename);
+                 basesB=(char[])seqdataB.getValueInGenomicInterval(start, end);
+                 hasB=true;
+            }
+            else if (operandB instanceof TextVariable) {
+                String string=((TextVariable)operandB).getFirstValue();
+                if (string==null || string.isEmpty()) throw new ExecutionError("Empty text variable in comparison ("+operandB.getName()+")",task.getLineNumber());
+                valueB=string.charAt(0); // use first character
+                hasB=true;
+                reverseA=(useRelativeStrand && seqdata.getStrandOrientation()==Sequence.REVERSE);
+            }
+            for (int i=0;i<length;i++) {
+                char a=basesA[i];
+                if (reverseA) a=MotifLabEngine.reverseBase(a);
+                if (compareBases(comparator, a, (basesB!=null)?basesB[i]:valueB, hasB)) bits.set(i);
+            }
+        } // --------------------------------------------------------
+        else {
+            System.err.println("SYSTEM-ERROR in Condition_position: OperandA="+operandA);
+            bits.set(0, length);
+        }
+        if (whereNot) bits.flip(0, length);
+        return bits;
+    }
+
+    private static final int EQUALS=0;
+    private static final int GREATER_OR_EQUAL=1;
+    private static final int GREATER=2;
+    private static final int LESS=3;
+    private static final int LESS_OR_EQUAL=4;
+    private static final int NOT_EQUALS=5;
+    private static final int IN=6;
+    private static final int UNKNOWN=-1;
+
+    private static int getNumericComparator(String comparator) {
+             if (comparator.equals("="))  return EQUALS;
+        else if (comparator.equals(">=")) return GREATER_OR_EQUAL;
+        else if (comparator.equals(">"))  return GREATER;
+        else if (comparator.equals("<"))  return LESS;
+        else if (comparator.equals("<=")) return LESS_OR_EQUAL;
+        else if (comparator.equals("<>")) return NOT_EQUALS;
+        else if (comparator.equals("in")) return IN;
+        else return UNKNOWN;
+    }
+
+    /** Returns the values of a numeric track operand in the given genomic interval, or NULL if the operand is not a track */
+    private static double[] getNumericValues(Data operand, String sequencename, int start, int end) {
+        NumericSequenceData seqdata=null;
+        if (operand instanceof NumericDataset) seqdata=(NumericSequenceData)((NumericDataset)operand).getSequenceByName(sequencename);
+        else if (operand instanceof NumericSequenceData) seqdata=(NumericSequenceData)operand;
+        if (seqdata==null) return null;
+        return (double[])seqdata.getValueInGenomicInterval(start, end);
+    }
+
+    /** Returns the value of a numeric operand which is the same for all positions in the sequence (or 0 if the operand is not of this type) */
+    private static double getNumericValue(Data operand, String sequencename) {
+             if (operand instanceof NumericConstant) return ((NumericConstant)operand).getValue().doubleValue();
+        else if (operand instanceof SequenceNumericMap) return ((SequenceNumericMap)operand).getValue(sequencename).doubleValue();
+        else if (operand instanceof NumericVariable) return ((NumericVariable)operand).getValue().doubleValue();
+        else return 0;
+    }
+
+    /** Compares two DNA bases. If hasB is FALSE there is no second operand and only comparators that do not need one will return TRUE */
+    private static boolean compareBases(String comparator, char valueA, char valueB, boolean hasB) {
+        if (comparator.equals("is lowercase"))  return Character.isLowerCase(valueA);
+        else if (comparator.equals("is uppercase")) return Character.isUpperCase(valueA);
+        else if (comparator.equals("case-sensitive equals"))  return (hasB && valueA==valueB);
+        else if (comparator.equals("equals"))  return (hasB && Character.toUpperCase(valueA)==Character.toUpperCase(valueB));
+        else if (comparator.equals("has same case as"))  return (hasB && ( (Character.isLowerCase(valueA) && Character.isLowerCase(valueB)) || (Character.isUpperCase(valueA) && Character.isUpperCase(valueB)) ));
+        else if (comparator.equals("matches")) {
+            if (!hasB) return false;
+            char charA=Character.toUpperCase(valueA);
+            char charB=Character.toUpperCase(valueB);
+            switch (charA) {
+                case 'A': return (charB=='A' || charB=='R' || charB=='M' || charB=='W' || charB=='D' || charB=='H' || charB=='V' || charB=='N');
+                case 'C': return (charB=='C' || charB=='Y' || charB=='M' || charB=='S' || charB=='B' || charB=='H' || charB=='V' || charB=='N');
+                case 'G': return (charB=='G' || charB=='R' || charB=='K' || charB=='S' || charB=='B' || charB=='D' || charB=='V' || charB=='N');
+                case 'T': return (charB=='T' || charB=='Y' || charB=='K' || charB=='W' || charB=='B' || charB=='D' || charB=='H' || charB=='N');
+                default:  return (charA==charB);
+            }
+        }
+        else return true;
+    }
+
+    /** Returns the positions (relative to the start of the sequence) that are covered by at least one region */
+    private static BitSet getBasesCoveredByRegions(RegionSequenceData sequence, int length) {
+        BitSet bits=new BitSet(length);
+        for (Region region:sequence.getOriginalRegions()) setRange(bits, region.getRelativeStart(), region.getRelativeEnd(), length);
+        return bits;
+    }
+
+    /** Sets the bits from start to end (inclusive) after clipping the range to the sequence */
+    private static void setRange(BitSet bits, int start, int end, int length) {
+        if (start<0) start=0;
+        if (end>length-1) end=length-1;
+        if (start<=end) bits.set(start, end+1);
+    }
+    
     @SuppressWarnings("unchecked")    
     @Override
     public Condition_position clone() {
@@ -228,5 +462,6 @@ public class Condition_position extends Condition {
         if (!other.getClass().equals(this.getClass())) throw new ClassCastException("Unable to import from condition of different class. Expected '"+this.getClass()+"' but got '"+other.getClass()+"'.");
         isResolved=((Condition_position)other).isResolved;
         storage=(HashMap<String, Object>)((Condition_position)other).storage.clone();
+        clearMasks();
     }      
 }
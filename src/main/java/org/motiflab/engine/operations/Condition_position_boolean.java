@@ -2,6 +2,7 @@
 package org.motiflab.engine.operations;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import org.motiflab.engine.ExecutionError;
 import org.motiflab.engine.MotifLabEngine;
 import org.motiflab.engine.task.OperationTask;
@@ -40,6 +41,7 @@ public class Condition_position_boolean extends Condition_position implements Co
 
     @Override
     public void resolve(MotifLabEngine engine, OperationTask task) throws ExecutionError {
+        clearMasks();
         if (conditions!=null) {
             for (Condition_position condition:conditions) {
                 if (condition!=null) condition.resolve(engine, task);
@@ -147,6 +149,30 @@ public class Condition_position_boolean extends Condition_position implements Co
     }
 
 
+    /**
+     * Evaluates this condition at every position in the sequence by combining the masks
+     * of the individual conditions
+     */
+    @Override
+    protected BitSet evaluateSequence(String sequencename, int start, int length, OperationTask task) throws Exception {
+        if (!isResolved) {
+            task.getEngine().reportError(new ExecutionError("SLOPPY PROGRAMMING ERROR: Condition_position_boolean is not 'resolved' before use"));
+        }
+        BitSet bits=new BitSet(length);
+        if (conditions==null) {bits.set(0, length);return bits;} // I guess this is OK since it could be taken to mean no restrictions
+        if (type!=AND && type!=OR) throw new ExecutionError("SLOPPY PROGRAMMING ERROR: the 'type' parameter to boolean condition should be 0=AND, or 1=OR but got: "+type);
+        if (type==AND) bits.set(0, length);
+        for (Condition_position condition:conditions) {
+            if (condition==null) continue;
+            BitSet conditionbits=condition.evaluateSequence(sequencename, start, length, task);
+            if (type==AND) bits.and(conditionbits);
+            else bits.or(conditionbits);
+        }
+        Boolean whereNotBoolean=negateAll();
+        if (whereNotBoolean!=null && whereNotBoolean.booleanValue()) bits.flip(0, length); // this is equivalent to applying De Morgan's law as in isConditionSatisfied()
+        return bits;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public Condition_position_boolean clone() {
@@ -169,5 +195,6 @@ public class Condition_position_boolean extends Condition_position implements Co
         isResolved=((Condition_position_boolean)other).isResolved;
         type=((Condition_position_boolean)other).type;
         conditions=((Condition_position_boolean)other).conditions;
+        clearMasks();
     }    
 }
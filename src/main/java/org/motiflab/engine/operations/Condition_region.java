@@ -6,7 +6,12 @@
 package org.motiflab.engine.operations;
 import org.motiflab.engine.task.OperationTask;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import org.motiflab.engine.MotifLabEngine;
 import org.motiflab.engine.ExecutionError;
 import org.motiflab.engine.data.Data;
@@ -34,6 +39,7 @@ import org.motiflab.engine.data.TextMap;
  */
 public class Condition_region extends Condition {
     private boolean isResolved=false;
+    private final Map<RegionSequenceData,ConcurrentHashMap<String,NeighbourIndex>> neighbourIndexes=Collections.synchronizedMap(new WeakHashMap<RegionSequenceData,ConcurrentHashMap<String,NeighbourIndex>>()); // indexes used for "distance to closest". These are cleared whenever the condition is resolved
     
     public Condition_region() {
         super();
@@ -54,6 +60,7 @@ public class Condition_region extends Condition {
     
     @Override
     public void resolve(MotifLabEngine engine, OperationTask task) throws ExecutionError {
+        neighbourIndexes.clear();
         Data operandA=null;
         Data operandB=null;
         Data operandB2=null;
@@ -354,6 +361,7 @@ public class Condition_region extends Condition {
     } 
 
     private double getNumericProperty(Region region, String propertyName) {
+        if (!propertyName.endsWith("]") && !Region.isStandardProperty(propertyName)) return region.getNumericUserDefinedProperty(propertyName, 0); // user-defined property (read directly without boxing)
         Object val=region.getProperty(propertyName);
         if (val instanceof Number) return ((Number)val).doubleValue();
         else return 0; // is this OK?  Treat NULL and non-numeric values as 0        
@@ -426,46 +434,137 @@ public class Condition_region extends Condition {
     /** Returns the distance between the given region (first argument) and the
      *  region in the (second argument) track that lays closest to the first region.
      *  (If the first region is a member of the second list it will be skipped!)
+     *  The distance is -1 if the region overlaps another region and Integer.MAX_VALUE if there are no other eligible regions.
+     *  The search is made in an index of the eligible regions in the track, which is created on first use and shared by all regions
+     *  with the same restrictions until the condition is resolved again. If the track is the one the region itself belongs to,
+     *  the track could be modified while the condition is evaluated (e.g. by Operation_filter) so the live list of regions is scanned instead.
      */
     private int findShortestDistance(Region region, RegionSequenceData regionTrack, boolean mustbeinteractionpartner, String restrictType, boolean exactType, MotifLabEngine engine) {
-        int distance=Integer.MAX_VALUE;
-        int startRegion=region.getGenomicStart();
-        int endRegion=region.getGenomicEnd();
         Motif motif=null;
         if (mustbeinteractionpartner) {
              Object data=engine.getDataItem(region.getType());
              if (data!=null && data instanceof Motif) motif=(Motif)data;
-             else return distance; // this region is not a motif
+             else return Integer.MAX_VALUE; // this region is not a motif
         }
+        if (regionTrack==region.getParent()) return findShortestDistanceInList(region, regionTrack, motif, restrictType, exactType);
+        String key=((motif!=null)?motif.getName():"")+"\t"+((restrictType!=null)?(((exactType)?"=":"~")+restrictType):"");
+        ConcurrentHashMap<String,NeighbourIndex> indexes=neighbourIndexes.get(regionTrack);
+        if (indexes==null) {
+            synchronized(neighbourIndexes) {
+                indexes=neighbourIndexes.get(regionTrack);
+                if (indexes==null) {
+                    indexes=new ConcurrentHashMap<String,NeighbourIndex>();
+                    neighbourIndexes.put(regionTrack, indexes);
+                }
+            }
+        }
+        NeighbourIndex index=indexes.get(key);
+        if (index==null) {
+            index=new NeighbourIndex(regionTrack, motif, restrictType, exactType);
+            NeighbourIndex existing=indexes.putIfAbsent(key, index);
+            if (existing!=null) index=existing;
+        }
+        return index.findShortestDistance(region);
+    }
+
+    /** Returns the distance from the region to the closest eligible region (as described for findShortestDistance) by scanning the current list of regions in the track */
+    private int findShortestDistanceInList(Region region, RegionSequenceData regionTrack, Motif motif, String restrictType, boolean exactType) {
+        int distance=Integer.MAX_VALUE;
+        int startRegion=region.getGenomicStart();
+        int endRegion=region.getGenomicEnd();
         for (Region other:regionTrack.getOriginalRegions()) { // these other regions are sorted by position (on direct strand)
                if (region.isIdenticalTo(other)) continue; // do not compare to same region (it is probably the same anyway...)
-               if (mustbeinteractionpartner) {
-                   if (!motif.isKnownInteractionPartner(other.getType())) continue; // this region is not an interaction partner
-               }
+               if (motif!=null && !motif.isKnownInteractionPartner(other.getType())) continue; // this region is not an interaction partner
                if (restrictType!=null) {
                    if (exactType && !restrictType.equals(other.getType())) continue;
                    if (!exactType && !(restrictType.contains(other.getType()) || other.getType().contains(restrictType))) continue;
                }
                int startOther=other.getGenomicStart();
                int endOther=other.getGenomicEnd();
-               //System.err.print("compare region ["+startRegion+"-"+endRegion+"] to other ["+startOther+"-"+endOther+"] => ");
                if (endOther<startRegion) { // other region lies before
                    int newdist=startRegion-endOther-1;
-                   //System.err.println("other before    olddist="+distance+"  newdist="+newdist);
                    if (newdist<distance) distance=newdist; // update shortest distance as long as new distances keep getting smaller
                } else if (endRegion<startOther) { // other region lies after
                    int newdist=startOther-endRegion-1;
-                   //System.err.println("other after     olddist="+distance+"  newdist="+newdist);
                    if (newdist<distance) distance=newdist; // update shortest distance as long as new distances keep getting smaller
                    else return distance; // if they are not getting any smaller they will keep getting larger, so just return the smallest seen so far
                } else { // region overlaps (return -1)
-                   //System.err.println("overlap");
                    return -1;
                }
         }
         return distance;
     }
 
+    /**
+     * An index of the regions in a track which are eligible as "closest regions" for a given set of restrictions (type and interaction partners).
+     * The regions are sorted by start position, and the index also holds the largest end position seen so far (in start order)
+     * and a separate sorted list of end positions. The closest region before or after a given region can then be found with binary searches.
+     * The index is a snapshot of the track when it was created and must not be used for tracks that can change while the condition is evaluated.
+     */
+    private static final class NeighbourIndex {
+        private final Region[] regions; // the eligible regions (sorted by start position)
+        private final int[] starts;     // genomic start of each eligible region (sorted)
+        private final int[] ends;       // genomic end of each eligible region (in the same order as starts)
+        private final int[] maxEnds;    // the largest genomic end of any region up to and including this one (in the same order as starts)
+        private final int[] sortedEnds; // genomic end of each eligible region (sorted)
+
+        NeighbourIndex(RegionSequenceData regionTrack, Motif motif, String restrictType, boolean exactType) {
+            ArrayList<Region> regions=regionTrack.getOriginalRegions();
+            int size=regions.size();
+            long[] order=new long[size]; // genomic start in the upper 32 bits and list position in the lower
+            int count=0;
+            for (int i=0;i<size;i++) {
+                Region other=regions.get(i);
+                if (motif!=null && !motif.isKnownInteractionPartner(other.getType())) continue; // this region is not an interaction partner
+                if (restrictType!=null) {
+                    if (exactType && !restrictType.equals(other.getType())) continue;
+                    if (!exactType && !(restrictType.contains(other.getType()) || other.getType().contains(restrictType))) continue;
+                }
+                order[count++]=((long)other.getGenomicStart()<<32)|i;
+            }
+            Arrays.sort(order, 0, count);
+            this.regions=new Region[count];
+            starts=new int[count];
+            ends=new int[count];
+            maxEnds=new int[count];
+            for (int j=0;j<count;j++) {
+                Region other=regions.get((int)order[j]);
+                this.regions[j]=other;
+                starts[j]=other.getGenomicStart();
+                ends[j]=other.getGenomicEnd();
+                maxEnds[j]=(j>0)?Math.max(maxEnds[j-1], ends[j]):ends[j];
+            }
+            sortedEnds=ends.clone();
+            Arrays.sort(sortedEnds);
+        }
+
+        /** Returns the distance from the region to the closest eligible region, as described for Condition_region.findShortestDistance() */
+        int findShortestDistance(Region region) {
+            int startRegion=region.getGenomicStart();
+            int endRegion=region.getGenomicEnd();
+            int after=firstIndexAbove(starts, endRegion); // the first region starting after this region
+            for (int j=after-1;j>=0 && maxEnds[j]>=startRegion;j--) { // check regions that start no later than this region ends and could reach it
+                if (ends[j]>=startRegion && !region.isIdenticalTo(regions[j])) return -1; // region overlaps (return -1)
+            }
+            int distance=Integer.MAX_VALUE;
+            int before=firstIndexAbove(sortedEnds, startRegion-1)-1; // the last region ending before this region starts
+            if (before>=0) distance=startRegion-sortedEnds[before]-1;
+            if (after<starts.length) distance=Math.min(distance, starts[after]-endRegion-1);
+            return distance;
+        }
+
+        /** Returns the index of the first value in the sorted array which is larger than the given value (or the length of the array if there are none) */
+        private static int firstIndexAbove(int[] sorted, int value) {
+            int low=0, high=sorted.length;
+            while (low<high) {
+                int mid=(low+high)>>>1;
+                if (sorted[mid]<=value) low=mid+1;
+                else high=mid;
+            }
+            return low;
+        }
+    }
+
 
     /** Returns TRUE if there exists any other region (or interaction partner) within a given distance range (relative distances applied to both sides)
      *  from the target region.
@@ -529,5 +628,6 @@ public class Condition_region extends Condition {
         if (!other.getClass().equals(this.getClass())) throw new ClassCastException("Unable to import from condition of different class. Expected '"+this.getClass()+"' but got '"+other.getClass()+"'.");
         isResolved=((Condition_region)other).isResolved;
         storage=(HashMap<String, Object>)((Condition_region)other).storage.clone();
+        neighbourIndexes.clear();
     }      
 }
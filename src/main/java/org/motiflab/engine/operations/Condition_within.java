@@ -6,10 +6,14 @@
 package org.motiflab.engine.operations;
 
 import org.motiflab.engine.task.OperationTask;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import org.motiflab.engine.MotifLabEngine;
 import org.motiflab.engine.ExecutionError;
+import org.motiflab.engine.data.Sequence;
 import org.motiflab.gui.SelectionWindow;
 /**
  *
@@ -18,6 +22,7 @@ import org.motiflab.gui.SelectionWindow;
 public class Condition_within extends Condition {
     private boolean isResolved=false;
     private boolean isSet=false; // is this condition set at all?
+    private final ConcurrentHashMap<String,SoftReference<PositionMask>> masks=new ConcurrentHashMap<String,SoftReference<PositionMask>>(); // masks for each sequence, which are cleared whenever the condition is resolved
     
     public Condition_within() {
         super();
@@ -44,6 +49,7 @@ public class Condition_within extends Condition {
     @Override
     @SuppressWarnings("unchecked")
     public void resolve(MotifLabEngine engine, OperationTask task) throws ExecutionError {
+        masks.clear();
         String operandAstring=getOperandAString();
         if (operandAstring!=null) {
              isSet=true;
@@ -114,6 +120,45 @@ public class Condition_within extends Condition {
         else return returnValue;
     } 
     
+    /**
+     * Returns a mask with the positions in the sequence where this condition holds (i.e. positions inside the selected windows).
+     * The mask is created the first time this method is called for a sequence and is then reused until the condition is resolved again
+     * @param sequencename
+     * @param task
+     * @return
+     * @throws java.lang.Exception
+     */
+    @SuppressWarnings("unchecked")
+    public PositionMask getMask(String sequencename, OperationTask task) throws Exception {
+        SoftReference<PositionMask> reference=masks.get(sequencename);
+        PositionMask mask=(reference!=null)?reference.get():null;
+        if (mask!=null) return mask;
+        if (!isResolved) {
+            task.getEngine().reportError(new ExecutionError("SLOPPY PROGRAMMING ERROR: Condition_within is not 'resolved' before use"));
+        }
+        Sequence sequence=(Sequence)task.getEngine().getDataItem(sequencename, Sequence.class);
+        if (sequence==null) throw new ExecutionError("Unknown sequence: "+sequencename,task.getLineNumber());
+        int start=sequence.getRegionStart();
+        int length=sequence.getSize();
+        BitSet bits=new BitSet(length);
+        if (!isSet) bits.set(0, length); // no condition is set, so the transform should be applied everywhere
+        else {
+            ArrayList<int[]>ranges=(ArrayList<int[]>)getParameter(sequencename);
+            if (ranges!=null) {
+                for (int[] range:ranges) {
+                    int from=Math.max(range[0]-start, 0);
+                    int to=Math.min(range[1]-start, length-1);
+                    if (from<=to) bits.set(from, to+1);
+                }
+            }
+            Boolean whereNotBoolean=negateAll();
+            if (whereNotBoolean!=null && whereNotBoolean.booleanValue()) bits.flip(0, length);
+        }
+        mask=new PositionMask(start, length, bits);
+        masks.put(sequencename, new SoftReference<PositionMask>(mask));
+        return mask;
+    }
+    
    /**
      * Similar to the method above but rather than seeing if a single position lies within a window
      * this checks whether the given region (from start to end) overlaps with a window
@@ -152,5 +197,6 @@ public class Condition_within extends Condition {
         isResolved=((Condition_within)other).isResolved;
         isSet=((Condition_within)other).isSet;
         storage=(HashMap<String, Object>)((Condition_within)other).storage.clone();
+        masks.clear();
     }     
 }
@@ -23,6 +23,7 @@ import org.motiflab.engine.data.Region;
 import org.motiflab.engine.data.RegionDataset;
 import org.motiflab.engine.data.Sequence;
 import org.motiflab.engine.data.SequenceCollection;
+import org.motiflab.engine.util.SequenceTile;
 import org.motiflab.gui.VisualizationSettings;
 
 /**
@@ -53,6 +54,45 @@ public abstract class FeatureTransformOperation extends Operation {
      * Subclasses should use this method to parse and resolve their own parameters
      */ 
     public abstract void resolveParameters(OperationTask task) throws Exception;   
+
+    /**
+     * Subclasses can override this method to return TRUE if the transformation can be applied to
+     * separate segments of a sequence independently. This requires that the new value at each position
+     * only depends on the source sequence (and not on the new values at other positions) and that
+     * the subclass overrides {@code transformSequence(source,target,start,end,task)}.
+     * Long sequences will then be split into tiles which are transformed in parallel.
+     * @return the default implementation returns FALSE
+     */
+    protected boolean canTransformSubranges(OperationTask task) {
+        return false;
+    }
+
+    /**
+     * Transforms the positions between start and end (genomic coordinates, inclusive) in the sequence.
+     * This method will only be called for partial sequences if {@code canTransformSubranges} returns TRUE.
+     * The default implementation transforms the full sequence.
+     */
+    public void transformSequence(final FeatureSequenceData sourceSequence, FeatureSequenceData targetSequence, int start, int end, OperationTask task) throws Exception {
+        if (start!=sourceSequence.getRegionStart() || end!=sourceSequence.getRegionEnd()) throw new SystemError("The "+getName()+" operation can not be applied to a partial sequence");
+        transformSequence(sourceSequence, targetSequence, task);
+    }
+
+    /**
+     * Creates the tasks needed to transform the given sequences. If the transform can be applied to
+     * partial sequences, long sequences will be split into several tasks which can be run in parallel.
+     * The total number of tasks will be stored in counters[2]
+     */
+    protected ArrayList<ProcessSequenceTask> createProcessTasks(ArrayList<Sequence> sequences, FeatureDataset sourceDataset, FeatureDataset targetDataset, OperationTask task, long[] counters) {
+        ArrayList<ProcessSequenceTask> processTasks=new ArrayList<ProcessSequenceTask>(sequences.size());
+        if (canTransformSubranges(task)) {
+            ArrayList<SequenceTile> tiles=SequenceTile.createTiles(sequences, 0, engine.getConcurrentThreads());
+            for (SequenceTile tile:tiles) processTasks.add(new ProcessSequenceTask(sourceDataset,targetDataset, tile, task, counters));
+        } else {
+            for (Sequence sequence:sequences) processTasks.add(new ProcessSequenceTask(sourceDataset,targetDataset, sequence.getName(), task, counters));
+        }
+        counters[2]=processTasks.size();
+        return processTasks;
+    }
        
     
     @Override
@@ -94,11 +134,10 @@ public abstract class FeatureTransformOperation extends Operation {
         }
         
         TaskRunner taskRunner=engine.getTaskRunner();
-        task.setProgress(0L,sequences.size());
-        long[] counters=new long[]{0,0,sequences.size()}; // counters[0]=sequences started, [1]=sequences completed, [2]=total number of sequences
+        long[] counters=new long[]{0,0,sequences.size()}; // counters[0]=sequences (or tiles) started, [1]=sequences completed, [2]=total number of sequences
 
-        ArrayList<ProcessSequenceTask> processTasks=new ArrayList<ProcessSequenceTask>(sequences.size());
-        for (Sequence sequence:sequences) processTasks.add(new ProcessSequenceTask(sourceDataset,targetDataset, sequence.getName(), task, counters));
+        ArrayList<ProcessSequenceTask> processTasks=createProcessTasks(sequences, sourceDataset, targetDataset, task, counters);
+        task.setProgress(0L,processTasks.size());
         List<Future<FeatureSequenceData>> futures=null;
         int countOK=0;            
         try {
@@ -114,7 +153,7 @@ public abstract class FeatureTransformOperation extends Operation {
            if (e instanceof java.util.concurrent.ExecutionException) throw (Exception)e.getCause(); 
            else throw e; 
         }       
-        if (countOK!=sequences.size()) {
+        if (countOK!=processTasks.size()) {
             throw new ExecutionError("Some mysterious error occurred while performing operation: "+getName());
         }          
         
@@ -136,14 +175,47 @@ public abstract class FeatureTransformOperation extends Operation {
        
     
     
+    /**
+     * Returns TRUE if the given genomic position satisfies the where-condition and within-condition of the task.
+     * The conditions are evaluated for the whole sequence the first time this is called for a sequence,
+     * and later calls just look up the result in a mask
+     */
     protected boolean positionSatisfiesCondition(String sequencename, int pos, OperationTask task) throws Exception {
         Condition_position condition=(Condition_position)task.getParameter("where");
         Condition_within within=(Condition_within)task.getParameter("within");  
         if (within!=null) {
-            if (!within.isConditionSatisfied(sequencename, pos, task)) return false;
+            if (!within.getMask(sequencename, task).get(pos)) return false;
         }
         if (condition==null) return true; // no where condition is set, so the transform should be applied everywhere
-        else return condition.isConditionSatisfied(sequencename, pos, task);
+        else return condition.getMask(sequencename, task).get(pos);
+    }
+
+    /**
+     * Returns a mask with the positions in the sequence that satisfy both the where-condition and within-condition of the task,
+     * or NULL if the task has no such conditions (and all positions should be transformed).
+     * Transforms can use this to skip directly to the positions that should be transformed rather than checking every position
+     */
+    protected PositionMask getPositionMask(String sequencename, OperationTask task) throws Exception {
+        Condition_position condition=(Condition_position)task.getParameter("where");
+        Condition_within within=(Condition_within)task.getParameter("within");
+        if (within==null) return (condition!=null)?condition.getMask(sequencename, task):null;
+        else if (condition==null) return within.getMask(sequencename, task);
+        else return condition.getMask(sequencename, task).and(within.getMask(sequencename, task));
+    }
+
+    /**
+     * Returns the first genomic position at or after the given position which satisfies the conditions in the mask
+     * (as returned by getPositionMask), or Integer.MAX_VALUE if there are no such positions. If the mask is NULL the position itself is returned.
+     * This can be used to loop over the positions that should be transformed like so:
+     * {@code for (int i=nextPositionSatisfyingCondition(mask,start);i<=end;i=nextPositionSatisfyingCondition(mask,i+1))}
+     */
+    protected static int nextPositionSatisfyingCondition(PositionMask mask, int pos) {
+        return (mask==null)?pos:mask.nextSetPosition(pos);
+    }
+
+    /** Returns the kernels that should be used to transform the values in numeric tracks (these are vectorized if this is enabled in the preferences) */
+    protected NumericKernels getNumericKernels() {
+        return NumericKernels.getKernels(engine.useVectorizedArithmetic());
     }
     
    
@@ -164,10 +236,21 @@ public abstract class FeatureTransformOperation extends Operation {
         final FeatureDataset sourceDataset;
         final long[] counters; // counters[0]=sequences started, [1]=sequences completed, [2]=total number of sequences.  NB: this array will be shared with other tasks since all tasks are given the same pointer
         final String sequencename;
+        final SequenceTile tile; // the segment of the sequence to transform, or NULL for the full sequence
         final OperationTask task;  
         
         public ProcessSequenceTask(FeatureDataset sourceDataset, FeatureDataset targetDataset, String sequencename, OperationTask task, long[] counters) {
            this.sequencename=sequencename;
+           this.tile=null;
+           this.sourceDataset=sourceDataset;
+           this.targetDataset=targetDataset; 
+           this.counters=counters;
+           this.task=task;
+        }
+        
+        public ProcessSequenceTask(FeatureDataset sourceDataset, FeatureDataset targetDataset, SequenceTile tile, OperationTask task, long[] counters) {
+           this.sequencename=tile.getSequenceName();
+           this.tile=tile;
            this.sourceDataset=sourceDataset;
            this.targetDataset=targetDataset; 
            this.counters=counters;
@@ -188,7 +271,8 @@ public abstract class FeatureTransformOperation extends Operation {
             if (sourceSequence==null) throw new SystemError("Unexpected error: No source sequence found named '"+sequencename+"'");
             if (targetSequence==null) throw new SystemError("Unexpected error: No target sequence found named '"+sequencename+"'");            
 
-            transformSequence(sourceSequence, targetSequence, task);
+            if (tile==null || tile.isFullSequence()) transformSequence(sourceSequence, targetSequence, task);
+            else transformSequence(sourceSequence, targetSequence, sourceSequence.getRegionStart()+tile.getStart(), sourceSequence.getRegionStart()+tile.getEnd(), task);
             
             synchronized(counters) { // finished one of the sequences
                 counters[1]++; // number of sequences completed
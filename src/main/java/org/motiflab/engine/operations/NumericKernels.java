@@ -0,0 +1,256 @@
+package org.motiflab.engine.operations;
+
+/**
+ * This class contains bulk kernels for operations that transform the values in numeric tracks
+ * (such as "increase", "multiply", "transform", "threshold", "normalize" and "combine_numeric").
+ * Rather than reading and writing the values one position at a time, the operations copy the values
+ * in the affected interval into arrays and let the kernels process the whole arrays.
+ * <br>
+ * All kernels read values from one array and write the new values into a target array (which can be the same array).
+ * Positions can be restricted with a selection, which is a bit set given as an array of words
+ * (see getSelection()) where bit i is set if the value at index i should be updated. A selection of NULL selects all positions.
+ * Positions that are not selected (or which are skipped because the new value can not be calculated) are left unchanged in the target.
+ * <br>
+ * The kernels in this class process one value at a time. If the Java Vector API is available
+ * (the jdk.incubator.vector module must be added to the JVM with "--add-modules jdk.incubator.vector"),
+ * the kernels returned by getKernels(true) will process several values at a time with SIMD instructions.
+ * The vectorized kernels are only included if MotifLab is built with the "vector" profile (mvn -Pvector package),
+ * so that the default build does not depend on the incubating module. They are therefore loaded by name.
+ * These give identical results, except for the LOG, LOG_BASE and SIGMOID transforms which can differ from
+ * the results of Math.log() and Math.exp() in the last bit.
+ *
+ * @author kjetikl
+ */
+public class NumericKernels {
+
+    // Operators for arithmetic() and combine()
+    public static final int SET=0;
+    public static final int ADD=1;
+    public static final int SUBTRACT=2;
+    public static final int MULTIPLY=3;
+    public static final int DIVIDE=4;
+    public static final int MIN=5;
+    public static final int MAX=6;
+    public static final int AVERAGE=7;
+
+    // Transforms for transform()
+    public static final int LOG=10;
+    public static final int LOG_BASE=11;
+    public static final int SQUARE_ROOT=12;
+    public static final int ABSOLUTE=13;
+    public static final int RECIPROCAL=14;
+    public static final int SIGMOID=15;
+
+    private static final NumericKernels scalarKernels=new NumericKernels();
+    private static final NumericKernels vectorKernels=createVectorKernels();
+
+    protected NumericKernels() {}
+
+    /**
+     * Returns the kernels to use for numeric tracks
+     * @param vectorized If TRUE, kernels that use the Java Vector API will be returned if this API is available.
+     *                   If FALSE (or the API is not available), the scalar kernels are returned
+     */
+    public static NumericKernels getKernels(boolean vectorized) {
+        return (vectorized && vectorKernels!=null)?vectorKernels:scalarKernels;
+    }
+
+    /** Returns TRUE if the Java Vector API is available, so that getKernels(true) will return vectorized kernels */
+    public static boolean isVectorAPIAvailable() {
+        return vectorKernels!=null;
+    }
+
+    private static NumericKernels createVectorKernels() {
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) return null;
+        try {
+            return (NumericKernels)Class.forName("org.motiflab.engine.operations.VectorNumericKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) { // the vector kernels were not included in the build or the vector classes could not be loaded after all
+            return null;
+        }
+    }
+
+    /** Returns TRUE if these kernels process several values at a time */
+    public boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * Returns a selection with the positions between start and end (inclusive) that are set in the mask.
+     * Bit 0 in the selection corresponds to the start position. If the mask is NULL, the returned selection is also NULL (all positions are selected)
+     */
+    public static long[] getSelection(PositionMask mask, int start, int end) {
+        if (mask==null) return null;
+        int offset=mask.getStart();
+        int from=Math.max(start-offset, 0);
+        int to=Math.min(end-offset+1, mask.size());
+        long[] selection=new long[((end-start+1)+63)>>>6];
+        if (to<=from) return selection;
+        long[] bits=mask.getBits().get(from, to).toLongArray();
+        int shift=from-(start-offset); // the first positions in the interval could lie before the start of the mask
+        for (int i=0;i<bits.length;i++) { // copy the bits into the selection, starting at bit number 'shift'
+            long word=bits[i];
+            int index=i+(shift>>>6);
+            int bitshift=shift&63;
+            if (index<selection.length) selection[index]|=word<<bitshift;
+            if (bitshift>0 && index+1<selection.length) selection[index+1]|=word>>>(64-bitshift);
+        }
+        return selection;
+    }
+
+    /** Returns TRUE if the position with the given index is set in the selection */
+    protected static boolean isSelected(long[] selection, int index) {
+        if (selection==null) return true;
+        int word=index>>>6;
+        return (word<selection.length && (selection[word]&(1L<<index))!=0);
+    }
+
+    /**
+     * Returns the message that explains why a position was skipped by the given operator or transform,
+     * or NULL if the operator never skips positions
+     */
+    public static String getSkipReason(int operator) {
+        switch (operator) {
+            case DIVIDE: return "Division by zero";
+            case LOG: case LOG_BASE: return "<=0";
+            case SQUARE_ROOT: return "<0";
+            case RECIPROCAL: return "=0";
+            default: return null;
+        }
+    }
+
+    /**
+     * Combines each value with an operand, so that target[i]=values[i] (operator) operands[i]
+     * @param operator One of SET, ADD, SUBTRACT, MULTIPLY or DIVIDE. (SET will just copy the operand into the target)
+     * @param values
+     * @param operands The operand for each position, or NULL if the same operand should be used at all positions
+     * @param operand The operand to use at all positions (if operands is NULL)
+     * @param target
+     * @param selection
+     * @return the number of selected positions that were skipped (because of division by zero)
+     */
+    public int arithmetic(int operator, double[] values, double[] operands, double operand, double[] target, long[] selection) {
+        return arithmetic(operator, values, operands, operand, target, selection, 0, values.length);
+    }
+
+    /** Applies the arithmetic kernel to the positions from index 'from' (inclusive) to 'to' (exclusive) */
+    protected int arithmetic(int operator, double[] values, double[] operands, double operand, double[] target, long[] selection, int from, int to) {
+        int skipped=0;
+        for (int i=from;i<to;i++) {
+            if (!isSelected(selection, i)) continue;
+            double argument=(operands!=null)?operands[i]:operand;
+            switch (operator) {
+                case SET: target[i]=argument; break;
+                case ADD: target[i]=values[i]+argument; break;
+                case SUBTRACT: target[i]=values[i]-argument; break;
+                case MULTIPLY: target[i]=values[i]*argument; break;
+                case DIVIDE: if (argument==0) skipped++; else target[i]=values[i]/argument; break;
+                default: throw new IllegalArgumentException("Unsupported operator: "+operator);
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * Combines the values from several sources at each position
+     * @param operator One of ADD (sum), MULTIPLY (product), MIN, MAX or AVERAGE.
+     *                 MIN and MAX ignore NaN values and return Double.MAX_VALUE or -Double.MAX_VALUE if there are no other values
+     * @param sources The source arrays (which must all have the same length as the target)
+     * @param target
+     * @param selection
+     */
+    public void combine(int operator, double[][] sources, double[] target, long[] selection) {
+        combine(operator, sources, target, selection, 0, target.length);
+    }
+
+    /** Applies the combine kernel to the positions from index 'from' (inclusive) to 'to' (exclusive) */
+    protected void combine(int operator, double[][] sources, double[] target, long[] selection, int from, int to) {
+        for (int i=from;i<to;i++) {
+            if (!isSelected(selection, i)) continue;
+            double result;
+            switch (operator) {
+                case ADD: case AVERAGE:
+                    result=0;
+                    for (double[] source:sources) result+=source[i];
+                    if (operator==AVERAGE) result/=(double)sources.length;
+                    break;
+                case MULTIPLY:
+                    result=1;
+                    for (double[] source:sources) result*=source[i];
+                    break;
+                case MIN:
+                    result=Double.MAX_VALUE;
+                    for (double[] source:sources) {if (source[i]<result) result=source[i];}
+                    break;
+                case MAX:
+                    result=-Double.MAX_VALUE;
+                    for (double[] source:sources) {if (source[i]>result) result=source[i];}
+                    break;
+                default: throw new IllegalArgumentException("Unsupported operator: "+operator);
+            }
+            target[i]=result;
+        }
+    }
+
+    /**
+     * Applies a mathematical function to each value
+     * @param transform One of LOG, LOG_BASE, SQUARE_ROOT, ABSOLUTE, RECIPROCAL or SIGMOID
+     * @param values
+     * @param argument The base for LOG_BASE (not used by the other transforms)
+     * @param target
+     * @param selection
+     * @return the number of selected positions that were skipped because the function is not defined for the value (see getSkipReason())
+     */
+    public int transform(int transform, double[] values, double argument, double[] target, long[] selection) {
+        return transform(transform, values, argument, target, selection, 0, values.length);
+    }
+
+    /** Applies the transform kernel to the positions from index 'from' (inclusive) to 'to' (exclusive) */
+    protected int transform(int transform, double[] values, double argument, double[] target, long[] selection, int from, int to) {
+        int skipped=0;
+        for (int i=from;i<to;i++) {
+            if (!isSelected(selection, i)) continue;
+            double value=values[i];
+            switch (transform) {
+                case LOG: if (value>0) target[i]=Math.log(value); else skipped++; break;
+                case LOG_BASE: if (value>0) target[i]=Math.log(value)/Math.log(argument); else skipped++; break;
+                case SQUARE_ROOT: if (value>=0) target[i]=Math.sqrt(value); else skipped++; break;
+                case ABSOLUTE: target[i]=Math.abs(value); break;
+                case RECIPROCAL: if (value!=0) target[i]=1.0/value; else skipped++; break;
+                case SIGMOID: target[i]=1.0/(1+Math.exp(-value)); break;
+                default: throw new IllegalArgumentException("Unsupported transform: "+transform);
+            }
+        }
+        return skipped;
+    }
+
+    /** Sets each value to 'aboveOrEqualValue' if it is greater than or equal to the cutoff and else to 'belowValue' (NaN values are below the cutoff) */
+    public void threshold(double[] values, double cutoff, double aboveOrEqualValue, double belowValue, double[] target, long[] selection) {
+        threshold(values, cutoff, aboveOrEqualValue, belowValue, target, selection, 0, values.length);
+    }
+
+    /** Applies the threshold kernel to the positions from index 'from' (inclusive) to 'to' (exclusive) */
+    protected void threshold(double[] values, double cutoff, double aboveOrEqualValue, double belowValue, double[] target, long[] selection, int from, int to) {
+        for (int i=from;i<to;i++) {
+            if (isSelected(selection, i)) target[i]=(values[i]>=cutoff)?aboveOrEqualValue:belowValue;
+        }
+    }
+
+    /**
+     * Linearly rescales each value from the range [oldMin,oldMax] to the range [newMin,newMax].
+     * If the old range is empty (oldMin==oldMax) all the values are set to newMin
+     */
+    public void rescale(double[] values, double oldMin, double oldMax, double newMin, double newMax, double[] target, long[] selection) {
+        rescale(values, oldMin, oldMax, newMin, newMax, target, selection, 0, values.length);
+    }
+
+    /** Applies the rescale kernel to the positions from index 'from' (inclusive) to 'to' (exclusive) */
+    protected void rescale(double[] values, double oldMin, double oldMax, double newMin, double newMax, double[] target, long[] selection, int from, int to) {
+        double oldrange=oldMax-oldMin;
+        double newrange=newMax-newMin;
+        for (int i=from;i<to;i++) {
+            if (!isSelected(selection, i)) continue;
+            if (oldrange==0) target[i]=newMin;
+            else target[i]=newMin+((values[i]-oldMin)/oldrange)*newrange;
+        }
+    }
+}
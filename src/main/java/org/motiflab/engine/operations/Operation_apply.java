@@ -92,8 +92,18 @@ public class Operation_apply extends FeatureTransformOperation {
     }
 
     
+    @Override
+    protected boolean canTransformSubranges(OperationTask task) {
+        return true; // the new values are calculated from the source sequence only
+    }
+    
     @Override
     public void transformSequence(FeatureSequenceData sourceSequence, FeatureSequenceData targetSequence, OperationTask task) throws Exception {
+        transformSequence(sourceSequence, targetSequence, sourceSequence.getRegionStart(), sourceSequence.getRegionEnd(), task);
+    }
+    
+    @Override
+    public void transformSequence(FeatureSequenceData sourceSequence, FeatureSequenceData targetSequence, int rangeStart, int rangeEnd, OperationTask task) throws Exception {
         String windowType=(String)task.getParameter(WINDOW_TYPE);
         Data windowSizeData=(Data)task.getParameter(WINDOW_SIZE_VALUE);
         String anchor=(String)task.getParameter(ANCHOR);
@@ -147,79 +157,75 @@ public class Operation_apply extends FeatureTransformOperation {
         }
             
         int orientation=sourceSequence.getStrandOrientation();
-        for (int i=sourceSequence.getRegionStart();i<=sourceSequence.getRegionEnd();i++) { // for each base
-            int start=0, end=0;
-            if (anchor.equals(UPSTREAM)) {
-                start=(orientation==Sequence.DIRECT)?i:i-windowsize+1;
-                end=(orientation==Sequence.DIRECT)?i+windowsize-1:i;
-            } else if (anchor.equals(DOWNSTREAM)) {
-                start=(orientation==Sequence.DIRECT)?i-windowsize+1:i;                
-                end=(orientation==Sequence.DIRECT)?i:i+windowsize-1;
-            } else { // center anchor
-               if (windowsize%2==0) { // window has even number of bases - anchor left of center
-                   int flanksize=(int)(windowsize/2);
-                   start=(orientation==Sequence.DIRECT)?i-flanksize+1:i-flanksize;
-                   end=(orientation==Sequence.DIRECT)?i+flanksize:i+flanksize-1;                   
-               } else { // window has odd number of bases
-                   int flanksize=(int)(windowsize/2);
-                   start=i-flanksize;
-                   end=i+flanksize;
-               }
-            }
-            if (windowType.equalsIgnoreCase("shift")) {
-                if (anchor.equals(DOWNSTREAM)) {
-                    if (orientation==Sequence.REVERSE) start=end;
-                } else {
-                    if (orientation==Sequence.DIRECT) start=end;
-                }
+        // The window around each position has the same offsets relative to the position, so these are determined once for the sequence
+        int start=0, end=0;
+        if (anchor.equals(UPSTREAM)) {
+            start=(orientation==Sequence.DIRECT)?0:-windowsize+1;
+            end=(orientation==Sequence.DIRECT)?windowsize-1:0;
+        } else if (anchor.equals(DOWNSTREAM)) {
+            start=(orientation==Sequence.DIRECT)?-windowsize+1:0;
+            end=(orientation==Sequence.DIRECT)?0:windowsize-1;
+        } else { // center anchor
+           if (windowsize%2==0) { // window has even number of bases - anchor left of center
+               int flanksize=(int)(windowsize/2);
+               start=(orientation==Sequence.DIRECT)?-flanksize+1:-flanksize;
+               end=(orientation==Sequence.DIRECT)?flanksize:flanksize-1;
+           } else { // window has odd number of bases
+               int flanksize=(int)(windowsize/2);
+               start=-flanksize;
+               end=flanksize;
+           }
+        }
+        if (windowType.equalsIgnoreCase("shift")) {
+            if (anchor.equals(DOWNSTREAM)) {
+                if (orientation==Sequence.REVERSE) start=end;
+            } else {
+                if (orientation==Sequence.DIRECT) start=end;
             }
-            if (positionSatisfiesCondition(seqname,i,task)) {
-              double newvalue=getNewValue((NumericSequenceData)sourceSequence,sourceSequence.getRelativePositionFromGenomic(start),sourceSequence.getRelativePositionFromGenomic(end),windowType,window);
-              ((NumericSequenceData)targetSequence).setValueAtGenomicPosition(i, newvalue);
-           } // satisfies 'where'-condition
         }
+        int first=sourceSequence.getRelativePositionFromGenomic(rangeStart);
+        int last=sourceSequence.getRelativePositionFromGenomic(rangeEnd);
+        // Only the values that can be covered by the windows in the range are needed (this matters when the sequence is split into tiles)
+        int lowest=Math.max(0, first+Math.min(start,end));
+        int highest=Math.min(sourceSequence.getSize()-1, last+Math.max(start,end));
+        double[] values=(lowest<=highest)?(double[])sourceSequence.getValueInGenomicInterval(sourceSequence.getGenomicPositionFromRelative(lowest), sourceSequence.getGenomicPositionFromRelative(highest)):new double[0];
+        if (lowest>highest) lowest=first; // no values are needed (this can happen for shifts beyond the end of the sequence)
+        double[] newvalues=getNewValues(values, first-lowest, last-lowest, start, end, windowType, window);
+        PositionMask mask=getPositionMask(seqname, task);
+        double[] targetvalues=(double[])targetSequence.getValueInGenomicInterval(rangeStart, rangeEnd);
+        for (int i=nextPositionSatisfyingCondition(mask,rangeStart);i<=rangeEnd;i=nextPositionSatisfyingCondition(mask,i+1)) { // for each base satisfying the 'where'-condition
+            targetvalues[i-rangeStart]=newvalues[i-rangeStart];
+        }
+        ((NumericSequenceData)targetSequence).setValuesInGenomicInterval(rangeStart, targetvalues); // the values are written in one go so that the range of the sequence is only updated once per tile
     }
-    
-    private double getNewValue(NumericSequenceData sourceSequence, int start, int end, String windowType, double[] window) throws ExecutionError {
+
+    /**
+     * Calculates the new values for all positions in the range from 'first' to 'last' (relative to the start of the values array)
+     * The window for position p spans from p+start to p+end. The values array should contain all values within these windows
+     * that lie inside the sequence, and positions outside the array are treated as being outside the sequence
+     * @return an array with the new value for each position in the range
+     */
+    private double[] getNewValues(double[] values, int first, int last, int start, int end, String windowType, double[] window) throws ExecutionError {
         if (windowType==null) windowType="uniform";
-        if (windowType.equalsIgnoreCase("uniform")) {
-            double result=0;
-            double counted=0;
-            for (int j=start;j<=end;j++) {
-                if (j<0 || j>=sourceSequence.getSize()) continue; // outside sequence. just skip
-                counted++; // How many bases are included
-                result+=sourceSequence.getValueAtRelativePosition(j);
+        double[] result=new double[last-first+1];
+        if (windowType.equalsIgnoreCase("uniform") || windowType.equalsIgnoreCase("sum")) {
+            boolean average=windowType.equalsIgnoreCase("uniform");
+            WindowKernels.WindowSums sums=new WindowKernels.WindowSums(values);
+            for (int p=first;p<=last;p++) {
+                result[p-first]=(average)?sums.getAverage(p+start, p+end):sums.getSum(p+start, p+end);
             }
-            if (counted>0) result=result/counted;
-            return result;            
         } else if (windowType.equalsIgnoreCase("shift")) {
-            if (start<0 || start>=sourceSequence.getSize()) return 0; // outside sequence. just skip
-            else return sourceSequence.getValueAtRelativePosition(start);
-                      
-        } else if (windowType.equalsIgnoreCase("sum")) {
-            double result=0;
-            for (int j=start;j<=end;j++) {
-                if (j<0 || j>=sourceSequence.getSize()) continue; // outside sequence. just skip
-                result+=sourceSequence.getValueAtRelativePosition(j);
+            for (int p=first;p<=last;p++) {
+                int j=p+start;
+                result[p-first]=(j<0 || j>=values.length)?0:values[j]; // outside sequence. just skip
             }
-            return result;            
         } else if (windowType.equalsIgnoreCase("minimum")) {
-            double minimum=Double.MAX_VALUE;
-            for (int j=start;j<=end;j++) {
-                if (j<0 || j>=sourceSequence.getSize()) continue; // outside sequence. just skip
-                double value=sourceSequence.getValueAtRelativePosition(j);
-                if (value<minimum) minimum=value;
-            }
-            return minimum;             
+            WindowKernels.SlidingExtremum minimum=new WindowKernels.SlidingExtremum(values, false);
+            for (int p=first;p<=last;p++) result[p-first]=lowest(minimum.get(p+start, p+end));
         } else if (windowType.equalsIgnoreCase("maximum")) {
-            double maximum=-Double.MAX_VALUE;
-            for (int j=start;j<=end;j++) {
-                if (j<0 || j>=sourceSequence.getSize()) continue; // outside sequence. just skip
-                double value=sourceSequence.getValueAtRelativePosition(j);
-                if (value>maximum) maximum=value;
-            }
-            return maximum;
-        } else if (windowType.equalsIgnoreCase("valley") || windowType.equalsIgnoreCase("valley2")) {
+            WindowKernels.SlidingExtremum maximum=new WindowKernels.SlidingExtremum(values, true);
+            for (int p=first;p<=last;p++) result[p-first]=highest(maximum.get(p+start, p+end));
+        } else if (windowType.equalsIgnoreCase("valley") || windowType.equalsIgnoreCase("valley2") || windowType.equalsIgnoreCase("peak")) {
                // The valley-score is based on the definition used in the paper:
                // Ramsey & Shmulevich et al. (2010) "Genome-wide histone acetylation data improve prediction of mammalian transcription factor binding sites", Bioinformatics, 26(17) : 2071-2075
                // The sliding window is divided into a left (40%), central (20%) and right (40%) part,
@@ -229,84 +235,54 @@ public class Operation_apply extends FeatureTransformOperation {
                // of minofmax then the center point is considered to be a "valley-point" 
                // and is assigned a value>0. If, however, the score in the center is within 10% 
                // of the minofmax-value it is not a valley-point and is assigned a value of 0.
+               // The peak detection algorithm is an "inverse" of the valley detection
+               boolean peak=windowType.equalsIgnoreCase("peak");
                boolean alternativeScore=windowType.equalsIgnoreCase("valley2");
                int windowsize=end-start+1;
-               int center=start+(int)(windowsize/2);
-               int sequenceEnd=sourceSequence.getSize()-1;
-               if (center<0) center=0;
-               else if (center>sequenceEnd) center=sequenceEnd;
-               double currentValue=sourceSequence.getValueAtRelativePosition(center);
-               double leftmax=-Double.MAX_VALUE;
-               double rightmax=-Double.MAX_VALUE;
-               int leftWindowStart=start;
-               int leftWindowEnd=start+(int)(windowsize*0.4); // leftWindow is first 40% of the window
-               int rightWindowStart=start+(int)(windowsize*0.6); // leftWindow is first last% of the window
-               int rightWindowEnd=end;
-               if (leftWindowStart<0) leftWindowStart=0;
-               if (leftWindowEnd<0) leftWindowEnd=0;
-               if (rightWindowStart<0) rightWindowStart=0;
-               if (rightWindowEnd<0) rightWindowEnd=0;
-               if (rightWindowStart>sequenceEnd) rightWindowStart=sequenceEnd;
-               if (rightWindowEnd>sequenceEnd) rightWindowEnd=sequenceEnd;
-               if (leftWindowStart>sequenceEnd) leftWindowStart=sequenceEnd;
-               if (leftWindowEnd>sequenceEnd) leftWindowEnd=sequenceEnd;
-               for (int j=leftWindowStart;j<=leftWindowEnd;j++) {
-                   double windowvalue=sourceSequence.getValueAtRelativePosition(j);
-                   if (windowvalue>leftmax) leftmax=windowvalue;
-               }
-               for (int j=rightWindowStart;j<=rightWindowEnd;j++) {
-                   double windowvalue=sourceSequence.getValueAtRelativePosition(j);
-                   if (windowvalue>rightmax) rightmax=windowvalue;
-               }
-               double minofmax=(leftmax<rightmax)?leftmax:rightmax;
-               if (currentValue<0.9*minofmax) return (alternativeScore)?minofmax-currentValue:minofmax; // this definition of valley-score used in the paper was just "minofmax" which will give high scores to small dumps between high peaks but my alternative score is to subtract the current value (which will give higher scores the deeper the valley is)
-               else return 0; // not a valley point
-        } else if (windowType.equalsIgnoreCase("peak")) {
-               // The peak detection algorithm is an "inverse" of the valley detection above 
-               int windowsize=end-start+1;
-               int center=start+(int)(windowsize/2);
-               int sequenceEnd=sourceSequence.getSize()-1;
-               if (center<0) center=0;
-               else if (center>sequenceEnd) center=sequenceEnd;
-               double currentValue=sourceSequence.getValueAtRelativePosition(center);
-               double leftmin=Double.MAX_VALUE;
-               double rightmin=Double.MAX_VALUE;
-               int leftWindowStart=start;
-               int leftWindowEnd=start+(int)(windowsize*0.4); // leftWindow is first 40% of the window
-               int rightWindowStart=start+(int)(windowsize*0.6); // leftWindow is first last% of the window
-               int rightWindowEnd=end;
-               if (leftWindowStart<0) leftWindowStart=0;
-               if (leftWindowEnd<0) leftWindowEnd=0;
-               if (rightWindowStart<0) rightWindowStart=0;
-               if (rightWindowEnd<0) rightWindowEnd=0;
-               if (rightWindowStart>sequenceEnd) rightWindowStart=sequenceEnd;
-               if (rightWindowEnd>sequenceEnd) rightWindowEnd=sequenceEnd;
-               if (leftWindowStart>sequenceEnd) leftWindowStart=sequenceEnd;
-               if (leftWindowEnd>sequenceEnd) leftWindowEnd=sequenceEnd;
-               for (int j=leftWindowStart;j<=leftWindowEnd;j++) {
-                   double windowvalue=sourceSequence.getValueAtRelativePosition(j);
-                   if (windowvalue<leftmin) leftmin=windowvalue;
-               }
-               for (int j=rightWindowStart;j<=rightWindowEnd;j++) {
-                   double windowvalue=sourceSequence.getValueAtRelativePosition(j);
-                   if (windowvalue<rightmin) rightmin=windowvalue;
+               int leftEnd=start+(int)(windowsize*0.4); // leftWindow is first 40% of the window
+               int rightStart=start+(int)(windowsize*0.6); // rightWindow is last 40% of the window
+               int sequenceEnd=values.length-1;
+               WindowKernels.SlidingExtremum left=new WindowKernels.SlidingExtremum(values, !peak);
+               WindowKernels.SlidingExtremum right=new WindowKernels.SlidingExtremum(values, !peak);
+               for (int p=first;p<=last;p++) {
+                   double currentValue=values[clamp(p+start+(int)(windowsize/2),sequenceEnd)];
+                   double leftValue=left.get(clamp(p+start,sequenceEnd), clamp(p+leftEnd,sequenceEnd));
+                   double rightValue=right.get(clamp(p+rightStart,sequenceEnd), clamp(p+end,sequenceEnd));
+                   if (peak) {
+                       double leftmin=lowest(leftValue);
+                       double rightmin=lowest(rightValue);
+                       double maxofmin=(leftmin>rightmin)?leftmin:rightmin;
+                       result[p-first]=(maxofmin<0.1*currentValue)?currentValue:0; // surrounding values should be less than 10% of middle
+                   } else {
+                       double leftmax=highest(leftValue);
+                       double rightmax=highest(rightValue);
+                       double minofmax=(leftmax<rightmax)?leftmax:rightmax;
+                       if (currentValue<0.9*minofmax) result[p-first]=(alternativeScore)?minofmax-currentValue:minofmax; // this definition of valley-score used in the paper was just "minofmax" which will give high scores to small dumps between high peaks but my alternative score is to subtract the current value (which will give higher scores the deeper the valley is)
+                       else result[p-first]=0; // not a valley point
+                   }
                }
-               double maxofmin=(leftmin>rightmin)?leftmin:rightmin;
-               if (maxofmin<0.1*currentValue) return currentValue; // surrounding values should be less than 10% of middle
-               else return 0; // not a peak point
         } else if (windowType.equalsIgnoreCase("gaussian") || windowType.equalsIgnoreCase("bartlett") || windowType.equalsIgnoreCase("edge") ) {
-            // apply windowing function
-            double result=0;
-            int index=0;
-            for (int j=start;j<=end;j++) { // if the window lies partially outside the sequence the sequence value at the edge (first or final in sequence) will be used to 'pad' the sequence
-                double value=0;
-                if (j>=0 && j<sourceSequence.getSize()) value=sourceSequence.getValueAtRelativePosition(j); // outside sequence set to 0
-                result+=value*window[index];
-                index++;
-            }
-            return result;
+            // apply windowing function. Positions outside the sequence are set to 0
+            result=WindowKernels.correlate(values, window, start, first, last);
         } else throw new ExecutionError("Unknown window function: "+windowType);
+        return result;
+    }
+
+    /** Clamps the position to the range 0 to sequenceEnd */
+    private static int clamp(int position, int sequenceEnd) {
+        if (position<0) return 0;
+        else if (position>sequenceEnd) return sequenceEnd;
+        else return position;
+    }
+
+    /** Returns the smallest value in a window as found by WindowKernels.SlidingExtremum, or Double.MAX_VALUE if the window had no smaller values */
+    private static double lowest(double value) {
+        return (value<Double.MAX_VALUE)?value:Double.MAX_VALUE;
+    }
 
+    /** Returns the largest value in a window as found by WindowKernels.SlidingExtremum, or -Double.MAX_VALUE if the window had no larger values */
+    private static double highest(double value) {
+        return (value>-Double.MAX_VALUE)?value:-Double.MAX_VALUE;
     }
     
     
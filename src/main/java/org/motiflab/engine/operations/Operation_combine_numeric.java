@@ -99,23 +99,24 @@ public class Operation_combine_numeric extends FeatureTransformOperation {
     
     public void transformSequence(NumericSequenceData[] sourceSequences, NumericSequenceData targetSequence, OperationTask task, int operator) throws Exception {
         String seqname=targetSequence.getName();
-        double[] values=new double[sourceSequences.length];
-        for (int i=targetSequence.getRegionStart();i<=targetSequence.getRegionEnd();i++) {
-            if (positionSatisfiesCondition(seqname,i,task)) {
-              double newvalue=0;     
-              for (int j=0;j<sourceSequences.length;j++) {
-                  values[j]=sourceSequences[j].getValueAtGenomicPosition(i);
-              }
-              switch (operator) {
-                  case USE_SUM: newvalue=calculateSum(values); break;
-                  case USE_PRODUCT: newvalue=calculateProduct(values); break;
-                  case USE_MIN: newvalue=findMinimum(values); break;
-                  case USE_MAX: newvalue=findMaximum(values); break;
-                  case USE_AVERAGE: newvalue=calculateSum(values)/(double)sourceSequences.length; break;
-              }
-              targetSequence.setValueAtGenomicPosition(i, newvalue);
-           } // end: satisfies 'where'-condition
+        int start=targetSequence.getRegionStart();
+        int end=targetSequence.getRegionEnd();
+        double[][] values=new double[sourceSequences.length][];
+        for (int j=0;j<sourceSequences.length;j++) {
+            values[j]=(double[])sourceSequences[j].getValueInGenomicInterval(start, end);
+        }
+        double[] newValues=(double[])targetSequence.getValueInGenomicInterval(start, end);
+        long[] selection=NumericKernels.getSelection(getPositionMask(seqname, task), start, end);
+        int kernelOperator=NumericKernels.ADD;
+        switch (operator) {
+            case USE_SUM: kernelOperator=NumericKernels.ADD; break;
+            case USE_PRODUCT: kernelOperator=NumericKernels.MULTIPLY; break;
+            case USE_MIN: kernelOperator=NumericKernels.MIN; break;
+            case USE_MAX: kernelOperator=NumericKernels.MAX; break;
+            case USE_AVERAGE: kernelOperator=NumericKernels.AVERAGE; break;
         }
+        getNumericKernels().combine(kernelOperator, values, newValues, selection);
+        targetSequence.setValuesInGenomicInterval(start, newValues);
     }
     
     
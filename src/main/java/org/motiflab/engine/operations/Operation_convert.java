@@ -139,7 +139,7 @@ public class Operation_convert extends Operation {
     private boolean positionSatisfiesCondition(String sequencename, int pos, OperationTask task) throws Exception {
         Condition_position condition=(Condition_position)task.getParameter("where");
         if (condition==null) return true; // no condition is set, so the transform should be applied everywhere
-        else return condition.isConditionSatisfied(sequencename, pos, task);
+        else return condition.getMask(sequencename, task).get(pos);
     }
     
    
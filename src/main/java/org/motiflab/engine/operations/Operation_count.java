@@ -1,6 +1,8 @@
 package org.motiflab.engine.operations;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -163,30 +165,151 @@ public class Operation_count extends FeatureTransformOperation {
         if (windowsize==0) throw new ExecutionError("Window size can not be zero");
                       
         int orientation=sourceSequence.getStrandOrientation();
-        for (int i=sourceSequence.getRegionStart();i<=sourceSequence.getRegionEnd();i++) {
-            int start=0, end=0;
-            if (anchor.equals(UPSTREAM)) {
-                start=(orientation==Sequence.DIRECT)?i:i-windowsize+1;
-                end=(orientation==Sequence.DIRECT)?i+windowsize-1:i;
-            } else if (anchor.equals(DOWNSTREAM)) {
-                start=(orientation==Sequence.DIRECT)?i-windowsize+1:i;                
-                end=(orientation==Sequence.DIRECT)?i:i+windowsize-1;
-            } else {
-               if (windowsize%2==0) { // window has even number of bases - anchor left of center
-                   int flanksize=(int)(windowsize/2);
-                   start=(orientation==Sequence.DIRECT)?i-flanksize+1:i-flanksize;
-                   end=(orientation==Sequence.DIRECT)?i+flanksize:i+flanksize-1;                   
-               } else { // window has odd number of bases
-                   int flanksize=(int)(windowsize/2);
-                   start=i-flanksize;
-                   end=i+flanksize;
-               }
+        // The window around each position has the same offsets relative to the position, so these are determined once for the sequence
+        int start=0, end=0;
+        if (anchor.equals(UPSTREAM)) {
+            start=(orientation==Sequence.DIRECT)?0:-windowsize+1;
+            end=(orientation==Sequence.DIRECT)?windowsize-1:0;
+        } else if (anchor.equals(DOWNSTREAM)) {
+            start=(orientation==Sequence.DIRECT)?-windowsize+1:0;
+            end=(orientation==Sequence.DIRECT)?0:windowsize-1;
+        } else {
+           if (windowsize%2==0) { // window has even number of bases - anchor left of center
+               int flanksize=(int)(windowsize/2);
+               start=(orientation==Sequence.DIRECT)?-flanksize+1:-flanksize;
+               end=(orientation==Sequence.DIRECT)?flanksize:flanksize-1;
+           } else { // window has odd number of bases
+               int flanksize=(int)(windowsize/2);
+               start=-flanksize;
+               end=flanksize;
+           }
+        }
+        int regionStart=sourceSequence.getRegionStart();
+        double[] newvalues=null; // windows with negative size are "inverted" and are counted separately for each position
+        if (windowsize>0) newvalues=countInWindows((RegionSequenceData)sourceSequence, start, end, countProperty, strictlyWithin);
+        PositionMask mask=getPositionMask(seqname, task);
+        for (int i=nextPositionSatisfyingCondition(mask,regionStart);i<=sourceSequence.getRegionEnd();i=nextPositionSatisfyingCondition(mask,i+1)) { // for each base satisfying the 'where'-condition
+            double newvalue=(newvalues!=null)?newvalues[i-regionStart]:count((RegionSequenceData)sourceSequence,i+start,i+end,countProperty,strictlyWithin);
+            ((NumericSequenceData)targetSequence).setValueAtGenomicPosition(i, newvalue);
+        }
+    }
+
+    /**
+     * Counts the regions in the windows around every position in the sequence with a single sweep over the regions.
+     * The window for (relative) position p spans from p+start to p+end, and each region is thus counted in the windows
+     * for a consecutive range of positions. The regions enter and leave the set of counted regions at the ends of these ranges,
+     * and since the count can only change at these events, the value for a window is only recalculated when the set changes.
+     * The values are summed in the same order as the regions are stored in the sequence, so that the results are the same
+     * as when the regions in each window are summed directly.
+     * @return an array with the new value for each position in the sequence
+     */
+    private double[] countInWindows(RegionSequenceData sourceSequence, int start, int end, String countProperty, boolean strictlyWithin) throws ExecutionError {
+        int length=sourceSequence.getSize();
+        double[] result=new double[length];
+        ArrayList<Region> regions=sourceSequence.getOriginalRegions();
+        int size=regions.size();
+        if (size==0) return result;
+        HashMap<String,double[]> columnIC=new HashMap<String,double[]>(); // the IC-content of each column in the motifs (which is only looked up once per motif)
+        if (countProperty.equals(REGION_SCORES_IC_CONTENT) && !strictlyWithin) {
+            // regions partially overlapping the window only contribute the IC of the columns inside the window,
+            // so the IC of all overlapping regions is spread out to the bases they cover and summed within each window
+            int coverageStart=start, coverageEnd=length-1+end; // the bases covered by at least one window
+            double[] coverage=new double[coverageEnd-coverageStart+1];
+            for (Region r:regions) {
+                double[] ic=getColumnIC(r.getType(), columnIC);
+                if (ic==null) continue;
+                int regionStart=r.getRelativeStart();
+                int regionLength=r.getLength();
+                boolean reverse=(r.getOrientation()==Region.REVERSE);
+                int from=Math.max(regionStart, coverageStart), to=Math.min(r.getRelativeEnd(), coverageEnd);
+                for (int j=from;j<=to;j++) {
+                    int column=(reverse)?regionLength-(j-regionStart+1):j-regionStart;
+                    if (column<ic.length) coverage[j-coverageStart]+=ic[column];
+                }
+            }
+            WindowKernels.WindowSums sums=new WindowKernels.WindowSums(coverage);
+            for (int p=0;p<length;p++) result[p]=sums.getSum(p, p+end-start); // window offsets relative to coverageStart
+            return result;
+        }
+        // determine the value of each region and the range of positions whose windows include the region
+        boolean numberCount=countProperty.equals(REGION_NUMBER_COUNT);
+        double[] values=(numberCount)?null:new double[size];
+        long[] enter=new long[size]; // first position in range (upper 32 bits) and region index (lower 32 bits)
+        long[] exit=new long[size];  // last position in range (upper 32 bits) and region index (lower 32 bits)
+        int events=0;
+        for (int i=0;i<size;i++) {
+            Region r=regions.get(i);
+            int first, last;
+            if (strictlyWithin) {first=r.getRelativeEnd()-end; last=r.getRelativeStart()-start;}
+            else {first=r.getRelativeStart()-end; last=r.getRelativeEnd()-start;}
+            if (first<0) first=0;
+            if (last>length-1) last=length-1;
+            if (first>last) continue; // the region is not included in any windows
+            if (!numberCount) {
+                if (countProperty.equals(REGION_SCORES_COUNT)) values[i]=r.getScore();
+                else if (countProperty.equals(REGION_SCORES_IC_CONTENT)) {
+                    double[] ic=getColumnIC(r.getType(), columnIC);
+                    if (ic==null) continue;
+                    double sum=0; // the region lies within the window, so all its columns are counted
+                    for (int column=0;column<r.getLength() && column<ic.length;column++) sum+=ic[column];
+                    values[i]=sum;
+                } else { // assume user-defined numeric property
+                    Object value=r.getProperty(countProperty);
+                    if (!(value instanceof Number)) continue;
+                    values[i]=((Number)value).doubleValue();
+                }
             }
-            if (positionSatisfiesCondition(seqname,i,task)) {
-              double newvalue=count((RegionSequenceData)sourceSequence,start,end,countProperty,strictlyWithin);
-              ((NumericSequenceData)targetSequence).setValueAtGenomicPosition(i, newvalue);
-           } // satisfies 'where'-condition
+            enter[events]=((long)first<<32)|i;
+            exit[events]=((long)last<<32)|i;
+            events++;
+        }
+        Arrays.sort(enter, 0, events);
+        Arrays.sort(exit, 0, events);
+        int[] active=new int[events]; // indices of the regions included in the current window (in ascending order)
+        int activeCount=0;
+        int nextEnter=0, nextExit=0;
+        double current=0;
+        for (int p=0;p<length;p++) {
+            boolean changed=false;
+            while (nextExit<events && (int)(exit[nextExit]>>>32)<p) {
+                int index=Arrays.binarySearch(active, 0, activeCount, (int)exit[nextExit]);
+                System.arraycopy(active, index+1, active, index, activeCount-index-1);
+                activeCount--;
+                nextExit++;
+                changed=true;
+            }
+            while (nextEnter<events && (int)(enter[nextEnter]>>>32)==p) {
+                int region=(int)enter[nextEnter];
+                int index=-(Arrays.binarySearch(active, 0, activeCount, region)+1);
+                System.arraycopy(active, index, active, index+1, activeCount-index);
+                active[index]=region;
+                activeCount++;
+                nextEnter++;
+                changed=true;
+            }
+            if (changed) {
+                if (numberCount) current=activeCount;
+                else {
+                    current=0;
+                    for (int j=0;j<activeCount;j++) current+=values[active[j]];
+                }
+            }
+            result[p]=current;
+        }
+        return result;
+    }
+
+    /** Returns the IC-content of each column in the motif with the given name (or NULL if there is no such motif) */
+    private double[] getColumnIC(String motifname, HashMap<String,double[]> cache) {
+        if (cache.containsKey(motifname)) return cache.get(motifname);
+        Motif motif=(Motif)engine.getDataItem(motifname, Motif.class);
+        double[] ic=null;
+        if (motif!=null) {
+            ic=new double[motif.getLength()];
+            for (int i=0;i<ic.length;i++) ic[i]=motif.getICcontentForColumn(i);
         }
+        cache.put(motifname, ic);
+        return ic;
     }
     
     private double count(RegionSequenceData sourceSequence, int start, int end, String countProperty, boolean strictlyWithin) throws ExecutionError {
@@ -213,7 +336,7 @@ public class Operation_count extends FeatureTransformOperation {
                 int offset=r.getGenomicStart();
                 int length=r.getLength();
                 for (int i=start;i<=end;i++) {
-                    int motifoffset=start-offset; // offset into motif on direct strand
+                    int motifoffset=i-offset; // offset into motif on direct strand
                     if (motifoffset<0 || motifoffset>=length) continue;
                     if (r.getOrientation()==Region.REVERSE) motifoffset=length-(motifoffset+1);
                     sum+=motif.getICcontentForColumn(motifoffset);                          
@@ -258,6 +381,7 @@ public class Operation_count extends FeatureTransformOperation {
             FeatureSequenceData targetSequence=(FeatureSequenceData)targetDataset.getSequenceByName(sequencename);
 
             transformSequence(sourceSequence, targetSequence, task);
+            ((NumericSequenceData)targetSequence).compact(CompactNumericData.AUTOMATIC); // counts are piecewise constant and are often stored more compactly as runs
             
             synchronized(counters) { // finished one of the sequences
                 counters[1]++; // number of sequences completed
@@ -57,6 +57,11 @@ public class Operation_decrease extends ArithmeticOperation {
     public double calculateNewValue(double oldvalue, double argument) throws ExecutionError{
         return oldvalue-argument;
     }
+
+    @Override
+    protected int getKernelOperator() {
+        return NumericKernels.SUBTRACT;
+    }
    
     @Override
     public Object calculateNewPropertyValue(Object oldvalue, Object argument) throws ExecutionError {
@@ -8,6 +8,7 @@ import org.motiflab.engine.task.ExecutableTask;
 import org.motiflab.engine.ExecutionError;
 import org.motiflab.engine.TaskRunner;
 import org.motiflab.engine.task.OperationTask;
+import org.motiflab.engine.data.CompactNumericData;
 import org.motiflab.engine.data.Data;
 import org.motiflab.engine.data.FeatureDataset;
 import org.motiflab.engine.data.FeatureSequenceData;
@@ -277,6 +278,7 @@ public class Operation_distance extends Operation {
             Sequence sequence=(Sequence)engine.getDataItem(sequencename,Sequence.class);
             NumericSequenceData numericSequence=new NumericSequenceData(sequence,0);
             transformSequence(numericSequence,anchor, direction, relativeAnchor, task);    
+            numericSequence.compact(CompactNumericData.AUTOMATIC); // integer distances compress losslessly (the automatic mode only selects exact encodings, such as exact floats or run-lengths)
             targetDataset.addSequence(numericSequence); // this operation is always applied to the DefaultSequenceCollection, so all sequences will be added eventually 
             
             synchronized(counters) { // finished one of the sequences
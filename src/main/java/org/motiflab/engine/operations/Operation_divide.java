@@ -53,6 +53,11 @@ public class Operation_divide extends ArithmeticOperation {
         return oldvalue/argument;
     }
 
+    @Override
+    protected int getKernelOperator() {
+        return NumericKernels.DIVIDE;
+    }
+
    @Override
     public Object calculateNewPropertyValue(Object oldvalue, Object argument) throws ExecutionError {
         if (argument==null || (argument instanceof String && ((String)argument).isEmpty())) {
@@ -52,6 +52,11 @@ public class Operation_increase extends ArithmeticOperation {
         return oldvalue+argument;
     }
 
+    @Override
+    protected int getKernelOperator() {
+        return NumericKernels.ADD;
+    }
+
     @Override
     public Object calculateNewPropertyValue(Object oldvalue, Object argument) throws ExecutionError {
         if (argument==null || (argument instanceof String && ((String)argument).isEmpty())) {
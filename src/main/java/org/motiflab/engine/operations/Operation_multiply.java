@@ -52,6 +52,11 @@ public class Operation_multiply extends ArithmeticOperation {
         return oldvalue*argument;
     }
 
+    @Override
+    protected int getKernelOperator() {
+        return NumericKernels.MULTIPLY;
+    }
+
    @Override
     public Object calculateNewPropertyValue(Object oldvalue, Object argument) throws ExecutionError {        
         if (argument==null || (argument instanceof String && ((String)argument).isEmpty())) {
@@ -212,16 +212,11 @@ public class Operation_normalize extends FeatureTransformOperation {
         if (mode.equals(SUM_TO_ONE)) {
             double sum=0;
             if (targetSequence instanceof NumericSequenceData) {
-                for (int i=sourceSequence.getRegionStart();i<=sourceSequence.getRegionEnd();i++) {
-                    double oldValue=((NumericSequenceData)targetSequence).getValueAtGenomicPosition(i);
-                    sum+=oldValue;
-                }
+                double[] values=(double[])((NumericSequenceData)targetSequence).getValueInGenomicInterval(sourceSequence.getRegionStart(), sourceSequence.getRegionEnd());
+                for (double oldValue:values) sum+=oldValue; // the values are summed in order, so the sum does not depend on the kernels
                 if (sum==0) return; // nothing to normalize
-                for (int i=sourceSequence.getRegionStart();i<=sourceSequence.getRegionEnd();i++) {
-                    double oldValue=((NumericSequenceData)targetSequence).getValueAtGenomicPosition(i);
-                    double normalizedValue=oldValue/sum;
-                    ((NumericSequenceData)targetSequence).setValueAtGenomicPosition(i, normalizedValue);
-                }                
+                getNumericKernels().arithmetic(NumericKernels.DIVIDE, values, null, sum, values, null);
+                ((NumericSequenceData)targetSequence).setValuesInGenomicInterval(sourceSequence.getRegionStart(), values);
             } else if (targetSequence instanceof RegionSequenceData) {
                 for (Region region:((RegionSequenceData)targetSequence).getOriginalRegions()) {
                     Object oldvalue=region.getProperty(propertyName);
@@ -300,18 +295,12 @@ public class Operation_normalize extends FeatureTransformOperation {
             //engine.logMessage("Sequence["+seqname+"]:  oldMin="+oldMinValue+",  oldMax="+oldMaxValue+",  newMin="+newMinValue+",  newMax="+newMaxValue);
             double oldrange=oldMaxValue-oldMinValue;
             if (targetSequence instanceof NumericSequenceData) {
-                for (int i=sourceSequence.getRegionStart();i<=sourceSequence.getRegionEnd();i++) {
-                    if (positionSatisfiesCondition(seqname,i,task)) {
-                        double oldValue=((NumericSequenceData)targetSequence).getValueAtGenomicPosition(i);
-                        double normalizedValue=newMinValue;
-                        if (oldrange!=0) { // if (oldrange==0) throw new ExecutionError("Can not normalize data from zero range");
-                            double oldScaleOffset=(oldValue-oldMinValue)/(oldrange);
-                            double newScaledOffset=oldScaleOffset*(newMaxValue-newMinValue);
-                            normalizedValue+=newScaledOffset;
-                        }
-                        ((NumericSequenceData)targetSequence).setValueAtGenomicPosition(i, normalizedValue);
-                   } // satisfies 'where'-condition
-                }
+                int start=sourceSequence.getRegionStart();
+                int end=sourceSequence.getRegionEnd();
+                double[] values=(double[])((NumericSequenceData)targetSequence).getValueInGenomicInterval(start, end);
+                long[] selection=NumericKernels.getSelection(getPositionMask(seqname, task), start, end);
+                getNumericKernels().rescale(values, oldMinValue, oldMaxValue, newMinValue, newMaxValue, values, selection); // if the old range is zero, all values are set to the new min
+                ((NumericSequenceData)targetSequence).setValuesInGenomicInterval(start, values);
             } else if (targetSequence instanceof RegionSequenceData) {
                 ArrayList<Region> regions=((RegionSequenceData)targetSequence).getAllRegions();
                 for (Region region:regions) {
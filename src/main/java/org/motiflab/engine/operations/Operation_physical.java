@@ -419,120 +419,106 @@ public class Operation_physical extends FeatureTransformOperation {
                reverseOffset=getOligoLength(physicalProperty)-1;
            }
         }
-        for (int i=sourceSequence.getRegionStart();i<=sourceSequence.getRegionEnd();i++) {
-            int start=0, end=0;
-            if (anchor.equals(UPSTREAM)) {
-                start=(orientation==Sequence.DIRECT)?i:i-windowsize+1;
-                end=(orientation==Sequence.DIRECT)?i+windowsize-1:i;
-            } else if (anchor.equals(DOWNSTREAM)) {
-                start=(orientation==Sequence.DIRECT)?i-windowsize+1:i;                
-                end=(orientation==Sequence.DIRECT)?i:i+windowsize-1;
-            } else {
-               if (windowsize%2==0) { // window has even number of bases - anchor left of center
-                   int flanksize=(int)(windowsize/2);
-                   start=(orientation==Sequence.DIRECT)?i-flanksize+1:i-flanksize;
-                   end=(orientation==Sequence.DIRECT)?i+flanksize:i+flanksize-1;                   
-               } else { // window has odd number of bases
-                   int flanksize=(int)(windowsize/2);
-                   start=i-flanksize;
-                   end=i+flanksize;
-               }
-            }
-            start+=reverseOffset;
-            end+=reverseOffset;
-            if (positionSatisfiesCondition(seqname,i,task)) {
-              double newvalue=getNewValue((DNASequenceData)sourceSequence,start,end,physicalProperty, orientation, oligo);
-              ((NumericSequenceData)targetSequence).setValueAtGenomicPosition(i, newvalue);
-           } // satisfies 'where'-condition
+        // The window around each position has the same offsets relative to the position, so these are determined once for the sequence
+        int start=0, end=0;
+        if (anchor.equals(UPSTREAM)) {
+            start=(orientation==Sequence.DIRECT)?0:-windowsize+1;
+            end=(orientation==Sequence.DIRECT)?windowsize-1:0;
+        } else if (anchor.equals(DOWNSTREAM)) {
+            start=(orientation==Sequence.DIRECT)?-windowsize+1:0;
+            end=(orientation==Sequence.DIRECT)?0:windowsize-1;
+        } else {
+           if (windowsize%2==0) { // window has even number of bases - anchor left of center
+               int flanksize=(int)(windowsize/2);
+               start=(orientation==Sequence.DIRECT)?-flanksize+1:-flanksize;
+               end=(orientation==Sequence.DIRECT)?flanksize:flanksize-1;
+           } else { // window has odd number of bases
+               int flanksize=(int)(windowsize/2);
+               start=-flanksize;
+               end=flanksize;
+           }
+        }
+        start+=reverseOffset;
+        end+=reverseOffset;
+        double[] newvalues=getNewValues((DNASequenceData)sourceSequence, start, end, physicalProperty, orientation, oligo);
+        int regionStart=sourceSequence.getRegionStart();
+        PositionMask mask=getPositionMask(seqname, task);
+        for (int i=nextPositionSatisfyingCondition(mask,regionStart);i<=sourceSequence.getRegionEnd();i=nextPositionSatisfyingCondition(mask,i+1)) { // for each base satisfying the 'where'-condition
+            ((NumericSequenceData)targetSequence).setValueAtGenomicPosition(i, newvalues[i-regionStart]);
         }
     }
     
-    /** Start and end are genomic positions */
-    private double getNewValue(DNASequenceData sourceSequence, int start, int end, String physicalProperty, int orientation, String oligo) throws ExecutionError {
+    /** 
+     * Calculates the new values for all positions in the sequence.
+     * The score contributed by each position (or by each oligo starting at that position) is determined first,
+     * and the scores are then summed up within the window around each position, which spans from p+start to p+end 
+     */
+    private double[] getNewValues(DNASequenceData sourceSequence, int start, int end, String physicalProperty, int orientation, String oligo) throws ExecutionError {
         if (physicalProperty==null) physicalProperty=GC_CONTENT;
+        char[] sequence=(char[])sourceSequence.getValueInGenomicInterval(sourceSequence.getRegionStart(), sourceSequence.getRegionEnd());
+        int length=sequence.length;
+        double[] scores=null;
+        boolean average=true; // if TRUE the sum of scores is divided by the number of positions included in the window
+        int endOffset=0; // the last position included in the window relative to 'end'
         if (physicalProperty.equalsIgnoreCase(GC_CONTENT)) {
-            double GCs=0;
-            double counted=0;
-            for (int j=start;j<=end;j++) {
-                if (j<sourceSequence.getRegionStart() || j>sourceSequence.getRegionEnd()) continue; // outside sequence. just skip
-                counted++; // How many bases are included
-                char base=sourceSequence.getValueAtGenomicPosition(j);
-                if (base=='C' || base=='G' || base=='c' || base=='g') GCs++;
+            scores=new double[length];
+            for (int j=0;j<length;j++) {
+                char base=sequence[j];
+                if (base=='C' || base=='G' || base=='c' || base=='g') scores[j]=1;
             }
-            if (counted>0) return GCs/counted;
-            else return 0;          
         } else if (physicalProperty.equalsIgnoreCase(GC_SKEW)) {
-            double GCs=0;
-            double Gs=0;
-            double Cs=0;
-            double counted=0;
-            for (int j=start;j<=end;j++) {
-                if (j<sourceSequence.getRegionStart() || j>sourceSequence.getRegionEnd()) continue; // outside sequence. just skip
-                counted++; // How many bases are included
-                char base=sourceSequence.getValueAtGenomicPosition(j);
-                if (base=='G' || base=='g') {Gs++;GCs++;}
-                else if (base=='C' || base=='c') {Cs++;GCs++;}
+            double sign=(orientation==Sequence.DIRECT)?1:-1; // count (Gs-Cs) on the direct strand and (Cs-Gs) on the reverse
+            scores=new double[length];
+            for (int j=0;j<length;j++) {
+                char base=sequence[j];
+                if (base=='G' || base=='g') scores[j]=sign;
+                else if (base=='C' || base=='c') scores[j]=-sign;
             }
-            double GCdiff=(orientation==Sequence.DIRECT)?(Gs-Cs):(Cs-Gs);
-            if (counted>0) return GCdiff/counted;
-            else return 0;          
         } else if (physicalProperty.equalsIgnoreCase(AT_CONTENT)) {
-            double ATs=0;
-            double counted=0;
-            for (int j=start;j<=end;j++) {
-                if (j<sourceSequence.getRegionStart() || j>sourceSequence.getRegionEnd()) continue; // outside sequence. just skip
-                counted++; // How many bases are included
-                char base=sourceSequence.getValueAtGenomicPosition(j);
-                if (base=='A' || base=='T' || base=='a' || base=='t') ATs++;
+            scores=new double[length];
+            for (int j=0;j<length;j++) {
+                char base=sequence[j];
+                if (base=='A' || base=='T' || base=='a' || base=='t') scores[j]=1;
             }
-            if (counted>0) return ATs/counted;
-            else return 0;          
         } else if (physicalProperty.equalsIgnoreCase(AT_SKEW)) {
-            double ATs=0;
-            double As=0;
-            double Ts=0;
-            double counted=0;
-            for (int j=start;j<=end;j++) {
-                if (j<sourceSequence.getRegionStart() || j>sourceSequence.getRegionEnd()) continue; // outside sequence. just skip
-                counted++; // How many bases are included
-                char base=sourceSequence.getValueAtGenomicPosition(j);
-                if (base=='A' || base=='a') {As++;ATs++;}
-                else if (base=='T' || base=='t') {Ts++;ATs++;}
+            double sign=(orientation==Sequence.DIRECT)?1:-1; // count (As-Ts) on the direct strand and (Ts-As) on the reverse
+            scores=new double[length];
+            for (int j=0;j<length;j++) {
+                char base=sequence[j];
+                if (base=='A' || base=='a') scores[j]=sign;
+                else if (base=='T' || base=='t') scores[j]=-sign;
             }
-            double ATdiff=(orientation==Sequence.DIRECT)?(As-Ts):(Ts-As);
-            if (counted>0) return ATdiff/counted;
-            else return 0;                    
         } else if (physicalProperty.startsWith(FREQUENCY)) {
-            double oligomatch=0;
-            double counted=0;
+            // only positions where the whole oligo fits inside the sequence are included in the window
             int oligolength=oligo.length();
-            for (int j=start;j<=end;j++) {
-                if (j<sourceSequence.getRegionStart() || j>sourceSequence.getRegionEnd()-oligolength+1) continue; // outside sequence. just skip
-                counted++; // How many positions are included in the window
-                if (oligolength==1) {
-                    char c=sourceSequence.getValueAtGenomicPosition(j);
-                    if (Character.toUpperCase(c)==oligo.charAt(0)) oligomatch++;
-                } else {
-                   if (sourceSequence.isDirectMatchAtPosition(j,oligo)) oligomatch++; 
-                }                     
+            scores=new double[Math.max(0,length-oligolength+1)];
+            for (int j=0;j<scores.length;j++) {
+                boolean match=true;
+                for (int k=0;k<oligolength;k++) {
+                    if (Character.toUpperCase(sequence[j+k])!=oligo.charAt(k)) {match=false;break;}
+                }
+                if (match) scores[j]=1;
             }
-            if (counted>0) return oligomatch/counted;
-            else return 0;          
         } else {
+            // The result is the sum of the property values for all oligos lying fully within the window extended by one base (+1 for dinucleotides. +2 for trinucleotides)
             Table table=tables.get(physicalProperty);
-            int oligolength=getOligoLength(physicalProperty);
             if (table==null) throw new ExecutionError("Unknown physical property function: "+physicalProperty);
-            char[] sequence=(char[])sourceSequence.getValueInGenomicInterval(start, end+1); // +1 for dinucleotide. +2 for trinucleotides
-            if (sequence==null) return 0; // window wholly or partially outside of sequence
-            double result=0;
-            for (int j=0;j<sequence.length-oligolength+1;j++) { // -1 for dinucleotides, -2 for trinucleotides
+            int oligolength=getOligoLength(physicalProperty);
+            scores=new double[Math.max(0,length-oligolength+1)];
+            for (int j=0;j<scores.length;j++) {
                  Double value=table.get(new String(sequence,j,oligolength).toUpperCase());
                  // no need to reverse sequence since all properties in tables are "symmetric"
-                 if (value!=null) result+=value;
+                 if (value!=null) scores[j]=value;
             }
-            return result;             
+            average=false;
+            endOffset=2-oligolength;
         }
-
+        WindowKernels.WindowSums sums=new WindowKernels.WindowSums(scores);
+        double[] result=new double[length];
+        for (int p=0;p<length;p++) {
+            result[p]=(average)?sums.getAverage(p+start, p+end+endOffset):sums.getSum(p+start, p+end+endOffset);
+        }
+        return result;
     }
     
     
@@ -1,5 +1,6 @@
 package org.motiflab.engine.operations;
 
+import org.motiflab.engine.data.CompactNumericData;
 import org.motiflab.engine.data.FeatureSequenceData;
 import org.motiflab.engine.data.NumericDataset;
 import org.motiflab.engine.data.NumericSequenceData;
@@ -51,7 +52,7 @@ public class Operation_prior extends FeatureTransformOperation {
     public void transformSequence(FeatureSequenceData sourceSequence, FeatureSequenceData targetSequence, OperationTask task) throws Exception {
         String seqname=sourceSequence.getName();
         //double[] logs=logTransform(((NumericSequenceData)sourceSequence).getData());
-        double[] inverseLogs=logTransformInverse(((NumericSequenceData)sourceSequence).getData());
+        double[] inverseLogs=logTransformInverse((double[])sourceSequence.getValue()); // getValue() does not expand a compact source sequence
         double[] prob=new double[inverseLogs.length];
         double prob0=arraySum(inverseLogs);
         prob0=Math.exp(prob0);
@@ -90,6 +91,7 @@ public class Operation_prior extends FeatureTransformOperation {
               ((NumericSequenceData)targetSequence).setValueAtGenomicPosition(i, newvalue);
            } // satisfies 'where'-condition
         }
+        ((NumericSequenceData)targetSequence).compact(CompactNumericData.AUTOMATIC); // the prior is constant outside the 'where'-condition
     }
     
     private void debug(double[] array) {
@@ -15,6 +15,7 @@ import org.motiflab.engine.task.ExecutableTask;
 import org.motiflab.engine.task.OperationTask;
 import org.motiflab.engine.ExecutionError;
 import org.motiflab.engine.TaskRunner;
+import org.motiflab.engine.BackgroundProbabilityCache;
 import org.motiflab.engine.data.BackgroundModel;
 import org.motiflab.engine.data.DNASequenceData;
 import org.motiflab.engine.data.DNASequenceDataset;
@@ -145,18 +146,16 @@ public class Operation_score extends FeatureTransformOperation {
         String raworlogString=(String)task.getParameter(RAW_OR_LOGLIKELIHOOD);
         int raworlog=SCORE_RAW;
         if (raworlogString.equals(LOGLIKELIHOOD)) raworlog=SCORE_LOGLIKELIHOOD;
-        HashMap<String,double[][]> matrixTable=new HashMap<String, double[][]>();
+        HashMap<String,double[][]> matrixTable=new HashMap<String, double[][]>(); // NB: the matrices are shared with the motifs and must not be modified
         double pseudo=0.01;
         if (targetmotifs instanceof Motif) {
             Motif motif=(Motif)targetmotifs;
-            double[][] matrix=motif.getMatrixAsFrequencyMatrixWithPseudo(pseudo);  
-            if (raworlog==SCORE_LOGLIKELIHOOD) logMatrix(matrix);
+            double[][] matrix=(raworlog==SCORE_LOGLIKELIHOOD)?motif.getSharedLogMatrixWithPseudo(pseudo):motif.getSharedFrequencyMatrixWithPseudo(pseudo, false);
             matrixTable.put(motif.getName(),matrix);           
         } else if (targetmotifs instanceof MotifCollection) {
             ArrayList<Motif> allMotifs=((MotifCollection)targetmotifs).getAllMotifs(engine);          
             for (Motif motif:allMotifs) { // search with each motif in turn
-                double[][] matrix=motif.getMatrixAsFrequencyMatrixWithPseudo(pseudo);  
-                if (raworlog==SCORE_LOGLIKELIHOOD) logMatrix(matrix);
+                double[][] matrix=(raworlog==SCORE_LOGLIKELIHOOD)?motif.getSharedLogMatrixWithPseudo(pseudo):motif.getSharedFrequencyMatrixWithPseudo(pseudo, false);
                 matrixTable.put(motif.getName(),matrix);
             }             
         }
@@ -264,12 +263,21 @@ public class Operation_score extends FeatureTransformOperation {
         snf[1]=Math.log(snf[1]);
         snf[2]=Math.log(snf[2]);
         snf[3]=Math.log(snf[3]);
+        double[] directBackground=null, reverseBackground=null; // cumulative background log-probabilities for higher-order models
+        double[] backgroundRange=snf;
+        if (background!=null && background.getOrder()>0) { // the matrix is scored on its own and the background probabilities of each window are subtracted afterwards
+            BackgroundProbabilityCache cache=engine.getBackgroundProbabilityCache();
+            directBackground=BackgroundProbabilityCache.getCumulativeSums(cache.getLogProbabilities(sourceSequence, background, false), 0, sequence.length-1);
+            reverseBackground=BackgroundProbabilityCache.getCumulativeSums(cache.getLogProbabilities(sourceSequence, background, true), 0, sequence.length-1);
+            backgroundRange=BackgroundProbabilityCache.getLogProbabilityRange(background);
+            snf=new double[4];
+        }
         int scorestrand=sourceSequence.getStrandOrientation();
         int counter=0;
         for (String motifname:matrixTable.keySet()) { // search with each motif in turn
             counter++;          
             double[][] matrix=matrixTable.get(motifname);
-            double[] minmax=getMinMaxScores(matrix, snf);
+            double[] minmax=getMinMaxScores(matrix, backgroundRange);
             if (counter%50==0) {
                 task.checkExecutionLock(); // checks to see if this task should suspend execution
                 if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();                
@@ -283,6 +291,10 @@ public class Operation_score extends FeatureTransformOperation {
                 if (scorestrand==Sequence.REVERSE) pos+=(motifsize-1); // note that this is the position that will receive the score. It will correspond to the start or end of the motif depending on the sequence orientation
                 if (!positionSatisfiesCondition(seqname,startOffset+pos,task)) continue;
                 double[] scores=matrixMatcherLogLikelihood(matrix,sequence,i,snf);
+                if (directBackground!=null) {
+                    scores[0]-=(directBackground[i+motifsize]-directBackground[i]);
+                    scores[1]-=(reverseBackground[i+motifsize]-reverseBackground[i]);
+                }
                 double relativeScoreDirect=(scores[0]-minmax[0])/(minmax[1]-minmax[0]); // convert to relative scores
                 double relativeScoreReverse=(scores[1]-minmax[0])/(minmax[1]-minmax[0]); // convert to relative scores
                 double comparisonScoreDirect=(scoremode==ABSOLUTE)?scores[0]:relativeScoreDirect;
@@ -380,17 +392,6 @@ public class Operation_score extends FeatureTransformOperation {
     }   
     
     
-    /**
-     * Log-transforms a matrix
-     */
-    private void logMatrix(double[][] matrix) {
-        for (int i=0;i<matrix.length;i++) {
-            for (int j=0;j<matrix[i].length;j++) {
-                matrix[i][j]=Math.log(matrix[i][j]);
-            }
-        }
-    }
-    
    /** Returns an array containing (in order)
     * [0] lowest obtainable score for a motif in a position given the 0-order background frequencies
     * [1] highest obtainable score  for a motif in a position given the 0-order background frequencies
@@ -6,6 +6,7 @@
 package org.motiflab.engine.operations;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -29,6 +30,9 @@ import org.motiflab.engine.TaskRunner;
 import org.motiflab.engine.data.Motif;
 import org.motiflab.engine.data.MotifCollection;
 import org.motiflab.engine.data.Region;
+import org.motiflab.engine.util.AhoCorasickMatcher;
+import org.motiflab.engine.util.IUPACPatternMatcher;
+import org.motiflab.engine.util.SequenceSuffixIndex;
 
 /**
  *
@@ -59,6 +63,7 @@ public class Operation_search extends Operation {
     public static final String MAX_GAP_LENGTH="maxGapLength";
     private static final String SEARCH_DATA="searchData"; // resolved search expression. String or Text Variable or motif reference 
     private static final String IS_MOTIF_TRACK="isMotifTrack"; //
+    private static final String LITERAL_MATCHER="literalMatcher"; // Aho-Corasick automaton for all search expressions that are plain DNA strings
     public static final int MINIMUM_HALFSITE_SIZE=3;
     public static final int MAXIMUM_GAP_SIZE=999;
 
@@ -104,7 +109,7 @@ public class Operation_search extends Operation {
     
     public void parseParameters(OperationTask task) throws Exception { 
         boolean isMotifTrack=false;
-        ArrayList<Object[]> regexList=new ArrayList<Object[]>();  // first is "raw" regex, second is compiled Pattern, third is name of motif (if used) or null
+        ArrayList<Object[]> regexList=new ArrayList<Object[]>();  // first is "raw" regex, second is compiled Pattern, third is name of motif (if used) or null, fourth is index of literal pattern in the LITERAL_MATCHER (or null)
         String rawSearchExpression=(String)task.getParameter(SEARCH_EXPRESSION);
         if (rawSearchExpression.equals(SEARCH_REPEAT)) {
 
@@ -133,6 +138,14 @@ public class Operation_search extends Operation {
             } 
             else throw new ExecutionError(rawSearchExpression+"("+expressionData.getTypeDescription()+") can not be used as a search expression",task.getLineNumber());
         }    
+        // expressions that are plain DNA strings are searched for all at once with a single automaton rather than with regular expressions
+        AhoCorasickMatcher literalMatcher=new AhoCorasickMatcher(true);
+        for (Object[] element:regexList) {
+            String expression=(String)element[0];
+            if (isLiteralDNA(expression)) element[3]=literalMatcher.addPattern(expression);
+        }
+        literalMatcher.compile();
+        task.setParameter(LITERAL_MATCHER, (literalMatcher.getNumberOfPatterns()>0)?literalMatcher:null);
         task.setParameter(IS_MOTIF_TRACK, isMotifTrack);                      
         task.setParameter(SEARCH_DATA, regexList);    
     } 
@@ -141,7 +154,36 @@ public class Operation_search extends Operation {
     private void addToRegexList(ArrayList<Object[]> regexList,String expression, String motifname) {
             String resolvedexpression=convertIUPAC(expression.toUpperCase());
             Pattern pattern=Pattern.compile(resolvedexpression,Pattern.CASE_INSENSITIVE);
-            regexList.add(new Object[]{expression,pattern,motifname});        
+            regexList.add(new Object[]{expression,pattern,motifname,null});        
+    }
+    
+    /** Returns TRUE if the expression consists only of the letters A,C,G and T (in upper or lower case) */
+    private boolean isLiteralDNA(String expression) {
+        if (expression.isEmpty()) return false;
+        for (int i=0;i<expression.length();i++) {
+            switch (expression.charAt(i)) {
+                case 'A': case 'a': case 'C': case 'c': case 'G': case 'g': case 'T': case 't': break;
+                default: return false;
+            }
+        }
+        return true;
+    }
+    
+    /** 
+     * Finds all occurrences of the literal search expressions in the given sequence.
+     * @return a list of match start positions (in increasing order) for each pattern in the matcher
+     */
+    @SuppressWarnings("unchecked")
+    private ArrayList<Integer>[] findLiteralMatches(AhoCorasickMatcher matcher, String sequence) throws Exception {
+        final ArrayList<Integer>[] matches=new ArrayList[matcher.getNumberOfPatterns()];
+        for (int i=0;i<matches.length;i++) matches[i]=new ArrayList<Integer>();
+        matcher.search(sequence.toCharArray(), new AhoCorasickMatcher.MatchHandler() {
+            @Override
+            public void matchFound(int pattern, int start, int end) {
+                matches[pattern].add(start);
+            }
+        });
+        return matches;
     }
     
     @Override
@@ -241,15 +283,37 @@ public class Operation_search extends Operation {
               if (seqOrientation==Sequence.DIRECT) searchReverse=true; else searchDirect=true; 
           }   
           if (searchReverse) reversednasequence=MotifLabEngine.reverseSequence(dnasequence);
+          AhoCorasickMatcher literalMatcher=(AhoCorasickMatcher)task.getParameter(LITERAL_MATCHER);
+          ArrayList<Integer>[] literalDirectMatches=null;
+          ArrayList<Integer>[] literalReverseMatches=null;
+          if (literalMatcher!=null && mismatchesAllowed==0) { // find all literal patterns with a single pass over each strand
+              if (searchDirect) literalDirectMatches=findLiteralMatches(literalMatcher, dnasequence);
+              if (searchReverse) literalReverseMatches=findLiteralMatches(literalMatcher, reversednasequence);
+          }
           int found=0; // number of matches found
           for (Object[] element:regexList) {
               String expression=(String)element[0];
               Pattern pattern=(Pattern)element[1];
               String motifname=(String)element[2];
+              Integer literalIndex=(Integer)element[3];
               //System.err.println("Searching "+sequenceName+" with '"+expression+"' => "+pattern.toString());
               boolean trueRegex=expression.matches(".*[^a-zA-Z].*"); // regex contains regex operators like (not normal letters)
               if (trueRegex && mismatchesAllowed>0) throw new ExecutionError("No mismatches allowed for patterns with wildcards: "+expression);
-              if (searchDirect && mismatchesAllowed==0) { // use regular expressions to search the direct strand
+              if (searchDirect && mismatchesAllowed==0 && literalDirectMatches!=null && literalIndex!=null) { // use precomputed matches for literal patterns on the direct strand
+                  int length=expression.length();
+                  for (int start:literalDirectMatches[literalIndex]) {
+                      found++;
+                      if (found%100==0) { // take a break for every 100 hits
+                            task.checkExecutionLock(); // checks to see if this task should suspend execution
+                            if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();
+                            Thread.yield();                          
+                      }
+                      int end=start+length-1;
+                      String sequencematch=dnasequence.substring(start, end+1);
+                      addRegionIfSatisfied(sourceSequence, targetSequence, motifname, start, end, expression, Sequence.DIRECT, sequencematch, length, task, within, condition);
+                  }
+              }
+              else if (searchDirect && mismatchesAllowed==0) { // use regular expressions to search the direct strand
                   int startoffset=0;
                   Matcher matcher=pattern.matcher(dnasequence);
                   while (matcher.find(startoffset)) {
@@ -267,8 +331,10 @@ public class Operation_search extends Operation {
                       addRegionIfSatisfied(sourceSequence, targetSequence, motifname, start, end, expression, Sequence.DIRECT, sequencematch, score, task, within, condition);
                   }
               }
-              else if (searchDirect && mismatchesAllowed>0) { // use mismatch-algorithm to search direct strand
-                  ArrayList<int[]>matches=mismatchSearch(dnasequence,expression,mismatchesAllowed,task);
+              ArrayList<int[]>[] bitParallelMatches=null; // matches on both strands found in a single pass with the bit-parallel matcher
+              if (mismatchesAllowed>0 && IUPACPatternMatcher.isSupported(expression.length())) bitParallelMatches=bitParallelMismatchSearch(dnasequence,expression,mismatchesAllowed,searchDirect,searchReverse,task);
+              if (searchDirect && mismatchesAllowed>0) { // use mismatch-algorithm to search direct strand
+                  ArrayList<int[]>matches=(bitParallelMatches!=null)?bitParallelMatches[0]:mismatchSearch(dnasequence,expression,mismatchesAllowed,task);
                   for (int[] match:matches) {
                       found++;
                       if (found%100==0) { // take a break for every 100 hits
@@ -283,7 +349,22 @@ public class Operation_search extends Operation {
                       addRegionIfSatisfied(sourceSequence, targetSequence, motifname, start, end, expression, Sequence.DIRECT, sequencematch, score, task, within, condition);
                   }
               }
-              if (searchReverse && mismatchesAllowed==0) {
+              if (searchReverse && mismatchesAllowed==0 && literalReverseMatches!=null && literalIndex!=null) { // use precomputed matches for literal patterns on the reverse strand
+                  int length=expression.length();
+                  for (int matchstart:literalReverseMatches[literalIndex]) {
+                      found++;
+                      if (found%100==0) { // take a break for every 100 hits
+                            task.checkExecutionLock(); // checks to see if this task should suspend execution
+                            if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();
+                            Thread.yield();                          
+                      }
+                      String sequencematch=reversednasequence.substring(matchstart, matchstart+length);
+                      int start=(reversednasequence.length()-1)-(matchstart+length-1); // convert coordinates from reverse to direct strand
+                      int end=(reversednasequence.length()-1)-matchstart; // convert coordinates from reverse to direct strand
+                      addRegionIfSatisfied(sourceSequence, targetSequence, motifname, start, end, expression, Sequence.REVERSE, sequencematch, length, task, within, condition);
+                  }
+              }
+              else if (searchReverse && mismatchesAllowed==0) {
                   int startoffset=0;
                   Matcher matcher=pattern.matcher(reversednasequence);
                   while (matcher.find(startoffset)) {
@@ -303,7 +384,7 @@ public class Operation_search extends Operation {
                   }
               }
               else if (searchReverse && mismatchesAllowed>0) { // use mismatch-algorithm to search direct strand
-                  ArrayList<int[]>matches=mismatchSearch(reversednasequence,expression,mismatchesAllowed,task);
+                  ArrayList<int[]>matches=(bitParallelMatches!=null)?bitParallelMatches[1]:mismatchSearch(reversednasequence,expression,mismatchesAllowed,task);
                   for (int[] match:matches) {
                       found++;
                       if (found%100==0) { // take a break for every 100 hits
@@ -471,6 +552,39 @@ public class Operation_search extends Operation {
        return list;
    } 
    
+   /** Searches for matches to an expression in a sequence (and optionally its reverse complement) allowing for a number of mismatches.
+    *  This gives the same results as mismatchSearch() but uses a bit-parallel matcher which processes both strands in a single pass.
+    *  The expression can be at most IUPACPatternMatcher.MAX_PATTERN_LENGTH long.
+    *  @return two lists of matched regions (start,end,#matching letters) for the direct and reverse strand respectively.
+    *          The coordinates of the reverse strand matches are relative to the reverse complement of the sequence 
+    *          and the matches are sorted in the same order as mismatchSearch() would return them
+    */
+   @SuppressWarnings("unchecked")
+   private ArrayList<int[]>[] bitParallelMismatchSearch(String sequence, String expression, int maxmismatch, boolean searchDirect, boolean searchReverse, final ExecutableTask task) throws Exception {
+       final ArrayList<int[]>[] lists=new ArrayList[]{new ArrayList<int[]>(),new ArrayList<int[]>()};
+       final int lastpos=sequence.length()-1;
+       final int length=expression.length();
+       int[] masks=new int[length];
+       for (int j=0;j<length;j++) masks[j]=IUPACPatternMatcher.getIUPACMask(expression.charAt(j));
+       IUPACPatternMatcher matcher=new IUPACPatternMatcher(masks);
+       task.checkExecutionLock(); // checks to see if this task should suspend execution
+       if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();
+       matcher.search(sequence.toCharArray(), maxmismatch, searchDirect, searchReverse, new IUPACPatternMatcher.MatchHandler() {
+            @Override
+            public void matchFound(int start, int end, int mismatches, boolean reverse) throws Exception {
+                if (reverse) lists[1].add(new int[]{lastpos-end,lastpos-start,length-mismatches});
+                else lists[0].add(new int[]{start,end,length-mismatches});
+                if ((lists[0].size()+lists[1].size())%500==0) { // take a break for every 500 matches
+                    task.checkExecutionLock(); // checks to see if this task should suspend execution
+                    if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();
+                    Thread.yield();
+                }
+            }
+       });
+       java.util.Collections.reverse(lists[1]); // the reverse strand matches were found in order of decreasing position on the reverse strand
+       return lists;
+   }
+   
    private boolean charMatches(char target, char expr) {
             if (target=='A' && (expr=='A' || expr=='R' || expr=='W' || expr=='M' ||expr=='D' || expr=='H' ||expr=='V' ||expr=='N' ||expr=='X')) return true;
        else if (target=='C' && (expr=='C' || expr=='Y' || expr=='S' || expr=='M' ||expr=='B' || expr=='H' ||expr=='V' ||expr=='N' ||expr=='X')) return true;
@@ -493,45 +607,60 @@ public class Operation_search extends Operation {
        ArrayList<RepeatMatch>list=new ArrayList<RepeatMatch>(); // each entry is a pair of [start,end] coordinates
        int workingsize=sequence.length()-minlength*2;
        int sequencelength=sequence.length();
-       char[] expressionChars=new char[maxlength];
+       if (workingsize<0) return list;
+       // The halfsites are compared with longest common extension queries against a suffix index of the sequence (and its reverse complement).
+       // The positions of the mismatches only depend on how the two halfsites are aligned (the distance between them for direct repeats
+       // or the position of the gap for inverted repeats) and not on the halfsite size, so they are found once for each alignment and
+       // then reused for all the halfsite sizes that share that alignment
+       SequenceSuffixIndex index=new SequenceSuffixIndex(sequence, inverted);
+       int[] nextInvalid=new int[sequencelength+1]; // the position of the next non-ACGT letter at or after each position
+       nextInvalid[sequencelength]=sequencelength;
+       for (int i=sequencelength-1;i>=0;i--) {
+           char c=Character.toUpperCase(sequence.charAt(i));
+           nextInvalid[i]=(c=='A' || c=='C' || c=='G' || c=='T')?nextInvalid[i+1]:i;
+       }
+       int gaps=maxgap-mingap+1;
+       int alignments=(inverted)?(maxlength+1)*gaps:(maxlength-minlength+gaps); // for inverted repeats the alignments are kept in a ring buffer indexed by the start of the gap
+       int[][] mismatches=new int[alignments][maxmismatch+1]; // the offsets of the first mismatches for each alignment
+       int[] mismatchCount=new int[alignments];
+       int[] computedFor=new int[alignments]; // the position each alignment was last computed for
+       Arrays.fill(computedFor, -1);
        for (int i=0;i<=workingsize;i++) {
             if (i%500==0) { // take a break for every 500 positions
                 task.checkExecutionLock(); // checks to see if this task should suspend execution
                 if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();
                 Thread.yield();
             }
-            searchpos:
             for (int halfsitesize=minlength;halfsitesize<=maxlength;halfsitesize++) {
                 if (i+halfsitesize+halfsitesize>=sequencelength) break; // exceeding sequence limit
-                // setup complement halfsite
-                if (inverted) { // inverted repeat
-                    for (int j=0;j<halfsitesize;j++) {
-                        char c=Character.toUpperCase(sequence.charAt(i+j));
-                             if (c=='A') expressionChars[(halfsitesize-1)-j]='T';
-                        else if (c=='C') expressionChars[(halfsitesize-1)-j]='G';
-                        else if (c=='G') expressionChars[(halfsitesize-1)-j]='C';
-                        else if (c=='T') expressionChars[(halfsitesize-1)-j]='A';
-                        else break searchpos; // skip positions where non-ACGT letters occur in the halfsite
-                    }
-                } else {  // direct repeat
-                    for (int j=0;j<halfsitesize;j++) {
-                        char c=Character.toUpperCase(sequence.charAt(i+j));
-                        if (c!='A' && c!='C' && c!='G' && c!='T') break searchpos; // skip positions where non-ACGT letters occur in the halfsite
-                        else expressionChars[j]=c;
-                    }
-                }
+                if (nextInvalid[i]<i+halfsitesize) break; // skip positions where non-ACGT letters occur in the halfsite
                 for (int gap=mingap;gap<=maxgap;gap++) {
-                    int miss=0;
                     if (i+halfsitesize+halfsitesize+gap>=sequencelength) break; // exceeding sequence limit:
-                    for (int j=0;j<halfsitesize;j++) {
-                        char c=Character.toUpperCase(sequence.charAt(i+halfsitesize+gap+j));
-                        if (c!=expressionChars[j]) miss++;
-                        if (miss>maxmismatch) break; // break this gap
+                    int alignment, position;
+                    if (inverted) { // compare the second halfsite to the reverse complement of the first, starting from the gap and moving outwards
+                        position=i+halfsitesize; // the start of the gap
+                        alignment=(position%(maxlength+1))*gaps+(gap-mingap);
+                        if (computedFor[alignment]!=position) {
+                            int limit=Math.min(maxlength, Math.min(sequencelength-position-gap, position));
+                            mismatchCount[alignment]=index.findMismatches(position+gap, sequencelength-position, limit, mismatches[alignment], true);
+                            computedFor[alignment]=position;
+                        }
+                    } else {
+                        position=i;
+                        int distance=halfsitesize+gap;
+                        alignment=distance-(minlength+mingap);
+                        if (computedFor[alignment]!=position) {
+                            int limit=Math.min(maxlength, sequencelength-i-distance);
+                            mismatchCount[alignment]=index.findMismatches(i, i+distance, limit, mismatches[alignment], false);
+                            computedFor[alignment]=position;
+                        }
                     }
+                    int miss=0;
+                    int[] offsets=mismatches[alignment];
+                    while (miss<mismatchCount[alignment] && offsets[miss]<halfsitesize) miss++;
                     if (miss<=maxmismatch) list.add(new RepeatMatch(i,i+halfsitesize+halfsitesize+gap-1,halfsitesize,gap,halfsitesize-miss));
                 }
             }
-             //System.err.println("["+expression+"] => "+sequence.substring(i,i+expressionChars.length)+"  misses="+miss);
        }
        return list;
    }
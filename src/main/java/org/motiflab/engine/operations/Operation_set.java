@@ -51,6 +51,11 @@ public class Operation_set extends ArithmeticOperation {
         return argument;
     }
 
+    @Override
+    protected int getKernelOperator() {
+        return NumericKernels.SET;
+    }
+
     @Override
     public Object calculateNewPropertyValue(Object oldvalue, Object argument) throws ExecutionError {
         // if ((argument instanceof String || argument instanceof ArrayList) && oldvalue instanceof Number) throw new ExecutionError("Text values can not be used in this context");
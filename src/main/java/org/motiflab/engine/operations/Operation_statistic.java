@@ -431,10 +431,10 @@ public class Operation_statistic extends Operation {
         Condition_position condition=(Condition_position)task.getParameter("where");
         Condition_within within=(Condition_within)task.getParameter("within");  
         if (within!=null) {
-            if (!within.isConditionSatisfied(sequencename, pos, task)) return false;
+            if (!within.getMask(sequencename, task).get(pos)) return false;
         }
         if (condition==null) return true; // no where-condition is set, so the transform should be applied everywhere
-        else return condition.isConditionSatisfied(sequencename, pos, task);
+        else return condition.getMask(sequencename, task).get(pos);
     }
     
    
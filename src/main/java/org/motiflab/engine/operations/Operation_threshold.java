@@ -337,11 +337,10 @@ public class Operation_threshold extends FeatureTransformOperation {
             }
             
             TaskRunner taskRunner=engine.getTaskRunner();
-            task.setProgress(0L,sequences.size());
-            long[] counters=new long[]{0,0,sequences.size()}; // counters[0]=sequences started, [1]=sequences completed, [2]=total number of sequences
+            long[] counters=new long[]{0,0,sequences.size()}; // counters[0]=sequences (or tiles) started, [1]=sequences completed, [2]=total number of sequences
 
-            ArrayList<ProcessSequenceTask> processTasks=new ArrayList<ProcessSequenceTask>(sequences.size());
-            for (Sequence sequence:sequences) processTasks.add(new ProcessSequenceTask(sourceDataset,targetDataset, sequence.getName(), task, counters));
+            ArrayList<ProcessSequenceTask> processTasks=createProcessTasks(sequences, sourceDataset, targetDataset, task, counters);
+            task.setProgress(0L,processTasks.size());
             List<Future<FeatureSequenceData>> futures=null;
             int countOK=0;            
             try {
@@ -357,7 +356,7 @@ public class Operation_threshold extends FeatureTransformOperation {
                if (e instanceof java.util.concurrent.ExecutionException) throw (Exception)e.getCause(); 
                else throw e; 
             }       
-            if (countOK!=sequences.size()) {
+            if (countOK!=processTasks.size()) {
                 throw new ExecutionError("Some mysterious error occurred while performing operation: "+getName());
             }              
             
@@ -379,19 +378,29 @@ public class Operation_threshold extends FeatureTransformOperation {
     }
    
     
+    @Override
+    protected boolean canTransformSubranges(OperationTask task) {
+        return (task.getParameter(OperationTask.TARGET) instanceof NumericDataset); // numeric positions are thresholded independently
+    }
+
     @Override
     public void transformSequence(FeatureSequenceData sourceSequence, FeatureSequenceData targetSequence, OperationTask task) throws Exception {
+        transformSequence(sourceSequence, targetSequence, sourceSequence.getRegionStart(), sourceSequence.getRegionEnd(), task);
+    }
+
+    @Override
+    public void transformSequence(FeatureSequenceData sourceSequence, FeatureSequenceData targetSequence, int rangeStart, int rangeEnd, OperationTask task) throws Exception {
         String seqname=sourceSequence.getName();
         double aboveOrEqualValue=getAboveValue(seqname, task);
         double belowValue=getBelowValue(seqname, task);
         double cutoff=getCutoffValue(seqname, task);
         if (targetSequence instanceof NumericSequenceData) {
-            for (int i=sourceSequence.getRegionStart();i<=sourceSequence.getRegionEnd();i++) {
-                if (positionSatisfiesCondition(seqname,i,task)) {
-                    double oldValue=((NumericSequenceData)targetSequence).getValueAtGenomicPosition(i);
-                    ((NumericSequenceData)targetSequence).setValueAtGenomicPosition(i, (oldValue>=cutoff)?aboveOrEqualValue:belowValue);
-               } // satisfies 'where'-condition
-            }
+            double[] values=(double[])((NumericSequenceData)targetSequence).getValueInGenomicInterval(rangeStart, rangeEnd);
+            if (values==null) return;
+            rangeStart=Math.max(rangeStart, targetSequence.getRegionStart());
+            long[] selection=NumericKernels.getSelection(getPositionMask(seqname, task), rangeStart, rangeStart+values.length-1);
+            getNumericKernels().threshold(values, cutoff, aboveOrEqualValue, belowValue, values, selection);
+            ((NumericSequenceData)targetSequence).setValuesInGenomicInterval(rangeStart, values);
         } else if (targetSequence instanceof RegionSequenceData) {
             ArrayList<Region> regions=((RegionSequenceData)targetSequence).getAllRegions();
             for (Region region:regions) {
@@ -523,6 +523,16 @@ public class Operation_transform extends FeatureTransformOperation {
         } else {
            throw new ExecutionError(argumentData.getName()+" is of a type not applicable in this context",task.getLineNumber());
         }
+        int kernelTransform=getKernelTransform(transformindex);
+        if (kernelTransform>=0) { // transform all the values at once
+            double[] values=(double[])sourceSequence.getValueInGenomicInterval(sequenceStart, sequenceEnd);
+            double[] newValues=(double[])targetSequence.getValueInGenomicInterval(sequenceStart, sequenceEnd);
+            long[] selection=NumericKernels.getSelection(getPositionMask(seqname, task), sequenceStart, sequenceEnd);
+            skipped=getNumericKernels().transform(kernelTransform, values, argumentValue, newValues, selection);
+            targetSequence.setValuesInGenomicInterval(sequenceStart, newValues);
+            if (skipped>0) engine.logMessage("WARNING: "+seqname+" contains 'illegal' values ("+NumericKernels.getSkipReason(kernelTransform)+"). "+skipped+((skipped==1)?" position was skipped":" positions were skipped"));
+            return;
+        }
         for (int i=sequenceStart;i<=sequenceEnd;i++) {
             if (positionSatisfiesCondition(seqname,i,task)) {
                double oldvalue=sourceSequence.getValueAtGenomicPosition(i);
@@ -600,6 +610,19 @@ public class Operation_transform extends FeatureTransformOperation {
     }
 
 
+    /** Returns the transform in NumericKernels which corresponds to the given transform, or -1 if the transform has no kernel */
+    private int getKernelTransform(int transform) {
+        switch (transform) {
+            case LOG_TRANSFORM: return NumericKernels.LOG;
+            case LOGX_TRANSFORM: return NumericKernels.LOG_BASE;
+            case SQUARE_ROOT_TRANSFORM: return NumericKernels.SQUARE_ROOT;
+            case ABSOLUTE_TRANSFORM: return NumericKernels.ABSOLUTE;
+            case RECIPROCAL_TRANSFORM: return NumericKernels.RECIPROCAL;
+            case SIGMOID_TRANSFORM: return NumericKernels.SIGMOID;
+            default: return -1;
+        }
+    }
+
     private double transformValue(double value, double argument, int transform) throws ExecutionError {
         switch (transform) {
             case LOG_TRANSFORM:  if (value>0) return Math.log(value); else throw new ExecutionError("<=0");
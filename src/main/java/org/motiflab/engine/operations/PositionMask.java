@@ -0,0 +1,66 @@
+package org.motiflab.engine.operations;
+
+import java.util.BitSet;
+
+/**
+ * A PositionMask records the result of evaluating a position condition (such as a where-clause or a within-clause)
+ * at every position in a sequence. The mask has one bit for each position, relative to the start of the sequence.
+ *
+ * @author kjetikl
+ */
+public final class PositionMask {
+    private final int start;
+    private final int length;
+    private final BitSet bits;
+
+    /**
+     * @param start The genomic start position of the sequence
+     * @param length The length of the sequence
+     * @param bits The positions (relative to the start) where the condition holds
+     */
+    public PositionMask(int start, int length, BitSet bits) {
+        this.start=start;
+        this.length=length;
+        this.bits=bits;
+    }
+
+    /** Returns the genomic position corresponding to the first bit in the mask */
+    public int getStart() {
+        return start;
+    }
+
+    /** Returns the number of positions covered by the mask */
+    public int size() {
+        return length;
+    }
+
+    /** Returns TRUE if the mask is set at the given genomic position (positions outside the sequence are never set) */
+    public boolean get(int position) {
+        int relative=position-start;
+        return (relative>=0 && relative<length && bits.get(relative));
+    }
+
+    /**
+     * Returns the first genomic position at or after the given position where the mask is set,
+     * or Integer.MAX_VALUE if the mask is not set at any later positions
+     */
+    public int nextSetPosition(int position) {
+        int relative=bits.nextSetBit(Math.max(position-start, 0));
+        return (relative>=0 && relative<length)?start+relative:Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the positions where the mask is set (relative to the start of the sequence).
+     * The returned BitSet is shared and should not be modified
+     */
+    public BitSet getBits() {
+        return bits;
+    }
+
+    /** Returns a new mask which is only set at positions where both this mask and the other mask are set */
+    public PositionMask and(PositionMask other) {
+        BitSet combined=(BitSet)bits.clone();
+        combined.and(other.bits);
+        return new PositionMask(start, length, combined);
+    }
+}
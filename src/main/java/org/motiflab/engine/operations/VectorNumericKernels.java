@@ -0,0 +1,180 @@
+package org.motiflab.engine.operations;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Numeric kernels that use the Java Vector API to process several values at a time.
+ * The values are processed in blocks with as many values as fit in the preferred vector size of the platform,
+ * and the remaining values at the end of the arrays are processed by the scalar kernels in the superclass.
+ * Selections are converted to vector masks, and positions that are not selected keep their old values in the target.
+ * <br>
+ * This class should not be used directly (use NumericKernels.getKernels(true)), since it can only be loaded
+ * if the jdk.incubator.vector module is available.
+ *
+ * @author kjetikl
+ */
+final class VectorNumericKernels extends NumericKernels {
+    private static final VectorSpecies<Double> SPECIES=DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES=SPECIES.length(); // at most 8 lanes, so a block never spans two words in the selection
+    private static final long LANE_BITS=(LANES==64)?-1L:(1L<<LANES)-1;
+
+    VectorNumericKernels() {}
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    /** Returns the bits in the selection for the block that starts at the given index (all bits are set if the selection is NULL) */
+    private static long getBlockBits(long[] selection, int index) {
+        if (selection==null) return LANE_BITS;
+        int word=index>>>6;
+        return (word<selection.length)?(selection[word]>>>(index&63))&LANE_BITS:0;
+    }
+
+    /** Stores the results in the target, but only in the lanes that are set in the mask (or in all lanes if the mask is NULL) */
+    private static void store(DoubleVector result, double[] target, int index, VectorMask<Double> mask) {
+        if (mask==null || mask.allTrue()) result.intoArray(target, index);
+        else if (mask.anyTrue()) DoubleVector.fromArray(SPECIES, target, index).blend(result, mask).intoArray(target, index);
+    }
+
+    @Override
+    public int arithmetic(int operator, double[] values, double[] operands, double operand, double[] target, long[] selection) {
+        if (operator<SET || operator>DIVIDE) throw new IllegalArgumentException("Unsupported operator: "+operator);
+        int bound=SPECIES.loopBound(values.length);
+        int skipped=0;
+        DoubleVector constant=DoubleVector.broadcast(SPECIES, operand);
+        for (int i=0;i<bound;i+=LANES) {
+            long bits=getBlockBits(selection, i);
+            if (bits==0) continue;
+            VectorMask<Double> mask=(bits==LANE_BITS)?null:VectorMask.fromLong(SPECIES, bits);
+            DoubleVector argument=(operands!=null)?DoubleVector.fromArray(SPECIES, operands, i):constant;
+            DoubleVector result;
+            switch (operator) {
+                case SET: result=argument; break;
+                case ADD: result=DoubleVector.fromArray(SPECIES, values, i).add(argument); break;
+                case SUBTRACT: result=DoubleVector.fromArray(SPECIES, values, i).sub(argument); break;
+                case MULTIPLY: result=DoubleVector.fromArray(SPECIES, values, i).mul(argument); break;
+                default: // DIVIDE
+                    VectorMask<Double> zero=argument.compare(VectorOperators.EQ, 0.0);
+                    if (zero.anyTrue()) { // positions with division by zero are skipped
+                        VectorMask<Double> skip=(mask==null)?zero:zero.and(mask);
+                        skipped+=skip.trueCount();
+                        mask=(mask==null)?zero.not():mask.andNot(zero);
+                    }
+                    result=DoubleVector.fromArray(SPECIES, values, i).div(argument);
+            }
+            store(result, target, i, mask);
+        }
+        return skipped+super.arithmetic(operator, values, operands, operand, target, selection, bound, values.length);
+    }
+
+    @Override
+    public void combine(int operator, double[][] sources, double[] target, long[] selection) {
+        double initial;
+        switch (operator) {
+            case ADD: case AVERAGE: initial=0; break;
+            case MULTIPLY: initial=1; break;
+            case MIN: initial=Double.MAX_VALUE; break;
+            case MAX: initial=-Double.MAX_VALUE; break;
+            default: throw new IllegalArgumentException("Unsupported operator: "+operator);
+        }
+        int bound=SPECIES.loopBound(target.length);
+        for (int i=0;i<bound;i+=LANES) {
+            long bits=getBlockBits(selection, i);
+            if (bits==0) continue;
+            DoubleVector result=DoubleVector.broadcast(SPECIES, initial);
+            for (double[] source:sources) { // the sources are combined in the same order as in the scalar kernel
+                DoubleVector value=DoubleVector.fromArray(SPECIES, source, i);
+                switch (operator) {
+                    case ADD: case AVERAGE: result=result.add(value); break;
+                    case MULTIPLY: result=result.mul(value); break;
+                    case MIN: result=result.blend(value, value.compare(VectorOperators.LT, result)); break; // NaN values are not less than anything and will be ignored
+                    default: result=result.blend(value, value.compare(VectorOperators.GT, result)); break; // MAX
+                }
+            }
+            if (operator==AVERAGE) result=result.div((double)sources.length);
+            store(result, target, i, (bits==LANE_BITS)?null:VectorMask.fromLong(SPECIES, bits));
+        }
+        super.combine(operator, sources, target, selection, bound, target.length);
+    }
+
+    @Override
+    public int transform(int transform, double[] values, double argument, double[] target, long[] selection) {
+        if (transform<LOG || transform>SIGMOID) throw new IllegalArgumentException("Unsupported transform: "+transform);
+        int bound=SPECIES.loopBound(values.length);
+        int skipped=0;
+        double logbase=Math.log(argument);
+        for (int i=0;i<bound;i+=LANES) {
+            long bits=getBlockBits(selection, i);
+            if (bits==0) continue;
+            VectorMask<Double> mask=(bits==LANE_BITS)?null:VectorMask.fromLong(SPECIES, bits);
+            DoubleVector value=DoubleVector.fromArray(SPECIES, values, i);
+            VectorMask<Double> defined=null; // the positions where the function is defined (NULL if it is defined everywhere)
+            DoubleVector result;
+            switch (transform) {
+                case LOG:
+                    defined=value.compare(VectorOperators.GT, 0.0);
+                    result=value.lanewise(VectorOperators.LOG);
+                    break;
+                case LOG_BASE:
+                    defined=value.compare(VectorOperators.GT, 0.0);
+                    result=value.lanewise(VectorOperators.LOG).div(logbase);
+                    break;
+                case SQUARE_ROOT:
+                    defined=value.compare(VectorOperators.GE, 0.0);
+                    result=value.lanewise(VectorOperators.SQRT);
+                    break;
+                case ABSOLUTE:
+                    result=value.lanewise(VectorOperators.ABS);
+                    break;
+                case RECIPROCAL:
+                    defined=value.compare(VectorOperators.NE, 0.0);
+                    result=DoubleVector.broadcast(SPECIES, 1.0).div(value);
+                    break;
+                default: // SIGMOID
+                    result=DoubleVector.broadcast(SPECIES, 1.0).div(value.neg().lanewise(VectorOperators.EXP).add(1.0));
+            }
+            if (defined!=null && !defined.allTrue()) {
+                VectorMask<Double> undefined=defined.not();
+                skipped+=((mask==null)?undefined:undefined.and(mask)).trueCount();
+                mask=(mask==null)?defined:mask.and(defined);
+            }
+            store(result, target, i, mask);
+        }
+        return skipped+super.transform(transform, values, argument, target, selection, bound, values.length);
+    }
+
+    @Override
+    public void threshold(double[] values, double cutoff, double aboveOrEqualValue, double belowValue, double[] target, long[] selection) {
+        int bound=SPECIES.loopBound(values.length);
+        DoubleVector above=DoubleVector.broadcast(SPECIES, aboveOrEqualValue);
+        DoubleVector below=DoubleVector.broadcast(SPECIES, belowValue);
+        for (int i=0;i<bound;i+=LANES) {
+            long bits=getBlockBits(selection, i);
+            if (bits==0) continue;
+            DoubleVector result=below.blend(above, DoubleVector.fromArray(SPECIES, values, i).compare(VectorOperators.GE, cutoff));
+            store(result, target, i, (bits==LANE_BITS)?null:VectorMask.fromLong(SPECIES, bits));
+        }
+        super.threshold(values, cutoff, aboveOrEqualValue, belowValue, target, selection, bound, values.length);
+    }
+
+    @Override
+    public void rescale(double[] values, double oldMin, double oldMax, double newMin, double newMax, double[] target, long[] selection) {
+        double oldrange=oldMax-oldMin;
+        double newrange=newMax-newMin;
+        int bound=SPECIES.loopBound(values.length);
+        for (int i=0;i<bound;i+=LANES) {
+            long bits=getBlockBits(selection, i);
+            if (bits==0) continue;
+            DoubleVector result;
+            if (oldrange==0) result=DoubleVector.broadcast(SPECIES, newMin);
+            else result=DoubleVector.fromArray(SPECIES, values, i).sub(oldMin).div(oldrange).mul(newrange).add(newMin);
+            store(result, target, i, (bits==LANE_BITS)?null:VectorMask.fromLong(SPECIES, bits));
+        }
+        super.rescale(values, oldMin, oldMax, newMin, newMax, target, selection, bound, values.length);
+    }
+}
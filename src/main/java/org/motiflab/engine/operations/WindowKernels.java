@@ -0,0 +1,252 @@
+package org.motiflab.engine.operations;
+
+/**
+ * This class contains sliding window kernels for operations that derive a value for every position
+ * in a sequence from a window of values around that position (such as the "apply" and "physical" operations).
+ * Rather than recomputing every window from scratch, which takes O(n*w) time for a sequence of length n
+ * and a window of size w, the kernels reuse the work done for overlapping windows:
+ * <ul>
+ * <li>Window sums (and averages and counts) are found from prefix sums in O(1) time per window</li>
+ * <li>Window minimums and maximums are found with monotonic deques in O(1) amortised time per window</li>
+ * <li>Weighted windows (such as Gaussian and Bartlett) are applied as correlations, which are computed with FFTs for large windows</li>
+ * </ul>
+ * All positions and windows are given as indices into the array of values. Windows are inclusive at both ends
+ * and can extend outside the array (they are then clipped or zero-padded as described for each kernel).
+ *
+ * @author kjetikl
+ */
+public final class WindowKernels {
+
+    /** Weighted windows with at least this many weights are applied with FFTs rather than direct summation */
+    private static final int FFT_THRESHOLD=256;
+
+    private WindowKernels() {}
+
+    /**
+     * Sums of values within windows, based on prefix sums.
+     * The prefix sums are accumulated with compensated (Kahan) summation to avoid drift along long sequences.
+     * NaN and infinite values are counted separately, so that windows containing such values get the same
+     * sum as they would with direct summation while the other windows are unaffected
+     */
+    public static final class WindowSums {
+        private final double[] prefix;
+        private int[] nanCounts=null; // prefix counts of non-finite values. These are only used if there are such values
+        private int[] positiveInfinityCounts=null;
+        private int[] negativeInfinityCounts=null;
+
+        public WindowSums(double[] values) {
+            int length=values.length;
+            prefix=new double[length+1];
+            for (int i=0;i<length;i++) {
+                double value=values[i];
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    countNonFiniteValues(values);
+                    break;
+                }
+            }
+            double sum=0, compensation=0;
+            for (int i=0;i<length;i++) {
+                double value=values[i];
+                if (Double.isNaN(value) || Double.isInfinite(value)) value=0;
+                double adjusted=value-compensation;
+                double newsum=sum+adjusted;
+                compensation=(newsum-sum)-adjusted;
+                sum=newsum;
+                prefix[i+1]=sum;
+            }
+        }
+
+        private void countNonFiniteValues(double[] values) {
+            int length=values.length;
+            nanCounts=new int[length+1];
+            positiveInfinityCounts=new int[length+1];
+            negativeInfinityCounts=new int[length+1];
+            for (int i=0;i<length;i++) {
+                double value=values[i];
+                nanCounts[i+1]=nanCounts[i]+((Double.isNaN(value))?1:0);
+                positiveInfinityCounts[i+1]=positiveInfinityCounts[i]+((value==Double.POSITIVE_INFINITY)?1:0);
+                negativeInfinityCounts[i+1]=negativeInfinityCounts[i]+((value==Double.NEGATIVE_INFINITY)?1:0);
+            }
+        }
+
+        /** Returns the number of values within the window after it has been clipped to the array */
+        public int getCount(int start, int end) {
+            if (start<0) start=0;
+            if (end>prefix.length-2) end=prefix.length-2;
+            return (end>=start)?end-start+1:0;
+        }
+
+        /** Returns the sum of the values within the window (clipped to the array), or 0 if the window lies outside the array */
+        public double getSum(int start, int end) {
+            if (start<0) start=0;
+            if (end>prefix.length-2) end=prefix.length-2;
+            if (end<start) return 0;
+            if (nanCounts!=null) {
+                if (nanCounts[end+1]-nanCounts[start]>0) return Double.NaN;
+                boolean positive=(positiveInfinityCounts[end+1]-positiveInfinityCounts[start]>0);
+                boolean negative=(negativeInfinityCounts[end+1]-negativeInfinityCounts[start]>0);
+                if (positive && negative) return Double.NaN;
+                if (positive) return Double.POSITIVE_INFINITY;
+                if (negative) return Double.NEGATIVE_INFINITY;
+            }
+            return prefix[end+1]-prefix[start];
+        }
+
+        /** Returns the average of the values within the window (clipped to the array), or 0 if the window lies outside the array */
+        public double getAverage(int start, int end) {
+            int count=getCount(start, end);
+            return (count>0)?getSum(start, end)/count:0;
+        }
+    }
+
+    /**
+     * Finds the smallest or largest value within a sliding window using a monotonic deque.
+     * The windows must be visited in order, so that neither the start nor the end of the window
+     * decreases between successive calls. NaN values are ignored.
+     * If several positions hold the extreme value, the first of these is used
+     */
+    public static final class SlidingExtremum {
+        private final double[] values;
+        private final boolean maximum;
+        private final int[] deque; // positions within the current window with strictly increasing (or decreasing) values
+        private int head=0, tail=0;
+        private int next=0; // the next position to be added to the deque
+
+        /**
+         * @param values
+         * @param maximum TRUE to find the largest value in each window, FALSE to find the smallest
+         */
+        public SlidingExtremum(double[] values, boolean maximum) {
+            this.values=values;
+            this.maximum=maximum;
+            this.deque=new int[values.length];
+        }
+
+        /** Returns the smallest (or largest) value within the window (clipped to the array), or NaN if the window contains no values */
+        public double get(int start, int end) {
+            if (start<0) start=0;
+            if (end>values.length-1) end=values.length-1;
+            if (end<start) return Double.NaN;
+            if (next<start) next=start;
+            while (next<=end) {
+                double value=values[next];
+                if (!Double.isNaN(value)) {
+                    if (maximum) {while (tail>head && values[deque[tail-1]]<value) tail--;}
+                    else {while (tail>head && values[deque[tail-1]]>value) tail--;}
+                    deque[tail++]=next;
+                }
+                next++;
+            }
+            while (head<tail && deque[head]<start) head++;
+            return (head<tail)?values[deque[head]]:Double.NaN;
+        }
+    }
+
+    /**
+     * Applies a window of weights to the values at a range of positions. For each position p in the range from 'first' to 'last',
+     * the result is the sum of weights[k]*values[p+offset+k] for all k, where values outside the array are considered to be 0.
+     * Large windows are applied with FFTs (unless the values in the range include NaN or infinite values).
+     * @return an array with the result for each position in the range (result[0] corresponds to the first position)
+     */
+    public static double[] correlate(double[] values, double[] weights, int offset, int first, int last) {
+        double[] result=new double[Math.max(0, last-first+1)];
+        if (result.length==0 || weights.length==0) return result;
+        if (weights.length>=FFT_THRESHOLD && isFinite(values, first+offset, last+offset+weights.length-1)) correlateWithFFT(values, weights, offset, first, result);
+        else {
+            int length=values.length;
+            for (int p=first;p<=last;p++) {
+                int start=p+offset;
+                int from=Math.max(0, -start); // values outside the array are 0 and do not contribute
+                int to=Math.min(weights.length-1, length-1-start);
+                double sum=0;
+                for (int k=from;k<=to;k++) sum+=values[start+k]*weights[k];
+                result[p-first]=sum;
+            }
+        }
+        return result;
+    }
+
+    private static boolean isFinite(double[] values, int start, int end) {
+        if (start<0) start=0;
+        if (end>values.length-1) end=values.length-1;
+        for (int i=start;i<=end;i++) {
+            if (Double.isNaN(values[i]) || Double.isInfinite(values[i])) return false;
+        }
+        return true;
+    }
+
+    /** Computes the correlation in blocks with the overlap-save method */
+    private static void correlateWithFFT(double[] values, double[] weights, int offset, int first, double[] result) {
+        int windowsize=weights.length;
+        int size=Integer.highestOneBit(Math.max(windowsize*4, 1024)-1)<<1; // a power of 2
+        int step=size-windowsize+1; // the number of results from each block
+        double[] cos=new double[size/2];
+        double[] sin=new double[size/2];
+        for (int i=0;i<size/2;i++) {
+            cos[i]=Math.cos(2*Math.PI*i/size);
+            sin[i]=Math.sin(2*Math.PI*i/size);
+        }
+        double[] kernelRe=new double[size];
+        double[] kernelIm=new double[size];
+        for (int k=0;k<windowsize;k++) kernelRe[k]=weights[windowsize-1-k]; // correlation is convolution with the reversed window
+        fft(kernelRe, kernelIm, cos, sin, false);
+        double[] re=new double[size];
+        double[] im=new double[size];
+        int length=Math.min(values.length, first+offset+result.length+windowsize-1); // values beyond the last window are not used
+        for (int block=0;block<result.length;block+=step) {
+            int segmentStart=first+offset+block;
+            for (int t=0;t<size;t++) {
+                int j=segmentStart+t;
+                re[t]=(j>=0 && j<length)?values[j]:0;
+                im[t]=0;
+            }
+            fft(re, im, cos, sin, false);
+            for (int t=0;t<size;t++) {
+                double productRe=re[t]*kernelRe[t]-im[t]*kernelIm[t];
+                double productIm=re[t]*kernelIm[t]+im[t]*kernelRe[t];
+                re[t]=productRe;
+                im[t]=productIm;
+            }
+            fft(re, im, cos, sin, true);
+            int outputs=Math.min(step, result.length-block);
+            for (int t=0;t<outputs;t++) result[block+t]=re[t+windowsize-1]; // the first windowsize-1 entries are wrapped around
+        }
+    }
+
+    /** In-place iterative radix-2 FFT. The length of the arrays must be a power of 2. The inverse transform is scaled by 1/length */
+    private static void fft(double[] re, double[] im, double[] cos, double[] sin, boolean inverse) {
+        int size=re.length;
+        for (int i=1, j=0;i<size;i++) { // bit-reversal permutation
+            int bit=size>>1;
+            for (;(j&bit)!=0;bit>>=1) j^=bit;
+            j^=bit;
+            if (i<j) {
+                double swap=re[i];re[i]=re[j];re[j]=swap;
+                swap=im[i];im[i]=im[j];im[j]=swap;
+            }
+        }
+        for (int length=2;length<=size;length<<=1) {
+            int half=length>>1;
+            int tablestep=size/length;
+            for (int i=0;i<size;i+=length) {
+                for (int k=0;k<half;k++) {
+                    double wRe=cos[k*tablestep];
+                    double wIm=(inverse)?sin[k*tablestep]:-sin[k*tablestep];
+                    int a=i+k, b=i+k+half;
+                    double tRe=re[b]*wRe-im[b]*wIm;
+                    double tIm=re[b]*wIm+im[b]*wRe;
+                    re[b]=re[a]-tRe;
+                    im[b]=im[a]-tIm;
+                    re[a]+=tRe;
+                    im[a]+=tIm;
+                }
+            }
+        }
+        if (inverse) {
+            for (int i=0;i<size;i++) {
+                re[i]/=size;
+                im[i]/=size;
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.motiflab.engine.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * An implementation of the Aho-Corasick algorithm which can find all occurrences
+ * of a (possibly large) set of literal patterns of varying lengths in a text
+ * with a single linear pass over the text.
+ * Patterns are first added with addPattern() and the automaton is then compiled
+ * into a dense transition table with compile(). After compilation the matcher
+ * is not modified and can be shared between threads.
+ *
+ * @author kjetikl
+ */
+public class AhoCorasickMatcher {
+
+    /** Callback interface used to report matches found by the search */
+    public interface MatchHandler {
+        /**
+         * Called for every occurrence of a pattern in the text
+         * @param pattern The index of the pattern (as returned by addPattern)
+         * @param start The start position of the match in the text
+         * @param end The end position of the match in the text (inclusive)
+         */
+        public void matchFound(int pattern, int start, int end) throws Exception;
+    }
+
+    private final boolean caseInsensitive;
+    private final HashMap<String,Integer> patternIndex=new HashMap<String,Integer>();
+    private final ArrayList<String> patterns=new ArrayList<String>();
+    private int[] symbolMap=null;   // maps characters (<128) to symbols in the alphabet. -1 if the character is not part of any pattern
+    private int alphabetSize=0;
+    private int[] transitions=null; // dense table with the next state for [state*alphabetSize+symbol]
+    private int[] statePattern=null; // the index of the pattern that ends in this state, or -1
+    private int[] outputLink=null;  // the nearest state on the failure path which ends a pattern, or -1
+    private int[] patternLength=null;
+    private boolean compiled=false;
+
+    /**
+     * Creates a new matcher
+     * @param caseInsensitive If TRUE, upper- and lower-case letters will be considered equal
+     */
+    public AhoCorasickMatcher(boolean caseInsensitive) {
+        this.caseInsensitive=caseInsensitive;
+    }
+
+    /**
+     * Adds a new pattern to the matcher. Patterns that are added more than once
+     * will only be reported once per occurrence and will be given the same index.
+     * @return the index of the pattern, or -1 if the pattern is empty or can not be matched (contains non-ASCII characters)
+     */
+    public int addPattern(String pattern) {
+        if (compiled) throw new IllegalStateException("Can not add patterns to a compiled matcher");
+        if (pattern==null || pattern.isEmpty()) return -1;
+        for (int i=0;i<pattern.length();i++) {
+            if (pattern.charAt(i)>=128) return -1;
+        }
+        String key=(caseInsensitive)?pattern.toUpperCase():pattern;
+        Integer index=patternIndex.get(key);
+        if (index!=null) return index;
+        index=patterns.size();
+        patterns.add(key);
+        patternIndex.put(key,index);
+        return index;
+    }
+
+    /** Returns the number of distinct patterns added to this matcher */
+    public int getNumberOfPatterns() {
+        return patterns.size();
+    }
+
+    /** Returns the pattern with the given index */
+    public String getPattern(int index) {
+        return patterns.get(index);
+    }
+
+    /** Returns the initial state which should be used when starting a new search */
+    public int getInitialState() {
+        return 0;
+    }
+
+    /** Builds the automaton. This must be called after all patterns have been added and before the matcher is used */
+    public void compile() {
+        // setup the alphabet
+        symbolMap=new int[128];
+        java.util.Arrays.fill(symbolMap, -1);
+        alphabetSize=0;
+        for (String pattern:patterns) {
+            for (int i=0;i<pattern.length();i++) {
+                char c=pattern.charAt(i);
+                if (symbolMap[c]<0) symbolMap[c]=alphabetSize++;
+            }
+        }
+        if (caseInsensitive) {
+            for (char c='A';c<='Z';c++) {
+                if (symbolMap[c]>=0) symbolMap[Character.toLowerCase(c)]=symbolMap[c];
+            }
+        }
+        if (alphabetSize==0) alphabetSize=1;
+        // build the trie
+        int maxstates=1;
+        for (String pattern:patterns) maxstates+=pattern.length();
+        int[] trie=new int[maxstates*alphabetSize];
+        java.util.Arrays.fill(trie, -1);
+        int[] ends=new int[maxstates];
+        java.util.Arrays.fill(ends, -1);
+        patternLength=new int[patterns.size()];
+        int states=1;
+        for (int p=0;p<patterns.size();p++) {
+            String pattern=patterns.get(p);
+            patternLength[p]=pattern.length();
+            int state=0;
+            for (int i=0;i<pattern.length();i++) {
+                int symbol=symbolMap[pattern.charAt(i)];
+                int next=trie[state*alphabetSize+symbol];
+                if (next<0) {
+                    next=states++;
+                    trie[state*alphabetSize+symbol]=next;
+                }
+                state=next;
+            }
+            ends[state]=p;
+        }
+        // compute failure links with a breadth-first traversal and fill in the missing transitions
+        transitions=new int[states*alphabetSize];
+        statePattern=new int[states];
+        outputLink=new int[states];
+        int[] failure=new int[states];
+        int[] queue=new int[states];
+        int head=0, tail=0;
+        System.arraycopy(ends, 0, statePattern, 0, states);
+        outputLink[0]=-1;
+        for (int s=0;s<alphabetSize;s++) {
+            int next=trie[s];
+            if (next<0) transitions[s]=0;
+            else {
+                transitions[s]=next;
+                failure[next]=0;
+                outputLink[next]=-1;
+                queue[tail++]=next;
+            }
+        }
+        while (head<tail) {
+            int state=queue[head++];
+            for (int s=0;s<alphabetSize;s++) {
+                int next=trie[state*alphabetSize+s];
+                if (next<0) transitions[state*alphabetSize+s]=transitions[failure[state]*alphabetSize+s];
+                else {
+                    transitions[state*alphabetSize+s]=next;
+                    int fail=transitions[failure[state]*alphabetSize+s];
+                    failure[next]=fail;
+                    outputLink[next]=(statePattern[fail]>=0)?fail:outputLink[fail];
+                    queue[tail++]=next;
+                }
+            }
+        }
+        compiled=true;
+    }
+
+    /**
+     * Searches the given segment of the text and reports all matches that end within the segment.
+     * Longer texts can be processed in consecutive segments by passing the state returned
+     * from one call on to the next call.
+     * @param text The text to search
+     * @param start The first position in the segment
+     * @param end The last position in the segment (inclusive)
+     * @param state The state to start from (use getInitialState() at the beginning of the text)
+     * @param handler A callback which will be notified of every match
+     * @return The state of the automaton after processing the segment
+     */
+    public int search(char[] text, int start, int end, int state, MatchHandler handler) throws Exception {
+        if (!compiled) throw new IllegalStateException("The matcher must be compiled before use");
+        if (patterns.isEmpty()) return 0;
+        for (int i=start;i<=end;i++) {
+            char c=text[i];
+            int symbol=(c<128)?symbolMap[c]:-1;
+            if (symbol<0) {state=0;continue;} // character is not part of any pattern
+            state=transitions[state*alphabetSize+symbol];
+            int output=(statePattern[state]>=0)?state:outputLink[state];
+            while (output>=0) {
+                int pattern=statePattern[output];
+                handler.matchFound(pattern, i-patternLength[pattern]+1, i);
+                output=outputLink[output];
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Searches the full text and reports all matches
+     */
+    public void search(char[] text, MatchHandler handler) throws Exception {
+        search(text, 0, text.length-1, getInitialState(), handler);
+    }
+
+}
@@ -0,0 +1,156 @@
+package org.motiflab.engine.util;
+
+/**
+ * A bit-parallel matcher for IUPAC consensus patterns based on the Shift-And
+ * algorithm (extended with one state vector per allowed mismatch, as described
+ * by Wu and Manber). Each pattern position is represented as a mask of the bases
+ * it accepts (A=1, C=2, G=4, T=8 and 16 for any other character), so every
+ * position in the sequence is processed with a few word operations regardless
+ * of how degenerate the pattern is. The pattern and its reverse complement are
+ * matched together in a single pass over the sequence.
+ * Patterns can be at most 64 positions long (see isSupported()).
+ * The matcher is not modified after construction and can be shared between threads.
+ *
+ * @author kjetikl
+ */
+public class IUPACPatternMatcher {
+
+    public static final int MASK_A=1;
+    public static final int MASK_C=2;
+    public static final int MASK_G=4;
+    public static final int MASK_T=8;
+    public static final int MASK_OTHER=16; // N or any other non-ACGT character in the sequence
+    public static final int MASK_ACGT=MASK_A|MASK_C|MASK_G|MASK_T;
+    public static final int MASK_ANY=MASK_ACGT|MASK_OTHER;
+
+    public static final int MAX_PATTERN_LENGTH=64;
+
+    /** Callback interface used to report matches found by the search */
+    public interface MatchHandler {
+        /**
+         * Called for every match found in the sequence
+         * @param start The start position of the match in the sequence
+         * @param end The end position of the match in the sequence (inclusive)
+         * @param mismatches The number of mismatching positions
+         * @param reverse TRUE if the reverse complement of the pattern matched the sequence
+         */
+        public void matchFound(int start, int end, int mismatches, boolean reverse) throws Exception;
+    }
+
+    private final int length;
+    private final long[] directMasks=new long[5];  // bit j is set in directMasks[b] if base b is accepted by pattern position j
+    private final long[] reverseMasks=new long[5]; // same for the reverse complement of the pattern
+
+    /**
+     * Creates a new matcher for a pattern where each position is given as a mask of the accepted bases
+     * @param positionMasks The accepted bases for each position (a combination of MASK_A, MASK_C, MASK_G, MASK_T and MASK_OTHER)
+     */
+    public IUPACPatternMatcher(int[] positionMasks) {
+        this.length=positionMasks.length;
+        if (length>MAX_PATTERN_LENGTH) throw new IllegalArgumentException("Pattern is too long for the bit-parallel matcher ("+length+">"+MAX_PATTERN_LENGTH+")");
+        for (int j=0;j<length;j++) {
+            int direct=positionMasks[j];
+            int reverse=getComplementMask(positionMasks[length-(j+1)]);
+            for (int b=0;b<5;b++) {
+                if ((direct & (1<<b))!=0) directMasks[b]|=(1L<<j);
+                if ((reverse & (1<<b))!=0) reverseMasks[b]|=(1L<<j);
+            }
+        }
+    }
+
+    /** Returns TRUE if a pattern of the given length can be handled by this matcher */
+    public static boolean isSupported(int patternLength) {
+        return patternLength>0 && patternLength<=MAX_PATTERN_LENGTH;
+    }
+
+    /**
+     * Returns the mask of the bases that are represented by the given IUPAC code (case-insensitive).
+     * The codes N and X are translated to MASK_ACGT. Unknown characters are returned as 0
+     */
+    public static int getIUPACMask(char code) {
+        switch (Character.toUpperCase(code)) {
+            case 'A': return MASK_A;
+            case 'C': return MASK_C;
+            case 'G': return MASK_G;
+            case 'T': return MASK_T;
+            case 'R': return MASK_A|MASK_G;
+            case 'Y': return MASK_C|MASK_T;
+            case 'S': return MASK_C|MASK_G;
+            case 'W': return MASK_A|MASK_T;
+            case 'K': return MASK_G|MASK_T;
+            case 'M': return MASK_A|MASK_C;
+            case 'B': return MASK_C|MASK_G|MASK_T;
+            case 'D': return MASK_A|MASK_G|MASK_T;
+            case 'H': return MASK_A|MASK_C|MASK_T;
+            case 'V': return MASK_A|MASK_C|MASK_G;
+            case 'N': case 'X': return MASK_ACGT;
+            default: return 0;
+        }
+    }
+
+    /** Returns the mask for the complementary bases (A<->T, C<->G). The MASK_OTHER bit is kept as is */
+    public static int getComplementMask(int mask) {
+        int complement=(mask & MASK_OTHER);
+        if ((mask & MASK_A)!=0) complement|=MASK_T;
+        if ((mask & MASK_C)!=0) complement|=MASK_G;
+        if ((mask & MASK_G)!=0) complement|=MASK_C;
+        if ((mask & MASK_T)!=0) complement|=MASK_A;
+        return complement;
+    }
+
+    /** Returns the length of the pattern */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Searches the sequence for matches to the pattern with at most the given number of mismatches
+     * and reports each match (with the smallest number of mismatches for that window) to the handler.
+     * Matches are reported in order of increasing position, and for windows that match
+     * on both strands the direct strand match is reported first.
+     * @param sequence The sequence to search (case-insensitive)
+     * @param maxMismatches The maximum number of mismatching positions allowed
+     * @param searchDirect Search for matches to the pattern itself
+     * @param searchReverse Search for matches to the reverse complement of the pattern
+     * @param handler Callback which will be notified of every match
+     */
+    public void search(char[] sequence, int maxMismatches, boolean searchDirect, boolean searchReverse, MatchHandler handler) throws Exception {
+        if (maxMismatches<0) return;
+        if (maxMismatches>length) maxMismatches=length;
+        long[] direct=new long[maxMismatches+1];   // bit j in direct[d] is set if the first j+1 positions of the pattern match the sequence ending at the current position with at most d mismatches
+        long[] reverse=new long[maxMismatches+1];
+        long last=1L<<(length-1);
+        for (int i=0;i<sequence.length;i++) {
+            int base=MotifScoringKernel.getBaseIndex(sequence[i]);
+            if (searchDirect) advance(direct, directMasks[base]);
+            if (searchReverse) advance(reverse, reverseMasks[base]);
+            if (i<length-1) continue;
+            int start=i-length+1;
+            if (searchDirect) {
+                int mismatches=getMismatches(direct, last);
+                if (mismatches>=0) handler.matchFound(start, i, mismatches, false);
+            }
+            if (searchReverse) {
+                int mismatches=getMismatches(reverse, last);
+                if (mismatches>=0) handler.matchFound(start, i, mismatches, true);
+            }
+        }
+    }
+
+    /** Updates the state vectors after reading a new base which is accepted by the pattern positions in baseMask */
+    private static void advance(long[] state, long baseMask) {
+        for (int d=state.length-1;d>0;d--) { // descending order so that state[d-1] still holds the previous value
+            state[d]=(((state[d]<<1)|1L) & baseMask) | ((state[d-1]<<1)|1L);
+        }
+        state[0]=((state[0]<<1)|1L) & baseMask;
+    }
+
+    /** Returns the smallest number of mismatches for a full match ending at the current position, or -1 if there is no match */
+    private static int getMismatches(long[] state, long last) {
+        for (int d=0;d<state.length;d++) {
+            if ((state[d] & last)!=0) return d;
+        }
+        return -1;
+    }
+
+}
@@ -26,11 +26,11 @@ public class MotifComparator_PearsonsCorrelationICWeighted extends MotifComparat
     
     @Override
     public double[] compareMotifs(Motif motifA, Motif motifB) {
-        double[][] matrixA=motifA.getMatrixAsFrequencyMatrix(); // forces conversion to frequencies between 0 and 1.0
-        double[][] matrixB=motifB.getMatrixAsFrequencyMatrix(); // forces conversion to frequencies between 0 and 1.0
+        double[][] matrixA=motifA.getSharedFrequencyMatrix(false); // forces conversion to frequencies between 0 and 1.0. NB: the matrices are shared with the motifs and must not be modified
+        double[][] matrixB=motifB.getSharedFrequencyMatrix(false); // forces conversion to frequencies between 0 and 1.0
 
         double[] resultDirect=compareMotifsAndAlign(matrixA, matrixB);
-        matrixB=Motif.reverseComplementMatrix(matrixB);
+        matrixB=motifB.getSharedFrequencyMatrix(true);
         double[] resultReverse=compareMotifsAndAlign(matrixA, matrixB);
         if (resultDirect[0]>=resultReverse[0]) return new double[]{resultDirect[0],1,resultDirect[1]};
         else return new double[]{resultReverse[0],-1,resultReverse[1]};
@@ -39,11 +39,11 @@ public class MotifComparator_PearsonsCorrelationICWeighted extends MotifComparat
 
     @Override
     public double[] compareMotifsBothDirections(Motif motifA, Motif motifB) {
-        double[][] matrixA=motifA.getMatrixAsFrequencyMatrix(); // forces conversion to frequencies between 0 and 1.0
-        double[][] matrixB=motifB.getMatrixAsFrequencyMatrix(); // forces conversion to frequencies between 0 and 1.0
+        double[][] matrixA=motifA.getSharedFrequencyMatrix(false); // forces conversion to frequencies between 0 and 1.0. NB: the matrices are shared with the motifs and must not be modified
+        double[][] matrixB=motifB.getSharedFrequencyMatrix(false); // forces conversion to frequencies between 0 and 1.0
 
         double[] resultDirect=compareMotifsAndAlign(matrixA, matrixB);
-        matrixB=Motif.reverseComplementMatrix(matrixB);
+        matrixB=motifB.getSharedFrequencyMatrix(true);
         double[] resultReverse=compareMotifsAndAlign(matrixA, matrixB);
         return new double[]{resultDirect[0],resultDirect[1],resultReverse[0],resultReverse[1]};
     }
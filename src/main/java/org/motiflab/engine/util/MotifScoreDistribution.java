@@ -0,0 +1,144 @@
+package org.motiflab.engine.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class represents the distribution of log-odds scores that a motif matrix
+ * can obtain for random sequences generated from a 0th-order background model.
+ * The distribution is computed exactly (up to the given score granularity) with
+ * dynamic programming over the matrix columns, where the scores of each column
+ * are rounded to the nearest multiple of the granularity. The distribution can
+ * be used to convert p-values into score thresholds and vice versa.
+ * Distributions are not modified after construction and can be shared between threads.
+ *
+ * @author kjetikl
+ */
+public class MotifScoreDistribution {
+
+    /** Matrix values below this (e.g. log-odds of zero frequencies) are raised to this value when the distribution is computed */
+    public static final double MIN_LOG_ODDS=-30;
+
+    private final double granularity;
+    private final int minScore;    // the lowest obtainable score (in units of the granularity)
+    private final double[] tail;   // tail[i] is the probability of observing a score greater than or equal to minScore+i (in units of the granularity)
+
+    private MotifScoreDistribution(double granularity, int minScore, double[] tail) {
+        this.granularity=granularity;
+        this.minScore=minScore;
+        this.tail=tail;
+    }
+
+    /**
+     * Computes the score distribution for the given matrix
+     * @param logoddsmatrix A log-odds matrix (log(frequency/background)) with 4 columns for A,C,G and T
+     * @param snf The background probabilities of the bases A,C,G and T (not log-transformed)
+     * @param granularity The resolution of the scores
+     */
+    public static MotifScoreDistribution compute(double[][] logoddsmatrix, double[] snf, double granularity) {
+        int length=logoddsmatrix.length;
+        int[][] scores=new int[length][4];
+        int min=0, max=0;
+        for (int i=0;i<length;i++) {
+            int columnMin=Integer.MAX_VALUE, columnMax=Integer.MIN_VALUE;
+            for (int b=0;b<4;b++) {
+                double value=Math.max(logoddsmatrix[i][b], MIN_LOG_ODDS);
+                scores[i][b]=(int)Math.round(value/granularity);
+                if (scores[i][b]<columnMin) columnMin=scores[i][b];
+                if (scores[i][b]>columnMax) columnMax=scores[i][b];
+            }
+            min+=columnMin;
+            max+=columnMax;
+        }
+        double[] current=new double[max-min+1];
+        double[] next=new double[max-min+1];
+        current[0]=1.0; // after 0 columns the score is 0, which is stored relative to the minimum score of the columns processed so far
+        int low=0, range=0; // the lowest score and the width of the distribution after the columns processed so far
+        for (int i=0;i<length;i++) {
+            int columnMin=Math.min(Math.min(scores[i][0],scores[i][1]),Math.min(scores[i][2],scores[i][3]));
+            int columnMax=Math.max(Math.max(scores[i][0],scores[i][1]),Math.max(scores[i][2],scores[i][3]));
+            int newrange=range+(columnMax-columnMin);
+            Arrays.fill(next, 0, newrange+1, 0);
+            for (int b=0;b<4;b++) {
+                double p=snf[b];
+                if (p==0) continue;
+                int shift=scores[i][b]-columnMin;
+                for (int s=0;s<=range;s++) next[s+shift]+=current[s]*p;
+            }
+            double[] swap=current;current=next;next=swap;
+            low+=columnMin;
+            range=newrange;
+        }
+        double[] tail=new double[range+1];
+        double sum=0;
+        for (int s=range;s>=0;s--) {
+            sum+=current[s];
+            tail[s]=sum;
+        }
+        return new MotifScoreDistribution(granularity, low, tail);
+    }
+
+    /** Returns the resolution of the scores in this distribution */
+    public double getGranularity() {
+        return granularity;
+    }
+
+    /** Returns the lowest score in the distribution */
+    public double getMinScore() {
+        return minScore*granularity;
+    }
+
+    /** Returns the highest score in the distribution */
+    public double getMaxScore() {
+        return (minScore+tail.length-1)*granularity;
+    }
+
+    /** Returns the probability of observing a score greater than or equal to the given score */
+    public double getPValue(double score) {
+        int index=(int)Math.ceil(score/granularity-1E-9)-minScore;
+        if (index<=0) return tail[0];
+        if (index>=tail.length) return 0;
+        return tail[index];
+    }
+
+    /**
+     * Returns the lowest score which has a p-value less than or equal to the given p-value.
+     * If no scores are this unlikely, a score slightly above the maximum score is returned
+     */
+    public double getScoreThreshold(double pvalue) {
+        int low=0, high=tail.length; // binary search for the first index with tail<=pvalue. Note that the tail values are decreasing
+        while (low<high) {
+            int mid=(low+high)>>>1;
+            if (tail[mid]<=pvalue) high=mid; else low=mid+1;
+        }
+        if (low>=tail.length) return (minScore+tail.length)*granularity; // no score is this unlikely
+        return (minScore+low)*granularity;
+    }
+
+    /** Writes this distribution to the given stream */
+    public void write(DataOutputStream output) throws IOException {
+        output.writeDouble(granularity);
+        output.writeInt(minScore);
+        output.writeInt(tail.length);
+        for (double value:tail) output.writeDouble(value);
+    }
+
+    /** Reads a distribution previously written with write() */
+    public static MotifScoreDistribution read(DataInputStream input) throws IOException {
+        double granularity=input.readDouble();
+        int minScore=input.readInt();
+        int size=input.readInt();
+        if (size<=0) throw new IOException("Corrupt score distribution");
+        double[] tail=new double[size];
+        for (int i=0;i<size;i++) tail[i]=input.readDouble();
+        return new MotifScoreDistribution(granularity, minScore, tail);
+    }
+
+    /** Returns the number of values stored for this distribution */
+    public int size() {
+        return tail.length;
+    }
+
+}
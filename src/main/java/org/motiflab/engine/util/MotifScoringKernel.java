@@ -0,0 +1,293 @@
+package org.motiflab.engine.util;
+
+import org.motiflab.engine.data.PackedDNASequence;
+
+/**
+ * A compiled representation of a position weight matrix that can be used to
+ * score windows in DNA sequences which have been encoded as base indices
+ * with encodeSequence(). The contribution of every base in every column of the
+ * matrix (including any background correction) is folded into lookup tables
+ * for both strands once, so scoring a window amounts to a series of table lookups
+ * without branching on the base characters and without allocating new objects.
+ * Kernels are not modified after they have been set up (including the call to
+ * enableLookahead), so they can be shared between threads.
+ *
+ * @author kjetikl
+ */
+public class MotifScoringKernel {
+
+    public static final byte BASE_A=0;
+    public static final byte BASE_C=1;
+    public static final byte BASE_G=2;
+    public static final byte BASE_T=3;
+    public static final byte BASE_OTHER=4; // N or any other non-ACGT character
+
+    private static final int STRIDE=5; // number of table entries per matrix column (A,C,G,T,other)
+    private static final byte[] baseIndex=new byte[128];
+
+    static {
+        java.util.Arrays.fill(baseIndex, BASE_OTHER);
+        baseIndex['A']=BASE_A;baseIndex['a']=BASE_A;
+        baseIndex['C']=BASE_C;baseIndex['c']=BASE_C;
+        baseIndex['G']=BASE_G;baseIndex['g']=BASE_G;
+        baseIndex['T']=BASE_T;baseIndex['t']=BASE_T;
+    }
+
+    private final int length;
+    private final double[] directTable;  // score of base b in column i on the direct strand is found at [i*STRIDE+b]
+    private final double[] reverseTable; // score of base b (as seen on the direct strand) at position i in a window matched against the reverse strand
+
+    // lookahead tables used to abandon windows that can not reach a score cutoff. These are created by enableLookahead()
+    private int[] directOrder=null;   // the order in which the columns are visited when scoring with a cutoff (direct strand)
+    private int[] reverseOrder=null;
+    private double[] directBound=null;  // directBound[k] is the highest score that can be obtained from the columns directOrder[k..length-1]
+    private double[] reverseBound=null;
+    private static final double LOOKAHEAD_MARGIN=1E-6; // tolerance for rounding errors, since partial sums are accumulated in a different order than the full score
+
+    private MotifScoringKernel(int length) {
+        this.length=length;
+        this.directTable=new double[length*STRIDE];
+        this.reverseTable=new double[length*STRIDE];
+    }
+
+    /**
+     * Returns the base index (BASE_A, BASE_C, BASE_G, BASE_T or BASE_OTHER) for the given character
+     */
+    public static byte getBaseIndex(char base) {
+        return (base<128)?baseIndex[base]:BASE_OTHER;
+    }
+
+    /**
+     * Encodes a DNA sequence into an array of base indices (case-insensitive)
+     * which can be scored by the kernels
+     */
+    public static byte[] encodeSequence(char[] sequence) {
+        byte[] encoded=new byte[sequence.length];
+        for (int i=0;i<sequence.length;i++) {
+            char c=sequence[i];
+            encoded[i]=(c<128)?baseIndex[c]:BASE_OTHER;
+        }
+        return encoded;
+    }
+
+    /**
+     * Encodes a segment of a packed DNA sequence into an array of base indices directly from the
+     * 2-bit words (32 bases at a time), without decoding the sequence into letters first
+     * @param sequence
+     * @param start The first position in the segment
+     * @param end The position after the last position in the segment (exclusive)
+     */
+    public static byte[] encodeSequence(PackedDNASequence sequence, int start, int end) {
+        byte[] encoded=new byte[end-start];
+        int i=start;
+        while (i<end) {
+            long word=sequence.getWord(i>>>5)>>>((i&31)<<1);
+            int wordEnd=Math.min(((i>>>5)+1)<<5, end);
+            for (;i<wordEnd;i++) {
+                encoded[i-start]=(byte)(word&3); // the 2-bit codes are the same as the base indices
+                word>>>=2;
+            }
+        }
+        int unknown=sequence.getNextUnknownPosition(start);
+        while (unknown<end) { // positions with other letters than A,C,G and T are stored as A in the words
+            int known=Math.min(sequence.getNextKnownPosition(unknown), end);
+            java.util.Arrays.fill(encoded, unknown-start, known-start, BASE_OTHER);
+            unknown=sequence.getNextUnknownPosition(known);
+        }
+        return encoded;
+    }
+
+    /**
+     * Creates a kernel which returns log-odds scores for a matrix and a 0-order background
+     * @param logmatrix A frequency matrix that has been log-transformed
+     * @param logsnf Single nucleotide frequencies of the background that have been log-transformed
+     *        Non-ACGT bases contribute with (0-1) to the score, as in the original matrix matchers
+     */
+    public static MotifScoringKernel createLogOddsKernel(double[][] logmatrix, double[] logsnf) {
+        int length=logmatrix.length;
+        MotifScoringKernel kernel=new MotifScoringKernel(length);
+        for (int i=0;i<length;i++) {
+            int row=i*STRIDE;
+            double[] reverseColumn=logmatrix[length-(i+1)];
+            for (int b=0;b<4;b++) {
+                kernel.directTable[row+b]=(logmatrix[i][b]-logsnf[b]);
+                kernel.reverseTable[row+b]=(reverseColumn[3-b]-logsnf[3-b]);
+            }
+            kernel.directTable[row+BASE_OTHER]=(0.0-1.0);
+            kernel.reverseTable[row+BASE_OTHER]=(0.0-1.0);
+        }
+        return kernel;
+    }
+
+    /**
+     * Creates a kernel which returns the sum of the (unadjusted) matrix values
+     * @param matrix A (possibly log-transformed) matrix. Non-ACGT bases contribute with 0
+     */
+    public static MotifScoringKernel createRawKernel(double[][] matrix) {
+        int length=matrix.length;
+        MotifScoringKernel kernel=new MotifScoringKernel(length);
+        for (int i=0;i<length;i++) {
+            int row=i*STRIDE;
+            double[] reverseColumn=matrix[length-(i+1)];
+            for (int b=0;b<4;b++) {
+                kernel.directTable[row+b]=matrix[i][b];
+                kernel.reverseTable[row+b]=reverseColumn[3-b];
+            }
+            kernel.directTable[row+BASE_OTHER]=0;
+            kernel.reverseTable[row+BASE_OTHER]=0;
+        }
+        return kernel;
+    }
+
+    /**
+     * Creates a kernel which returns scores according to the equations used by the MATCH algorithm,
+     * i.e. the matrix values weighted by the information content of the column
+     * @param matrix A frequency matrix (not log-transformed)
+     * @param IC precalculated IC content for each column in the matrix
+     */
+    public static MotifScoringKernel createMATCHKernel(double[][] matrix, double[] IC) {
+        int length=matrix.length;
+        MotifScoringKernel kernel=new MotifScoringKernel(length);
+        for (int i=0;i<length;i++) {
+            int row=i*STRIDE;
+            int reverseIndex=length-(i+1);
+            for (int b=0;b<4;b++) {
+                kernel.directTable[row+b]=(IC[i]*matrix[i][b]);
+                kernel.reverseTable[row+b]=(IC[reverseIndex]*matrix[reverseIndex][3-b]);
+            }
+            kernel.directTable[row+BASE_OTHER]=(IC[i]*0.0);
+            kernel.reverseTable[row+BASE_OTHER]=(IC[reverseIndex]*0.0);
+        }
+        return kernel;
+    }
+
+    /**
+     * Precomputes the tables needed by the scoreDirect/scoreReverse methods that take a cutoff argument.
+     * For every column the highest score achievable from that column onward is calculated.
+     * This should be called before the kernel is shared with other threads.
+     * @param reorder If TRUE, the columns will be visited in order of decreasing score range
+     *        (i.e. the most informative columns first) so that windows which can not reach
+     *        the cutoff are normally discovered after just a few columns. If FALSE, the columns
+     *        are visited from left to right.
+     * @return the kernel itself
+     */
+    public MotifScoringKernel enableLookahead(boolean reorder) {
+        int[] newDirectOrder=getColumnOrder(directTable, reorder);
+        int[] newReverseOrder=getColumnOrder(reverseTable, reorder);
+        double[] newDirectBound=getSuffixBounds(directTable, newDirectOrder);
+        double[] newReverseBound=getSuffixBounds(reverseTable, newReverseOrder);
+        directOrder=newDirectOrder;
+        reverseOrder=newReverseOrder;
+        directBound=newDirectBound;
+        reverseBound=newReverseBound;
+        return this;
+    }
+
+    /** Returns TRUE if enableLookahead() has been called for this kernel */
+    public boolean isLookaheadEnabled() {
+        return directBound!=null;
+    }
+
+    private int[] getColumnOrder(double[] table, boolean reorder) {
+        Integer[] columns=new Integer[length];
+        for (int i=0;i<length;i++) columns[i]=i;
+        if (reorder) {
+            final double[] range=new double[length];
+            for (int i=0;i<length;i++) range[i]=getRowMax(table,i)-getRowMin(table,i);
+            java.util.Arrays.sort(columns, new java.util.Comparator<Integer>() {
+                @Override
+                public int compare(Integer c1, Integer c2) {
+                    return Double.compare(range[c2], range[c1]); // largest range first. The sort is stable, so ties keep their original order
+                }
+            });
+        }
+        int[] order=new int[length];
+        for (int i=0;i<length;i++) order[i]=columns[i];
+        return order;
+    }
+
+    private double[] getSuffixBounds(double[] table, int[] order) {
+        double[] bound=new double[length+1];
+        for (int k=length-1;k>=0;k--) bound[k]=bound[k+1]+getRowMax(table,order[k]);
+        return bound;
+    }
+
+    private double getRowMax(double[] table, int column) {
+        double max=-Double.MAX_VALUE;
+        for (int b=0;b<STRIDE;b++) if (table[column*STRIDE+b]>max) max=table[column*STRIDE+b];
+        return max;
+    }
+
+    private double getRowMin(double[] table, int column) {
+        double min=Double.MAX_VALUE;
+        for (int b=0;b<STRIDE;b++) if (table[column*STRIDE+b]<min) min=table[column*STRIDE+b];
+        return min;
+    }
+
+    /** Returns the length of the motif (number of columns) */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the score for the window starting at the given offset in the encoded sequence
+     * when the motif is matched against the direct strand
+     */
+    public double scoreDirect(byte[] sequence, int offset) {
+        double score=0;
+        for (int i=0,row=0;i<length;i++,row+=STRIDE) {
+            score+=directTable[row+sequence[offset+i]];
+        }
+        return score;
+    }
+
+    /**
+     * Returns the score for the window starting at the given offset in the encoded sequence
+     * when the motif is matched against the reverse strand
+     */
+    public double scoreReverse(byte[] sequence, int offset) {
+        double score=0;
+        for (int i=0,row=0;i<length;i++,row+=STRIDE) {
+            score+=reverseTable[row+sequence[offset+i]];
+        }
+        return score;
+    }
+
+    /**
+     * Returns the score for the window starting at the given offset in the encoded sequence
+     * when the motif is matched against the direct strand, or Double.NEGATIVE_INFINITY if it
+     * can be determined in advance that the score will be lower than the cutoff.
+     * Windows that can reach the cutoff are scored exactly as with scoreDirect(sequence,offset).
+     * If lookahead has not been enabled, the full score is always returned.
+     */
+    public double scoreDirect(byte[] sequence, int offset, double cutoff) {
+        if (directBound!=null && !canReach(directTable,directOrder,directBound,sequence,offset,cutoff)) return Double.NEGATIVE_INFINITY;
+        return scoreDirect(sequence,offset);
+    }
+
+    /**
+     * Returns the score for the window starting at the given offset in the encoded sequence
+     * when the motif is matched against the reverse strand, or Double.NEGATIVE_INFINITY if it
+     * can be determined in advance that the score will be lower than the cutoff.
+     * Windows that can reach the cutoff are scored exactly as with scoreReverse(sequence,offset).
+     * If lookahead has not been enabled, the full score is always returned.
+     */
+    public double scoreReverse(byte[] sequence, int offset, double cutoff) {
+        if (reverseBound!=null && !canReach(reverseTable,reverseOrder,reverseBound,sequence,offset,cutoff)) return Double.NEGATIVE_INFINITY;
+        return scoreReverse(sequence,offset);
+    }
+
+    /** Returns FALSE if the partial score plus the best possible score for the remaining columns falls below the cutoff at some point */
+    private boolean canReach(double[] table, int[] order, double[] bound, byte[] sequence, int offset, double cutoff) {
+        double limit=cutoff-LOOKAHEAD_MARGIN;
+        if (bound[0]<limit) return false;
+        double partial=0;
+        for (int k=0;k<length;k++) {
+            int column=order[k];
+            partial+=table[column*STRIDE+sequence[offset+column]];
+            if (partial+bound[k+1]<limit) return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,251 @@
+package org.motiflab.engine.util;
+
+import java.util.Arrays;
+
+/**
+ * This class builds a suffix array and LCP array (longest common prefixes of adjacent suffixes)
+ * over a DNA sequence and optionally also its reverse complement. Together with a range-minimum
+ * structure over the LCP array the index can report the length of the longest common extension
+ * of any two positions (i.e. the number of bases that match when the sequence is read forwards from
+ * both positions) in close to constant time. Repeat finders can then compare two segments with
+ * up to K mismatches with K+1 such queries, regardless of the length of the segments.
+ * <br>
+ * Positions in the reverse complement are specified relative to the start of the reverse complement
+ * sequence, so position 0 in the reverse complement is the complement of the last base in the sequence.
+ * The comparisons are case-insensitive, and all letters other than A,C,G and T are considered to be
+ * the same unknown base (which will match other unknown bases).
+ *
+ * @author kjetikl
+ */
+public class SequenceSuffixIndex {
+
+    private static final int BLOCK_SIZE=32; // the size of the blocks used by the range-minimum structure
+    private static final int DIRECT_COMPARISONS=8; // the number of letters to compare directly before the LCP array is consulted
+
+    private final int sequenceLength;
+    private final int reverseOffset; // the position of the reverse complement in the text (or -1 if not included)
+    private final int[] text;        // the sequence (and reverse complement) encoded as integers
+    private final int[] suffixarray;
+    private final int[] rank;        // the inverse of the suffix array
+    private final int[] lcp;         // lcp[r] is the length of the common prefix of the suffixes at rank r-1 and r
+    private int[][] blockMinimum;    // sparse table with the minimum LCP values of runs of 2^j blocks
+
+    /**
+     * Creates a new index for the given sequence
+     * @param sequence
+     * @param includeReverseComplement If TRUE, the reverse complement of the sequence is also included in the index
+     */
+    public SequenceSuffixIndex(CharSequence sequence, boolean includeReverseComplement) {
+        sequenceLength=sequence.length();
+        int size=(includeReverseComplement)?(sequenceLength*2+2):(sequenceLength+1);
+        text=new int[size];
+        for (int i=0;i<sequenceLength;i++) text[i]=encode(sequence.charAt(i));
+        if (includeReverseComplement) {
+            text[sequenceLength]=6; // unique separator
+            reverseOffset=sequenceLength+1;
+            for (int i=0;i<sequenceLength;i++) {
+                int base=text[sequenceLength-1-i];
+                text[reverseOffset+i]=(base>=1 && base<=4)?(5-base):base;
+            }
+        } else reverseOffset=-1;
+        text[size-1]=0; // unique terminator which is smaller than all other letters
+        suffixarray=buildSuffixArray(text, 7);
+        rank=new int[size];
+        for (int r=0;r<size;r++) rank[suffixarray[r]]=r;
+        lcp=buildLCPArray(text, suffixarray, rank);
+        buildBlockMinimum();
+    }
+
+    /** Returns the length of the sequence (not including the reverse complement) */
+    public int getSequenceLength() {
+        return sequenceLength;
+    }
+
+    /** Returns TRUE if the reverse complement is included in the index */
+    public boolean hasReverseComplement() {
+        return reverseOffset>=0;
+    }
+
+    /** Returns the suffix array of the indexed text */
+    public int[] getSuffixArray() {
+        return suffixarray;
+    }
+
+    /** Returns the LCP array of the indexed text, where entry r is the length of the common prefix of the suffixes at rank r-1 and r */
+    public int[] getLCPArray() {
+        return lcp;
+    }
+
+    /**
+     * Returns the number of matching bases when the sequence is read forwards from the two positions.
+     * The extension never continues past the end of the sequence
+     */
+    public int getCommonExtension(int pos1, int pos2) {
+        return commonExtension(pos1, pos2);
+    }
+
+    /**
+     * Returns the number of matching bases when the sequence is read forwards from pos1
+     * and the reverse complement is read forwards from reversePos
+     */
+    public int getCommonExtensionWithReverseComplement(int pos1, int reversePos) {
+        if (reverseOffset<0) throw new IllegalStateException("The reverse complement is not included in the index");
+        return commonExtension(pos1, reverseOffset+reversePos);
+    }
+
+    /**
+     * Finds the positions of the first mismatching bases when the segment starting at pos1 in the sequence is compared
+     * to the segment starting at pos2 in the sequence (or in the reverse complement if reverse is TRUE).
+     * Consecutive matching bases are skipped with longest common extension queries, so finding K mismatches
+     * only requires K+1 queries regardless of the length of the segments
+     * @param pos1
+     * @param pos2
+     * @param length The length of the segments to compare
+     * @param mismatches An array which will be filled with the offsets (relative to the start of the segments) of the first mismatches.
+     *                   The search stops when the array is full
+     * @param reverse
+     * @return the number of mismatches found (at most the length of the mismatches array)
+     */
+    public int findMismatches(int pos1, int pos2, int length, int[] mismatches, boolean reverse) {
+        if (reverse) {
+            if (reverseOffset<0) throw new IllegalStateException("The reverse complement is not included in the index");
+            pos2+=reverseOffset;
+        }
+        int found=0;
+        int offset=0;
+        while (found<mismatches.length) {
+            offset+=commonExtension(pos1+offset, pos2+offset);
+            if (offset>=length) break;
+            mismatches[found++]=offset;
+            offset++; // skip the mismatching base
+        }
+        return found;
+    }
+
+    /**
+     * Counts the number of mismatching bases between the segment of the given length starting at pos1 in the sequence
+     * and the segment starting at pos2 in the sequence (or in the reverse complement if reverse is TRUE).
+     * The counting stops as soon as the number of mismatches exceeds maxmismatches
+     * @return the number of mismatches (or maxmismatches+1 if the number of mismatches exceeds maxmismatches)
+     */
+    public int countMismatches(int pos1, int pos2, int length, int maxmismatches, boolean reverse) {
+        return findMismatches(pos1, pos2, length, new int[maxmismatches+1], reverse);
+    }
+
+    private int commonExtension(int pos1, int pos2) {
+        if (pos1==pos2) return text.length-1-pos1;
+        // short extensions are cheaper to find by comparing the letters directly. Note that the text ends with a unique letter
+        for (int i=0;i<DIRECT_COMPARISONS;i++) {
+            if (text[pos1+i]!=text[pos2+i]) return i;
+        }
+        int r1=rank[pos1], r2=rank[pos2];
+        if (r1>r2) {int swap=r1;r1=r2;r2=swap;}
+        return rangeMinimum(r1+1, r2);
+    }
+
+    /** Returns the minimum LCP value in the range from index 'from' to index 'to' (inclusive) */
+    private int rangeMinimum(int from, int to) {
+        int fromBlock=from/BLOCK_SIZE, toBlock=to/BLOCK_SIZE;
+        int min=Integer.MAX_VALUE;
+        if (toBlock-fromBlock<=1) {
+            for (int i=from;i<=to;i++) if (lcp[i]<min) min=lcp[i];
+            return min;
+        }
+        int firstEnd=(fromBlock+1)*BLOCK_SIZE;
+        for (int i=from;i<firstEnd;i++) if (lcp[i]<min) min=lcp[i];
+        for (int i=toBlock*BLOCK_SIZE;i<=to;i++) if (lcp[i]<min) min=lcp[i];
+        int first=fromBlock+1, last=toBlock-1; // full blocks in between
+        int level=31-Integer.numberOfLeadingZeros(last-first+1);
+        int value=Math.min(blockMinimum[level][first], blockMinimum[level][last-(1<<level)+1]);
+        return (value<min)?value:min;
+    }
+
+    private void buildBlockMinimum() {
+        int blocks=(lcp.length+BLOCK_SIZE-1)/BLOCK_SIZE;
+        int levels=32-Integer.numberOfLeadingZeros(Math.max(blocks,1));
+        blockMinimum=new int[levels][];
+        blockMinimum[0]=new int[blocks];
+        for (int b=0;b<blocks;b++) {
+            int min=Integer.MAX_VALUE;
+            int end=Math.min((b+1)*BLOCK_SIZE, lcp.length);
+            for (int i=b*BLOCK_SIZE;i<end;i++) if (lcp[i]<min) min=lcp[i];
+            blockMinimum[0][b]=min;
+        }
+        for (int j=1;j<levels;j++) {
+            int span=1<<(j-1);
+            int count=blocks-(1<<j)+1;
+            blockMinimum[j]=new int[Math.max(count,0)];
+            for (int b=0;b<count;b++) blockMinimum[j][b]=Math.min(blockMinimum[j-1][b], blockMinimum[j-1][b+span]);
+        }
+    }
+
+    /** Encodes the bases A,C,G and T as 1-4 and all other letters as 5 */
+    private static int encode(char c) {
+        switch (c) {
+            case 'A': case 'a': return 1;
+            case 'C': case 'c': return 2;
+            case 'G': case 'g': return 3;
+            case 'T': case 't': return 4;
+            default: return 5;
+        }
+    }
+
+    /**
+     * Builds the suffix array by prefix doubling with radix sorting (O(n log n)).
+     * The text must end with a unique letter which is smaller than all other letters
+     * @param text
+     * @param alphabetSize The letters in the text must be in the range 0 to alphabetSize-1
+     */
+    private static int[] buildSuffixArray(int[] text, int alphabetSize) {
+        int size=text.length;
+        int[] sa=new int[size];
+        int[] rank=new int[size];
+        int[] temp=new int[size];
+        int[] counts=new int[Math.max(alphabetSize,size)];
+        for (int i=0;i<size;i++) counts[text[i]]++;
+        for (int c=1;c<alphabetSize;c++) counts[c]+=counts[c-1];
+        for (int i=size-1;i>=0;i--) sa[--counts[text[i]]]=i;
+        rank[sa[0]]=0;
+        for (int r=1;r<size;r++) rank[sa[r]]=rank[sa[r-1]]+((text[sa[r]]!=text[sa[r-1]])?1:0);
+        int classes=rank[sa[size-1]]+1;
+        for (int k=1;classes<size;k<<=1) {
+            // order the suffixes by the rank of the second half (suffixes without a second half come first)
+            int p=0;
+            for (int i=size-k;i<size;i++) temp[p++]=i;
+            for (int r=0;r<size;r++) if (sa[r]>=k) temp[p++]=sa[r]-k;
+            // stable counting sort by the rank of the first half
+            Arrays.fill(counts, 0, classes, 0);
+            for (int i=0;i<size;i++) counts[rank[i]]++;
+            for (int c=1;c<classes;c++) counts[c]+=counts[c-1];
+            for (int r=size-1;r>=0;r--) sa[--counts[rank[temp[r]]]]=temp[r];
+            // assign new ranks
+            temp[sa[0]]=0;
+            for (int r=1;r<size;r++) {
+                int a=sa[r-1], b=sa[r];
+                int a2=(a+k<size)?rank[a+k]:-1;
+                int b2=(b+k<size)?rank[b+k]:-1;
+                temp[b]=temp[a]+((rank[a]==rank[b] && a2==b2)?0:1);
+            }
+            int[] swap=rank;rank=temp;temp=swap;
+            classes=rank[sa[size-1]]+1;
+        }
+        return sa;
+    }
+
+    /** Builds the LCP array with Kasai's algorithm (O(n)) */
+    private static int[] buildLCPArray(int[] text, int[] sa, int[] rank) {
+        int size=text.length;
+        int[] lcp=new int[size];
+        int h=0;
+        for (int i=0;i<size;i++) {
+            int r=rank[i];
+            if (r>0) {
+                int j=sa[r-1];
+                while (i+h<size && j+h<size && text[i+h]==text[j+h]) h++;
+                lcp[r]=h;
+                if (h>0) h--;
+            } else h=0;
+        }
+        return lcp;
+    }
+}
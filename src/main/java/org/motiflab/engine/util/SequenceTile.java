@@ -0,0 +1,128 @@
+package org.motiflab.engine.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.motiflab.engine.data.Sequence;
+
+/**
+ * A SequenceTile represents a segment of a sequence which can be processed
+ * independently of the rest of the sequence. Long sequences are split into several
+ * tiles so that the work can be divided evenly between the threads in the task runner
+ * even when the analysis only includes a few (very long) sequences.
+ * Positions are relative to the start of the sequence (starting at 0).
+ * Every position in a sequence belongs to exactly one tile, but a tile can
+ * also extend a number of positions into the next tile (the overlap), e.g. so that
+ * motifs starting near the end of the tile can be matched in full.
+ *
+ * @author kjetikl
+ */
+public class SequenceTile {
+
+    /** Tiles will not be made shorter than this (unless the sequence itself is shorter) */
+    public static final int MIN_TILE_SIZE=50000;
+
+    /** The number of tiles that should ideally be available for each thread in order to balance the load */
+    private static final int TILES_PER_THREAD=4;
+
+    private final String sequenceName;
+    private final int sequenceSize;
+    private final int start;
+    private final int end;
+    private final int overlap;
+    private final int tileIndex;
+    private final int numberOfTiles;
+
+    public SequenceTile(String sequenceName, int sequenceSize, int start, int end, int overlap, int tileIndex, int numberOfTiles) {
+        this.sequenceName=sequenceName;
+        this.sequenceSize=sequenceSize;
+        this.start=start;
+        this.end=end;
+        this.overlap=overlap;
+        this.tileIndex=tileIndex;
+        this.numberOfTiles=numberOfTiles;
+    }
+
+    /** Returns the name of the sequence this tile belongs to */
+    public String getSequenceName() {
+        return sequenceName;
+    }
+
+    /** Returns the first position in the tile (relative to the start of the sequence) */
+    public int getStart() {
+        return start;
+    }
+
+    /** Returns the last position in the tile (relative to the start of the sequence) */
+    public int getEnd() {
+        return end;
+    }
+
+    /** Returns the number of positions in the tile (not including the overlap) */
+    public int getSize() {
+        return end-start+1;
+    }
+
+    /**
+     * Returns the last position that should be read when processing this tile,
+     * i.e. the end of the tile plus the overlap (but not beyond the end of the sequence)
+     */
+    public int getOverlapEnd() {
+        return Math.min(end+overlap, sequenceSize-1);
+    }
+
+    /** Returns the index of this tile within the sequence (starting at 0) */
+    public int getTileIndex() {
+        return tileIndex;
+    }
+
+    /** Returns the number of tiles the sequence has been split into */
+    public int getNumberOfTiles() {
+        return numberOfTiles;
+    }
+
+    /** Returns TRUE if this tile covers the full sequence */
+    public boolean isFullSequence() {
+        return numberOfTiles==1;
+    }
+
+    /**
+     * Splits the given sequences into tiles. The tile size is chosen so that there will be
+     * a few tiles for every thread, but tiles are never made shorter than MIN_TILE_SIZE.
+     * Sequences that are shorter than the tile size are kept as single tiles, and longer
+     * sequences are divided into tiles of (almost) equal size.
+     * The tiles are returned in the same order as the sequences, and tiles from the same
+     * sequence are returned in order of increasing position.
+     * @param sequences The sequences to divide into tiles
+     * @param overlap The number of positions each tile should extend into the next
+     * @param threads The number of threads that will process the tiles
+     */
+    public static ArrayList<SequenceTile> createTiles(List<Sequence> sequences, int overlap, int threads) {
+        if (threads<=0) threads=1;
+        if (overlap<0) overlap=0;
+        long totalsize=0;
+        for (Sequence sequence:sequences) totalsize+=sequence.getSize();
+        long tilesize=(totalsize+threads*TILES_PER_THREAD-1)/(threads*TILES_PER_THREAD);
+        if (tilesize<MIN_TILE_SIZE) tilesize=MIN_TILE_SIZE;
+        ArrayList<SequenceTile> tiles=new ArrayList<SequenceTile>(sequences.size());
+        for (Sequence sequence:sequences) {
+            int size=sequence.getSize();
+            int numberOfTiles=(int)((size+tilesize-1)/tilesize);
+            if (numberOfTiles<=1) {
+                tiles.add(new SequenceTile(sequence.getName(), size, 0, size-1, overlap, 0, 1));
+                continue;
+            }
+            for (int i=0;i<numberOfTiles;i++) { // divide the sequence evenly between the tiles
+                int start=(int)((long)size*i/numberOfTiles);
+                int end=(int)((long)size*(i+1)/numberOfTiles)-1;
+                tiles.add(new SequenceTile(sequence.getName(), size, start, end, overlap, i, numberOfTiles));
+            }
+        }
+        return tiles;
+    }
+
+    @Override
+    public String toString() {
+        return sequenceName+"["+start+"-"+end+"]";
+    }
+
+}
@@ -10,6 +10,7 @@ import java.util.HashMap;
 import org.motiflab.engine.task.ExecutableTask;
 import org.motiflab.engine.ExecutionError;
 import org.motiflab.engine.task.OperationTask;
+import org.motiflab.engine.BackgroundProbabilityCache;
 import org.motiflab.engine.data.BackgroundModel;
 import org.motiflab.engine.data.DNASequenceData;
 import org.motiflab.engine.data.DNASequenceDataset;
@@ -21,6 +22,7 @@ import org.motiflab.engine.data.RegionDataset;
 import org.motiflab.engine.data.RegionSequenceData;
 import org.motiflab.engine.data.Sequence;
 import org.motiflab.engine.data.SequenceCollection;
+import org.motiflab.engine.util.MotifScoringKernel;
 
 /**
  *
@@ -35,7 +37,7 @@ public class AffinityScanner extends MotifScanning {
 
         addSourceParameter("Sequence", DNASequenceDataset.class, null, null, "input sequences");
         addParameter("Motif Collection",MotifCollection.class, null,new Class[]{MotifCollection.class},null,true,false);
-        addParameter("Background", BackgroundModel.class, null, new Class[]{BackgroundModel.class},"<html>A background model which specifies expected single nucleotide frequencies.<br>This is only used when log-likelihoods are used as score.<br>Note that AffinityScanner is not able to use higher-order models</html>",false,false);
+        addParameter("Background", BackgroundModel.class, null, new Class[]{BackgroundModel.class},"<html>A background model which specifies expected single nucleotide frequencies.<br>This is only used when log-likelihoods are used as score.<br>Higher-order models will take the preceding bases into account</html>",false,false);
         addParameter("Score", String.class, "Raw", new String[]{"Raw","Log-likelihood"},"",false,false);
         addParameter("Use relative scores",Boolean.class, Boolean.FALSE,new Boolean[]{Boolean.TRUE,Boolean.FALSE},"If selected, the match score for each position will be normalized to [0,1]",false,false);
         addParameter("Skip negative scores",Boolean.class, Boolean.FALSE,new Boolean[]{Boolean.TRUE,Boolean.FALSE},"If selected, only positions with positive motif match scores will be included in the sum.",false,false);
@@ -70,14 +72,23 @@ public class AffinityScanner extends MotifScanning {
         snf[1]=Math.log(snf[1]);
         snf[2]=Math.log(snf[2]);
         snf[3]=Math.log(snf[3]);
-        HashMap<String,double[][]> matrixTable=new HashMap<String, double[][]>();
+        BackgroundModel markovBackground=(useloglikelihood && background!=null && background.getOrder()>0)?background:null; // higher-order backgrounds are subtracted from the matrix scores for each window
+        double[] backgroundRange=(markovBackground!=null)?BackgroundProbabilityCache.getLogProbabilityRange(markovBackground):snf;
+        HashMap<String,MotifScoringKernel> kernelTable=new HashMap<String,MotifScoringKernel>();
+        HashMap<String,double[]> minmaxTable=new HashMap<String,double[]>();
         MotifCollection motifs=(MotifCollection)task.getParameter("Motif Collection");
         ArrayList<Motif> allMotifs=motifs.getAllMotifs(engine);
         double pseudo=0.01;
-        for (Motif motif:allMotifs) { 
-            double[][] matrix=motif.getMatrixAsFrequencyMatrixWithPseudo(pseudo);  
-            if (useloglikelihood) logMatrix(matrix); // NB: logMatrix(x) changes the argument!
-            matrixTable.put(motif.getName(),matrix);
+        for (Motif motif:allMotifs) { // compile a scoring kernel for each motif. The matrices are shared with the motif and must not be modified
+            if (useloglikelihood) {
+                double[][] logmatrix=motif.getSharedLogMatrixWithPseudo(pseudo);
+                kernelTable.put(motif.getName(),MotifScoringKernel.createLogOddsKernel(logmatrix, (markovBackground!=null)?new double[4]:snf));
+                minmaxTable.put(motif.getName(),motif.getLogOddsScoreRange(pseudo, backgroundRange));
+            } else {
+                double[][] matrix=motif.getSharedFrequencyMatrixWithPseudo(pseudo, false);
+                kernelTable.put(motif.getName(),MotifScoringKernel.createRawKernel(matrix));
+                minmaxTable.put(motif.getName(),getMinMaxScores(matrix));                
+            }
         }     
         ArrayList<Sequence> sequences=sequenceCollection.getAllSequences(engine);
         int i=0;        
@@ -87,7 +98,7 @@ public class AffinityScanner extends MotifScanning {
             String sequenceName=sequence.getName();
             DNASequenceData sourceSequence=(DNASequenceData)sourceDataset.getSequenceByName(sequenceName);
             RegionSequenceData targetSequence=(RegionSequenceData)targetDataset.getSequenceByName(sequenceName);
-            searchInSequence(sourceSequence,targetSequence, matrixTable, snf, useloglikelihood, skipNegative.booleanValue(), useRelativeValues.booleanValue(), task);
+            searchInSequence(sourceSequence,targetSequence, kernelTable, minmaxTable, markovBackground, skipNegative.booleanValue(), useRelativeValues.booleanValue(), task);
             task.setStatusMessage("Executing AffinityScanner:  ("+(i+1)+"/"+size+")");
             task.setProgress(i+1, size);
             i++;
@@ -101,37 +112,47 @@ public class AffinityScanner extends MotifScanning {
     
     
     
-    public void searchInSequence(DNASequenceData sourceSequence, RegionSequenceData targetSequence, HashMap<String,double[][]> matrixTable, double[] snf, boolean useloglikelihood, boolean skipNegative, boolean useRelativeValues, OperationTask task) throws Exception {
+    public void searchInSequence(DNASequenceData sourceSequence, RegionSequenceData targetSequence, HashMap<String,MotifScoringKernel> kernelTable, HashMap<String,double[]> minmaxTable, BackgroundModel markovBackground, boolean skipNegative, boolean useRelativeValues, OperationTask task) throws Exception {
         String seqname=sourceSequence.getName();        
         int startOffset=sourceSequence.getRegionStart();             
         char[] sequence=(char[])sourceSequence.getValueInGenomicInterval(startOffset, sourceSequence.getRegionEnd());
+        byte[] encoded=MotifScoringKernel.encodeSequence(sequence); // the sequence is encoded only once and shared by all motifs
+        double[] directBackground=null, reverseBackground=null; // cumulative background log-probabilities for higher-order models
+        if (markovBackground!=null) {
+            BackgroundProbabilityCache cache=engine.getBackgroundProbabilityCache();
+            directBackground=BackgroundProbabilityCache.getCumulativeSums(cache.getLogProbabilities(sourceSequence, markovBackground, false), 0, sequence.length-1);
+            reverseBackground=BackgroundProbabilityCache.getCumulativeSums(cache.getLogProbabilities(sourceSequence, markovBackground, true), 0, sequence.length-1);
+        }
         int counter=0;
-        for (String motifname:matrixTable.keySet()) { // search with each motif in turn
+        for (String motifname:kernelTable.keySet()) { // search with each motif in turn
             counter++;
-            //String consensus=((Motif)engine.getDataItem(motifname)).getConsensusMotif();            
-            double[][] matrix=matrixTable.get(motifname);
+            MotifScoringKernel kernel=kernelTable.get(motifname);
             if (counter%50==0) {
                 task.checkExecutionLock(); // checks to see if this task should suspend execution
                 if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();                
             }
             //if (counter%100==0) Thread.yield();
-            int motifsize=matrix.length;
+            int motifsize=kernel.getLength();
             double affinityscore=0;
             int bestpos=0;
             int bestOrientation=Region.DIRECT;
             double bestposScore=-Double.MAX_VALUE;
-            double[] minmax=null;
-            if (useRelativeValues) {
-                minmax=(useloglikelihood)?getMinMaxScores(matrix, snf):getMinMaxScores(matrix);
-            }
+            double[] minmax=minmaxTable.get(motifname);
             for (int i=0;i<=sequence.length-motifsize;i++) {                                
-                double[] scores=(useloglikelihood)?matrixMatcherLogLikelihood(matrix,sequence,i,snf):matrixMatcherRaw(matrix,sequence,i); // scores on direct and reverse strand
+                double directscore=kernel.scoreDirect(encoded,i);
+                double reversescore=kernel.scoreReverse(encoded,i);
+                if (markovBackground!=null) {
+                    directscore-=(directBackground[i+motifsize]-directBackground[i]);
+                    reversescore-=(reverseBackground[i+motifsize]-reverseBackground[i]);
+                }
                 if (skipNegative && !useRelativeValues) {
-                    if (scores[0]<0) scores[0]=0;
-                    if (scores[1]<0) scores[1]=0;
+                    if (directscore<0) directscore=0;
+                    if (reversescore<0) reversescore=0;
+                }
+                if (useRelativeValues) {
+                    directscore=(directscore-minmax[0])/(minmax[1]-minmax[0]);
+                    reversescore=(reversescore-minmax[0])/(minmax[1]-minmax[0]);
                 }
-                double directscore=(useRelativeValues)?((scores[0]-minmax[0])/(minmax[1]-minmax[0])):scores[0];
-                double reversescore=(useRelativeValues)?((scores[1]-minmax[0])/(minmax[1]-minmax[0])):scores[1];               
                 affinityscore+=directscore;
                 affinityscore+=reversescore;   
                 if (directscore>bestposScore) {bestposScore=directscore;bestpos=i;bestOrientation=Region.DIRECT;}
@@ -147,74 +168,6 @@ public class AffinityScanner extends MotifScanning {
     }
     
      
-    private double[] matrixMatcherLogLikelihood(double[][] matrix, char[] sequence, int offset, double[] snf) {
-         double directscore=0, reversescore=0;        
-         for (int i=0;i<matrix.length;i++) {
-             char base=sequence[i+offset];
-             double basefreq=0;
-             double backgroundFreq=1;
-             double basefreqReverse=0;
-             double backgroundFreqReverse=1;             
-             switch (base) {
-                 case 'A': case 'a': backgroundFreq=snf[0];backgroundFreqReverse=snf[3];basefreq=matrix[i][0];basefreqReverse=matrix[matrix.length-(i+1)][3];break;
-                 case 'C': case 'c': backgroundFreq=snf[1];backgroundFreqReverse=snf[2];basefreq=matrix[i][1];basefreqReverse=matrix[matrix.length-(i+1)][2];break;
-                 case 'G': case 'g': backgroundFreq=snf[2];backgroundFreqReverse=snf[1];basefreq=matrix[i][2];basefreqReverse=matrix[matrix.length-(i+1)][1];break;
-                 case 'T': case 't': backgroundFreq=snf[3];backgroundFreqReverse=snf[0];basefreq=matrix[i][3];basefreqReverse=matrix[matrix.length-(i+1)][0];break;
-             }
-             directscore+=(basefreq-backgroundFreq); // since both basefreq and backgroundFreq has been log-transformed previously, this equates to score+=Math.log(baseFreq/bgFreq)
-             reversescore+=(basefreqReverse-backgroundFreqReverse);
-         }
-         return new double[]{directscore,reversescore};
-    }
-    
-    private double[] matrixMatcherRaw(double[][] matrix, char[] sequence, int offset) {
-         double directscore=0, reversescore=0;        
-         for (int i=0;i<matrix.length;i++) {
-             char base=sequence[i+offset];
-             double basefreq=0;
-             double basefreqReverse=0;          
-             switch (base) {
-                 case 'A': case 'a': basefreq=matrix[i][0];basefreqReverse=matrix[matrix.length-(i+1)][3];break;
-                 case 'C': case 'c': basefreq=matrix[i][1];basefreqReverse=matrix[matrix.length-(i+1)][2];break;
-                 case 'G': case 'g': basefreq=matrix[i][2];basefreqReverse=matrix[matrix.length-(i+1)][1];break;
-                 case 'T': case 't': basefreq=matrix[i][3];basefreqReverse=matrix[matrix.length-(i+1)][0];break;
-             }
-             directscore+=basefreq; 
-             reversescore+=basefreqReverse;
-         }
-         return new double[]{directscore,reversescore};
-    }   
-    
-    
-    /**
-     * Log-transforms a matrix
-     */
-    private void logMatrix(double[][] matrix) {
-        for (int i=0;i<matrix.length;i++) {
-            for (int j=0;j<matrix[i].length;j++) {
-                matrix[i][j]=Math.log(matrix[i][j]);
-            }
-        }
-    }
-    
-   /** Returns an array containing (in order)
-    * [0] lowest obtainable score for a motif in a position given the 0-order background frequencies
-    * [1] highest obtainable score  for a motif in a position given the 0-order background frequencies
-    */
-   private double[] getMinMaxScores(double[][] matrix, double[] snf) {
-      double[] minmax=new double[2];
-      double minBackground=getMin(snf);
-      double maxBackground=getMax(snf);
-      for (int i=0;i<matrix.length;i++) {
-         double maxColumn=getMax(matrix,i);
-         double minColumn=getMin(matrix,i);
-         minmax[0]+=(minColumn-maxBackground);
-         minmax[1]+=(maxColumn-minBackground);
-      }
-      return minmax;
-   }
-   
-   
    /** Returns an array containing (in order)
     * [0] lowest obtainable score for a motif in a position
     * [1] highest obtainable score  for a motif in a position
@@ -230,18 +183,6 @@ public class AffinityScanner extends MotifScanning {
       return minmax;
    }
 
-   private double getMax(double[] values) {
-       double max=-Double.MAX_VALUE;
-       for (int i=0;i<values.length;i++) if (values[i]>max) max=values[i];
-       return max;
-   }
-
-   private double getMin(double[] values) {
-       double min=Double.MAX_VALUE;
-       for (int i=0;i<values.length;i++) if (values[i]<min) min=values[i];
-       return min;
-   }
-
    /** Returns the maximum value in the given base pos */
    private double getMax(double[][] values, int pos) {
        double max=-Double.MAX_VALUE;
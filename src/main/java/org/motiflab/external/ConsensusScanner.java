@@ -25,6 +25,7 @@ import org.motiflab.engine.data.RegionDataset;
 import org.motiflab.engine.data.RegionSequenceData;
 import org.motiflab.engine.data.Sequence;
 import org.motiflab.engine.data.SequenceCollection;
+import org.motiflab.engine.util.IUPACPatternMatcher;
 
 /**
  *
@@ -79,11 +80,14 @@ public class ConsensusScanner extends MotifScanning {
 //        }
 //        if (thresholdtype==ABSOLUTE && threshold>=18) engine.logMessage("Note: the selected absolute score threshold '"+threshold+"' might be a bit high. Suggested range: 0-15");
         HashMap<String,char[]> consensusTable=new HashMap<String, char[]>();
+        HashMap<String,IUPACPatternMatcher> matcherTable=new HashMap<String, IUPACPatternMatcher>();
         MotifCollection motifs=(MotifCollection)task.getParameter("Motif Collection");
         ArrayList<Motif> allMotifs=motifs.getAllMotifs(engine);
         for (Motif motif:allMotifs) { // search with each motif in turn
             String consensusmotif=motif.getConsensusMotif().toUpperCase();            
             consensusTable.put(motif.getName(),consensusmotif.toCharArray());
+            IUPACPatternMatcher matcher=getBitParallelMatcher(consensusmotif.toCharArray());
+            if (matcher!=null) matcherTable.put(motif.getName(),matcher);
         }     
         ArrayList<Sequence> sequences=sequenceCollection.getAllSequences(engine);
         int threads=engine.getConcurrentThreads();
@@ -97,7 +101,7 @@ public class ConsensusScanner extends MotifScanning {
                 String sequenceName=sequence.getName();
                 DNASequenceData sourceSequence=(DNASequenceData)sourceDataset.getSequenceByName(sequenceName);
                 RegionSequenceData targetSequence=(RegionSequenceData)targetDataset.getSequenceByName(sequenceName);
-                searchInSequence(sourceSequence,targetSequence, consensusTable, scoremode, thresholdtype, threshold, task);
+                searchInSequence(sourceSequence,targetSequence, consensusTable, matcherTable, scoremode, thresholdtype, threshold, task);
                 task.setStatusMessage("Executing ConsensusScanner:  ("+(i+1)+"/"+size+")");
                 task.setProgress(i+1, size);
                 i++;
@@ -106,7 +110,7 @@ public class ConsensusScanner extends MotifScanning {
         } else { // multiple threads
             int[] counters=new int[]{0,0,sequences.size()}; // counters[0]=#downloads started, [1]=#downloads completed, [2]=#total number of sequences
             ArrayList<ScanSequenceTask<RegionSequenceData>> scantasks=new ArrayList<ScanSequenceTask<RegionSequenceData>>(sequences.size());
-            for (Sequence sequence:sequences) scantasks.add(new ScanSequenceTask<RegionSequenceData>(sourceDataset,targetDataset, sequence.getName(), thresholdtype, threshold, scoremode, consensusTable, task, counters));
+            for (Sequence sequence:sequences) scantasks.add(new ScanSequenceTask<RegionSequenceData>(sourceDataset,targetDataset, sequence.getName(), thresholdtype, threshold, scoremode, consensusTable, matcherTable, task, counters));
             List<Future<RegionSequenceData>> futures=null;
             int countOK=0;            
             try {
@@ -134,7 +138,7 @@ public class ConsensusScanner extends MotifScanning {
     
     
     
-    public void searchInSequence(DNASequenceData sourceSequence, RegionSequenceData targetSequence, HashMap<String,char[]> consensusTable, int scoremode, int thresholdtype, double threshold, OperationTask task) throws Exception {
+    public void searchInSequence(DNASequenceData sourceSequence, RegionSequenceData targetSequence, HashMap<String,char[]> consensusTable, HashMap<String,IUPACPatternMatcher> matcherTable, int scoremode, int thresholdtype, double threshold, OperationTask task) throws Exception {
         String seqname=sourceSequence.getName();        
         int startOffset=sourceSequence.getRegionStart();             
         char[] sequence=(char[])sourceSequence.getValueInGenomicInterval(startOffset, sourceSequence.getRegionEnd());
@@ -148,6 +152,28 @@ public class ConsensusScanner extends MotifScanning {
             char[] consensus=consensusTable.get(motifname);
             int motifsize=consensus.length;
             double[] minmax=getMinMaxScores(consensus);            
+            IUPACPatternMatcher matcher=matcherTable.get(motifname);
+            if (matcher!=null) { // only windows that are compatible with every position in the consensus can be hits, and these are found with the bit-parallel matcher
+                final RegionSequenceData target=targetSequence;
+                final String type=motifname;
+                final char[] motif=consensus;
+                final char[] dna=sequence;
+                final int mode=scoremode;
+                final double[] range=minmax;
+                matcher.search(sequence, 0, true, true, new IUPACPatternMatcher.MatchHandler() {
+                    @Override
+                    public void matchFound(int start, int end, int mismatches, boolean reverse) {
+                        double[] scores=consensusMatcher(motif,dna,start);
+                        double score=(reverse)?scores[1]:scores[0];
+                        double relativeScore=(score-range[0])/(range[1]-range[0]); // convert to relative scores
+                        Region region=new Region(target,start,end,type,(mode==ABSOLUTE)?score:relativeScore,(reverse)?Region.REVERSE:Region.DIRECT);
+                        target.addRegionWithoutSorting(region);
+                    }
+                });
+                targetSequence.updateRegionSortOrder(); // this must be called since regions were added unsorted
+                Thread.yield();
+                continue;
+            }
       
             for (int i=0;i<=sequence.length-motifsize;i++) {                                
                 double[] scores=consensusMatcher(consensus,sequence,i);
@@ -170,6 +196,30 @@ public class ConsensusScanner extends MotifScanning {
         }       
     }
     
+    /**
+     * Returns a bit-parallel matcher which finds the windows that match every position of the consensus motif,
+     * or NULL if the motif must be matched with the regular scoring function.
+     * Since the required score is the sum of the highest scores for each position (see getMinMaxScores), 
+     * exact matches are equivalent to hits unless the motif contains enough B/D/H/V positions
+     * (which score 1/3 but only count as 0.3 towards the maximum) to make up for a mismatch.
+     */
+    private IUPACPatternMatcher getBitParallelMatcher(char[] consensusMotif) {
+        if (!IUPACPatternMatcher.isSupported(consensusMotif.length)) return null;
+        if (!(getMinMaxScores(consensusMotif)[1]>0)) return null;
+        int[] masks=new int[consensusMotif.length];
+        int threefold=0;
+        for (int i=0;i<consensusMotif.length;i++) {
+            switch(consensusMotif[i]) {
+                case 'A':case 'C': case 'G': case 'T':
+                case 'R':case 'Y': case 'K': case 'M':case 'W':case 'S': masks[i]=IUPACPatternMatcher.getIUPACMask(consensusMotif[i]);break;
+                case 'B':case 'D': case 'H': case 'V': masks[i]=IUPACPatternMatcher.getIUPACMask(consensusMotif[i]);threefold++;break;
+                default: masks[i]=IUPACPatternMatcher.MASK_ANY; // positions that do not contribute to the score accept anything
+            }
+        }
+        if (threefold>=10) return null; // the surplus from ten or more 3-fold positions could compensate for a mismatch
+        return new IUPACPatternMatcher(masks);
+    }
+    
     /** Returns an array containing (in order)
     * [0] lowest obtainable score for a motif in a position
     * [1] highest obtainable score  for a motif in a position
@@ -248,17 +298,19 @@ public class ConsensusScanner extends MotifScanning {
         final String sequencename;
         final OperationTask task;
         final HashMap<String,char[]> consensusTable;
+        final HashMap<String,IUPACPatternMatcher> matcherTable;
         final int scoremode;
         final int thresholdtype;
         final double threshold;       
         
-        public ScanSequenceTask(DNASequenceDataset sourceDataset, RegionDataset targetDataset, String sequencename, int thresholdtype, double threshold, int scoremode, HashMap<String,char[]> consensusTable, OperationTask task, int[] counters) {;
+        public ScanSequenceTask(DNASequenceDataset sourceDataset, RegionDataset targetDataset, String sequencename, int thresholdtype, double threshold, int scoremode, HashMap<String,char[]> consensusTable, HashMap<String,IUPACPatternMatcher> matcherTable, OperationTask task, int[] counters) {;
            this.counters=counters;
            this.sequencename=sequencename;
            this.sourceDataset=sourceDataset;
            this.targetDataset=targetDataset;    
            this.thresholdtype=thresholdtype;
            this.consensusTable=consensusTable;
+           this.matcherTable=matcherTable;
            this.scoremode=scoremode;
            this.threshold=threshold;
            this.task=task;           
@@ -275,7 +327,7 @@ public class ConsensusScanner extends MotifScanning {
             DNASequenceData sourceSequence=(DNASequenceData)sourceDataset.getSequenceByName(sequencename);
             org.motiflab.engine.data.RegionSequenceData targetSequence=(org.motiflab.engine.data.RegionSequenceData)targetDataset.getSequenceByName(sequencename);
             //motiflab.engine.data.RegionSequenceData targetSequence=(motiflab.engine.data.RegionSequenceData)targetDataset.getSequenceByName(sequencename);
-            searchInSequence(sourceSequence, targetSequence, consensusTable, scoremode, thresholdtype, threshold, task);
+            searchInSequence(sourceSequence, targetSequence, consensusTable, matcherTable, scoremode, thresholdtype, threshold, task);
             synchronized(counters) {
                 counters[1]++; // number of downloads finished
                 task.setProgress(counters[1], counters[2]);   
@@ -11,21 +11,27 @@ import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 import org.motiflab.engine.task.ExecutableTask;
+import org.motiflab.engine.BackgroundProbabilityCache;
 import org.motiflab.engine.ExecutionError;
-import org.motiflab.engine.MotifLabEngine;
+import org.motiflab.engine.ScoreDistributionCache;
 import org.motiflab.engine.TaskRunner;
 import org.motiflab.engine.task.OperationTask;
 import org.motiflab.engine.data.BackgroundModel;
 import org.motiflab.engine.data.DNASequenceData;
+import org.motiflab.engine.data.PackedDNASequence;
 import org.motiflab.engine.data.DNASequenceDataset;
 import org.motiflab.engine.data.Data;
 import org.motiflab.engine.data.Motif;
 import org.motiflab.engine.data.MotifCollection;
 import org.motiflab.engine.data.Region;
+import org.motiflab.engine.data.CompactRegionList;
 import org.motiflab.engine.data.RegionDataset;
 import org.motiflab.engine.data.RegionSequenceData;
 import org.motiflab.engine.data.Sequence;
 import org.motiflab.engine.data.SequenceCollection;
+import org.motiflab.engine.util.MotifScoreDistribution;
+import org.motiflab.engine.util.MotifScoringKernel;
+import org.motiflab.engine.util.SequenceTile;
 
 /**
  *
@@ -35,8 +41,10 @@ public class SimpleScanner extends MotifScanning {
     private static final int ABSOLUTE=0;
     private static final int RELATIVE=1;
     private static final int MATCH=2;
+    private static final int PVALUE=3;
 
     private static final int reportSpanLength=50000;
+    private static final int TASKS_PER_THREAD=4; // the number of tasks to aim for per thread when the work is divided between tasks
 
     public SimpleScanner() {
         this.name="SimpleScanner";
@@ -45,11 +53,12 @@ public class SimpleScanner extends MotifScanning {
 
         addSourceParameter("Sequence", DNASequenceDataset.class, null, null, "input sequences");
         addParameter("Motif Collection",MotifCollection.class, null,new Class[]{MotifCollection.class},null,true,false);
-        addParameter("Background", BackgroundModel.class, null, new Class[]{BackgroundModel.class},"<html>A background model which specifies expected single nucleotide frequencies.<br>Note that SimpleScanner is not able to use higher-order models</html>",false,false);
-        addParameter("Threshold type", String.class, "Percentage", new String[]{"Percentage","Absolute","MATCH"},"<html>Specifies whether the threshold value defined below should be interpreted as a relative threshold (% match) or absolute score threshold (log-odds score).<br>Absolute thresholds should preferably be equal to or higher than 0.<br>MATCH is a special relative threshold which uses the same scoring function as the MATCH algorithm.</html>",true,false);
+        addParameter("Background", BackgroundModel.class, null, new Class[]{BackgroundModel.class},"<html>A background model which specifies expected single nucleotide frequencies.<br>Higher-order models will take the preceding bases into account (this is not used with MATCH thresholds)</html>",false,false);
+        addParameter("Threshold type", String.class, "Percentage", new String[]{"Percentage","Absolute","MATCH","p-value"},"<html>Specifies whether the threshold value defined below should be interpreted as a relative threshold (% match) or absolute score threshold (log-odds score).<br>Absolute thresholds should preferably be equal to or higher than 0.<br>MATCH is a special relative threshold which uses the same scoring function as the MATCH algorithm.<br>p-value thresholds are converted to an absolute score threshold for each motif based on the score distribution of the motif<br>in random sequences generated from the single nucleotide frequencies of the background model.</html>",true,false);
         addParameter("Threshold", Double.class, 95, new Double[]{0.0,100.0},"Only sites that scores above or equal to this threshold value will be returned",true,false);
         addParameter("Score", String.class, "Absolute", new String[]{"Relative","Absolute"},"<html>Specifies whether the scores assigned to the returned sites should be absolute scores (log-odds score)<br>or relative scores (the absolute score divided by the highest achievable score for the motif)</html>",true,false);        
         addParameter("Pseudo", Double.class, 0.01, new Double[]{0.0,1000.0},"A pseudo-count which is added to each entry of the frequency matrix before the columns are renormalized",false,false,true);
+        addParameter("Lookahead", Boolean.class, Boolean.TRUE, new Boolean[]{Boolean.TRUE,Boolean.FALSE},"<html>If selected, the scanner will stop scoring a sequence window as soon as it is clear that the threshold can not be reached.<br>The most informative matrix columns are evaluated first. This does not change the results, but makes scanning with high thresholds faster.</html>",false,false,true);
         addResultParameter("Result", RegionDataset.class, null, null, "output track");
     }     
     
@@ -74,10 +83,13 @@ public class SimpleScanner extends MotifScanning {
         double pseudo=0.01;        
         Double pseudocount=(Double)task.getParameter("Pseudo");
         if (pseudocount!=null && pseudocount>=0) pseudo=pseudocount;
+        Boolean lookahead=(Boolean)task.getParameter("Lookahead");
+        if (lookahead==null) lookahead=Boolean.TRUE;
         int scoremode=ABSOLUTE;
         int thresholdtype=ABSOLUTE;
              if (thresholdtypestring.equalsIgnoreCase("Absolute")) thresholdtype=ABSOLUTE;
         else if (thresholdtypestring.equalsIgnoreCase("MATCH")) thresholdtype = MATCH;
+        else if (thresholdtypestring.equalsIgnoreCase("p-value") || thresholdtypestring.equalsIgnoreCase("pvalue")) thresholdtype = PVALUE;
         else if (thresholdtypestring.equalsIgnoreCase("Percentage") || thresholdtypestring.equalsIgnoreCase("Relative")) thresholdtype=RELATIVE;
              if (scoremodestring.equalsIgnoreCase("Absolute")) scoremode=ABSOLUTE;
         else if (scoremodestring.equalsIgnoreCase("Relative")) scoremode=RELATIVE;
@@ -87,38 +99,88 @@ public class SimpleScanner extends MotifScanning {
         snf[1]=Math.log(snf[1]);
         snf[2]=Math.log(snf[2]);
         snf[3]=Math.log(snf[3]);
+        // With higher-order models the background probability depends on the preceding bases. The kernels will then only score the matrix
+        // and the background probabilities for each position are taken from a precomputed track which is shared through the engine
+        BackgroundModel markovBackground=(background!=null && background.getOrder()>0 && thresholdtype!=MATCH && thresholdtype!=PVALUE)?background:null; // p-values are based on the SNF only
+        double[] backgroundRange=(markovBackground!=null)?BackgroundProbabilityCache.getLogProbabilityRange(markovBackground):snf;
         double threshold=(Double)task.getParameter("Threshold");
         if ((thresholdtype==RELATIVE || thresholdtype==MATCH) && threshold>1.0) { // threshold is given as a percentage number between 0 and 100, so divide by 100 to get a number between 0 and 1
             threshold=threshold/100.0;
             if (threshold>1.0) threshold=1.0;
         }
         if (thresholdtype==ABSOLUTE && threshold>=18) engine.logMessage("Note: the selected absolute score threshold '"+threshold+"' might be a bit high. Suggested range: 0-15");
-        HashMap<String,double[][]> matrixTable=new HashMap<String, double[][]>();
+        if (thresholdtype==PVALUE && (threshold<=0 || threshold>1)) throw new ExecutionError("The p-value threshold should be a number between 0 and 1");
+        HashMap<String,double[][]> pvalueMatrices=(thresholdtype==PVALUE)?new HashMap<String,double[][]>():null;
+        HashMap<String,MotifScoringKernel> kernelTable=new HashMap<String,MotifScoringKernel>();
+        HashMap<String,double[]> minmaxTable=new HashMap<String,double[]>();
         MotifCollection motifs=(MotifCollection)task.getParameter("Motif Collection");
         ArrayList<Motif> allMotifs=motifs.getAllMotifs(engine);
-        for (Motif motif:allMotifs) { // search with each motif in turn
-            double[][] matrix=motif.getMatrixAsFrequencyMatrixWithPseudo(pseudo);  
-            if (thresholdtype != MATCH) logMatrix(matrix); // NB: logMatrix(x) changes the argument!
-            matrixTable.put(motif.getName(),matrix);
+        for (Motif motif:allMotifs) { // compile a scoring kernel for each motif. The matrices are shared with the motif and must not be modified
+            if (thresholdtype == MATCH) {
+                double[][] matrix=motif.getSharedFrequencyMatrixWithPseudo(pseudo, false);
+                double[] IC=getICforColumns(matrix);
+                MotifScoringKernel kernel=MotifScoringKernel.createMATCHKernel(matrix, IC);
+                if (lookahead) kernel.enableLookahead(true);
+                kernelTable.put(motif.getName(),kernel);
+                minmaxTable.put(motif.getName(),getMATCHMinMaxScores(matrix));
+            } else {
+                if (pvalueMatrices!=null) pvalueMatrices.put(motif.getName(), motif.getSharedFrequencyMatrixWithPseudo(pseudo, false));
+                double[][] logmatrix=motif.getSharedLogMatrixWithPseudo(pseudo);
+                MotifScoringKernel kernel=MotifScoringKernel.createLogOddsKernel(logmatrix, (markovBackground!=null)?new double[4]:snf);
+                if (lookahead) kernel.enableLookahead(true);
+                kernelTable.put(motif.getName(),kernel);
+                minmaxTable.put(motif.getName(),motif.getLogOddsScoreRange(pseudo, backgroundRange));
+            }
         }     
+        HashMap<String,Double> cutoffTable=null; // score thresholds for each motif corresponding to the p-value threshold
+        if (pvalueMatrices!=null) {
+            double[] bgfrequencies=(background!=null)?background.getSNF():new double[]{0.25,0.25,0.25,0.25};
+            HashMap<String,MotifScoreDistribution> distributions=engine.getScoreDistributionCache().getDistributions(pvalueMatrices, bgfrequencies, pseudo, ScoreDistributionCache.DEFAULT_GRANULARITY, task);
+            cutoffTable=new HashMap<String,Double>(distributions.size());
+            for (String motifname:distributions.keySet()) cutoffTable.put(motifname, distributions.get(motifname).getScoreThreshold(threshold));
+        }
         ArrayList<Sequence> sequences=sequenceCollection.getAllSequences(engine);
-        long totalsize=0;
-        for (Sequence sequence:sequences) {totalsize+=sequence.getSize();}
-        totalsize=totalsize*motifs.size(); // total number of bp to search by all motifs combined
+        String[] motifnames=kernelTable.keySet().toArray(new String[kernelTable.size()]);
+        int maxMotifLength=0;
+        long totalMotifLength=0;
+        for (MotifScoringKernel kernel:kernelTable.values()) {
+            if (kernel.getLength()>maxMotifLength) maxMotifLength=kernel.getLength();
+            totalMotifLength+=kernel.getLength();
+        }
+        // long sequences are split into overlapping tiles that are scanned in parallel. The overlap allows motifs starting near the end of a tile to be matched in full
+        int threads=engine.getConcurrentThreads();
+        ArrayList<SequenceTile> tiles=SequenceTile.createTiles(sequences, maxMotifLength-1, threads);
+        // The work is further divided into blocks of motifs, so that large motif collections are also spread across the threads even if there are few sequences.
+        // The cost of scanning a tile with a motif is estimated as tile length x motif length, and the same cost model is used for progress reporting
+        long totalcost=0;
+        for (SequenceTile tile:tiles) totalcost+=tile.getSize()*totalMotifLength;
+        long targetcost=totalcost/((threads>0)?threads*TASKS_PER_THREAD:TASKS_PER_THREAD);
+        if (targetcost<=0) targetcost=1;
 
         TaskRunner taskRunner=engine.getTaskRunner();
-        task.setProgress(0L,totalsize);
-        long[] counters=new long[]{0,0,sequences.size(),0,totalsize}; // counters[0]=#sequences started, [1]=#sequences completed, [2]=#total number of sequences, [3]=total bp processed so far (by all motifs), [4]=total number of bp to process (combined sequence lengths * number of motifs)       
+        task.setProgress(0L,totalcost);
+        long[] counters=new long[]{0,0,0,0,totalcost}; // counters[0]=#tasks started, [1]=#tasks completed, [2]=#total number of tasks, [3]=estimated cost of the work processed so far (bp x motif length), [4]=total estimated cost
 
-        ArrayList<ScanSequenceTask<RegionSequenceData>> scantasks=new ArrayList<ScanSequenceTask<RegionSequenceData>>(sequences.size());
-        for (Sequence sequence:sequences) scantasks.add(new ScanSequenceTask<RegionSequenceData>(sourceDataset,targetDataset, sequence.getName(), thresholdtype, threshold, scoremode, snf, matrixTable, task, counters));
-        List<Future<RegionSequenceData>> futures=null;
+        ArrayList<ScanTileTask> scantasks=new ArrayList<ScanTileTask>(tiles.size());
+        for (SequenceTile tile:tiles) {
+            long tilecost=tile.getSize()*totalMotifLength;
+            int blocks=(int)Math.min(motifnames.length, (tilecost+targetcost-1)/targetcost);
+            for (String[] motifblock:partitionMotifs(motifnames, kernelTable, blocks)) {
+                scantasks.add(new ScanTileTask(sourceDataset,targetDataset, tile, motifblock, thresholdtype, threshold, scoremode, kernelTable, minmaxTable, cutoffTable, markovBackground, task, counters));
+            }
+        }
+        counters[2]=scantasks.size();
+        List<Future<CompactRegionList>> futures=null;
         int countOK=0;            
         try {
             futures=taskRunner.invokeAll(scantasks); // this call apparently blocks until all tasks finish (either normally or by exceptions or being cancelled)                             
-            for (Future<RegionSequenceData> future:futures) {
+            for (int i=0;i<futures.size();i++) {
+                Future<CompactRegionList> future=futures.get(i);
                 if (future.isDone() && !future.isCancelled()) {
-                    future.get(); // this blocks until completion but the return value is not used
+                    CompactRegionList regions=future.get(); // this blocks until completion
+                    // the regions from each task are added to the target sequence in order (by tile and then by motif block), so the result is the same as if the sequence had been scanned in one go
+                    RegionSequenceData targetSequence=(RegionSequenceData)targetDataset.getSequenceByName(scantasks.get(i).tile.getSequenceName());
+                    targetSequence.addCompactRegions(regions); // the sites are kept in compact form and Region objects are only created when needed
                     countOK++;
                 }
             }
@@ -127,9 +189,12 @@ public class SimpleScanner extends MotifScanning {
            if (e instanceof java.util.concurrent.ExecutionException) throw (Exception)e.getCause(); 
            else throw e; 
         }        
-        if (countOK!=sequences.size()) {
+        if (countOK!=scantasks.size()) {
             throw new ExecutionError("Some mysterious error occurred while scanning");
         }             
+        for (Sequence sequence:sequences) {
+            ((RegionSequenceData)targetDataset.getSequenceByName(sequence.getName())).updateRegionSortOrder(); // this must be called since regions were added unsorted
+        }
 
         task.checkExecutionLock(); // checks to see if this task should suspend execution
         if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();
@@ -138,46 +203,70 @@ public class SimpleScanner extends MotifScanning {
     
     
     
-    public void searchInSequence(DNASequenceData sourceSequence, RegionSequenceData targetSequence, HashMap<String,double[][]> matrixTable, int scoremode, int thresholdtype, double threshold, double[] snf, OperationTask task, long[] counters) throws Exception {
+    /**
+     * Searches one tile of a sequence with the given motifs and returns the hits (in unsorted order)
+     * If a higher-order background model is given, the kernels should only score the matrix and
+     * the background probabilities of each window are subtracted from the scores.
+     * If a cutoff table is given, the absolute score threshold for each motif is taken from this table instead
+     */
+    public CompactRegionList searchInSequence(DNASequenceData sourceSequence, RegionSequenceData targetSequence, SequenceTile tile, String[] motifnames, HashMap<String,MotifScoringKernel> kernelTable, HashMap<String,double[]> minmaxTable, int scoremode, int thresholdtype, double threshold, HashMap<String,Double> cutoffTable, BackgroundModel markovBackground, OperationTask task, long[] counters) throws Exception {
         String seqname=sourceSequence.getName();        
         int startOffset=sourceSequence.getRegionStart();             
-        char[] sequence=(char[])sourceSequence.getValueInGenomicInterval(startOffset, sourceSequence.getRegionEnd());
-        if (sequence==null) {
+        byte[] encoded=encodeTile(sourceSequence, tile); // the sequence is encoded only once and shared by all motifs
+        if (encoded==null) {
             if (sourceSequence.getRegionEnd()<startOffset) throw new ExecutionError("Something is wrong with the sequence \""+seqname+"\". Genomic end coordinate ("+sourceSequence.getRegionEnd()+") is before start coordinate ("+startOffset+").");
             else throw new ExecutionError("Empty sequence segment: "+seqname+":"+startOffset+"-"+sourceSequence.getRegionEnd());
         }
-        int reportEvery=(sequence.length>reportSpanLength)?reportSpanLength:Integer.MAX_VALUE; // for long sequences, update progress every 10Kbp
+        int reportEvery=(encoded.length>reportSpanLength)?reportSpanLength:Integer.MAX_VALUE; // for long sequences, update progress every 10Kbp
+        int tileStart=tile.getStart();
+        int lastWindow=tile.getSize()-1; // only windows starting within the tile itself are considered. The rest of the sequence is only used for the overlap
+        double[] directBackground=null, reverseBackground=null; // cumulative background log-probabilities for the positions in the tile
+        if (markovBackground!=null) {
+            BackgroundProbabilityCache cache=engine.getBackgroundProbabilityCache();
+            directBackground=BackgroundProbabilityCache.getCumulativeSums(cache.getLogProbabilities(sourceSequence, markovBackground, false), tileStart, tile.getOverlapEnd());
+            reverseBackground=BackgroundProbabilityCache.getCumulativeSums(cache.getLogProbabilities(sourceSequence, markovBackground, true), tileStart, tile.getOverlapEnd());
+        }
+        CompactRegionList hits=new CompactRegionList((scoremode==ABSOLUTE)?"relative score":"absolute score"); // the other type of score is included as a property
         
         int counter=0;
         int bpProcessedSinceLastUpdated=0;
-        for (String motifname:matrixTable.keySet()) { // search with each motif in turn
+        for (String motifname:motifnames) { // search with each motif in turn
             counter++;     
-            double[][] matrix=matrixTable.get(motifname);
-            double[] minmax=getMinMaxScores(matrix, snf); // these can probably be pre-calculated once for all sequences
-            int motifsize=matrix.length;
+            MotifScoringKernel kernel=kernelTable.get(motifname);
+            double[] minmax=minmaxTable.get(motifname);
+            int motifsize=kernel.getLength();
+            double motifThreshold=(cutoffTable!=null)?cutoffTable.get(motifname):threshold;
+            int motifThresholdType=(cutoffTable!=null)?ABSOLUTE:thresholdtype;
+            double cutoff=(motifThresholdType==ABSOLUTE)?motifThreshold:getAbsoluteCutoff(motifThreshold, minmax); // windows scoring below this can be abandoned early
             
-            for (int i=0;i<=sequence.length-motifsize;i++) {
+            int windows=Math.min(lastWindow, encoded.length-motifsize);
+            for (int i=0;i<=windows;i++) {
                 bpProcessedSinceLastUpdated++;
-                double[] scores=matrixMatcher(matrix,sequence,i,snf);
-                double relativeScoreDirect=(scores[0]-minmax[0])/(minmax[1]-minmax[0]); // convert to relative scores
-                double comparisonScoreDirect=(thresholdtype==ABSOLUTE)?scores[0]:relativeScoreDirect;
-                double relativeScoreReverse=(scores[1]-minmax[0])/(minmax[1]-minmax[0]); // convert to relative scores
-                double comparisonScoreReverse=(thresholdtype==ABSOLUTE)?scores[1]:relativeScoreReverse;
-                if (comparisonScoreDirect>=threshold) {
-                     Region region=new Region(targetSequence,i,i+motifsize-1,motifname,(scoremode==ABSOLUTE)?scores[0]:relativeScoreDirect,Region.DIRECT);
-                     if (scoremode==ABSOLUTE) region.setProperty("relative score", relativeScoreDirect); // include other type of score as well
-                     else region.setProperty("absolute score", scores[0]); // include other type of score as well
-                     targetSequence.addRegionWithoutSorting(region);
+                double directScore, reverseScore;
+                if (markovBackground==null) {
+                    directScore=kernel.scoreDirect(encoded,i,cutoff); // returns -Infinity if the window can not reach the cutoff
+                    reverseScore=kernel.scoreReverse(encoded,i,cutoff);
+                } else { // the cutoff for the matrix score is raised by the background probability of the window
+                    double directBackgroundScore=directBackground[i+motifsize]-directBackground[i];
+                    double reverseBackgroundScore=reverseBackground[i+motifsize]-reverseBackground[i];
+                    directScore=kernel.scoreDirect(encoded,i,cutoff+directBackgroundScore)-directBackgroundScore;
+                    reverseScore=kernel.scoreReverse(encoded,i,cutoff+reverseBackgroundScore)-reverseBackgroundScore;
+                }
+                double relativeScoreDirect=(directScore-minmax[0])/(minmax[1]-minmax[0]); // convert to relative scores
+                double comparisonScoreDirect=(motifThresholdType==ABSOLUTE)?directScore:relativeScoreDirect;
+                double relativeScoreReverse=(reverseScore-minmax[0])/(minmax[1]-minmax[0]); // convert to relative scores
+                double comparisonScoreReverse=(motifThresholdType==ABSOLUTE)?reverseScore:relativeScoreReverse;
+                if (comparisonScoreDirect>=motifThreshold) {
+                     int index=hits.add(tileStart+i,tileStart+i+motifsize-1,motifname,(scoremode==ABSOLUTE)?directScore:relativeScoreDirect,Region.DIRECT);
+                     hits.setProperty(index, 0, (scoremode==ABSOLUTE)?relativeScoreDirect:directScore); // include other type of score as well
                 }
-                if (comparisonScoreReverse>=threshold) {
-                     Region region=new Region(targetSequence,i,i+motifsize-1,motifname,(scoremode==ABSOLUTE)?scores[1]:relativeScoreReverse,Region.REVERSE);
-                     if (scoremode==ABSOLUTE) region.setProperty("relative score", relativeScoreReverse); // include other type of score as well
-                     else region.setProperty("absolute score", scores[1]); // include other type of score as well
-                     targetSequence.addRegionWithoutSorting(region);
+                if (comparisonScoreReverse>=motifThreshold) {
+                     int index=hits.add(tileStart+i,tileStart+i+motifsize-1,motifname,(scoremode==ABSOLUTE)?reverseScore:relativeScoreReverse,Region.REVERSE);
+                     hits.setProperty(index, 0, (scoremode==ABSOLUTE)?relativeScoreReverse:reverseScore); // include other type of score as well
                 }
                 if (bpProcessedSinceLastUpdated==reportEvery) {
                     synchronized(counters) { 
-                        counters[3]+=bpProcessedSinceLastUpdated; // number of bp processed so far in total
+                        counters[3]+=(long)bpProcessedSinceLastUpdated*motifsize; // cost of the work processed so far in total
                         bpProcessedSinceLastUpdated=0;
                         task.setProgress(counters[3],counters[4]);
                     }
@@ -186,8 +275,9 @@ public class SimpleScanner extends MotifScanning {
                     Thread.yield();
                 }
             } // end: for each bp in sequence
+            bpProcessedSinceLastUpdated+=tile.getSize()-Math.max(windows+1,0); // include the positions at the end of the sequence where the motif does not fit, so that the total matches the estimated cost
             synchronized(counters) { 
-                counters[3]+=bpProcessedSinceLastUpdated; // number of bp processed so far in total
+                counters[3]+=(long)bpProcessedSinceLastUpdated*motifsize; // cost of the work processed so far in total
                 bpProcessedSinceLastUpdated=0;
                 task.setProgress(counters[3],counters[4]);
             }         
@@ -195,48 +285,68 @@ public class SimpleScanner extends MotifScanning {
             if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();                            
             Thread.yield();
         } // end: for each motif          
-        targetSequence.updateRegionSortOrder(); // this must be called since regions were added unsorted       
+        return hits;
     }
     
-    public void searchWithMATCHinSequence(DNASequenceData sourceSequence, RegionSequenceData targetSequence, HashMap<String,double[][]> matrixTable, int scoremode, double threshold, OperationTask task, long[] counters) throws Exception {
+    /**
+     * Returns the bases in the tile (including the overlap) encoded as base indices for the scoring kernels,
+     * or null if the tile is outside the sequence. Packed sequences are encoded directly from the 2-bit words
+     */
+    private byte[] encodeTile(DNASequenceData sourceSequence, SequenceTile tile) {
+        PackedDNASequence packed=sourceSequence.getPackedSequence();
+        if (packed!=null) {
+            int end=Math.min(tile.getOverlapEnd(), packed.length()-1);
+            if (tile.getStart()<0 || end<tile.getStart()) return null;
+            return MotifScoringKernel.encodeSequence(packed, tile.getStart(), end+1);
+        }
+        int startOffset=sourceSequence.getRegionStart();
+        char[] sequence=(char[])sourceSequence.getValueInGenomicInterval(startOffset+tile.getStart(), startOffset+tile.getOverlapEnd());
+        if (sequence==null) return null;
+        return MotifScoringKernel.encodeSequence(sequence);
+    }
+
+    /**
+     * Searches one tile of a sequence with the given motifs using MATCH scores and returns the hits (in unsorted order)
+     * The regions are created with the target sequence as parent but are not added to the target
+     */
+    public CompactRegionList searchWithMATCHinSequence(DNASequenceData sourceSequence, RegionSequenceData targetSequence, SequenceTile tile, String[] motifnames, HashMap<String,MotifScoringKernel> kernelTable, HashMap<String,double[]> minmaxTable, int scoremode, double threshold, OperationTask task, long[] counters) throws Exception {
         String seqname=sourceSequence.getName();        
         int startOffset=sourceSequence.getRegionStart();             
-        char[] sequence=(char[])sourceSequence.getValueInGenomicInterval(startOffset, sourceSequence.getRegionEnd());
-        int reportEvery=(sequence.length>reportSpanLength)?reportSpanLength:Integer.MAX_VALUE; // for long sequences, update progress every 10Kbp
+        byte[] encoded=encodeTile(sourceSequence, tile); // the sequence is encoded only once and shared by all motifs
+        if (encoded==null) throw new ExecutionError("Empty sequence segment: "+seqname+":"+startOffset+"-"+sourceSequence.getRegionEnd());
+        int reportEvery=(encoded.length>reportSpanLength)?reportSpanLength:Integer.MAX_VALUE; // for long sequences, update progress every 10Kbp
+        int tileStart=tile.getStart();
+        int lastWindow=tile.getSize()-1; // only windows starting within the tile itself are considered. The rest of the sequence is only used for the overlap
+        CompactRegionList hits=new CompactRegionList((scoremode==ABSOLUTE)?"relative score":"absolute score"); // the other type of score is included as a property
         
         int counter=0;          
         int bpProcessedSinceLastUpdated=0;
        
-        for (String motifname:matrixTable.keySet()) { // search with each motif in turn
+        for (String motifname:motifnames) { // search with each motif in turn
             counter++;
-            //String consensus=((Motif)engine.getDataItem(motifname)).getConsensusMotif();            
-            double[][] matrix=matrixTable.get(motifname);
-            double[] minmax=getMATCHMinMaxScores(matrix);
-            double[] IC=getICforColumns(matrix);
-
-            //if (counter%100==0) Thread.yield();
-            int motifsize=matrix.length;
+            MotifScoringKernel kernel=kernelTable.get(motifname);
+            double[] minmax=minmaxTable.get(motifname);
+            int motifsize=kernel.getLength();
+            double cutoff=getAbsoluteCutoff(threshold, minmax); // windows scoring below this can be abandoned early
       
-            for (int i=0;i<=sequence.length-motifsize;i++) {  
+            int windows=Math.min(lastWindow, encoded.length-motifsize);
+            for (int i=0;i<=windows;i++) {
                 bpProcessedSinceLastUpdated++;
-                double[] scores=MATCHmatrixMatcher(matrix,sequence,i,IC);                
-                double relativeScoreDirect=(scores[0]-minmax[0])/(minmax[1]-minmax[0]); // convert to relative scores
-                double relativeScoreReverse=(scores[1]-minmax[0])/(minmax[1]-minmax[0]); // convert to relative scores
+                double directScore=kernel.scoreDirect(encoded,i,cutoff); // returns -Infinity if the window can not reach the cutoff
+                double reverseScore=kernel.scoreReverse(encoded,i,cutoff);
+                double relativeScoreDirect=(directScore-minmax[0])/(minmax[1]-minmax[0]); // convert to relative scores
+                double relativeScoreReverse=(reverseScore-minmax[0])/(minmax[1]-minmax[0]); // convert to relative scores
                 if (relativeScoreDirect>=threshold) {
-                     Region region=new Region(targetSequence,i,i+motifsize-1,motifname,(scoremode==ABSOLUTE)?scores[0]:relativeScoreDirect,Region.DIRECT);
-                     if (scoremode==ABSOLUTE) region.setProperty("relative score", relativeScoreDirect); // include other type of score as well
-                     else region.setProperty("absolute score", scores[0]); // include other type of score as well
-                     targetSequence.addRegionWithoutSorting(region);
+                     int index=hits.add(tileStart+i,tileStart+i+motifsize-1,motifname,(scoremode==ABSOLUTE)?directScore:relativeScoreDirect,Region.DIRECT);
+                     hits.setProperty(index, 0, (scoremode==ABSOLUTE)?relativeScoreDirect:directScore); // include other type of score as well
                 }
                 if (relativeScoreReverse>=threshold) {
-                     Region region=new Region(targetSequence,i,i+motifsize-1,motifname,(scoremode==ABSOLUTE)?scores[1]:relativeScoreReverse,Region.REVERSE);
-                     if (scoremode==ABSOLUTE) region.setProperty("relative score", relativeScoreReverse); // include other type of score as well
-                     else region.setProperty("absolute score", scores[1]); // include other type of score as well
-                     targetSequence.addRegionWithoutSorting(region);
+                     int index=hits.add(tileStart+i,tileStart+i+motifsize-1,motifname,(scoremode==ABSOLUTE)?reverseScore:relativeScoreReverse,Region.REVERSE);
+                     hits.setProperty(index, 0, (scoremode==ABSOLUTE)?relativeScoreReverse:reverseScore); // include other type of score as well
                 }
                 if (bpProcessedSinceLastUpdated==reportEvery) {
                     synchronized(counters) { 
-                        counters[3]+=bpProcessedSinceLastUpdated; // number of bp processed so far in total
+                        counters[3]+=(long)bpProcessedSinceLastUpdated*motifsize; // cost of the work processed so far in total
                         bpProcessedSinceLastUpdated=0;
                         task.setProgress(counters[3],counters[4]);
                     }
@@ -245,8 +355,9 @@ public class SimpleScanner extends MotifScanning {
                     Thread.yield();
                 }                
             } // end: for each bp in sequence
+            bpProcessedSinceLastUpdated+=tile.getSize()-Math.max(windows+1,0); // include the positions at the end of the sequence where the motif does not fit, so that the total matches the estimated cost
             synchronized(counters) { 
-                counters[3]+=bpProcessedSinceLastUpdated; // number of bp processed so far in total
+                counters[3]+=(long)bpProcessedSinceLastUpdated*motifsize; // cost of the work processed so far in total
                 bpProcessedSinceLastUpdated=0;
                 task.setProgress(counters[3],counters[4]);
             }
@@ -254,86 +365,44 @@ public class SimpleScanner extends MotifScanning {
             if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();                
             Thread.yield();            
         } // end: for each motif          
-        targetSequence.updateRegionSortOrder(); // this must be called since regions were added unsorted          
+        return hits;
     }    
       
     
-    /** Calculates an absolute match score according to the "usual equation" 
-     *  The match is calculated for both strands and returned as an array: double[]{matchdirect, matchreverse}
-     *  @param The matrix to be matched. This must have been log-transformed
-     *  @param sequence The full sequence which is to be searched
-     *  @param offset The offset into the sequence where the matrix is to be matched. The comparison is made at [offset, offset+matrix.length-1] in the sequence
-     *  @param snf A background distribution that has been log-transformed (single nucleotide frequency)
-     *  @return an array with two match scores for direct and reverse strand respectively
-     */
-    private double[] matrixMatcher(double[][] matrix, char[] sequence, int offset, double[] snf) {
-         double directscore=0, reversescore=0;        
-         for (int i=0;i<matrix.length;i++) {
-             char base=sequence[i+offset];
-             double basefreq=0;
-             double backgroundFreq=1;
-             double basefreqReverse=0;
-             double backgroundFreqReverse=1;             
-             switch (base) {
-                 case 'A': case 'a': backgroundFreq=snf[0];backgroundFreqReverse=snf[3];basefreq=matrix[i][0];basefreqReverse=matrix[matrix.length-(i+1)][3];break;
-                 case 'C': case 'c': backgroundFreq=snf[1];backgroundFreqReverse=snf[2];basefreq=matrix[i][1];basefreqReverse=matrix[matrix.length-(i+1)][2];break;
-                 case 'G': case 'g': backgroundFreq=snf[2];backgroundFreqReverse=snf[1];basefreq=matrix[i][2];basefreqReverse=matrix[matrix.length-(i+1)][1];break;
-                 case 'T': case 't': backgroundFreq=snf[3];backgroundFreqReverse=snf[0];basefreq=matrix[i][3];basefreqReverse=matrix[matrix.length-(i+1)][0];break;
-             }
-             directscore+=(basefreq-backgroundFreq); // since both basefreq and backgroundFreq has been log-transformed previously, this equates to score+=Math.log(baseFreq/bgFreq)
-             reversescore+=(basefreqReverse-backgroundFreqReverse);
-         }
-         return new double[]{directscore,reversescore};
-    }
-
-    private double[] matrixMatcher(double[][] matrix, char[] sequence, int offset, double[] directProb, double[] reverseProb) {
-         double directscore=0, reversescore=0;
-         for (int i=0;i<matrix.length;i++) {
-             char base=sequence[offset+i];
-             double basefreq=0;
-             double backgroundFreq=directProb[i];
-             double basefreqReverse=0;
-             double backgroundFreqReverse=reverseProb[i];
-             switch (base) {
-                 case 'A': case 'a': basefreq=matrix[i][0];basefreqReverse=matrix[matrix.length-(i+1)][3];break;
-                 case 'C': case 'c': basefreq=matrix[i][1];basefreqReverse=matrix[matrix.length-(i+1)][2];break;
-                 case 'G': case 'g': basefreq=matrix[i][2];basefreqReverse=matrix[matrix.length-(i+1)][1];break;
-                 case 'T': case 't': basefreq=matrix[i][3];basefreqReverse=matrix[matrix.length-(i+1)][0];break;
-             }
-             directscore+=(basefreq-backgroundFreq); // since both basefreq and backgroundFreq has been log-transformed previously, this equates to score+=Math.log(baseFreq/bgFreq)
-             reversescore+=(basefreqReverse-backgroundFreqReverse);
-         }
-         return new double[]{directscore,reversescore};
-    }
 
 
-    /** Calculates a match score according to the equations used by the MATCH algorithm
-     *  The match is calculated for both strands and returned as an array: double[]{matchdirect, matchreverse}
-     *  @param The matrix to be matched
-     *  @param sequence The full sequence which is to be searched
-     *  @param offset The offset into the sequence where the matrix is to be matched. The comparison is made at [offset, offset+matrix.length-1] in the sequence     * 
-     *  @param precalculated IC content for each column in the matrix 
-     *  @return an array with two match scores for direct and reverse strand respectively
+    /**
+     * Divides the motifs into (at most) the given number of consecutive blocks with approximately the same total motif length.
+     * The order of the motifs is preserved so that the hits from the blocks can be combined in the original order
      */
-    private double[] MATCHmatrixMatcher(double[][] matrix, char[] sequence, int offset, double[] IC) {
-         double directscore=0, reversescore=0;  
-         for (int i=0;i<matrix.length;i++) {
-             char base=sequence[i+offset];
-             double basefreqDirect=0;
-             double basefreqReverse=0;
-             switch (base) {
-                 case 'A': case 'a': basefreqDirect=matrix[i][0];basefreqReverse=matrix[matrix.length-(i+1)][3];break;
-                 case 'C': case 'c': basefreqDirect=matrix[i][1];basefreqReverse=matrix[matrix.length-(i+1)][2];break;
-                 case 'G': case 'g': basefreqDirect=matrix[i][2];basefreqReverse=matrix[matrix.length-(i+1)][1];break;
-                 case 'T': case 't': basefreqDirect=matrix[i][3];basefreqReverse=matrix[matrix.length-(i+1)][0];break;
-             }
-             directscore+=(IC[i]*basefreqDirect);
-             reversescore+=(IC[matrix.length-(i+1)]*basefreqReverse);
-             //System.err.println("["+(i+1)+"/"+subseq.length+"]  logodds="+logodds+"  score="+score+"   basefreq="+basefreq+"   backgroundFreq="+backgroundFreq);
-         }
-         return new double[]{directscore,reversescore};
+    private ArrayList<String[]> partitionMotifs(String[] motifnames, HashMap<String,MotifScoringKernel> kernelTable, int blocks) {
+        ArrayList<String[]> result=new ArrayList<String[]>();
+        if (blocks<=1 || motifnames.length<=1) {
+            result.add(motifnames);
+            return result;
+        }
+        long total=0;
+        for (String motifname:motifnames) total+=kernelTable.get(motifname).getLength();
+        long accumulated=0;
+        int first=0;
+        for (int i=0;i<motifnames.length;i++) {
+            accumulated+=kernelTable.get(motifnames[i]).getLength();
+            if (i==motifnames.length-1 || accumulated*blocks>=total*(result.size()+1)) {
+                result.add(java.util.Arrays.copyOfRange(motifnames, first, i+1));
+                first=i+1;
+            }
+        }
+        return result;
     }
 
+    /**
+     * Converts a relative threshold into the corresponding absolute score given the min and max scores for a motif.
+     * If the range is degenerate, -Infinity is returned so that no windows are abandoned early
+     */
+    private double getAbsoluteCutoff(double relativeThreshold, double[] minmax) {
+        if (!(minmax[1]>minmax[0])) return Double.NEGATIVE_INFINITY;
+        return minmax[0]+relativeThreshold*(minmax[1]-minmax[0]);
+    }
     
     private double[] getICforColumns(double[][] matrix) {
          double[] IC=new double[matrix.length];
@@ -343,36 +412,6 @@ public class SimpleScanner extends MotifScanning {
          return IC;
     }
     
-    /**
-     * Log-transforms a matrix
-     */
-    private void logMatrix(double[][] matrix) {
-        for (int i=0;i<matrix.length;i++) {
-            for (int j=0;j<matrix[i].length;j++) {
-                matrix[i][j]=Math.log(matrix[i][j]);
-            }
-        }
-    }
-    
-   /** Returns an array containing (in order)
-    * [0] lowest obtainable score for a motif in a position given the 0-order background frequencies
-    * [1] highest obtainable score  for a motif in a position given the 0-order background frequencies
-    */
-   private double[] getMinMaxScores(double[][] matrix, double[] snf) {
-      double[] minmax=new double[2];
-      double minBackground=getMin(snf);
-      double maxBackground=getMax(snf);
-      for (int i=0;i<matrix.length;i++) {
-         double maxColumn=getMax(matrix,i);
-         double minColumn=getMin(matrix,i);
-         minmax[0]+=(minColumn-maxBackground);
-         minmax[1]+=(maxColumn-minBackground);
-      }
-      return minmax;
-   }
-
-   
-   
     /** Returns an array containing (in order)
     * [0] lowest obtainable score for a motif in a position given the 0-order background frequencies
     * [1] highest obtainable score  for a motif in a position given the 0-order background frequencies
@@ -391,18 +430,6 @@ public class SimpleScanner extends MotifScanning {
       return minmax;
    }
 
-   private double getMax(double[] values) {
-       double max=-Double.MAX_VALUE;
-       for (int i=0;i<values.length;i++) if (values[i]>max) max=values[i];
-       return max;
-   }
-
-   private double getMin(double[] values) {
-       double min=Double.MAX_VALUE;
-       for (int i=0;i<values.length;i++) if (values[i]<min) min=values[i];
-       return min;
-   }
-
    /** Returns the maximum value in the given base pos */
    private double getMax(double[][] values, int pos) {
        double max=-Double.MAX_VALUE;
@@ -417,103 +444,57 @@ public class SimpleScanner extends MotifScanning {
        return min;
    }
 
-   /**
-    * Returns (log transformed) probabilities of observing the given base at each position according to the background model 
-    * @param sequence
-    * @param model
-    * @param reverse
-    * @return
-    */
-   private double[] deriveBackgroundProbabilities(char[] sequence, BackgroundModel model, boolean reverse) throws ExecutionError {
-      double[] prob=new double[sequence.length];
-      if (prob.length==0) return prob;
-      int order=(model!=null)?model.getOrder():0;
-      if (order==0) { // just use SNFs
-            double[] snf=(model!=null)?model.getSNF():new double[]{0.25,0.25,0.25,0.25};
-            for (int i=0;i<snf.length;i++) snf[i]=Math.log(snf[i]); // use log-transforms!
-            if (reverse) snf=new double[]{snf[3],snf[2],snf[1],snf[0]}; // reverse the snf
-            for (int i=0;i<sequence.length;i++) prob[i]=getSNF(sequence[i],snf);
-      } else if (!reverse) { // higher order model direct strand
-           prob[0]=model.getTransitionProbability("", sequence[0]);
-            for (int i=1;i<sequence.length;i++) {
-                char base=sequence[i];
-                int prefixStart=i-order;
-                int prefixEnd=i-1;
-                if (prefixStart<0) prefixStart=0;
-                String prefix=new String(sequence, prefixStart, prefixEnd-prefixStart+1);
-                prob[i]=model.getTransitionProbability(prefix, base);
-                prob[i]=Math.log(prob[i]);
-            }
-      } else { // higher order model reverse strand
-            int lastbase=sequence.length-1;
-            prob[lastbase]=model.getTransitionProbability("", sequence[lastbase]); // last base
-            for (int i=sequence.length-2;i>=0;i--) {
-                char base=sequence[i];
-                int prefixStart=i+1;
-                int prefixEnd=i+order;
-                if (prefixEnd>lastbase) prefixEnd=lastbase;
-                String prefix=new String(sequence, prefixStart, prefixEnd-prefixStart+1);
-                prob[i]=model.getTransitionProbability(MotifLabEngine.reverseSequence(prefix), base);
-                prob[i]=Math.log(prob[i]);
-            }
-      }
-      return prob;
-   }
 
-    private double getSNF(char base, double[] snf) {
-         switch(base) {
-          case 'A': case 'a': return snf[0];
-          case 'C': case 'c':  return snf[1];
-          case 'G': case 'g':  return snf[2];
-          case 'T': case 't':  return snf[3];
-          default: return 0;
-        }
-    }
     
-    private class ScanSequenceTask<RegionSequenceData> implements Callable<RegionSequenceData> {
+    private class ScanTileTask implements Callable<CompactRegionList> {
         final RegionDataset targetDataset;
         final DNASequenceDataset sourceDataset;
         final long[] counters; // NB: this array will be shared with other tasks since all tasks are given the same pointer
-        final String sequencename;
+        final SequenceTile tile;
+        final String[] motifnames; // the block of motifs to search for in this tile
         final OperationTask task;
-        final HashMap<String,double[][]> matrixTable;
+        final HashMap<String,MotifScoringKernel> kernelTable;
+        final HashMap<String,double[]> minmaxTable;
+        final HashMap<String,Double> cutoffTable;
+        final BackgroundModel markovBackground;
         final int scoremode;
         final int thresholdtype;
         final double threshold;
-        final double[] background;   
         
-        public ScanSequenceTask(DNASequenceDataset sourceDataset, RegionDataset targetDataset, String sequencename, int thresholdtype, double threshold, int scoremode, double[] background, HashMap<String,double[][]> matrixTable, OperationTask task, long[] counters) {
+        public ScanTileTask(DNASequenceDataset sourceDataset, RegionDataset targetDataset, SequenceTile tile, String[] motifnames, int thresholdtype, double threshold, int scoremode, HashMap<String,MotifScoringKernel> kernelTable, HashMap<String,double[]> minmaxTable, HashMap<String,Double> cutoffTable, BackgroundModel markovBackground, OperationTask task, long[] counters) {
            this.counters=counters;
-           this.sequencename=sequencename;
+           this.cutoffTable=cutoffTable;
+           this.markovBackground=markovBackground;
+           this.tile=tile;
+           this.motifnames=motifnames;
            this.sourceDataset=sourceDataset;
            this.targetDataset=targetDataset;    
            this.thresholdtype=thresholdtype;
-           this.matrixTable=matrixTable;
+           this.kernelTable=kernelTable;
+           this.minmaxTable=minmaxTable;
            this.scoremode=scoremode;
            this.threshold=threshold;
-           this.background=background;
            this.task=task;     
         }
         
         @Override
-        @SuppressWarnings("unchecked")
-        public RegionSequenceData call() throws Exception {
+        public CompactRegionList call() throws Exception {
             synchronized(counters) {
-                counters[0]++; // number of sequences started
+                counters[0]++; // number of tasks started
             }        
             task.checkExecutionLock(); // checks to see if this task should suspend execution
             if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();
-            DNASequenceData sourceSequence=(DNASequenceData)sourceDataset.getSequenceByName(sequencename);
-            org.motiflab.engine.data.RegionSequenceData targetSequence=(org.motiflab.engine.data.RegionSequenceData)targetDataset.getSequenceByName(sequencename);
-            //motiflab.engine.data.RegionSequenceData targetSequence=(motiflab.engine.data.RegionSequenceData)targetDataset.getSequenceByName(sequencename);
-            if (thresholdtype == MATCH) searchWithMATCHinSequence(sourceSequence,targetSequence, matrixTable, scoremode, threshold, task, counters);                              
-            else searchInSequence(sourceSequence,targetSequence, matrixTable, scoremode, thresholdtype, threshold, background, task, counters);
-            synchronized(counters) { // finished one of the sequences
-                counters[1]++; // number of sequences completed
+            DNASequenceData sourceSequence=(DNASequenceData)sourceDataset.getSequenceByName(tile.getSequenceName());
+            RegionSequenceData targetSequence=(RegionSequenceData)targetDataset.getSequenceByName(tile.getSequenceName());
+            CompactRegionList hits;
+            if (thresholdtype == MATCH) hits=searchWithMATCHinSequence(sourceSequence,targetSequence, tile, motifnames, kernelTable, minmaxTable, scoremode, threshold, task, counters);                              
+            else hits=searchInSequence(sourceSequence,targetSequence, tile, motifnames, kernelTable, minmaxTable, scoremode, thresholdtype, threshold, cutoffTable, markovBackground, task, counters);
+            synchronized(counters) { // finished one of the tasks
+                counters[1]++; // number of tasks completed
                 task.setStatusMessage("Executing SimpleScanner:  ("+counters[1]+"/"+counters[2]+")");
             }   
             if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();           
-            return (RegionSequenceData)targetSequence;
+            return hits;
         }   
     }    
   
@@ -27,6 +27,8 @@ import org.motiflab.engine.data.RegionSequenceData;
 import org.motiflab.engine.data.Sequence;
 import org.motiflab.engine.data.SequenceCollection;
 import org.motiflab.engine.data.TextVariable;
+import org.motiflab.engine.util.AhoCorasickMatcher;
+import org.motiflab.engine.util.SequenceTile;
 
 /**
  *
@@ -98,19 +100,33 @@ public class StringScanner extends MotifScanning {
         for (Sequence sequence:sequences) {totalsize+=sequence.getSize();}
         totalsize=totalsize*motifs.size(); // total number of bp to search by all motifs combined
 
+        CompiledBindingSequences compiled=compileBindingSequences(motifs); // a single automaton is used for all motifs and sequences
+        int maxPatternLength=0;
+        for (int i=0;i<compiled.matcher.getNumberOfPatterns();i++) {
+            if (compiled.matcher.getPattern(i).length()>maxPatternLength) maxPatternLength=compiled.matcher.getPattern(i).length();
+        }
+        // long sequences are split into overlapping tiles that are scanned in parallel. The overlap allows binding sequences starting near the end of a tile to be matched in full
+        ArrayList<SequenceTile> tiles=SequenceTile.createTiles(sequences, maxPatternLength-1, engine.getConcurrentThreads());
+
         TaskRunner taskRunner=engine.getTaskRunner();
         task.setProgress(0L,totalsize);
-        long[] counters=new long[]{0,0,sequences.size(),0,totalsize}; // counters[0]=#sequences started, [1]=#sequences completed, [2]=#total number of sequences, [3]=total bp processed so far (by all motifs), [4]=total number of bp to process (combined sequence lengths * number of motifs)       
+        long[] counters=new long[]{0,0,tiles.size(),0,totalsize}; // counters[0]=#tiles started, [1]=#tiles completed, [2]=#total number of tiles, [3]=total bp processed so far (by all motifs), [4]=total number of bp to process (combined sequence lengths * number of motifs)       
 
-        ArrayList<ScanSequenceTask<RegionSequenceData>> scantasks=new ArrayList<ScanSequenceTask<RegionSequenceData>>(sequences.size());
-        for (Sequence sequence:sequences) scantasks.add(new ScanSequenceTask<RegionSequenceData>(sourceDataset, targetDataset, sequence.getName(), motifs, allowVariableLengths, task, counters));
-        List<Future<RegionSequenceData>> futures=null;
+        ArrayList<ScanTileTask> scantasks=new ArrayList<ScanTileTask>(tiles.size());
+        for (SequenceTile tile:tiles) scantasks.add(new ScanTileTask(sourceDataset, targetDataset, tile, compiled, task, counters));
+        List<Future<ArrayList<Region>>> futures=null;
         int countOK=0;            
         try {
             futures=taskRunner.invokeAll(scantasks); // this call apparently blocks until all tasks finish (either normally or by exceptions or being cancelled)                             
-            for (Future<RegionSequenceData> future:futures) {
+            for (int i=0;i<futures.size();i++) {
+                Future<ArrayList<Region>> future=futures.get(i);
                 if (future.isDone() && !future.isCancelled()) {
-                    future.get(); // this blocks until completion but the return value is not used
+                    ArrayList<Region> regions=future.get(); // this blocks until completion
+                    // the regions from each tile are added to the target sequence in order, so the result is the same as if the sequence had been scanned in one go
+                    SequenceTile tile=tiles.get(i);
+                    RegionSequenceData targetSequence=(RegionSequenceData)targetDataset.getSequenceByName(tile.getSequenceName());
+                    for (Region region:regions) targetSequence.addRegionWithoutSorting(region);
+                    if (tile.getTileIndex()==tile.getNumberOfTiles()-1) targetSequence.updateRegionSortOrder(); // this must be called since regions were added unsorted
                     countOK++;
                 }
             }
@@ -119,7 +135,7 @@ public class StringScanner extends MotifScanning {
            if (e instanceof java.util.concurrent.ExecutionException) throw (Exception)e.getCause(); 
            else throw e; 
         }        
-        if (countOK!=sequences.size()) {
+        if (countOK!=tiles.size()) {
             throw new ExecutionError("Some mysterious error occurred while scanning");
         }             
 
@@ -131,129 +147,113 @@ public class StringScanner extends MotifScanning {
     
     private int getSetSize(Object set) {
         if (set instanceof HashSet) {
-            return ((HashSet)set).size();
+            return ((HashSet<?>)set).size();
         } else if (set instanceof HashMap) {
             int count=0;
-            for (Object key:((HashMap)set).keySet()) {
-                HashSet<String> val=(HashSet<String>)((HashMap)set).get(key);
-                if (val!=null) count+=val.size();
+            for (Object val:((HashMap<?,?>)set).values()) {
+                if (val!=null) count+=((HashSet<?>)val).size();
             }
             return count;
             
         } return 0;
     }
     
-    public void searchInSequence(DNASequenceData sourceSequence, RegionSequenceData targetSequence, HashMap<String,HashSet<String>> motifs, OperationTask task, long[] counters) throws Exception {
+    /**
+     * Searches one tile of a sequence for all binding sequences of all motifs in a single pass using the compiled automaton
+     * and returns the hits. The regions are created with the target sequence as parent but are not added to the target
+     */
+    public ArrayList<Region> searchInSequence(DNASequenceData sourceSequence, RegionSequenceData targetSequence, SequenceTile tile, CompiledBindingSequences compiled, OperationTask task, long[] counters) throws Exception {
         String seqname=sourceSequence.getName();        
         int startOffset=sourceSequence.getRegionStart();             
-        char[] sequence=(char[])sourceSequence.getValueInGenomicInterval(startOffset, sourceSequence.getRegionEnd());
+        char[] sequence=(char[])sourceSequence.getValueInGenomicInterval(startOffset+tile.getStart(), startOffset+tile.getOverlapEnd());
         if (sequence==null) {
             if (sourceSequence.getRegionEnd()<startOffset) throw new ExecutionError("Something is wrong with the sequence \""+seqname+"\". Genomic end coordinate ("+sourceSequence.getRegionEnd()+") is before start coordinate ("+startOffset+").");
             else throw new ExecutionError("Empty sequence segment: "+seqname+":"+startOffset+"-"+sourceSequence.getRegionEnd());
         }
-        int reportEvery=(sequence.length>reportSpanLength)?reportSpanLength:Integer.MAX_VALUE; // for long sequences, update progress every 10Kbp
-        
-        int counter=0;
-        int bpProcessedSinceLastUpdated=0;
-        for (String motifname:motifs.keySet()) { // search with each motif in turn
-            counter++;     
-            HashSet<String> bindingsequences=motifs.get(motifname);
-            String first=bindingsequences.iterator().next();
-            int motifsize=first.length();
-            
-            for (int i=0;i<=sequence.length-motifsize;i++) {
-                bpProcessedSinceLastUpdated++;
-                String directSequence=new String(sequence, i, motifsize);
-                String reverseSequence=MotifLabEngine.reverseSequence(directSequence);
-                
-                if (bindingsequences.contains(directSequence)) {
-                     Region region=new Region(targetSequence,i,i+motifsize-1,motifname,1,Region.DIRECT);
-                     targetSequence.addRegionWithoutSorting(region);
-                }
-                if (bindingsequences.contains(reverseSequence)) {
-                     Region region=new Region(targetSequence,i,i+motifsize-1,motifname,1,Region.REVERSE);
-                     targetSequence.addRegionWithoutSorting(region);
+        // The hits are collected per motif and returned in the same order as when the motifs were searched for one at a time
+        final List<ArrayList<Region>> hits=new ArrayList<ArrayList<Region>>(compiled.motifnames.length);
+        for (int m=0;m<compiled.motifnames.length;m++) hits.add(new ArrayList<Region>());
+        final RegionSequenceData target=targetSequence;
+        final CompiledBindingSequences motifs=compiled;
+        final int tileStart=tile.getStart();
+        final int lastStart=tile.getSize()-1; // matches starting in the overlap belong to the next tile
+        AhoCorasickMatcher.MatchHandler handler=new AhoCorasickMatcher.MatchHandler() {
+            @Override
+            public void matchFound(int pattern, int start, int end) {
+                if (start>lastStart) return;
+                int[] motifIndex=motifs.patternMotifs[pattern];
+                int[] orientation=motifs.patternOrientations[pattern];
+                for (int j=0;j<motifIndex.length;j++) {
+                    hits.get(motifIndex[j]).add(new Region(target,tileStart+start,tileStart+end,motifs.motifnames[motifIndex[j]],1,orientation[j]));
                 }
-                if (bpProcessedSinceLastUpdated==reportEvery) {
-                    synchronized(counters) { 
-                        counters[3]+=bpProcessedSinceLastUpdated; // number of bp processed so far in total
-                        bpProcessedSinceLastUpdated=0;
-                        task.setProgress(counters[3],counters[4]);
-                    }
-                    task.checkExecutionLock(); // checks to see if this task should suspend execution
-                    if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();                                   
-                    Thread.yield();
-                }
-            } // end: for each bp in sequence
+            }
+        };
+        long bpPerPosition=motifs.motifnames.length; // each position counts once for every motif in the progress accounting
+        int state=compiled.matcher.getInitialState();
+        for (int spanStart=0;spanStart<sequence.length;spanStart+=reportSpanLength) {
+            int spanEnd=Math.min(spanStart+reportSpanLength, sequence.length)-1;
+            state=compiled.matcher.search(sequence, spanStart, spanEnd, state, handler);
+            int processed=Math.min(spanEnd, lastStart)-spanStart+1; // positions in the overlap are counted by the next tile
             synchronized(counters) { 
-                counters[3]+=bpProcessedSinceLastUpdated; // number of bp processed so far in total
-                bpProcessedSinceLastUpdated=0;
+                if (processed>0) counters[3]+=processed*bpPerPosition; // number of bp processed so far in total
                 task.setProgress(counters[3],counters[4]);
-            }         
+            }
             task.checkExecutionLock(); // checks to see if this task should suspend execution
-            if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();                            
+            if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();                                   
             Thread.yield();
-        } // end: for each motif          
-        targetSequence.updateRegionSortOrder(); // this must be called since regions were added unsorted       
+        }
+        ArrayList<Region> result=new ArrayList<Region>();
+        for (ArrayList<Region> list:hits) result.addAll(list);
+        return result;
     }
     
-    
-    public void searchInSequenceVariable(DNASequenceData sourceSequence, RegionSequenceData targetSequence, HashMap<String,HashMap<Integer,HashSet<String>>> motifs, OperationTask task, long[] counters) throws Exception {
-        String seqname=sourceSequence.getName();        
-        int startOffset=sourceSequence.getRegionStart();             
-        char[] sequence=(char[])sourceSequence.getValueInGenomicInterval(startOffset, sourceSequence.getRegionEnd());
-        if (sequence==null) {
-            if (sourceSequence.getRegionEnd()<startOffset) throw new ExecutionError("Something is wrong with the sequence \""+seqname+"\". Genomic end coordinate ("+sourceSequence.getRegionEnd()+") is before start coordinate ("+startOffset+").");
-            else throw new ExecutionError("Empty sequence segment: "+seqname+":"+startOffset+"-"+sourceSequence.getRegionEnd());
+    /**
+     * Compiles an Aho-Corasick automaton for the binding sequences of all the motifs (in both orientations)
+     * @param motifs A map with either HashSet<String> or HashMap<Integer,HashSet<String>> values (see indexStrings)
+     */
+    private CompiledBindingSequences compileBindingSequences(HashMap<String,Object> motifs) {
+        AhoCorasickMatcher matcher=new AhoCorasickMatcher(false);
+        String[] motifnames=new String[motifs.size()];
+        ArrayList<int[]> tags=new ArrayList<int[]>(); // motif index and orientation for each occurrence of a pattern
+        int m=0;
+        for (String motifname:motifs.keySet()) {
+            motifnames[m]=motifname;
+            Object strings=motifs.get(motifname);
+            ArrayList<String> bindingsequences=new ArrayList<String>();
+            if (strings instanceof HashSet) {
+                for (Object string:(HashSet<?>)strings) bindingsequences.add((String)string);
+            } else if (strings instanceof HashMap) {
+                for (Object subset:((HashMap<?,?>)strings).values()) {
+                    for (Object string:(HashSet<?>)subset) bindingsequences.add((String)string);
+                }
+            }
+            for (String bindingsequence:bindingsequences) { // the direct orientation must be added before the reverse to keep the original order of sites
+                int direct=matcher.addPattern(bindingsequence);
+                if (direct>=0) tags.add(new int[]{direct,m,Region.DIRECT});
+                int reverse=matcher.addPattern(MotifLabEngine.reverseSequence(bindingsequence));
+                if (reverse>=0) tags.add(new int[]{reverse,m,Region.REVERSE});
+            }
+            m++;
         }
-        int reportEvery=(sequence.length>reportSpanLength)?reportSpanLength:Integer.MAX_VALUE; // for long sequences, update progress every 10Kbp
-        
-        int counter=0;
-        double bpProcessedSinceLastUpdated=0;
-        for (String motifname:motifs.keySet()) { // search with each motif in turn
-            counter++;     
-            HashMap<Integer,HashSet<String>> subgroups=motifs.get(motifname);
-            int subgroupcount=subgroups.size();
-            
-            for (Integer motifsize:subgroups.keySet()) {
-                HashSet<String> bindingsequences=subgroups.get(motifsize);
-                for (int i=0;i<=sequence.length-motifsize;i++) {
-                    bpProcessedSinceLastUpdated+=(1.0/subgroupcount);
-                    String directSequence=new String(sequence, i, motifsize);
-                    String reverseSequence=MotifLabEngine.reverseSequence(directSequence);
-
-                    if (bindingsequences.contains(directSequence)) {
-                         Region region=new Region(targetSequence,i,i+motifsize-1,motifname,1,Region.DIRECT);
-                         targetSequence.addRegionWithoutSorting(region);
-                    }
-                    if (bindingsequences.contains(reverseSequence)) {
-                         Region region=new Region(targetSequence,i,i+motifsize-1,motifname,1,Region.REVERSE);
-                         targetSequence.addRegionWithoutSorting(region);
-                    }
-                    if (bpProcessedSinceLastUpdated>=reportEvery) {
-                        synchronized(counters) { 
-                            counters[3]+=bpProcessedSinceLastUpdated; // number of bp processed so far in total
-                            bpProcessedSinceLastUpdated=0;
-                            task.setProgress(counters[3],counters[4]);
-                        }
-                        task.checkExecutionLock(); // checks to see if this task should suspend execution
-                        if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();                                   
-                        Thread.yield();
-                    }
-               } // end: for each bp in sequence
-            } // end for each length subgroup
-            synchronized(counters) { 
-                counters[3]+=bpProcessedSinceLastUpdated; // number of bp processed so far in total
-                bpProcessedSinceLastUpdated=0;
-                task.setProgress(counters[3],counters[4]);
-            }         
-            task.checkExecutionLock(); // checks to see if this task should suspend execution
-            if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();                            
-            Thread.yield();
-        } // end: for each motif          
-        targetSequence.updateRegionSortOrder(); // this must be called since regions were added unsorted       
-    }    
-    
+        matcher.compile();
+        int patterns=matcher.getNumberOfPatterns();
+        int[] tagcount=new int[patterns];
+        for (int[] tag:tags) tagcount[tag[0]]++;
+        int[][] patternMotifs=new int[patterns][];
+        int[][] patternOrientations=new int[patterns][];
+        for (int p=0;p<patterns;p++) {
+            patternMotifs[p]=new int[tagcount[p]];
+            patternOrientations[p]=new int[tagcount[p]];
+            tagcount[p]=0;
+        }
+        for (int[] tag:tags) {
+            int p=tag[0];
+            patternMotifs[p][tagcount[p]]=tag[1];
+            patternOrientations[p][tagcount[p]]=tag[2];
+            tagcount[p]++;
+        }
+        return new CompiledBindingSequences(matcher, motifnames, patternMotifs, patternOrientations);
+    }
     
     /** @return Either HashSet<String> or HashMap<Integer,HashSet<String>> */
     private Object processSingleMotif(Motif motif, String propertyName, boolean allowVariableLengths) throws ExecutionError {
@@ -328,45 +328,56 @@ public class StringScanner extends MotifScanning {
     }    
     
       
-    private class ScanSequenceTask<RegionSequenceData> implements Callable<RegionSequenceData> {
+    private class ScanTileTask implements Callable<ArrayList<Region>> {
         final RegionDataset targetDataset;
         final DNASequenceDataset sourceDataset;
         final long[] counters; // NB: this array will be shared with other tasks since all tasks are given the same pointer
-        final String sequencename;
+        final SequenceTile tile;
         final OperationTask task;
-        final Object motifs;
-        final boolean allowVariableLengths;
+        final CompiledBindingSequences compiled;
 
         
-        public ScanSequenceTask(DNASequenceDataset sourceDataset, RegionDataset targetDataset, String sequencename, HashMap<String,Object> motifs, boolean allowVariableLengths, OperationTask task, long[] counters) {
+        public ScanTileTask(DNASequenceDataset sourceDataset, RegionDataset targetDataset, SequenceTile tile, CompiledBindingSequences compiled, OperationTask task, long[] counters) {
            this.counters=counters;
-           this.sequencename=sequencename;
+           this.tile=tile;
            this.sourceDataset=sourceDataset;
            this.targetDataset=targetDataset;    
-           this.motifs=motifs;
-           this.allowVariableLengths=allowVariableLengths;
+           this.compiled=compiled;
            this.task=task;     
         }
         
         @Override
-        @SuppressWarnings("unchecked")
-        public RegionSequenceData call() throws Exception {
+        public ArrayList<Region> call() throws Exception {
             synchronized(counters) {
-                counters[0]++; // number of sequences started
+                counters[0]++; // number of tiles started
             }        
             task.checkExecutionLock(); // checks to see if this task should suspend execution
             if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();
-            DNASequenceData sourceSequence=(DNASequenceData)sourceDataset.getSequenceByName(sequencename);
-            org.motiflab.engine.data.RegionSequenceData targetSequence=(org.motiflab.engine.data.RegionSequenceData)targetDataset.getSequenceByName(sequencename);
-            if (allowVariableLengths) searchInSequenceVariable(sourceSequence,targetSequence, (HashMap<String,HashMap<Integer,HashSet<String>>>)motifs, task, counters);
-            else searchInSequence(sourceSequence,targetSequence, (HashMap<String,HashSet<String>>)motifs, task, counters);
-            synchronized(counters) { // finished one of the sequences
-                counters[1]++; // number of sequences completed
+            DNASequenceData sourceSequence=(DNASequenceData)sourceDataset.getSequenceByName(tile.getSequenceName());
+            RegionSequenceData targetSequence=(RegionSequenceData)targetDataset.getSequenceByName(tile.getSequenceName());
+            ArrayList<Region> hits=searchInSequence(sourceSequence,targetSequence, tile, compiled, task, counters);
+            synchronized(counters) { // finished one of the tiles
+                counters[1]++; // number of tiles completed
                 task.setStatusMessage("Executing StringScanner:  ("+counters[1]+"/"+counters[2]+")");
             }   
             if (Thread.interrupted() || task.getStatus().equals(ExecutableTask.ABORTED)) throw new InterruptedException();           
-            return (RegionSequenceData)targetSequence;
+            return hits;
         }   
     }    
+    
+    /** The compiled automaton for all binding sequences together with information about which motif (and orientation) each pattern belongs to */
+    private static class CompiledBindingSequences {
+        final AhoCorasickMatcher matcher;
+        final String[] motifnames;
+        final int[][] patternMotifs; // the indices of the motifs that have the pattern as a binding sequence
+        final int[][] patternOrientations; // the orientation of the pattern relative to each of those binding sequences
+        
+        public CompiledBindingSequences(AhoCorasickMatcher matcher, String[] motifnames, int[][] patternMotifs, int[][] patternOrientations) {
+            this.matcher=matcher;
+            this.motifnames=motifnames;
+            this.patternMotifs=patternMotifs;
+            this.patternOrientations=patternOrientations;
+        }
+    }
   
 }
\ No newline at end of file
@@ -340,6 +340,10 @@ public class PreferencesDialog extends javax.swing.JDialog {
         if (settingname.equals(MotifLabEngine.PREFERENCES_USE_CACHE_FEATUREDATA)) engine.getDataLoader().setUseCache((Boolean)useValue);
         if (settingname.equals(MotifLabEngine.PREFERENCES_USE_CACHE_GENE_ID_MAPPING)) engine.getGeneIDResolver().setUseCache((Boolean)useValue);
         if (settingname.equals(MotifLabEngine.PREFERENCES_AUTO_CORRECT_SEQUENCE_NAMES)) engine.setAutoCorrectSequenceNames((Boolean)useValue);
+        if (settingname.equals(MotifLabEngine.PREFERENCES_PACK_DNA_SEQUENCES)) engine.setPackDNASequences((Boolean)useValue);
+        if (settingname.equals(MotifLabEngine.PREFERENCES_COMPACT_NUMERIC_DATA)) engine.setCompactNumericData((Boolean)useValue);
+        if (settingname.equals(MotifLabEngine.PREFERENCES_VECTORIZED_ARITHMETIC)) engine.setVectorizedArithmetic((Boolean)useValue);
+        if (settingname.equals(MotifLabEngine.PREFERENCES_FEATURE_DATA_MEMORY_BUDGET)) engine.setFeatureDataMemoryBudget((Integer)useValue);
         if (settingname.equals(MotifLabEngine.PREFERENCES_NETWORK_TIMEOUT)) engine.setNetworkTimeout((Integer)useValue);
         if (settingname.equals(MotifLabEngine.MAX_SEQUENCE_LENGTH)) engine.setMaxSequenceLength((Integer)useValue);
         if (settingname.equals(MotifLabEngine.CONCURRENT_THREADS)) engine.setConcurrentThreads((Integer)useValue);
@@ -416,6 +420,10 @@ public class PreferencesDialog extends javax.swing.JDialog {
         if (name.equals(MotifLabEngine.PREFERENCES_USE_CACHE_FEATUREDATA)) return new Object[]{MotifLabEngine.class,Boolean.class};
         if (name.equals(MotifLabEngine.PREFERENCES_USE_CACHE_GENE_ID_MAPPING)) return new Object[]{MotifLabEngine.class,Boolean.class};
         if (name.equals(MotifLabEngine.PREFERENCES_AUTO_CORRECT_SEQUENCE_NAMES)) return new Object[]{MotifLabEngine.class,Boolean.class};
+        if (name.equals(MotifLabEngine.PREFERENCES_PACK_DNA_SEQUENCES)) return new Object[]{MotifLabEngine.class,Boolean.class};
+        if (name.equals(MotifLabEngine.PREFERENCES_COMPACT_NUMERIC_DATA)) return new Object[]{MotifLabEngine.class,Boolean.class};
+        if (name.equals(MotifLabEngine.PREFERENCES_VECTORIZED_ARITHMETIC)) return new Object[]{MotifLabEngine.class,Boolean.class};
+        if (name.equals(MotifLabEngine.PREFERENCES_FEATURE_DATA_MEMORY_BUDGET)) return new Object[]{MotifLabEngine.class,Integer.class};
         if (name.equals(MotifLabEngine.PREFERENCES_NETWORK_TIMEOUT)) return new Object[]{MotifLabEngine.class,Integer.class};
         if (name.equals(MotifLabEngine.MAX_SEQUENCE_LENGTH)) return new Object[]{MotifLabEngine.class,Integer.class};
         if (name.equals(MotifLabEngine.MAX_CONCURRENT_DOWNLOADS)) return new Object[]{MotifLabEngine.class,Integer.class};
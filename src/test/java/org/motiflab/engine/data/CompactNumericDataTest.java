@@ -0,0 +1,230 @@
+package org.motiflab.engine.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that values stored in the compact encodings of CompactNumericData are decoded to the same values
+ * as in the original array (or within the expected precision for the lossy encodings),
+ * and that numeric sequences stored in compact form behave the same as sequences with a plain array
+ *
+ * @author kjetikl
+ */
+public class CompactNumericDataTest {
+
+    private static final int LENGTH=1000;
+    private static final int[] EXACT_MODES=new int[]{CompactNumericData.RUN_LENGTH, CompactNumericData.SPARSE};
+
+    private Random random;
+    private ArrayList<double[]> datasets;
+
+    public CompactNumericDataTest() {
+    }
+
+    @Before
+    public void setUp() {
+        random=new Random(42);
+        datasets=new ArrayList<double[]>();
+        datasets.add(new double[0]);
+        datasets.add(new double[]{3.5});
+        datasets.add(new double[]{Double.NaN});
+        double[] runs=new double[LENGTH]; // piecewise constant
+        double current=0;
+        for (int i=0;i<LENGTH;i++) {
+            if (random.nextInt(20)==0) current=random.nextInt(5);
+            runs[i]=current;
+        }
+        datasets.add(runs);
+        double[] sparse=new double[LENGTH]; // mostly zero, including a value at the first and last position
+        for (int i=0;i<LENGTH;i++) if (random.nextInt(30)==0) sparse[i]=random.nextGaussian();
+        sparse[0]=1; sparse[LENGTH-1]=-1;
+        datasets.add(sparse);
+        double[] floats=new double[LENGTH]; // exact as single precision
+        for (int i=0;i<LENGTH;i++) floats[i]=(float)random.nextGaussian();
+        datasets.add(floats);
+        double[] levels=new double[LENGTH]; // few distinct levels with a common step
+        for (int i=0;i<LENGTH;i++) levels[i]=-2+0.25*random.nextInt(40);
+        datasets.add(levels);
+        double[] special=new double[LENGTH]; // random values with some special values
+        for (int i=0;i<LENGTH;i++) special[i]=random.nextGaussian();
+        special[1]=Double.NaN; special[2]=Double.NaN; special[3]=-0.0; special[4]=0.0; special[5]=Double.POSITIVE_INFINITY; special[LENGTH-1]=Double.NEGATIVE_INFINITY;
+        datasets.add(special);
+    }
+
+    private static void assertSameValue(String message, double expected, double actual) {
+        assertEquals(message, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+
+    /** Checks that single values are decoded correctly with sequential, reverse and random access (which use the cursor in different ways) */
+    private void assertSameValues(double[] expected, CompactNumericData compact) {
+        String mode=CompactNumericData.getModeName(compact.getMode());
+        assertEquals(mode, expected.length, compact.length());
+        for (int i=0;i<expected.length;i++) assertSameValue(mode+" position "+i, expected[i], compact.getValue(i));
+        for (int i=expected.length-1;i>=0;i--) assertSameValue(mode+" position "+i, expected[i], compact.getValue(i));
+        for (int j=0;j<expected.length;j++) {
+            int i=random.nextInt(expected.length);
+            assertSameValue(mode+" position "+i, expected[i], compact.getValue(i));
+        }
+        double[] decoded=compact.toArray();
+        for (int i=0;i<expected.length;i++) assertSameValue(mode+" position "+i, expected[i], decoded[i]);
+    }
+
+    /** Checks that segments are decoded correctly, including empty segments and segments at the start and end */
+    private void assertSameSegments(double[] expected, CompactNumericData compact) {
+        String mode=CompactNumericData.getModeName(compact.getMode());
+        int length=expected.length;
+        int[][] segments=new int[][]{{0,length},{0,0},{length,length},{0,Math.min(1,length)},{Math.max(0,length-1),length}};
+        for (int[] segment:segments) assertSameSegment(mode, expected, compact, segment[0], segment[1]);
+        for (int j=0;j<100 && length>0;j++) {
+            int start=random.nextInt(length);
+            int end=start+random.nextInt(length-start+1);
+            assertSameSegment(mode, expected, compact, start, end);
+        }
+    }
+
+    private static void assertSameSegment(String mode, double[] expected, CompactNumericData compact, int start, int end) {
+        double[] destination=new double[end-start+2];
+        destination[0]=-7; destination[destination.length-1]=-7;
+        compact.getValues(start, end, destination, 1);
+        assertSameValue(mode, -7, destination[0]); // the values outside the segment should not be touched
+        assertSameValue(mode, -7, destination[destination.length-1]);
+        for (int i=start;i<end;i++) assertSameValue(mode+" segment "+start+"-"+end+", position "+i, expected[i], destination[i-start+1]);
+        CompactNumericData segment=compact.getSegment(start, end);
+        assertEquals(mode, compact.getMode(), segment.getMode());
+        assertEquals(end-start, segment.length());
+        for (int i=start;i<end;i++) assertSameValue(mode+" segment "+start+"-"+end+", position "+i, expected[i], segment.getValue(i-start));
+    }
+
+    /**
+     * Test of the RUN_LENGTH and SPARSE encodings, which should always be exact.
+     */
+    @Test
+    public void testExactEncodings() {
+        for (double[] values:datasets) {
+            for (int mode:EXACT_MODES) {
+                CompactNumericData compact=CompactNumericData.create(values, mode);
+                assertEquals(mode, compact.getMode());
+                assertSameValues(values, compact);
+                assertSameSegments(values, compact);
+            }
+        }
+    }
+
+    /**
+     * Test of createCompact method, of class CompactNumericData.
+     * The selected encoding should be exact and smaller than the plain array.
+     */
+    @Test
+    public void testAutomaticEncoding() {
+        int compacted=0;
+        for (double[] values:datasets) {
+            CompactNumericData compact=CompactNumericData.create(values, CompactNumericData.AUTOMATIC);
+            if (compact==null) continue;
+            compacted++;
+            assertTrue(compact.getMemoryUsage()<values.length*8L);
+            assertSameValues(values, compact);
+            assertSameSegments(values, compact);
+        }
+        assertEquals(CompactNumericData.RUN_LENGTH, CompactNumericData.createCompact(datasets.get(3)).getMode());
+        assertEquals(CompactNumericData.SPARSE, CompactNumericData.createCompact(datasets.get(4)).getMode());
+        assertEquals(CompactNumericData.FLOAT, CompactNumericData.createCompact(datasets.get(5)).getMode());
+        assertEquals(CompactNumericData.QUANTIZED, CompactNumericData.createCompact(datasets.get(6)).getMode());
+        assertNull(CompactNumericData.createCompact(datasets.get(7))); // random doubles can not be stored exactly in less space
+        assertTrue(compacted>=4);
+    }
+
+    /**
+     * Test of the FLOAT and QUANTIZED encodings, which reduce the precision of the values.
+     */
+    @Test
+    public void testLossyEncodings() {
+        for (double[] values:datasets) {
+            CompactNumericData floats=CompactNumericData.create(values, CompactNumericData.FLOAT);
+            double[] expected=new double[values.length];
+            for (int i=0;i<values.length;i++) expected[i]=(float)values[i];
+            assertSameValues(expected, floats);
+            assertSameSegments(expected, floats);
+            CompactNumericData quantized=CompactNumericData.create(values, CompactNumericData.QUANTIZED);
+            assertEquals(values.length, quantized.length());
+            double min=Double.POSITIVE_INFINITY, max=Double.NEGATIVE_INFINITY;
+            for (double value:values) {
+                if (Double.isNaN(value) || Double.isInfinite(value)) continue;
+                min=Math.min(min, value);
+                max=Math.max(max, value);
+            }
+            double tolerance=(max>min)?(max-min)/255/2*1.0001:0;
+            double[] decoded=quantized.toArray();
+            for (int i=0;i<values.length;i++) {
+                if (Double.isNaN(values[i]) || Double.isInfinite(values[i])) continue;
+                assertEquals("Position "+i, values[i], quantized.getValue(i), tolerance);
+                assertSameValue("Position "+i, quantized.getValue(i), decoded[i]);
+            }
+            assertSameSegments(decoded, quantized);
+        }
+        double[] levels=datasets.get(6);
+        assertSameValues(levels, CompactNumericData.create(levels, CompactNumericData.QUANTIZED)); // exact when the values are on a common step
+    }
+
+    /**
+     * Test that compact data can be serialized (the cursor is transient).
+     */
+    @Test
+    public void testSerialization() throws Exception {
+        for (double[] values:datasets) {
+            for (int mode:new int[]{CompactNumericData.RUN_LENGTH, CompactNumericData.SPARSE, CompactNumericData.FLOAT, CompactNumericData.QUANTIZED}) {
+                CompactNumericData compact=CompactNumericData.create(values, mode);
+                if (values.length>0) compact.getValue(values.length-1); // move the cursor
+                ByteArrayOutputStream buffer=new ByteArrayOutputStream();
+                ObjectOutputStream output=new ObjectOutputStream(buffer);
+                output.writeObject(compact);
+                output.close();
+                CompactNumericData copy=(CompactNumericData)new ObjectInputStream(new ByteArrayInputStream(buffer.toByteArray())).readObject();
+                assertSameValues(compact.toArray(), copy);
+            }
+        }
+    }
+
+    /**
+     * Test of compact method, of class NumericSequenceData.
+     * A compacted sequence should return the same values as the plain sequence, and be expanded when modified.
+     */
+    @Test
+    public void testCompactSequence() throws Exception {
+        for (double[] values:datasets) {
+            if (values.length==0) continue; // sequences have at least one position
+            NumericSequenceData plain=new NumericSequenceData("seq1", "chr1", 1000, 1000+values.length-1, values.clone());
+            NumericSequenceData compact=new NumericSequenceData("seq1", "chr1", 1000, 1000+values.length-1, values.clone());
+            if (!compact.compact(CompactNumericData.RUN_LENGTH)) fail("The sequence could not be compacted");
+            assertTrue(compact.isCompact());
+            for (int i=0;i<values.length;i++) assertSameValue("Position "+i, plain.getValueAtRelativePosition(i), compact.getValueAtRelativePosition(i));
+            int end=1000+values.length-1;
+            assertArrayEquals((double[])plain.getValueInGenomicInterval(900, end+10), (double[])compact.getValueInGenomicInterval(900, end+10), 0);
+            assertArrayEquals((double[])plain.getValueInGenomicInterval(end, end), (double[])compact.getValueInGenomicInterval(end, end), 0);
+            assertArrayEquals(plain.getMinMaxFromData(), compact.getMinMaxFromData(), 0);
+            assertEquals(plain.getAverageValueInInterval(1000, end), compact.getAverageValueInInterval(1000, end));
+            NumericSequenceData clone=compact.clone();
+            assertTrue(clone.isCompact());
+            clone.setValueAtRelativePosition(0, 42); // expands the clone but not the original
+            assertFalse(clone.isCompact());
+            assertTrue(compact.isCompact());
+            assertSameValue("Position 0", values[0], compact.getValueAtRelativePosition(0));
+            assertEquals(42, clone.getValueAtRelativePosition(0), 0);
+            if (values.length>2) {
+                NumericSequenceData cropped=compact.clone();
+                cropped.cropTo(1, values.length-2);
+                assertTrue(cropped.isCompact());
+                for (int i=1;i<values.length-1;i++) assertSameValue("Position "+i, values[i], cropped.getValueAtRelativePosition(i-1));
+            }
+            compact.expand();
+            assertFalse(compact.isCompact());
+            for (int i=0;i<values.length;i++) assertSameValue("Position "+i, values[i], compact.getValueAtRelativePosition(i));
+        }
+    }
+}
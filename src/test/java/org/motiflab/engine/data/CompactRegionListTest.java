@@ -0,0 +1,259 @@
+package org.motiflab.engine.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that a RegionSequenceData holding its regions in a CompactRegionList
+ * behaves the same as a sequence holding the same regions as a list of regular Region objects
+ *
+ * @author kjetikl
+ */
+public class CompactRegionListTest {
+
+    private static final int SEQUENCE_START=1000;
+    private static final int SEQUENCE_END=1499;
+    private static final String[] TYPES=new String[]{"MA0001","MA0002","MA0003"};
+
+    private Random random;
+
+    public CompactRegionListTest() {
+    }
+
+    @Before
+    public void setUp() {
+        random=new Random(42);
+    }
+
+    private static RegionSequenceData createSequence() {
+        return new RegionSequenceData("seq1", "chr1", SEQUENCE_START, SEQUENCE_END);
+    }
+
+    /** Creates a compact list with random regions (including overlapping and contained regions) and adds the same regions to the regular sequence */
+    private CompactRegionList createRegions(int size, RegionSequenceData regular) {
+        CompactRegionList list=new CompactRegionList("pvalue");
+        for (int i=0;i<size;i++) {
+            int start=random.nextInt(520)-10; // some regions extend outside the sequence
+            int end=start+random.nextInt(30);
+            String type=TYPES[random.nextInt(TYPES.length)];
+            double score=random.nextDouble()*10;
+            int orientation=(random.nextBoolean())?Region.DIRECT:Region.REVERSE;
+            int index=list.add(start, end, type, score, orientation);
+            Region region=new Region(null, start, end, type, score, orientation);
+            if (random.nextBoolean()) {
+                double pvalue=random.nextDouble();
+                list.setProperty(index, list.getPropertyColumn("pvalue"), pvalue);
+                region.setProperty("pvalue", pvalue);
+            }
+            if (regular!=null) regular.addRegionWithoutSorting(region);
+        }
+        return list;
+    }
+
+    private static void assertSameRegions(RegionSequenceData expected, RegionSequenceData actual) {
+        assertEquals("Number of regions", expected.getNumberOfRegions(), actual.getNumberOfRegions());
+        for (int i=0;i<expected.getNumberOfRegions();i++) {
+            Region expectedRegion=expected.getRegionByIndex(i);
+            Region actualRegion=actual.getRegionByIndex(i);
+            assertTrue("Region "+i+": "+expectedRegion.reportFirstDifference(actualRegion), expectedRegion.isIdenticalTo(actualRegion));
+            assertSame(actual, actualRegion.getParent());
+        }
+    }
+
+    private static void assertSameRegionLists(ArrayList<Region> expected, ArrayList<Region> actual) {
+        assertEquals("Number of regions", expected.size(), actual.size());
+        for (int i=0;i<expected.size();i++) {
+            assertTrue("Region "+i+": "+expected.get(i).reportFirstDifference(actual.get(i)), expected.get(i).isIdenticalTo(actual.get(i)));
+        }
+    }
+
+    /**
+     * Test of add, getStart, getEnd, getType, getScore, getOrientation and getProperty methods, of class CompactRegionList.
+     */
+    @Test
+    public void testAdd() {
+        CompactRegionList list=new CompactRegionList("pvalue","qvalue");
+        assertEquals(0, list.size());
+        assertEquals(0, list.getTypes().size());
+        for (int i=0;i<100;i++) { // more than the initial capacity
+            int index=list.add(i*2+5, i*2, TYPES[i%3], i*0.5, (i%2==0)?Region.DIRECT:Region.REVERSE); // start and end are swapped
+            assertEquals(i, index);
+            if (i%4==0) list.setProperty(index, 1, i);
+        }
+        assertEquals(100, list.size());
+        assertEquals(3, list.getTypes().size());
+        assertEquals(-1, list.getPropertyColumn("missing"));
+        for (int i=0;i<100;i++) {
+            assertEquals(i*2, list.getStart(i));
+            assertEquals(i*2+5, list.getEnd(i));
+            assertEquals(TYPES[i%3], list.getType(i));
+            assertEquals(i*0.5, list.getScore(i), 0);
+            assertEquals((i%2==0)?Region.DIRECT:Region.REVERSE, list.getOrientation(i));
+            assertTrue(Double.isNaN(list.getProperty(i, 0)));
+            if (i%4==0) assertEquals(i, list.getProperty(i, 1), 0);
+            else assertTrue(Double.isNaN(list.getProperty(i, 1)));
+        }
+    }
+
+    /**
+     * Test of sort method, of class CompactRegionList.
+     * The sort order should be the same as the one used for lists of regular regions.
+     */
+    @Test
+    public void testSort() {
+        RegionSequenceData regular=createSequence();
+        CompactRegionList list=createRegions(300, regular);
+        for (int i=0;i<20;i++) { // regions with the same start and length should keep their relative order
+            list.add(100, 110, TYPES[i%3], i, Region.DIRECT);
+            regular.addRegionWithoutSorting(new Region(null, 100, 110, TYPES[i%3], i, Region.DIRECT));
+        }
+        Integer[] companion=new Integer[list.size()];
+        for (int i=0;i<companion.length;i++) companion[i]=i;
+        CompactRegionList original=list.clone();
+        list.sort(companion);
+        regular.updateRegionSortOrder();
+        for (int i=0;i<list.size();i++) {
+            Region region=regular.getRegionByIndex(i);
+            assertEquals("Start "+i, region.getRelativeStart(), list.getStart(i));
+            assertEquals("End "+i, region.getRelativeEnd(), list.getEnd(i));
+            assertEquals("Type "+i, region.getType(), list.getType(i));
+            assertEquals("Score "+i, region.getScore(), list.getScore(i), 0);
+            int originalIndex=companion[i];
+            assertEquals(original.getStart(originalIndex), list.getStart(i));
+            assertEquals(original.getScore(originalIndex), list.getScore(i), 0);
+        }
+    }
+
+    /**
+     * Test of addAll method, of class CompactRegionList.
+     */
+    @Test
+    public void testAddAll() {
+        CompactRegionList first=createRegions(10, null);
+        CompactRegionList second=new CompactRegionList("pvalue");
+        second.add(5, 8, "new type", 1.5, Region.REVERSE);
+        second.setProperty(0, 0, 0.01);
+        first.addAll(second);
+        assertEquals(11, first.size());
+        assertEquals("new type", first.getType(10));
+        assertEquals(0.01, first.getProperty(10, 0), 0);
+        assertEquals(Region.REVERSE, first.getOrientation(10));
+        first.addAll(new CompactRegionList("pvalue"));
+        assertEquals(11, first.size());
+        try {
+            first.addAll(new CompactRegionList("qvalue"));
+            fail("Lists with different properties should not be combined");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    /**
+     * Test of addCompactRegions method, of class RegionSequenceData, with an empty list and with a single region.
+     */
+    @Test
+    public void testAddCompactRegionsEmptyAndSingle() {
+        RegionSequenceData sequence=createSequence();
+        sequence.addCompactRegions(new CompactRegionList());
+        sequence.addCompactRegions(null);
+        assertEquals(0, sequence.getNumberOfRegions());
+        assertNull(sequence.getFirstRegion());
+        assertNull(sequence.getLastRegion());
+        assertNull(sequence.getRegionByIndex(0));
+        assertEquals(0, sequence.getAllRegions().size());
+
+        CompactRegionList list=new CompactRegionList();
+        list.add(10, 20, "single", 3.0, Region.DIRECT);
+        sequence.addCompactRegions(list);
+        sequence.updateRegionSortOrder();
+        assertEquals(1, sequence.getNumberOfRegions());
+        Region region=sequence.getRegionByIndex(0);
+        assertSame(region, sequence.getFirstRegion());
+        assertSame(region, sequence.getLastRegion());
+        assertSame(region, sequence.getRegionByIndex(0)); // the same view should be returned every time
+        assertEquals(SEQUENCE_START+10, region.getGenomicStart());
+        assertEquals(SEQUENCE_START+20, region.getGenomicEnd());
+        assertEquals("single", region.getType());
+        assertEquals(3.0, sequence.getMaxScoreValueForThisSequence(), 0);
+        assertNull(sequence.getRegionByIndex(1));
+        assertNull(sequence.getRegionByIndex(-1));
+    }
+
+    /**
+     * Test of addCompactRegions method, of class RegionSequenceData.
+     * The regions and the results of queries should be the same as for a sequence with regular regions.
+     */
+    @Test
+    public void testAddCompactRegions() {
+        RegionSequenceData regular=createSequence();
+        RegionSequenceData compact=createSequence();
+        compact.addCompactRegions(createRegions(200, regular));
+        compact.addCompactRegions(createRegions(50, regular)); // appended to the compact list
+        regular.updateRegionSortOrder();
+        compact.updateRegionSortOrder();
+        assertEquals(regular.getMaxScoreValueForThisSequence(), compact.getMaxScoreValueForThisSequence(), 0);
+        assertEquals(regular.countAllRegions(), compact.countAllRegions());
+        assertEquals(regular.getRegionTypes(), compact.getRegionTypes());
+        for (int start=SEQUENCE_START-20;start<=SEQUENCE_END+20;start+=7) {
+            int end=start+random.nextInt(40);
+            assertSameRegionLists(regular.getRegionsOverlappingGenomicInterval(start, end), compact.getRegionsOverlappingGenomicInterval(start, end));
+            assertEquals(regular.getNumberOfRegionsOverlappingGenomicInterval(start, end), compact.getNumberOfRegionsOverlappingGenomicInterval(start, end));
+            assertEquals(regular.getNumberOfRegionsWithinGenomicInterval(start, end), compact.getNumberOfRegionsWithinGenomicInterval(start, end));
+            assertEquals(regular.getNumberOfRegionsSpanningGenomicInterval(start, end), compact.getNumberOfRegionsSpanningGenomicInterval(start, end));
+            assertEquals(regular.hasRegionsOverlappingGenomicInterval(start, end, "MA0002", true), compact.hasRegionsOverlappingGenomicInterval(start, end, "MA0002", true));
+        }
+        assertSameRegions(regular, compact);
+        assertSameRegionLists(regular.getAllRegions(), compact.getAllRegions());
+    }
+
+    /**
+     * Test of getRegionByIndex method, of class RegionSequenceData.
+     * Region objects handed out for compact regions should be kept when the sequence is later expanded,
+     * so that modifications made to them are not lost
+     */
+    @Test
+    public void testModifiedViewIsKept() {
+        RegionSequenceData regular=createSequence();
+        RegionSequenceData compact=createSequence();
+        compact.addCompactRegions(createRegions(50, regular));
+        regular.updateRegionSortOrder();
+        compact.updateRegionSortOrder();
+        Region view=compact.getRegionByIndex(5);
+        view.setScore(99);
+        regular.getRegionByIndex(5).setScore(99);
+        compact.addRegion(new Region(null, 250, 260, "added", 1, Region.DIRECT)); // expands the compact regions
+        regular.addRegion(new Region(null, 250, 260, "added", 1, Region.DIRECT));
+        assertSameRegions(regular, compact);
+        boolean found=false;
+        for (Region region:compact.getAllRegions()) if (region==view) found=true;
+        assertTrue("The view should be kept when the regions are expanded", found);
+    }
+
+    /**
+     * Test of clone method, of class RegionSequenceData, for compact regions.
+     * Modifying the clone should not affect the original and vice versa
+     */
+    @Test
+    public void testCloneCompactRegions() {
+        RegionSequenceData regular=createSequence();
+        RegionSequenceData compact=createSequence();
+        compact.addCompactRegions(createRegions(40, regular));
+        regular.updateRegionSortOrder();
+        compact.updateRegionSortOrder();
+        RegionSequenceData clone=compact.clone();
+        assertSameRegions(regular, clone);
+        clone.getRegionByIndex(0).setType("changed");
+        clone.addRegion(new Region(null, 5, 6, "added", 0, Region.DIRECT));
+        assertSameRegions(regular, compact);
+        assertEquals(regular.getNumberOfRegions()+1, clone.getNumberOfRegions());
+        RegionSequenceData snapshot=clone.clone();
+        compact.getRegionByIndex(1).setScore(-1);
+        compact.addRegion(new Region(null, 7, 8, "added to original", 0, Region.DIRECT));
+        assertSameRegions(snapshot, clone);
+        HashMap<String,Integer> counts=clone.countAllRegions();
+        assertEquals(Integer.valueOf(1), counts.get("added"));
+        assertNull(compact.countAllRegions().get("added"));
+    }
+}
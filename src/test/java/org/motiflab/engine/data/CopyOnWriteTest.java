@@ -0,0 +1,176 @@
+package org.motiflab.engine.data;
+
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that clones of numeric and DNA sequences which share their buffers with the original
+ * are isolated from each other, so that modifying one of them does not affect the others
+ *
+ * @author kjetikl
+ */
+public class CopyOnWriteTest {
+
+    private static final int LENGTH=300;
+    private static final char[] BASES=new char[]{'A','C','G','T','a','c','g','t','N'};
+
+    private double[] values;
+    private char[] bases;
+
+    public CopyOnWriteTest() {
+    }
+
+    @Before
+    public void setUp() {
+        Random random=new Random(42);
+        values=new double[LENGTH];
+        bases=new char[LENGTH];
+        for (int i=0;i<LENGTH;i++) {
+            values[i]=random.nextDouble();
+            bases[i]=BASES[random.nextInt(BASES.length)];
+        }
+    }
+
+    private NumericSequenceData createNumericSequence() {
+        return new NumericSequenceData("seq1", "chr1", 1000, 1000+LENGTH-1, values.clone());
+    }
+
+    private DNASequenceData createDNASequence() {
+        return new DNASequenceData("seq1", "chr1", 1000, 1000+LENGTH-1, bases.clone());
+    }
+
+    private static void assertValues(double[] expected, NumericSequenceData sequence) {
+        for (int i=0;i<expected.length;i++) assertEquals("Position "+i, expected[i], sequence.getValueAtRelativePosition(i), 0);
+    }
+
+    /**
+     * Test of clone method, of class NumericSequenceData, when the original or the clone is modified position by position.
+     */
+    @Test
+    public void testNumericCloneThenModify() {
+        NumericSequenceData original=createNumericSequence();
+        NumericSequenceData clone=original.clone();
+        assertValues(values, clone);
+        clone.setValueAtRelativePosition(0, -1);
+        clone.setValueAtGenomicPosition(1000+LENGTH-1, -2);
+        assertValues(values, original);
+        assertEquals(-1, clone.getValueAtRelativePosition(0), 0);
+        assertEquals(-2, clone.getValueAtRelativePosition(LENGTH-1), 0);
+        original.setValueAtRelativePosition(5, -3);
+        assertEquals(values[5], clone.getValueAtRelativePosition(5), 0);
+        assertEquals(-3, original.getValueAtRelativePosition(5), 0);
+    }
+
+    /**
+     * Test of clone method, of class NumericSequenceData, when the values are modified through the array returned by getValue() or getData()
+     * or replaced with setValuesInGenomicInterval(), setData(), cropTo() or importData().
+     */
+    @Test
+    public void testNumericCloneThenModifyBuffer() throws Exception {
+        NumericSequenceData original=createNumericSequence();
+        NumericSequenceData clone=original.clone();
+        ((double[])clone.getValue())[10]=-1;
+        assertValues(values, original);
+        assertEquals(-1, clone.getValueAtRelativePosition(10), 0);
+        clone=original.clone();
+        original.getData()[11]=-1;
+        assertValues(values, clone);
+        original=createNumericSequence();
+        clone=original.clone();
+        clone.setValuesInGenomicInterval(1000+LENGTH-2, new double[]{-1,-1});
+        assertValues(values, original);
+        assertEquals(-1, clone.getValueAtRelativePosition(LENGTH-1), 0);
+        clone=original.clone();
+        clone.setData(new double[LENGTH]);
+        assertValues(values, original);
+        clone=original.clone();
+        clone.cropTo(10, 20);
+        assertValues(values, original);
+        assertEquals(values[10], clone.getValueAtRelativePosition(0), 0);
+        NumericSequenceData target=new NumericSequenceData("seq1", "chr1", 1000, 1000+LENGTH-1, new double[LENGTH]);
+        target.importData(original);
+        target.setValueAtRelativePosition(0, -1);
+        assertValues(values, original);
+        original.setValueAtRelativePosition(1, -1);
+        assertEquals(values[1], target.getValueAtRelativePosition(1), 0);
+    }
+
+    /**
+     * Test of clone method, of class NumericSequenceData, for a chain of clones (where several sequences share the same array).
+     */
+    @Test
+    public void testNumericCloneOfClone() {
+        NumericSequenceData first=createNumericSequence();
+        NumericSequenceData second=first.clone();
+        NumericSequenceData third=second.clone();
+        second.setValueAtRelativePosition(0, -2);
+        assertValues(values, first);
+        assertValues(values, third);
+        first.setValueAtRelativePosition(0, -1);
+        assertValues(values, third);
+        third.setValueAtRelativePosition(0, -3);
+        assertEquals(-1, first.getValueAtRelativePosition(0), 0);
+        assertEquals(-2, second.getValueAtRelativePosition(0), 0);
+        assertEquals(-3, third.getValueAtRelativePosition(0), 0);
+    }
+
+    /**
+     * Test of clone method, of class NumericDataset, when a sequence in the clone is modified.
+     */
+    @Test
+    public void testNumericDatasetCloneThenModify() {
+        NumericDataset dataset=new NumericDataset("track");
+        dataset.addSequence(createNumericSequence());
+        dataset.addSequence(new NumericSequenceData("seq2", "chr2", 1, 1, new double[]{7})); // single position
+        NumericDataset clone=dataset.clone();
+        ((NumericSequenceData)clone.getSequenceByName("seq1")).setValueAtRelativePosition(0, -1);
+        ((NumericSequenceData)clone.getSequenceByName("seq2")).setValueAtRelativePosition(0, -1);
+        assertValues(values, (NumericSequenceData)dataset.getSequenceByName("seq1"));
+        assertEquals(7, ((NumericSequenceData)dataset.getSequenceByName("seq2")).getValueAtRelativePosition(0), 0);
+        assertEquals(-1, ((NumericSequenceData)clone.getSequenceByName("seq2")).getValueAtRelativePosition(0), 0);
+    }
+
+    /**
+     * Test of clone method, of class DNASequenceData, for plain and packed sequences.
+     */
+    @Test
+    public void testDNACloneThenModify() throws Exception {
+        for (boolean packed:new boolean[]{false,true}) {
+            DNASequenceData original=createDNASequence();
+            if (packed) original.pack();
+            DNASequenceData clone=original.clone();
+            assertEquals(new String(bases), clone.getSequenceAsString());
+            clone.setValueAtRelativePosition(0, 'A');
+            clone.setValueAtRelativePosition(1, 'n'); // this base can not be stored in packed form
+            assertEquals(new String(bases), original.getSequenceAsString());
+            assertEquals('n', (char)clone.getValueAtRelativePosition(1));
+            original.setValueAtRelativePosition(2, 'T');
+            original.setValueAtRelativePosition(3, 'X');
+            assertEquals(bases[2], (char)clone.getValueAtRelativePosition(2));
+            assertEquals(bases[3], (char)clone.getValueAtRelativePosition(3));
+            assertEquals('X', (char)original.getValueAtRelativePosition(3));
+            DNASequenceData other=original.clone();
+            ((char[])other.getValue())[4]='X';
+            assertEquals(bases[4], (char)original.getValueAtRelativePosition(4));
+            other.setSequenceData(bases.clone());
+            assertEquals('X', (char)original.getValueAtRelativePosition(3));
+        }
+    }
+
+    /**
+     * Test of importData method, of class DNASequenceData.
+     */
+    @Test
+    public void testDNAImportThenModify() {
+        DNASequenceData source=createDNASequence();
+        DNASequenceData target=new DNASequenceData("seq1", "chr1", 1000, 1000+LENGTH-1, 'N');
+        target.importData(source);
+        assertEquals(new String(bases), target.getSequenceAsString());
+        target.setValueAtRelativePosition(0, 'X');
+        assertEquals(new String(bases), source.getSequenceAsString());
+        source.setValueAtRelativePosition(1, 'X');
+        assertEquals(bases[1], (char)target.getValueAtRelativePosition(1));
+    }
+}
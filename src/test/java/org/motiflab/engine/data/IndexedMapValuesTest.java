@@ -0,0 +1,246 @@
+package org.motiflab.engine.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that Numeric Maps and Text Maps which store their values in indexed arrays
+ * give the same results as the original implementation based on HashMaps
+ *
+ * @author kjetikl
+ */
+public class IndexedMapValuesTest {
+
+    private static final double DEFAULT=0.5;
+
+    private Random random;
+    private HashMap<String,Double> expected;
+    private SequenceNumericMap map;
+
+    public IndexedMapValuesTest() {
+    }
+
+    @Before
+    public void setUp() {
+        random=new Random(42);
+        expected=new HashMap<String,Double>();
+        map=new SequenceNumericMap("map", DEFAULT);
+        for (int i=0;i<200;i++) {
+            String key="sequence"+random.nextInt(300);
+            double value;
+            int type=random.nextInt(10);
+            if (type==0) value=Double.NaN;
+            else if (type==1) value=random.nextInt(5); // many equal values
+            else value=random.nextGaussian()*10;
+            expected.put(key, value);
+            map.setValue(key, value);
+        }
+    }
+
+    /** The rank order as computed by the original implementation (sorting the keys with the original comparator) */
+    private static HashMap<String,Double> getExpectedRankOrder(final HashMap<String,Double> values, final boolean ascending) {
+        ArrayList<String> entries=new ArrayList<String>(values.keySet());
+        Collections.sort(entries, new Comparator<String>() {
+            @Override
+            public int compare(String entry1, String entry2) {
+                double value1=values.get(entry1);
+                double value2=values.get(entry2);
+                if (!Double.isNaN(value1) && Double.isNaN(value2)) return -1; // NaNs are always sorted at the bottom
+                else if (Double.isNaN(value1) && !Double.isNaN(value2)) return 1;
+                else if (Double.isNaN(value1) && Double.isNaN(value2)) {
+                    int val=entry1.compareTo(entry2);
+                    return (ascending)?val:-val;
+                }
+                if (value1<value2) return (ascending)?-1:1;
+                else if (value1>value2) return (ascending)?1:-1;
+                else {
+                    int val=entry1.compareTo(entry2);
+                    return (ascending)?val:-val;
+                }
+            }
+        });
+        HashMap<String,Double> result=new HashMap<String,Double>();
+        if (entries.size()==1) result.put(entries.get(0), 1d);
+        if (entries.size()<=1) return result;
+        int lastend=0;
+        double lastvalue=values.get(entries.get(0));
+        for (int i=1;i<entries.size();i++) {
+            double value=values.get(entries.get(i));
+            if (value==lastvalue || (Double.isNaN(value) && Double.isNaN(lastvalue))) continue;
+            double rank=result.size()+1;
+            for (int j=lastend;j<i;j++) result.put(entries.get(j),rank);
+            lastvalue=value;
+            lastend=i;
+        }
+        double rank=result.size()+1;
+        for (int j=lastend;j<entries.size();j++) result.put(entries.get(j),rank);
+        return result;
+    }
+
+    /** Returns TRUE if the two maps have the same mappings according to the original implementation (where NaN values are never equal) */
+    private static boolean hasExpectedSameMappings(HashMap<String,Double> values, HashMap<String,Double> other) {
+        if (other.size()!=values.size()) return false;
+        for (String key:values.keySet()) {
+            if (!other.containsKey(key)) return false;
+            if (((double)values.get(key))!=((double)other.get(key))) return false;
+        }
+        return true;
+    }
+
+    private static void assertSameMap(HashMap<String,Double> expected, NumericMap map, double defaultvalue) {
+        assertEquals(expected.size(), map.getNumberOfSpecificallyAssignedEntries());
+        assertEquals(expected, map.getValues());
+        assertEquals(expected.keySet(), new HashSet<String>(map.getRegisteredKeys()));
+        double min=Double.MAX_VALUE, max=-Double.MAX_VALUE;
+        for (double value:expected.values()) {
+            if (value<min) min=value;
+            if (value>max) max=value;
+        }
+        assertEquals(Math.min(min, defaultvalue), map.getMinValue(), 0);
+        assertEquals(Math.max(max, defaultvalue), map.getMaxValue(), 0);
+        for (int i=0;i<320;i++) { // includes keys that are not in the map
+            String key="sequence"+i;
+            Double value=expected.get(key);
+            assertEquals(key, (value!=null)?value:defaultvalue, map.getValue(key), 0);
+            assertEquals(key, expected.containsKey(key), map.contains(key));
+        }
+        assertEquals(getExpectedRankOrder(expected, true), map.getRankOrder(true));
+        assertEquals(getExpectedRankOrder(expected, false), map.getRankOrder(false));
+    }
+
+    /**
+     * Test of getValue, getMinValue, getMaxValue, getValues and getRankOrder methods, of class NumericMap.
+     */
+    @Test
+    public void testNumericMap() {
+        assertSameMap(expected, map, DEFAULT);
+        ArrayList<String> list=new ArrayList<String>();
+        for (int i=0;i<50;i++) list.add("sequence"+random.nextInt(320));
+        double[] values=map.getValues(list);
+        double min=Double.MAX_VALUE, max=-Double.MAX_VALUE;
+        for (int i=0;i<list.size();i++) {
+            Double value=expected.get(list.get(i));
+            double expectedValue=(value!=null)?value:DEFAULT;
+            assertEquals(expectedValue, values[i], 0);
+            if (expectedValue<min) min=expectedValue;
+            if (expectedValue>max) max=expectedValue;
+        }
+        assertEquals(min, map.getMinValue(list), 0);
+        assertEquals(max, map.getMaxValue(list), 0);
+    }
+
+    /**
+     * Test of setValue, removeValue and clear methods, of class NumericMap.
+     */
+    @Test
+    public void testModifyNumericMap() {
+        for (String key:new ArrayList<String>(expected.keySet())) {
+            if (random.nextBoolean()) {
+                expected.remove(key);
+                map.removeValue(key);
+            }
+        }
+        map.removeValue("not in map");
+        expected.put("sequence1", -100.0);
+        map.setValue("sequence1", -100.0);
+        expected.put("new key", 1000.0);
+        map.setValue("new key", 1000.0);
+        assertSameMap(expected, map, DEFAULT);
+        map.clear();
+        assertSameMap(new HashMap<String,Double>(), map, DEFAULT);
+        map.setValue("sequence5", 3);
+        HashMap<String,Double> single=new HashMap<String,Double>();
+        single.put("sequence5", 3.0);
+        assertSameMap(single, map, DEFAULT);
+    }
+
+    /**
+     * Test of clone method, of class NumericMap. Modifying the clone should not affect the original and vice versa.
+     */
+    @Test
+    public void testNumericMapCloneThenModify() {
+        SequenceNumericMap clone=(SequenceNumericMap)map.clone();
+        assertEquals(hasExpectedSameMappings(expected, expected), clone.containsSameMappings(map));
+        HashMap<String,Double> expectedClone=new HashMap<String,Double>(expected);
+        clone.setValue("sequence0", 42);
+        expectedClone.put("sequence0", 42.0);
+        clone.removeValue(expected.keySet().iterator().next());
+        expectedClone.remove(expected.keySet().iterator().next());
+        map.setValue("original only", 7);
+        expected.put("original only", 7.0);
+        assertSameMap(expected, map, DEFAULT);
+        assertSameMap(expectedClone, clone, DEFAULT);
+        assertEquals(hasExpectedSameMappings(expectedClone, expected), clone.containsSameMappings(map));
+        map.getValues().put("sequence0", 99.0); // the returned map is a copy
+        assertEquals(expected, map.getValues());
+    }
+
+    /**
+     * Test of containsSameMappings method, of class NumericMap, for maps of different types that use different key indices.
+     */
+    @Test
+    public void testContainsSameMappings() {
+        for (String key:new ArrayList<String>(expected.keySet())) { // NaN values are never considered equal
+            if (Double.isNaN(expected.get(key))) {
+                expected.remove(key);
+                map.removeValue(key);
+            }
+        }
+        SequenceNumericMap other=new SequenceNumericMap("other", expected, DEFAULT);
+        assertTrue(other.containsSameMappings(map));
+        GeneralNumericMap general=new GeneralNumericMap("general", expected, DEFAULT); // uses a different key index
+        assertEquals(expected, general.getValues());
+        assertTrue(general.containsSameMappings(map));
+        assertTrue(map.containsSameMappings(general));
+        other.setValue("sequence0", -1);
+        HashMap<String,Double> expectedOther=new HashMap<String,Double>(expected);
+        expectedOther.put("sequence0", -1.0);
+        assertEquals(hasExpectedSameMappings(expectedOther, expected), other.containsSameMappings(map));
+        general.removeValue(expected.keySet().iterator().next());
+        assertFalse(general.containsSameMappings(map));
+        SequenceNumericMap empty=new SequenceNumericMap("empty", DEFAULT);
+        assertTrue(empty.containsSameMappings(new SequenceNumericMap("empty2", DEFAULT)));
+        assertFalse(empty.containsSameMappings(map));
+        assertSameMap(new HashMap<String,Double>(), empty, DEFAULT);
+    }
+
+    /**
+     * Test of getValue, setValue, removeValue and clone methods, of class TextMap.
+     */
+    @Test
+    public void testTextMap() {
+        HashMap<String,String> expectedText=new HashMap<String,String>();
+        SequenceTextMap textmap=new SequenceTextMap("text", "default");
+        assertEquals(0, textmap.getNumberOfSpecificallyAssignedEntries());
+        assertEquals("default", textmap.getValue("sequence0"));
+        for (int i=0;i<100;i++) {
+            String key="sequence"+random.nextInt(150);
+            String value="value"+random.nextInt(20);
+            expectedText.put(key, value);
+            textmap.setValue(key, value);
+        }
+        textmap.removeValue("sequence3");
+        expectedText.remove("sequence3");
+        SequenceTextMap clone=(SequenceTextMap)textmap.clone();
+        clone.setValue("sequence4", "changed");
+        assertEquals(expectedText, textmap.getValues());
+        assertEquals(expectedText.size(), textmap.getNumberOfSpecificallyAssignedEntries());
+        for (int i=0;i<160;i++) {
+            String key="sequence"+i;
+            assertEquals(key, (expectedText.containsKey(key))?expectedText.get(key):"default", textmap.getValue(key));
+            assertEquals(key, expectedText.containsKey(key), textmap.contains(key));
+        }
+        assertEquals("changed", clone.getValue("sequence4"));
+        assertFalse(clone.containsSameMappings(textmap));
+        clone.setValue("sequence4", textmap.getValue("sequence4"));
+        if (!expectedText.containsKey("sequence4")) clone.removeValue("sequence4");
+        assertTrue(clone.containsSameMappings(textmap));
+    }
+}
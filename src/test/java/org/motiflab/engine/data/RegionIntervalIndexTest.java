@@ -0,0 +1,203 @@
+package org.motiflab.engine.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the queries answered by the RegionIntervalIndex (and the methods in RegionSequenceData that use it)
+ * give the same results as a linear scan through all the regions
+ *
+ * @author kjetikl
+ */
+public class RegionIntervalIndexTest {
+
+    // includes sizes around the boundaries of the subtrees that are searched linearly and of the levels in the implicit tree
+    private static final int[] SIZES=new int[]{0,1,2,3,7,8,9,15,16,17,31,32,33,63,64,65,100,257,1000};
+
+    private Random random;
+
+    public RegionIntervalIndexTest() {
+    }
+
+    @Before
+    public void setUp() {
+        random=new Random(42);
+    }
+
+    /**
+     * Creates sorted coordinates for regions which overlap each other, are contained within each other, share the same start position
+     * and include a few very long regions (so that regions far back in the list can overlap the query)
+     * @return an array with the starts in [0] and the ends in [1]
+     */
+    private int[][] createRegions(int size, int range) {
+        int[] starts=new int[size];
+        for (int i=0;i<size;i++) starts[i]=random.nextInt(range);
+        Arrays.sort(starts);
+        int[] ends=new int[size];
+        for (int i=0;i<size;i++) {
+            int type=random.nextInt(20);
+            if (type==0) ends[i]=starts[i]+range/2; // long region containing many others
+            else if (type==1) ends[i]=starts[i]; // single base region
+            else ends[i]=starts[i]+random.nextInt(25);
+        }
+        return new int[][]{starts,ends};
+    }
+
+    private static int[] linearOverlapping(int[] starts, int[] ends, int start, int end) {
+        int[] result=new int[starts.length];
+        int found=0;
+        for (int i=0;i<starts.length;i++) {
+            if (starts[i]<=end && ends[i]>=start) result[found++]=i;
+        }
+        return Arrays.copyOf(result, found);
+    }
+
+    /**
+     * Test of getOverlapping method, of class RegionIntervalIndex.
+     */
+    @Test
+    public void testGetOverlapping() {
+        for (int size:SIZES) {
+            int range=Math.max(10, size*3);
+            int[][] regions=createRegions(size, range);
+            RegionIntervalIndex index=new RegionIntervalIndex(regions[0], regions[1]);
+            assertTrue(index.isSorted());
+            assertEquals(size, index.size());
+            for (int start=-30;start<=range+30;start++) {
+                int end=start+random.nextInt(3)*random.nextInt(20); // mostly single positions
+                assertArrayEquals("Size="+size+", segment="+start+"-"+end, linearOverlapping(regions[0], regions[1], start, end), index.getOverlapping(start, end));
+            }
+            assertArrayEquals(linearOverlapping(regions[0], regions[1], Integer.MIN_VALUE, Integer.MAX_VALUE), index.getOverlapping(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        }
+    }
+
+    /**
+     * Test of getOverlapping method, of class RegionIntervalIndex, for regions that all overlap or are contained within each other.
+     */
+    @Test
+    public void testGetOverlappingNested() {
+        int size=100;
+        int[] starts=new int[size];
+        int[] ends=new int[size];
+        for (int i=0;i<size;i++) {starts[i]=i;ends[i]=2*size-i;} // each region is contained within the previous
+        RegionIntervalIndex index=new RegionIntervalIndex(starts, ends);
+        for (int position=-1;position<=2*size+1;position++) {
+            assertArrayEquals("Position "+position, linearOverlapping(starts, ends, position, position), index.getOverlapping(position, position));
+        }
+        for (int i=0;i<size;i++) {starts[i]=i;ends[i]=i+size;} // staggered overlapping regions
+        index=new RegionIntervalIndex(starts, ends);
+        for (int position=-1;position<=2*size+1;position++) {
+            assertArrayEquals("Position "+position, linearOverlapping(starts, ends, position, position+3), index.getOverlapping(position, position+3));
+        }
+    }
+
+    /**
+     * Test of isSorted method, of class RegionIntervalIndex.
+     */
+    @Test
+    public void testIsSorted() {
+        assertTrue(new RegionIntervalIndex(new int[0], new int[0]).isSorted());
+        assertTrue(new RegionIntervalIndex(new int[]{5}, new int[]{6}).isSorted());
+        assertTrue(new RegionIntervalIndex(new int[]{5,5,7}, new int[]{9,6,8}).isSorted());
+        assertFalse(new RegionIntervalIndex(new int[]{5,4}, new int[]{6,6}).isSorted());
+        assertEquals(0, new RegionIntervalIndex(new int[0], new int[0]).getOverlapping(0, 100).length);
+    }
+
+    /**
+     * Test of getFirstIndexStartingAtOrAfter, getLastIndexStartingAtOrBefore, getFirstIndexEndingAtOrAfter and
+     * getFirstIndexOfTrailingRegionsEndingAtOrAfter methods, of class RegionIntervalIndex.
+     */
+    @Test
+    public void testSearchMethods() {
+        for (int size:SIZES) {
+            int range=Math.max(10, size*3);
+            int[][] regions=createRegions(size, range);
+            int[] starts=regions[0], ends=regions[1];
+            RegionIntervalIndex index=new RegionIntervalIndex(starts, ends);
+            for (int position=-5;position<=range*2;position++) {
+                int firstStarting=size;
+                for (int i=size-1;i>=0;i--) if (starts[i]>=position) firstStarting=i;
+                int lastStarting=-1;
+                for (int i=0;i<size;i++) if (starts[i]<=position) lastStarting=i;
+                int firstEnding=size;
+                for (int i=size-1;i>=0;i--) if (ends[i]>=position) firstEnding=i;
+                int trailing=size;
+                for (int i=size-1;i>=0 && ends[i]>=position;i--) trailing=i;
+                assertEquals("Size="+size+", position="+position, firstStarting, index.getFirstIndexStartingAtOrAfter(position));
+                assertEquals("Size="+size+", position="+position, lastStarting, index.getLastIndexStartingAtOrBefore(position));
+                if (size>0) assertEquals("Size="+size+", position="+position, firstEnding, index.getFirstIndexEndingAtOrAfter(position));
+                if (size>0) assertEquals("Size="+size+", position="+position, trailing, index.getFirstIndexOfTrailingRegionsEndingAtOrAfter(position));
+            }
+            assertEquals(size-1, index.getLastIndexStartingAtOrBefore(Integer.MAX_VALUE));
+        }
+    }
+
+    /**
+     * Test of the overlap queries in RegionSequenceData which use the index.
+     * The results are compared to linear scans through the regions of the sequence.
+     */
+    @Test
+    public void testRegionSequenceDataQueries() {
+        for (int size:new int[]{0,1,2,9,100}) {
+            RegionSequenceData sequence=new RegionSequenceData("seq1", "chr1", 1000, 1199);
+            int[][] regions=createRegions(size, 220);
+            for (int i=0;i<size;i++) sequence.addRegionWithoutSorting(new Region(null, regions[0][i]-10, regions[1][i]-10, "type"+(i%3), i, Region.DIRECT));
+            sequence.updateRegionSortOrder();
+            ArrayList<Region> all=sequence.getAllRegions();
+            for (int start=990;start<=1210;start++) {
+                int end=start+random.nextInt(15);
+                ArrayList<Region> overlapping=new ArrayList<Region>();
+                ArrayList<Region> within=new ArrayList<Region>();
+                ArrayList<Region> spanning=new ArrayList<Region>();
+                for (Region region:all) {
+                    if (region.getGenomicStart()<=end && region.getGenomicEnd()>=start) overlapping.add(region);
+                    if (region.getGenomicStart()>=start && region.getGenomicEnd()<=end) within.add(region);
+                    if (region.getGenomicStart()<=start && region.getGenomicEnd()>=end) spanning.add(region);
+                }
+                boolean inside=(end>=1000 && start<=1199);
+                String segment="Size="+size+", segment="+start+"-"+end;
+                assertEquals(segment, (inside)?overlapping:new ArrayList<Region>(), sequence.getRegionsOverlappingGenomicInterval(start, end));
+                assertEquals(segment, (inside)?within:new ArrayList<Region>(), sequence.getRegionsWithinGenomicInterval(start, end));
+                assertEquals(segment, (inside)?spanning:new ArrayList<Region>(), sequence.getRegionsSpanningGenomicInterval(start, end));
+                assertEquals(segment, (inside)?overlapping.size():0, sequence.getNumberOfRegionsOverlappingGenomicInterval(start, end));
+                if (start>=1000 && start<=1199) {
+                    int count=0;
+                    for (Region region:all) if (region.getGenomicStart()<=start && region.getGenomicEnd()>=start) count++;
+                    assertEquals(segment, count, sequence.getNumberOfRegionsAtGenomicPosition(start));
+                    assertEquals(segment, count>0, sequence.isWithinRegion(start-1000));
+                }
+                Region upstream=null;
+                for (Region region:all) if (region.getGenomicStart()<=start) upstream=region;
+                Region downstream=null;
+                for (int i=all.size()-1;i>=0 && all.get(i).getGenomicEnd()>=start;i--) downstream=all.get(i);
+                assertSame(segment, upstream, sequence.getClosestUpstreamRegion(start));
+                assertSame(segment, downstream, sequence.getClosestDownstreamRegion(start));
+            }
+        }
+    }
+
+    /**
+     * Test that the index is rebuilt when regions are added, removed or moved.
+     */
+    @Test
+    public void testIndexIsUpdated() {
+        RegionSequenceData sequence=new RegionSequenceData("seq1", "chr1", 1000, 1199);
+        assertEquals(0, sequence.getNumberOfRegionsAtGenomicPosition(1050));
+        Region region=new Region(null, 40, 60, "type", 1, Region.DIRECT);
+        sequence.addRegion(region);
+        assertEquals(1, sequence.getNumberOfRegionsAtGenomicPosition(1050));
+        region.setRelativeStart(55);
+        assertEquals(0, sequence.getNumberOfRegionsAtGenomicPosition(1050));
+        assertEquals(1, sequence.getNumberOfRegionsAtGenomicPosition(1058));
+        sequence.addRegion(new Region(null, 10, 100, "type", 1, Region.DIRECT));
+        assertEquals(2, sequence.getNumberOfRegionsAtGenomicPosition(1058));
+        sequence.removeRegion(region);
+        assertEquals(1, sequence.getNumberOfRegionsAtGenomicPosition(1058));
+        sequence.clearRegions();
+        assertEquals(0, sequence.getNumberOfRegionsAtGenomicPosition(1058));
+    }
+}
@@ -0,0 +1,204 @@
+package org.motiflab.engine.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the user-defined properties of regions, which are stored in slot arrays
+ * with the names interned in a RegionPropertySchema, behave the same as properties stored in a HashMap
+ *
+ * @author kjetikl
+ */
+public class RegionPropertiesTest {
+
+    private static final String[] NAMES=new String[]{"pvalue","gene","count","flag","note","thickStart","thickEnd","x1","x2","x3"};
+
+    private Random random;
+
+    public RegionPropertiesTest() {
+    }
+
+    @Before
+    public void setUp() {
+        random=new Random(42);
+    }
+
+    private Object randomValue() {
+        switch (random.nextInt(4)) {
+            case 0: return random.nextDouble();
+            case 1: return random.nextInt(100);
+            case 2: return "text"+random.nextInt(10);
+            default: return random.nextBoolean();
+        }
+    }
+
+    private static void assertSameProperties(HashMap<String,Object> expected, RegionProperties properties) {
+        assertEquals(expected.size(), properties.size());
+        assertEquals(expected, properties.toHashMap());
+        for (String name:NAMES) {
+            assertEquals(name, expected.get(name), properties.get(name));
+            assertEquals(name, expected.containsKey(name), properties.containsKey(name));
+            Object value=expected.get(name);
+            double numeric=(value instanceof Number)?((Number)value).doubleValue():-1;
+            assertEquals(name, numeric, properties.getNumeric(name, -1), 0);
+        }
+    }
+
+    /**
+     * Test of put, get, remove and getNumeric methods, of class RegionProperties, compared to a HashMap.
+     */
+    @Test
+    public void testPutGetRemove() {
+        RegionPropertySchema schema=new RegionPropertySchema();
+        RegionProperties properties=new RegionProperties(schema, 0); // starts with no capacity
+        HashMap<String,Object> expected=new HashMap<String,Object>();
+        assertSameProperties(expected, properties);
+        properties.remove("pvalue"); // removing from an empty set should not fail
+        assertSameProperties(expected, properties);
+        for (int i=0;i<2000;i++) {
+            String name=NAMES[random.nextInt(NAMES.length)];
+            if (random.nextInt(4)==0) {
+                expected.remove(name);
+                properties.remove(name);
+            } else {
+                Object value=randomValue(); // the type of the value can change between Double and other types
+                expected.put(name, value);
+                properties.put(name, value);
+            }
+            assertSameProperties(expected, properties);
+        }
+        assertTrue(schema.size()<=NAMES.length);
+    }
+
+    /**
+     * Test of put and get methods, of class RegionProperties, for a single property.
+     */
+    @Test
+    public void testSingleProperty() {
+        RegionPropertySchema schema=new RegionPropertySchema();
+        RegionProperties properties=new RegionProperties(schema, 1);
+        properties.put("pvalue", 0.01);
+        assertEquals(1, properties.size());
+        assertEquals("pvalue", properties.getName(0));
+        assertEquals(0.01, properties.get("pvalue"));
+        assertNull(properties.get("gene"));
+        assertEquals(0, schema.getSlot("pvalue"));
+        assertEquals(-1, schema.getSlot("gene"));
+        properties.put("pvalue", "text");
+        assertEquals("text", properties.get("pvalue"));
+        assertEquals(-1, properties.getNumeric("pvalue", -1), 0);
+        properties.remove("pvalue");
+        assertEquals(0, properties.size());
+        assertNull(properties.get("pvalue"));
+    }
+
+    /**
+     * Test of copy method, of class RegionProperties. Modifying the copy should not affect the original and vice versa.
+     */
+    @Test
+    public void testCopyThenModify() {
+        RegionProperties properties=new RegionProperties(new RegionPropertySchema(), 2);
+        HashMap<String,Object> expected=new HashMap<String,Object>();
+        for (String name:NAMES) {
+            Object value=randomValue();
+            expected.put(name, value);
+            properties.put(name, value);
+        }
+        RegionProperties copy=properties.copy();
+        HashMap<String,Object> expectedCopy=new HashMap<String,Object>(expected);
+        assertSameProperties(expected, copy);
+        copy.put("pvalue", 0.5);
+        expectedCopy.put("pvalue", 0.5);
+        copy.remove("gene");
+        expectedCopy.remove("gene");
+        properties.put("count", 1.5);
+        expected.put("count", 1.5);
+        assertSameProperties(expected, properties);
+        assertSameProperties(expectedCopy, copy);
+    }
+
+    /**
+     * Test of rebind method, of class RegionProperties.
+     * The properties should keep their values when they are moved to a schema where the names have other slots.
+     */
+    @Test
+    public void testRebind() {
+        RegionPropertySchema first=new RegionPropertySchema();
+        RegionPropertySchema second=new RegionPropertySchema();
+        second.getOrAddSlot("other");
+        second.getOrAddSlot("gene");
+        RegionProperties properties=new RegionProperties(first, 2);
+        HashMap<String,Object> expected=new HashMap<String,Object>();
+        for (int i=0;i<5;i++) {
+            expected.put(NAMES[i], randomValue());
+            properties.put(NAMES[i], expected.get(NAMES[i]));
+        }
+        properties.rebind(second);
+        assertSame(second, properties.getSchema());
+        assertSameProperties(expected, properties);
+        for (int i=0;i<5;i++) assertTrue(second.getSlot(NAMES[i])>=0);
+        assertEquals(1, second.getSlot("gene"));
+        properties.put("x3", "new");
+        expected.put("x3", "new");
+        assertSameProperties(expected, properties);
+        assertEquals(-1, first.getSlot("x3"));
+        RegionProperties empty=new RegionProperties(first, 0);
+        empty.rebind(second);
+        assertEquals(0, empty.size());
+    }
+
+    /**
+     * Test that user-defined properties of regions are kept (and use the schema of the track)
+     * when the regions are added to a track, moved between tracks and cloned.
+     */
+    @Test
+    public void testRegionPropertiesInTracks() {
+        Region region=new Region(null, 10, 20, "type", 1.0, Region.DIRECT);
+        assertNull(region.getUserDefinedProperties());
+        assertEquals(0, region.getAllPropertyNames().length);
+        region.setProperty("pvalue", 0.01);
+        region.setProperty("gene", "ABC");
+        region.setProperty("count", 3);
+        region.setProperty("empty", ""); // empty values are not set
+        HashMap<String,Object> expected=new HashMap<String,Object>();
+        expected.put("pvalue", 0.01);
+        expected.put("gene", "ABC");
+        expected.put("count", 3);
+        assertEquals(expected, region.getUserDefinedProperties());
+
+        RegionDataset firstTrack=new RegionDataset("first");
+        RegionSequenceData firstSequence=new RegionSequenceData("seq1", "chr1", 1000, 1999);
+        firstTrack.addSequence(firstSequence);
+        firstSequence.addRegion(region);
+        assertEquals(expected, region.getUserDefinedProperties());
+        assertTrue(firstTrack.getPropertySchema().getSlot("pvalue")>=0);
+        assertEquals(0.01, region.getNumericUserDefinedProperty("pvalue", -1), 0);
+
+        RegionDataset secondTrack=new RegionDataset("second");
+        secondTrack.getPropertySchema().getOrAddSlot("unrelated"); // the slots are different in the two tracks
+        RegionSequenceData secondSequence=new RegionSequenceData("seq1", "chr1", 1000, 1999);
+        Region moved=region.clone();
+        secondSequence.addRegion(moved); // the sequence is not yet part of a track
+        secondTrack.addSequence(secondSequence);
+        assertEquals(expected, moved.getUserDefinedProperties());
+        assertTrue(secondTrack.getPropertySchema().getSlot("gene")>=0);
+        moved.setProperty("gene", "DEF");
+        moved.setProperty("count", null); // removes the property
+        assertEquals("ABC", region.getProperty("gene"));
+        assertEquals(3, region.getProperty("count"));
+        assertEquals("DEF", moved.getProperty("gene"));
+        assertNull(moved.getProperty("count"));
+
+        RegionDataset clonedTrack=secondTrack.clone();
+        Region clonedRegion=((RegionSequenceData)clonedTrack.getSequenceByName("seq1")).getRegionByIndex(0);
+        clonedRegion.setProperty("gene", "GHI");
+        assertEquals("DEF", moved.getProperty("gene"));
+        assertEquals(0.01, clonedRegion.getProperty("pvalue"));
+        ArrayList<Region> regions=firstSequence.getMatchingRegions("gene", "abc");
+        assertEquals(1, regions.size());
+    }
+}
@@ -0,0 +1,172 @@
+package org.motiflab.engine.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the payloads of feature sequences that are paged out to disk by the SequenceDataPager
+ * are read back with exactly the same contents, and that modified sequences are detached from the pager
+ *
+ * @author kjetikl
+ */
+public class SequenceDataPagerTest {
+
+    private static final int LENGTH=10000; // large enough to be paged out (the payload must be at least 64KB)
+
+    @Rule
+    public TemporaryFolder folder=new TemporaryFolder();
+
+    private File directory;
+    private double[][] values;
+    private NumericDataset dataset;
+
+    public SequenceDataPagerTest() {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        directory=folder.newFolder("pages");
+        Random random=new Random(42);
+        values=new double[3][LENGTH];
+        dataset=new NumericDataset("track");
+        for (int s=0;s<values.length;s++) {
+            for (int i=0;i<LENGTH;i++) values[s][i]=(random.nextInt(10)==0)?Double.NaN:random.nextGaussian();
+            dataset.addSequence(new NumericSequenceData("seq"+s, "chr1", 1, LENGTH, values[s].clone()));
+        }
+    }
+
+    private NumericSequenceData getSequence(int index) {
+        return (NumericSequenceData)dataset.getSequenceByIndex(index);
+    }
+
+    private static void assertSameValues(double[] expected, NumericSequenceData sequence) {
+        for (int i=0;i<expected.length;i++) {
+            assertEquals("Position "+i, Double.doubleToLongBits(expected[i]), Double.doubleToLongBits(sequence.getValueAtRelativePosition(i)));
+        }
+    }
+
+    /**
+     * Test of register method, of class SequenceDataPager, with a budget that is too small for any of the payloads.
+     * All the payloads should be paged out and read back with the same values.
+     */
+    @Test
+    public void testPageOutAndPageIn() {
+        SequenceDataPager pager=new SequenceDataPager(null, directory, 0);
+        pager.register(dataset);
+        assertEquals(0, pager.getResidentBytes());
+        for (int s=0;s<values.length;s++) {
+            assertNull("Sequence "+s+" should be paged out", getSequence(s).getResidentPayload());
+            assertSame(pager, getSequence(s).getPager());
+        }
+        assertEquals(values.length, directory.listFiles().length);
+        for (int s=0;s<values.length;s++) assertSameValues(values[s], getSequence(s));
+        assertArrayEquals(values[1], (double[])getSequence(1).getValueInGenomicInterval(1, LENGTH), 0);
+        assertEquals(values.length, directory.listFiles().length); // the files are kept while the payloads are unchanged
+    }
+
+    /**
+     * Test of register method, of class SequenceDataPager, with a budget that can hold some but not all of the payloads.
+     */
+    @Test
+    public void testBudget() {
+        long size=LENGTH*8L;
+        SequenceDataPager pager=new SequenceDataPager(null, directory, size*values.length);
+        pager.register(dataset);
+        assertEquals(size*values.length, pager.getResidentBytes());
+        for (int s=0;s<values.length;s++) assertNotNull(getSequence(s).getResidentPayload());
+        pager.setBudget(size);
+        assertTrue(pager.getResidentBytes()<=size);
+        for (int round=0;round<3;round++) { // the sequences are paged in and out repeatedly
+            for (int s=0;s<values.length;s++) {
+                assertSameValues(values[s], getSequence(s));
+                assertTrue(pager.getResidentBytes()<=size);
+            }
+        }
+        assertEquals(size, pager.getBudget());
+    }
+
+    /**
+     * Test that a paged-out sequence is read back and detached from the pager before it is modified,
+     * so that the modification is kept and later page-outs do not use the old file.
+     */
+    @Test
+    public void testModifyAfterPageOut() {
+        SequenceDataPager pager=new SequenceDataPager(null, directory, 0);
+        pager.register(dataset);
+        NumericSequenceData sequence=getSequence(0);
+        sequence.setValueAtRelativePosition(0, 100);
+        sequence.setValueAtRelativePosition(LENGTH-1, -100);
+        assertNull(sequence.getPager());
+        assertNotNull(sequence.getResidentPayload());
+        assertEquals(values.length-1, directory.listFiles().length);
+        double[] expected=values[0].clone();
+        expected[0]=100;
+        expected[LENGTH-1]=-100;
+        assertSameValues(expected, sequence);
+        pager.register(dataset); // the modified sequence is registered again and paged out with its new values
+        assertNull(sequence.getResidentPayload());
+        assertSameValues(expected, sequence);
+        assertSameValues(values[1], getSequence(1));
+    }
+
+    /**
+     * Test that clones and serialized copies of paged-out sequences have the same values as the original.
+     */
+    @Test
+    public void testCloneAndSerializeAfterPageOut() throws Exception {
+        SequenceDataPager pager=new SequenceDataPager(null, directory, 0);
+        pager.register(dataset);
+        NumericSequenceData clone=getSequence(0).clone();
+        assertNull(clone.getPager());
+        clone.setValueAtRelativePosition(5, 1000);
+        assertSameValues(values[0], getSequence(0));
+        assertEquals(1000, clone.getValueAtRelativePosition(5), 0);
+        pager.register(dataset);
+        ByteArrayOutputStream buffer=new ByteArrayOutputStream();
+        ObjectOutputStream output=new ObjectOutputStream(buffer);
+        output.writeObject(getSequence(1));
+        output.close();
+        NumericSequenceData copy=(NumericSequenceData)new ObjectInputStream(new ByteArrayInputStream(buffer.toByteArray())).readObject();
+        assertSameValues(values[1], copy);
+    }
+
+    /**
+     * Test of register and unregister methods, of class SequenceDataPager, for DNA sequences, small sequences and empty datasets.
+     */
+    @Test
+    public void testRegisterOtherSequences() {
+        SequenceDataPager pager=new SequenceDataPager(null, directory, 0);
+        pager.register(new DNASequenceDataset("empty"));
+        DNASequenceDataset dna=new DNASequenceDataset("DNA");
+        char[] bases=new char[LENGTH*4];
+        Random random=new Random(42);
+        for (int i=0;i<bases.length;i++) bases[i]="ACGTacgtN".charAt(random.nextInt(9));
+        DNASequenceData plain=new DNASequenceData("seq0", "chr1", 1, bases.length, bases.clone());
+        DNASequenceData packed=new DNASequenceData("seq1", "chr1", 1, bases.length, bases.clone());
+        packed.pack();
+        DNASequenceData small=new DNASequenceData("seq2", "chr1", 1, 100, 'A');
+        dna.addSequence(plain);
+        dna.addSequence(packed);
+        dna.addSequence(small);
+        pager.register(dna);
+        assertNull(plain.getResidentPayload());
+        assertNull(packed.getPager()); // packed sequences are not paged out
+        assertNull(small.getPager()); // too small to be paged out
+        assertEquals(new String(bases), plain.getSequenceAsString());
+        assertEquals(new String(bases), packed.getSequenceAsString());
+        pager.register(dna);
+        pager.unregister(dna);
+        assertNull(plain.getPager());
+        assertEquals(new String(bases), plain.getSequenceAsString()); // still readable after the sequence is unregistered
+        assertEquals(bases[LENGTH], (char)plain.getValueAtRelativePosition(LENGTH));
+    }
+}
@@ -0,0 +1,164 @@
+package org.motiflab.engine.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that sequences are looked up by name in FeatureDatasets and SequenceCollections
+ * with the same results as a linear search through the list of sequences,
+ * also after the list has been modified
+ *
+ * @author kjetikl
+ */
+public class SequenceNameIndexTest {
+
+    private RegionDataset dataset;
+
+    public SequenceNameIndexTest() {
+    }
+
+    @Before
+    public void setUp() {
+        dataset=new RegionDataset("track");
+        for (int i=0;i<50;i++) dataset.addSequence(createSequence("seq"+i));
+    }
+
+    private static RegionSequenceData createSequence(String name) {
+        return new RegionSequenceData(name, "chr1", 1000, 1999);
+    }
+
+    private static int linearIndex(FeatureDataset dataset, String name) {
+        ArrayList<FeatureSequenceData> sequences=dataset.getAllSequences();
+        for (int i=0;i<sequences.size();i++) {
+            if (sequences.get(i).getName().equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private static void assertSameLookups(FeatureDataset dataset, String... names) {
+        for (String name:names) {
+            int expected=linearIndex(dataset, name);
+            assertEquals(name, expected, dataset.getIndexForSequence(name));
+            if (expected>=0) assertSame(name, dataset.getSequenceByIndex(expected), dataset.getSequenceByName(name));
+            else assertNull(name, dataset.getSequenceByName(name));
+        }
+        for (FeatureSequenceData sequence:dataset.getAllSequences()) {
+            assertEquals(sequence.getName(), linearIndex(dataset, sequence.getName()), dataset.getIndexForSequence(sequence.getName()));
+        }
+    }
+
+    /**
+     * Test of getIndexForSequence and getSequenceByName methods, of class FeatureDataset, for empty datasets and datasets with a single sequence.
+     */
+    @Test
+    public void testEmptyAndSingleSequence() {
+        RegionDataset empty=new RegionDataset("empty");
+        assertEquals(-1, empty.getIndexForSequence("seq0"));
+        assertEquals(-1, empty.getIndexForSequence(null));
+        assertNull(empty.getSequenceByName("seq0"));
+        empty.removeSequence("seq0"); // should not fail
+        RegionSequenceData sequence=createSequence("seq0");
+        empty.addSequence(sequence);
+        assertEquals(0, empty.getIndexForSequence("seq0"));
+        assertSame(sequence, empty.getSequenceByName("seq0"));
+        assertEquals(-1, empty.getIndexForSequence("seq1"));
+        empty.removeSequence("seq0");
+        assertEquals(-1, empty.getIndexForSequence("seq0"));
+        assertEquals(0, empty.getNumberofSequences());
+    }
+
+    /**
+     * Test of getIndexForSequence method, of class FeatureDataset, after the sequences have been added, removed, reordered and renamed.
+     */
+    @Test
+    public void testLookupAfterModification() {
+        assertSameLookups(dataset, "seq0", "seq49", "seq50", "SEQ1", "");
+        dataset.addSequence(createSequence("seq50")); // extends the index
+        assertSameLookups(dataset, "seq50", "seq51");
+        dataset.removeSequence("seq10");
+        assertSameLookups(dataset, "seq9", "seq10", "seq11", "seq50");
+        dataset.reorderSequences(0, 30);
+        assertSameLookups(dataset, "seq0", "seq1", "seq30", "seq31");
+        dataset.getSequenceByName("seq5").setSequenceName("renamed");
+        assertSameLookups(dataset, "seq5", "renamed");
+        RegionSequenceData replacement=createSequence("seq7");
+        dataset.replaceSequence(replacement);
+        assertSameLookups(dataset, "seq7");
+    }
+
+    /**
+     * Test of getIndexForSequence method, of class FeatureDataset, when the list of sequences is modified directly.
+     */
+    @Test
+    public void testLookupAfterDirectModification() {
+        assertSameLookups(dataset, "seq3");
+        ArrayList<FeatureSequenceData> list=dataset.getAllSequences();
+        FeatureSequenceData first=list.remove(0);
+        list.add(first); // same size, but the positions have changed
+        assertSameLookups(dataset, "seq0", "seq1", "seq49");
+        list.remove(10);
+        assertSameLookups(dataset, "seq11", "seq12");
+    }
+
+    /**
+     * Test of getIndexForSequence method, of class FeatureDataset, for clones that share the index of the original.
+     * Modifying the clone should not affect lookups in the original and vice versa.
+     */
+    @Test
+    public void testCloneThenModify() {
+        dataset.getIndexForSequence("seq0"); // make sure the index is built before cloning
+        RegionDataset clone=dataset.clone();
+        assertSameLookups(clone, "seq0", "seq49");
+        clone.addSequence(createSequence("cloneonly"));
+        clone.removeSequence("seq3");
+        assertSameLookups(clone, "cloneonly", "seq3", "seq4");
+        assertSameLookups(dataset, "cloneonly", "seq3", "seq4");
+        dataset.addSequence(createSequence("originalonly"));
+        assertSameLookups(dataset, "originalonly", "cloneonly");
+        assertSameLookups(clone, "originalonly", "cloneonly");
+        assertEquals(-1, clone.getIndexForSequence("originalonly"));
+        assertEquals(-1, dataset.getIndexForSequence("cloneonly"));
+    }
+
+    /**
+     * Test of getIndexForSequence and contains methods, of class SequenceCollection.
+     */
+    @Test
+    public void testSequenceCollection() {
+        SequenceCollection collection=new SequenceCollection("collection");
+        assertFalse(collection.contains("seq0"));
+        assertEquals(-1, collection.getIndexForSequence("seq0"));
+        collection.addSequenceName("seq0");
+        assertEquals(0, collection.getIndexForSequence("seq0"));
+        collection.addSequenceNames(new ArrayList<String>(Arrays.asList("seq1","seq2","seq0","seq3"))); // duplicates should not be added
+        assertEquals(4, collection.size());
+        assertSameCollectionLookups(collection, "seq0", "seq3", "seq4");
+        collection.reorderSequences(3, 0);
+        assertSameCollectionLookups(collection, "seq0", "seq3");
+        collection.setSequenceOrder(new String[]{"seq2","seq1","seq3","seq0"});
+        assertSameCollectionLookups(collection, "seq0", "seq2");
+        SequenceCollection clone=collection.clone();
+        clone.addSequenceName("cloneonly");
+        assertTrue(clone.contains("cloneonly"));
+        assertFalse(collection.contains("cloneonly"));
+        assertSameCollectionLookups(clone, "seq0", "cloneonly");
+        SequenceCollection other=new SequenceCollection("other");
+        other.addSequenceName("seq9");
+        collection.merge(other);
+        assertSameCollectionLookups(collection, "seq9", "seq2");
+        collection.importData(clone);
+        assertSameCollectionLookups(collection, "seq9", "cloneonly");
+    }
+
+    private static void assertSameCollectionLookups(SequenceCollection collection, String... names) {
+        ArrayList<String> list=collection.getAllSequenceNames();
+        for (String name:names) {
+            assertEquals(name, list.indexOf(name), collection.getIndexForSequence(name));
+            assertEquals(name, list.contains(name), collection.contains(name));
+        }
+        for (int i=0;i<list.size();i++) assertEquals(i, collection.getIndexForSequence(list.get(i)));
+    }
+}
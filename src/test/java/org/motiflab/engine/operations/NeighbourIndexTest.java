@@ -0,0 +1,168 @@
+package org.motiflab.engine.operations;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeSet;
+import org.motiflab.engine.MotifLabEngine;
+import org.motiflab.engine.data.Region;
+import org.motiflab.engine.data.RegionDataset;
+import org.motiflab.engine.data.RegionSequenceData;
+import org.motiflab.engine.task.OperationTask;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that "distance to closest" region conditions, which find the closest regions in other tracks with a sorted index,
+ * give the same distances as scanning the list of regions in the other track for each region
+ *
+ * @author kjetikl
+ */
+public class NeighbourIndexTest {
+
+    private static final String[] DATASETS=new String[]{"neighbourTestA","neighbourTestB","neighbourTestEmpty","neighbourTestSingle"};
+    private static final String[] TYPES=new String[]{"TF1","TF12","TF2","X"};
+    private static final String SEQUENCE="seq1";
+    private static final int LENGTH=2000;
+    private static final int OFFSET=1001; // genomic start of the sequences
+
+    private MotifLabEngine engine;
+    private OperationTask task;
+    private Random random;
+    private RegionDataset[] datasets;
+
+    public NeighbourIndexTest() {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        engine=MotifLabEngine.getEngine();
+        task=new OperationTask("test");
+        task.setParameter(OperationTask.ENGINE, engine);
+        random=new Random(42);
+        datasets=new RegionDataset[DATASETS.length];
+        for (int d=0;d<DATASETS.length;d++) {
+            datasets[d]=new RegionDataset(DATASETS[d]);
+            datasets[d].addSequence(new RegionSequenceData(SEQUENCE, "chr1", OFFSET, OFFSET+LENGTH-1));
+        }
+        addRandomRegions(getSequence(0), 150);
+        addRandomRegions(getSequence(1), 100);
+        RegionSequenceData other=getSequence(1);
+        for (int i=0;i<10;i++) other.addRegion(getSequence(0).getRegionByIndex(random.nextInt(150)).clone()); // identical regions are skipped
+        other.addRegion(new Region(other, 500, 900, TYPES[3], 1.0, Region.DIRECT)); // a long region containing other regions
+        other.addRegion(new Region(other, 500, 520, TYPES[0], 1.0, Region.DIRECT)); // starts at the same position
+        getSequence(3).addRegion(new Region(getSequence(3), 1000, 1010, TYPES[1], 1.0, Region.REVERSE));
+        for (RegionDataset dataset:datasets) engine.storeDataItem(dataset);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (String name:DATASETS) engine.removeDataItem(name);
+    }
+
+    private RegionSequenceData getSequence(int dataset) {
+        return (RegionSequenceData)datasets[dataset].getSequenceByName(SEQUENCE);
+    }
+
+    private void addRandomRegions(RegionSequenceData sequence, int numberOfRegions) {
+        for (int i=0;i<numberOfRegions;i++) {
+            int start=random.nextInt(LENGTH+20)-10;
+            int length=(random.nextInt(5)==0)?random.nextInt(100)+1:random.nextInt(10)+1;
+            sequence.addRegion(new Region(sequence, start, start+length-1, TYPES[random.nextInt(TYPES.length)], random.nextInt(3), (random.nextBoolean())?Region.DIRECT:Region.REVERSE));
+        }
+    }
+
+    /** Returns the distance to the closest eligible region in the track, as found by the original linear scan in Condition_region */
+    private static int getExpectedDistance(Region region, RegionSequenceData regionTrack, String restrictType, boolean exactType) {
+        int distance=Integer.MAX_VALUE;
+        int startRegion=region.getGenomicStart();
+        int endRegion=region.getGenomicEnd();
+        for (Region other:regionTrack.getOriginalRegions()) {
+            if (region.isIdenticalTo(other)) continue;
+            if (restrictType!=null) {
+                if (exactType && !restrictType.equals(other.getType())) continue;
+                if (!exactType && !(restrictType.contains(other.getType()) || other.getType().contains(restrictType))) continue;
+            }
+            int startOther=other.getGenomicStart();
+            int endOther=other.getGenomicEnd();
+            if (endOther<startRegion) {
+                int newdist=startRegion-endOther-1;
+                if (newdist<distance) distance=newdist;
+            } else if (endRegion<startOther) {
+                int newdist=startOther-endRegion-1;
+                if (newdist<distance) distance=newdist;
+                else return distance;
+            } else return -1;
+        }
+        return distance;
+    }
+
+    /**
+     * Checks that the condition "distance to closest region in the other track = d" holds for every region in the tested track
+     * exactly when d is the distance found by the linear scan (the distances are checked one value of d at a time)
+     */
+    private void assertSameDistances(int tested, int other, String typeRestriction) throws Exception {
+        RegionSequenceData sequence=getSequence(tested);
+        RegionSequenceData otherSequence=getSequence(other);
+        boolean exactType=(typeRestriction!=null && !typeRestriction.equalsIgnoreCase("type-matching"));
+        ArrayList<Region> regions=sequence.getOriginalRegions();
+        int[] expected=new int[regions.size()];
+        TreeSet<Integer> distances=new TreeSet<Integer>();
+        distances.add(-1);
+        distances.add(0);
+        distances.add(Integer.MAX_VALUE);
+        for (int i=0;i<regions.size();i++) {
+            Region region=regions.get(i);
+            expected[i]=getExpectedDistance(region, otherSequence, (typeRestriction!=null)?region.getType():null, exactType);
+            distances.add(expected[i]);
+        }
+        for (int distance:distances) {
+            Condition_region condition=new Condition_region();
+            condition.setCompareProperty("distance to closest");
+            condition.setOperandAString(DATASETS[other]);
+            condition.setComparator("=");
+            condition.setOperandBString(""+distance);
+            if (typeRestriction!=null) condition.setOtherRegionTypeRestriction(typeRestriction);
+            condition.resolve(engine, task);
+            for (int i=0;i<regions.size();i++) {
+                Region region=regions.get(i);
+                String message="Region "+region.getGenomicStart()+"-"+region.getGenomicEnd()+" ("+region.getType()+") in "+DATASETS[tested]+" compared to "+DATASETS[other]+" with restriction "+typeRestriction+", distance="+distance;
+                assertEquals(message, expected[i]==distance, condition.isConditionSatisfied(SEQUENCE, region, task));
+            }
+        }
+    }
+
+    /**
+     * Test of isConditionSatisfied method, of class Condition_region, for the distance to the closest region in another track.
+     */
+    @Test
+    public void testDistanceToClosest() throws Exception {
+        for (String typeRestriction:new String[]{null, "type-matching", "exact type"}) {
+            assertSameDistances(0, 1, typeRestriction);
+            assertSameDistances(1, 0, typeRestriction);
+        }
+    }
+
+    /**
+     * Test of isConditionSatisfied method, of class Condition_region, for the distance to the closest region in the same track
+     * (which is found by scanning the current regions in the track).
+     */
+    @Test
+    public void testDistanceToClosestInSameTrack() throws Exception {
+        assertSameDistances(0, 0, null);
+        assertSameDistances(1, 1, "type-matching");
+    }
+
+    /**
+     * Test of isConditionSatisfied method, of class Condition_region, when the other track has no regions or a single region.
+     */
+    @Test
+    public void testEmptyAndSingleRegionTracks() throws Exception {
+        assertSameDistances(0, 2, null);
+        assertSameDistances(0, 3, null);
+        assertSameDistances(0, 3, "exact type");
+        assertSameDistances(3, 0, null);
+        assertSameDistances(2, 0, null);
+    }
+}
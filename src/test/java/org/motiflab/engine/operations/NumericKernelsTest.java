@@ -0,0 +1,276 @@
+package org.motiflab.engine.operations;
+
+import java.util.BitSet;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests that the numeric kernels give the same results as the original per-position code in the operations,
+ * and that the vectorized kernels give the same results as the scalar kernels.
+ * The vectorized kernels are only tested if the JVM is started with "--add-modules jdk.incubator.vector"
+ *
+ * @author kjetikl
+ */
+public class NumericKernelsTest {
+
+    private static final int LENGTH=1037; // not a multiple of the vector size, so that the scalar tail is also tested
+
+    private double[] values;
+    private double[] operands;
+    private double[] target;
+    private long[] selection;
+    private BitSet selected;
+
+    public NumericKernelsTest() {
+    }
+
+    @Before
+    public void setUp() {
+        Random random=new Random(42);
+        values=new double[LENGTH];
+        operands=new double[LENGTH];
+        target=new double[LENGTH];
+        selected=new BitSet(LENGTH);
+        for (int i=0;i<LENGTH;i++) {
+            values[i]=(random.nextDouble()-0.3)*100;
+            operands[i]=(random.nextDouble()-0.5)*10;
+            target[i]=random.nextDouble();
+            if (random.nextInt(3)>0) selected.set(i);
+        }
+        // include some special values
+        values[3]=0; values[17]=Double.NaN; values[18]=-0.0; values[40]=Double.POSITIVE_INFINITY; values[41]=Double.NEGATIVE_INFINITY; values[LENGTH-1]=Double.NaN;
+        operands[5]=0; operands[6]=-0.0; operands[7]=Double.NaN; operands[LENGTH-2]=0;
+        selected.set(3); selected.set(17); selected.set(5); selected.set(LENGTH-2);
+        selection=NumericKernels.getSelection(new PositionMask(1000, LENGTH, selected), 1000, 1000+LENGTH-1);
+    }
+
+    private static NumericKernels scalar() {
+        return NumericKernels.getKernels(false);
+    }
+
+    private static NumericKernels vector() {
+        assumeTrue(NumericKernels.isVectorAPIAvailable());
+        return NumericKernels.getKernels(true);
+    }
+
+    private boolean isSelected(int i, boolean conditioned) {
+        return !conditioned || selected.get(i);
+    }
+
+    private static void assertSameValues(double[] expected, double[] actual) {
+        for (int i=0;i<expected.length;i++) {
+            assertEquals("Position "+i, Double.doubleToLongBits(expected[i]), Double.doubleToLongBits(actual[i]));
+        }
+    }
+
+    private static void assertCloseValues(double[] expected, double[] actual) {
+        for (int i=0;i<expected.length;i++) {
+            if (Double.isNaN(expected[i]) || Double.isInfinite(expected[i])) assertEquals("Position "+i, expected[i], actual[i], 0);
+            else assertEquals("Position "+i, expected[i], actual[i], 2*Math.ulp(expected[i]));
+        }
+    }
+
+    /**
+     * Test of getSelection method, of class NumericKernels.
+     */
+    @Test
+    public void testGetSelection() {
+        PositionMask mask=new PositionMask(1000, LENGTH, selected);
+        long[] subset=NumericKernels.getSelection(mask, 1100, 1300);
+        for (int i=1100;i<=1300;i++) {
+            assertEquals(mask.get(i), NumericKernels.isSelected(subset, i-1100));
+        }
+        long[] before=NumericKernels.getSelection(mask, 990, 1010); // the interval starts before the mask
+        for (int i=990;i<=1010;i++) {
+            assertEquals(mask.get(i), NumericKernels.isSelected(before, i-990));
+        }
+        assertNull(NumericKernels.getSelection(null, 0, 10));
+    }
+
+    /**
+     * Test of arithmetic method, of class NumericKernels, against the original calculation in the arithmetic operations.
+     */
+    @Test
+    public void testArithmetic() {
+        int[] operators=new int[]{NumericKernels.SET, NumericKernels.ADD, NumericKernels.SUBTRACT, NumericKernels.MULTIPLY, NumericKernels.DIVIDE};
+        for (int operator:operators) {
+            for (boolean conditioned:new boolean[]{false,true}) {
+                for (boolean track:new boolean[]{false,true}) {
+                    double[] expected=target.clone();
+                    int expectedSkipped=0;
+                    for (int i=0;i<LENGTH;i++) {
+                        if (!isSelected(i, conditioned)) continue;
+                        double argument=(track)?operands[i]:2.5;
+                        switch (operator) {
+                            case NumericKernels.SET: expected[i]=argument; break;
+                            case NumericKernels.ADD: expected[i]=values[i]+argument; break;
+                            case NumericKernels.SUBTRACT: expected[i]=values[i]-argument; break;
+                            case NumericKernels.MULTIPLY: expected[i]=values[i]*argument; break;
+                            case NumericKernels.DIVIDE: if (argument==0) expectedSkipped++; else expected[i]=values[i]/argument; break;
+                        }
+                    }
+                    double[] actual=target.clone();
+                    int skipped=scalar().arithmetic(operator, values, (track)?operands:null, 2.5, actual, (conditioned)?selection:null);
+                    assertSameValues(expected, actual);
+                    assertEquals(expectedSkipped, skipped);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test of combine method, of class NumericKernels, against the original calculation in Operation_combine_numeric.
+     */
+    @Test
+    public void testCombine() {
+        double[][] sources=new double[][]{values, operands, target};
+        int[] operators=new int[]{NumericKernels.ADD, NumericKernels.MULTIPLY, NumericKernels.MIN, NumericKernels.MAX, NumericKernels.AVERAGE};
+        for (int operator:operators) {
+            for (boolean conditioned:new boolean[]{false,true}) {
+                double[] expected=new double[LENGTH];
+                for (int i=0;i<LENGTH;i++) {
+                    if (!isSelected(i, conditioned)) continue;
+                    double sum=0, product=1f, min=Double.MAX_VALUE, max=-Double.MAX_VALUE;
+                    for (double[] source:sources) {
+                        sum+=source[i];
+                        product*=source[i];
+                        if (source[i]<min) min=source[i];
+                        if (source[i]>max) max=source[i];
+                    }
+                    switch (operator) {
+                        case NumericKernels.ADD: expected[i]=sum; break;
+                        case NumericKernels.MULTIPLY: expected[i]=product; break;
+                        case NumericKernels.MIN: expected[i]=min; break;
+                        case NumericKernels.MAX: expected[i]=max; break;
+                        case NumericKernels.AVERAGE: expected[i]=sum/(double)sources.length; break;
+                    }
+                }
+                double[] actual=new double[LENGTH];
+                scalar().combine(operator, sources, actual, (conditioned)?selection:null);
+                assertSameValues(expected, actual);
+            }
+        }
+    }
+
+    /**
+     * Test of transform method, of class NumericKernels, against the original calculation in Operation_transform.
+     */
+    @Test
+    public void testTransform() {
+        int[] transforms=new int[]{NumericKernels.LOG, NumericKernels.LOG_BASE, NumericKernels.SQUARE_ROOT, NumericKernels.ABSOLUTE, NumericKernels.RECIPROCAL, NumericKernels.SIGMOID};
+        for (int transform:transforms) {
+            for (boolean conditioned:new boolean[]{false,true}) {
+                double[] expected=target.clone();
+                int expectedSkipped=0;
+                for (int i=0;i<LENGTH;i++) {
+                    if (!isSelected(i, conditioned)) continue;
+                    double value=values[i];
+                    switch (transform) {
+                        case NumericKernels.LOG: if (value>0) expected[i]=Math.log(value); else expectedSkipped++; break;
+                        case NumericKernels.LOG_BASE: if (value>0) expected[i]=(Math.log(value)/Math.log(2.0)); else expectedSkipped++; break;
+                        case NumericKernels.SQUARE_ROOT: if (value>=0) expected[i]=Math.sqrt(value); else expectedSkipped++; break;
+                        case NumericKernels.ABSOLUTE: expected[i]=Math.abs(value); break;
+                        case NumericKernels.RECIPROCAL: if (value!=0) expected[i]=1.0/value; else expectedSkipped++; break;
+                        case NumericKernels.SIGMOID: expected[i]=1.0/(1+Math.exp(-value)); break;
+                    }
+                }
+                double[] actual=target.clone();
+                int skipped=scalar().transform(transform, values, 2.0, actual, (conditioned)?selection:null);
+                assertSameValues(expected, actual);
+                assertEquals(expectedSkipped, skipped);
+            }
+        }
+    }
+
+    /**
+     * Test of threshold method, of class NumericKernels, against the original calculation in Operation_threshold.
+     */
+    @Test
+    public void testThreshold() {
+        for (boolean conditioned:new boolean[]{false,true}) {
+            double[] expected=values.clone();
+            for (int i=0;i<LENGTH;i++) {
+                if (isSelected(i, conditioned)) expected[i]=(values[i]>=10)?1:-1;
+            }
+            double[] actual=values.clone();
+            scalar().threshold(actual, 10, 1, -1, actual, (conditioned)?selection:null);
+            assertSameValues(expected, actual);
+        }
+    }
+
+    /**
+     * Test of rescale method, of class NumericKernels, against the original calculation in Operation_normalize.
+     */
+    @Test
+    public void testRescale() {
+        for (double oldMax:new double[]{70,-30}) {
+            for (boolean conditioned:new boolean[]{false,true}) {
+                double oldMinValue=-30, oldMaxValue=oldMax, newMinValue=0, newMaxValue=1;
+                double oldrange=oldMaxValue-oldMinValue;
+                double[] expected=values.clone();
+                for (int i=0;i<LENGTH;i++) {
+                    if (!isSelected(i, conditioned)) continue;
+                    double normalizedValue=newMinValue;
+                    if (oldrange!=0) {
+                        double oldScaleOffset=(values[i]-oldMinValue)/(oldrange);
+                        double newScaledOffset=oldScaleOffset*(newMaxValue-newMinValue);
+                        normalizedValue+=newScaledOffset;
+                    }
+                    expected[i]=normalizedValue;
+                }
+                double[] actual=values.clone();
+                scalar().rescale(actual, oldMinValue, oldMaxValue, newMinValue, newMaxValue, actual, (conditioned)?selection:null);
+                assertSameValues(expected, actual);
+            }
+        }
+    }
+
+    /**
+     * Tests that the vectorized kernels give the same results as the scalar kernels.
+     */
+    @Test
+    public void testVectorizedKernels() {
+        NumericKernels vector=vector();
+        assertTrue(vector.isVectorized());
+        double[][] sources=new double[][]{values, operands, target};
+        for (long[] sel:new long[][]{null, selection}) {
+            for (int operator:new int[]{NumericKernels.SET, NumericKernels.ADD, NumericKernels.SUBTRACT, NumericKernels.MULTIPLY, NumericKernels.DIVIDE}) {
+                for (double[] ops:new double[][]{null, operands}) {
+                    double[] expected=target.clone(), actual=target.clone();
+                    int expectedSkipped=scalar().arithmetic(operator, values, ops, 0.0, expected, sel); // a constant operand of 0 makes every division skip
+                    int skipped=vector.arithmetic(operator, values, ops, 0.0, actual, sel);
+                    assertSameValues(expected, actual);
+                    assertEquals(expectedSkipped, skipped);
+                }
+            }
+            for (int operator:new int[]{NumericKernels.ADD, NumericKernels.MULTIPLY, NumericKernels.MIN, NumericKernels.MAX, NumericKernels.AVERAGE}) {
+                double[] expected=new double[LENGTH], actual=new double[LENGTH];
+                scalar().combine(operator, sources, expected, sel);
+                vector.combine(operator, sources, actual, sel);
+                assertSameValues(expected, actual);
+            }
+            for (int transform:new int[]{NumericKernels.LOG, NumericKernels.LOG_BASE, NumericKernels.SQUARE_ROOT, NumericKernels.ABSOLUTE, NumericKernels.RECIPROCAL, NumericKernels.SIGMOID}) {
+                double[] expected=target.clone(), actual=target.clone();
+                int expectedSkipped=scalar().transform(transform, values, 10.0, expected, sel);
+                int skipped=vector.transform(transform, values, 10.0, actual, sel);
+                if (transform==NumericKernels.LOG || transform==NumericKernels.LOG_BASE || transform==NumericKernels.SIGMOID) assertCloseValues(expected, actual); // the vectorized log and exp functions can differ in the last bit
+                else assertSameValues(expected, actual);
+                assertEquals(expectedSkipped, skipped);
+            }
+            double[] expected=values.clone(), actual=values.clone();
+            scalar().threshold(expected, 10, 1, -1, expected, sel);
+            vector.threshold(actual, 10, 1, -1, actual, sel);
+            assertSameValues(expected, actual);
+            for (double oldMax:new double[]{70,-30}) {
+                expected=values.clone();
+                actual=values.clone();
+                scalar().rescale(expected, -30, oldMax, 0, 1, expected, sel);
+                vector.rescale(actual, -30, oldMax, 0, 1, actual, sel);
+                assertSameValues(expected, actual);
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.motiflab.engine.operations;
+
+import java.util.ArrayList;
+import java.util.Random;
+import org.motiflab.engine.MotifLabEngine;
+import org.motiflab.engine.data.Motif;
+import org.motiflab.engine.data.NumericConstant;
+import org.motiflab.engine.data.NumericSequenceData;
+import org.motiflab.engine.data.Region;
+import org.motiflab.engine.data.RegionSequenceData;
+import org.motiflab.engine.data.Sequence;
+import org.motiflab.engine.task.OperationTask;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the "count" operation, which counts the regions in all windows of a sequence with a single sweep,
+ * gives the same results as querying the regions in the window around each position separately
+ *
+ * @author kjetikl
+ */
+public class Operation_countTest {
+
+    private static final String[] SEQUENCES=new String[]{"countTestDirect","countTestReverse"};
+    private static final String[] MOTIFS=new String[]{"countTestMotif1","countTestMotif2"};
+    private static final int LENGTH=400;
+    private static final int OFFSET=5001; // genomic start of the sequences
+
+    private MotifLabEngine engine;
+    private Operation_count operation;
+    private Random random;
+
+    public Operation_countTest() {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        engine=MotifLabEngine.getEngine();
+        operation=new Operation_count();
+        operation.setEngine(engine);
+        random=new Random(42);
+        engine.storeDataItem(new Sequence(SEQUENCES[0], 9606, "hg38", "chr1", OFFSET, OFFSET+LENGTH-1, null, null, null, Sequence.DIRECT));
+        engine.storeDataItem(new Sequence(SEQUENCES[1], 9606, "hg38", "chr1", OFFSET, OFFSET+LENGTH-1, null, null, null, Sequence.REVERSE));
+        for (int m=0;m<MOTIFS.length;m++) {
+            Motif motif=new Motif(MOTIFS[m]);
+            double[][] matrix=new double[6+m*3][4];
+            for (double[] column:matrix) {
+                for (int b=0;b<4;b++) column[b]=random.nextInt(20)+1;
+            }
+            motif.setMatrix(matrix);
+            engine.storeDataItem(motif);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (String name:SEQUENCES) engine.removeDataItem(name);
+        for (String name:MOTIFS) engine.removeDataItem(name);
+    }
+
+    /** Creates a sequence with regions that overlap, contain each other, share positions and extend beyond the ends of the sequence */
+    private RegionSequenceData createSequence(String name, int numberOfRegions) {
+        RegionSequenceData sequence=new RegionSequenceData(name, "chr1", OFFSET, OFFSET+LENGTH-1);
+        for (int i=0;i<numberOfRegions;i++) {
+            int start=random.nextInt(LENGTH+20)-10;
+            int length=(random.nextInt(4)==0)?random.nextInt(60)+1:random.nextInt(12)+1;
+            String type=(random.nextInt(5)==0)?"unknown":MOTIFS[random.nextInt(MOTIFS.length)];
+            Region region=new Region(sequence, start, start+length-1, type, random.nextDouble()*10, (random.nextBoolean())?Region.DIRECT:Region.REVERSE);
+            if (random.nextInt(3)>0) region.setProperty("property", random.nextGaussian());
+            sequence.addRegion(region);
+        }
+        Region first=new Region(sequence, 50, 60, MOTIFS[0], 1.0, Region.DIRECT); // the same region twice and a region containing it
+        sequence.addRegion(first);
+        sequence.addRegion(first.clone());
+        sequence.addRegion(new Region(sequence, 45, 70, MOTIFS[1], 2.0, Region.REVERSE));
+        return sequence;
+    }
+
+    /** Returns the value for the window from start to end (genomic coordinates), as computed by querying the regions in the window directly */
+    private double getExpectedValue(RegionSequenceData sequence, int start, int end, String countProperty, boolean strictlyWithin) {
+        ArrayList<Region> list=(strictlyWithin)?sequence.getRegionsWithinGenomicInterval(start, end):sequence.getRegionsOverlappingGenomicInterval(start, end);
+        if (countProperty.equals(Operation_count.REGION_NUMBER_COUNT)) return list.size();
+        double sum=0;
+        for (Region r:list) {
+            if (countProperty.equals(Operation_count.REGION_SCORES_COUNT)) sum+=r.getScore();
+            else if (countProperty.equals(Operation_count.REGION_SCORES_IC_CONTENT)) {
+                Motif motif=(Motif)engine.getDataItem(r.getType(), Motif.class);
+                if (motif==null) continue;
+                for (int i=start;i<=end;i++) { // only the columns inside the window are counted
+                    int motifoffset=i-r.getGenomicStart();
+                    if (motifoffset<0 || motifoffset>=r.getLength()) continue;
+                    if (r.getOrientation()==Region.REVERSE) motifoffset=r.getLength()-(motifoffset+1);
+                    sum+=motif.getICcontentForColumn(motifoffset);
+                }
+            } else {
+                Object value=r.getProperty(countProperty);
+                if (value instanceof Number) sum+=((Number)value).doubleValue();
+            }
+        }
+        return sum;
+    }
+
+    private void assertSameCounts(RegionSequenceData sequence) throws Exception {
+        int orientation=(sequence.getName().equals(SEQUENCES[0]))?Sequence.DIRECT:Sequence.REVERSE;
+        assertEquals(orientation, sequence.getStrandOrientation());
+        for (String countProperty:new String[]{Operation_count.REGION_NUMBER_COUNT, Operation_count.REGION_SCORES_COUNT, Operation_count.REGION_SCORES_IC_CONTENT, "property"}) {
+            for (String overlapping:new String[]{"overlapping","within"}) {
+                for (String anchor:new String[]{Operation_count.CENTER, Operation_count.UPSTREAM, Operation_count.DOWNSTREAM}) {
+                    for (int windowsize:new int[]{1,2,5,8,31,LENGTH+50}) {
+                        OperationTask task=new OperationTask("count");
+                        task.setParameter(Operation_count.COUNT_PROPERTY, countProperty);
+                        task.setParameter(Operation_count.OVERLAPPING_OR_WITHIN, overlapping);
+                        task.setParameter(Operation_count.ANCHOR, anchor);
+                        task.setParameter("windowSizeValue", new NumericConstant("size", windowsize));
+                        NumericSequenceData target=new NumericSequenceData(sequence.getName(), "chr1", OFFSET, OFFSET+LENGTH-1, new double[LENGTH]);
+                        operation.transformSequence(sequence, target, task);
+                        int start, end; // the window relative to the position
+                        boolean direct=(orientation==Sequence.DIRECT);
+                        if (anchor.equals(Operation_count.UPSTREAM)) {start=(direct)?0:-windowsize+1; end=(direct)?windowsize-1:0;}
+                        else if (anchor.equals(Operation_count.DOWNSTREAM)) {start=(direct)?-windowsize+1:0; end=(direct)?0:windowsize-1;}
+                        else if (windowsize%2==0) {start=(direct)?-windowsize/2+1:-windowsize/2; end=(direct)?windowsize/2:windowsize/2-1;}
+                        else {start=-windowsize/2; end=windowsize/2;}
+                        boolean strictlyWithin=overlapping.equals("within");
+                        for (int i=OFFSET;i<OFFSET+LENGTH;i++) {
+                            double expected=getExpectedValue(sequence, i+start, i+end, countProperty, strictlyWithin);
+                            String message=countProperty+" "+overlapping+" window of size "+windowsize+" anchored at "+anchor+", position "+i;
+                            if (countProperty.equals(Operation_count.REGION_SCORES_IC_CONTENT)) assertEquals(message, expected, target.getValueAtGenomicPosition(i), 1e-9);
+                            else assertEquals(message, expected, target.getValueAtGenomicPosition(i), 0); // the values are summed in the same order
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Test of transformSequence method, of class Operation_count, for sequences on the direct and reverse strand.
+     */
+    @Test
+    public void testCountInWindows() throws Exception {
+        for (String name:SEQUENCES) assertSameCounts(createSequence(name, 120));
+    }
+
+    /**
+     * Test of transformSequence method, of class Operation_count, for sequences with no regions and a single region.
+     */
+    @Test
+    public void testEmptyAndSingleRegion() throws Exception {
+        assertSameCounts(new RegionSequenceData(SEQUENCES[0], "chr1", OFFSET, OFFSET+LENGTH-1));
+        for (String name:SEQUENCES) {
+            RegionSequenceData sequence=new RegionSequenceData(name, "chr1", OFFSET, OFFSET+LENGTH-1);
+            sequence.addRegion(new Region(sequence, 0, 7, MOTIFS[1], 2.5, Region.REVERSE));
+            assertSameCounts(sequence);
+            sequence=new RegionSequenceData(name, "chr1", OFFSET, OFFSET+LENGTH-1);
+            sequence.addRegion(new Region(sequence, LENGTH-3, LENGTH+5, MOTIFS[0], 1.5, Region.DIRECT)); // extends beyond the end of the sequence
+            assertSameCounts(sequence);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package org.motiflab.engine.operations;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Random;
+import org.motiflab.engine.MotifLabEngine;
+import org.motiflab.engine.data.DNASequenceData;
+import org.motiflab.engine.data.DNASequenceDataset;
+import org.motiflab.engine.data.NumericDataset;
+import org.motiflab.engine.data.NumericSequenceData;
+import org.motiflab.engine.data.Region;
+import org.motiflab.engine.data.RegionDataset;
+import org.motiflab.engine.data.RegionSequenceData;
+import org.motiflab.engine.data.Sequence;
+import org.motiflab.engine.task.OperationTask;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the position masks created for where- and within-conditions
+ * give the same results as evaluating the conditions separately at each position
+ *
+ * @author kjetikl
+ */
+public class PositionMaskTest {
+
+    private static final String[] SEQUENCES=new String[]{"maskTestDirect","maskTestReverse","maskTestSingle"};
+    private static final int[] LENGTHS=new int[]{300,300,1};
+    private static final int OFFSET=2001; // genomic start of the sequences
+    private static final String[] DATASETS=new String[]{"maskTestRegionsA","maskTestRegionsB","maskTestNumericA","maskTestNumericB","maskTestDNA_A","maskTestDNA_B"};
+
+    private MotifLabEngine engine;
+    private OperationTask task;
+    private Random random;
+
+    public PositionMaskTest() {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        engine=MotifLabEngine.getEngine();
+        task=new OperationTask("test");
+        task.setParameter(OperationTask.ENGINE, engine);
+        random=new Random(42);
+        for (int s=0;s<SEQUENCES.length;s++) {
+            engine.storeDataItem(new Sequence(SEQUENCES[s], 9606, "hg38", "chr1", OFFSET, OFFSET+LENGTHS[s]-1, null, null, null, (s==1)?Sequence.REVERSE:Sequence.DIRECT));
+        }
+        RegionDataset regionsA=new RegionDataset(DATASETS[0]);
+        RegionDataset regionsB=new RegionDataset(DATASETS[1]);
+        NumericDataset numericA=new NumericDataset(DATASETS[2]);
+        NumericDataset numericB=new NumericDataset(DATASETS[3]);
+        DNASequenceDataset dnaA=new DNASequenceDataset(DATASETS[4]);
+        DNASequenceDataset dnaB=new DNASequenceDataset(DATASETS[5]);
+        for (int s=0;s<SEQUENCES.length;s++) {
+            int length=LENGTHS[s];
+            regionsA.addSequence(createRegionSequence(SEQUENCES[s], length, (s==2)?1:40));
+            regionsB.addSequence(createRegionSequence(SEQUENCES[s], length, (s==1)?0:25)); // no regions in one of the sequences
+            numericA.addSequence(new NumericSequenceData(SEQUENCES[s], "chr1", OFFSET, OFFSET+length-1, createValues(length)));
+            numericB.addSequence(new NumericSequenceData(SEQUENCES[s], "chr1", OFFSET, OFFSET+length-1, createValues(length)));
+            dnaA.addSequence(new DNASequenceData(SEQUENCES[s], "chr1", OFFSET, OFFSET+length-1, createBases(length)));
+            dnaB.addSequence(new DNASequenceData(SEQUENCES[s], "chr1", OFFSET, OFFSET+length-1, createBases(length)));
+        }
+        engine.storeDataItem(regionsA);
+        engine.storeDataItem(regionsB);
+        engine.storeDataItem(numericA);
+        engine.storeDataItem(numericB);
+        engine.storeDataItem(dnaA);
+        engine.storeDataItem(dnaB);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (String name:DATASETS) engine.removeDataItem(name);
+        for (String name:SEQUENCES) engine.removeDataItem(name);
+    }
+
+    /** Creates a sequence with regions that overlap, contain each other and extend beyond the ends of the sequence */
+    private RegionSequenceData createRegionSequence(String name, int length, int numberOfRegions) {
+        RegionSequenceData sequence=new RegionSequenceData(name, "chr1", OFFSET, OFFSET+length-1);
+        for (int i=0;i<numberOfRegions;i++) {
+            int start=random.nextInt(length+20)-10;
+            int size=(random.nextInt(4)==0)?random.nextInt(40)+1:random.nextInt(8)+1;
+            sequence.addRegion(new Region(sequence, start, start+size-1, "type", 1.0, Region.DIRECT));
+        }
+        return sequence;
+    }
+
+    /** Creates values with some repeated values (so that equality comparisons are sometimes satisfied) and some NaN values */
+    private double[] createValues(int length) {
+        double[] values=new double[length];
+        for (int i=0;i<length;i++) {
+            int type=random.nextInt(10);
+            if (type==0) values[i]=Double.NaN;
+            else if (type<5) values[i]=random.nextInt(3)*0.5;
+            else values[i]=random.nextDouble();
+        }
+        return values;
+    }
+
+    private char[] createBases(int length) {
+        char[] bases=new char[length];
+        for (int i=0;i<length;i++) bases[i]="ACGTacgtNnRy".charAt(random.nextInt(12));
+        return bases;
+    }
+
+    private static Condition_position createCondition(String operandA, String comparator, String operandB, String operandB2, boolean negate) {
+        Condition_position condition=new Condition_position();
+        condition.setOperandAString(operandA);
+        condition.setComparator(comparator);
+        if (operandB!=null) condition.setOperandBString(operandB);
+        if (operandB2!=null) condition.setOperandB2String(operandB2);
+        if (negate) condition.setNegateAll(Boolean.TRUE);
+        return condition;
+    }
+
+    /** Returns a list of conditions which covers all the types of operands and comparators, both with and without negation */
+    private static ArrayList<Condition_position> createConditions() {
+        ArrayList<Condition_position> conditions=new ArrayList<Condition_position>();
+        for (boolean negate:new boolean[]{false,true}) {
+            conditions.add(createCondition(DATASETS[0], "inside", null, null, negate));
+            conditions.add(createCondition(DATASETS[1], "inside", null, null, negate));
+            for (String comparator:new String[]{"bases overlap","bases not overlap","regions overlap","regions not overlap"}) {
+                conditions.add(createCondition(DATASETS[0], comparator, DATASETS[1], null, negate));
+                conditions.add(createCondition(DATASETS[1], comparator, DATASETS[0], null, negate));
+            }
+            for (String comparator:new String[]{"=",">=",">","<","<=","<>"}) {
+                conditions.add(createCondition(DATASETS[2], comparator, "0.5", null, negate));
+                conditions.add(createCondition(DATASETS[2], comparator, DATASETS[3], null, negate));
+            }
+            conditions.add(createCondition(DATASETS[2], "in", "0", "0.5", negate));
+            conditions.add(createCondition(DATASETS[2], "in", DATASETS[3], "0.7", negate));
+            conditions.add(createCondition(DATASETS[2], "in", "0.2", DATASETS[3], negate));
+            conditions.add(createCondition(DATASETS[4], "is lowercase", null, null, negate));
+            conditions.add(createCondition(DATASETS[4], "is uppercase", null, null, negate));
+            for (String comparator:new String[]{"case-sensitive equals","equals","has same case as","matches"}) {
+                conditions.add(createCondition(DATASETS[4], comparator, DATASETS[5], null, negate));
+                conditions.add(createCondition(DATASETS[4], comparator, "\"a\"", null, negate));
+                conditions.add(createCondition(DATASETS[4], comparator+" relative strand", "\"C\"", null, negate));
+            }
+        }
+        conditions.add(new Condition_position()); // no condition
+        return conditions;
+    }
+
+    /** Checks that the mask agrees with evaluating the condition at each position */
+    private void assertSameAsCondition(String message, Condition_position condition, PositionMask mask, int s) throws Exception {
+        int start=OFFSET, end=OFFSET+LENGTHS[s]-1;
+        assertEquals(message, start, mask.getStart());
+        assertEquals(message, LENGTHS[s], mask.size());
+        for (int pos=start;pos<=end;pos++) {
+            assertEquals(message+" at position "+pos, condition.isConditionSatisfied(SEQUENCES[s], pos, task), mask.get(pos));
+        }
+        assertMaskConsistent(message, mask);
+    }
+
+    /** Checks that nextSetPosition agrees with get and that positions outside the sequence are never set */
+    private static void assertMaskConsistent(String message, PositionMask mask) {
+        int start=mask.getStart(), end=start+mask.size()-1;
+        assertFalse(message, mask.get(start-1));
+        assertFalse(message, mask.get(end+1));
+        int expected=Integer.MAX_VALUE;
+        for (int pos=end;pos>=start-3;pos--) {
+            if (mask.get(pos)) expected=pos;
+            assertEquals(message+" next set position from "+pos, expected, mask.nextSetPosition(pos));
+        }
+        assertEquals(message, Integer.MAX_VALUE, mask.nextSetPosition(end+1));
+    }
+
+    /**
+     * Test of getMask method, of class Condition_position, for all types of operands and comparators.
+     */
+    @Test
+    public void testConditionMasks() throws Exception {
+        for (Condition_position condition:createConditions()) {
+            condition.resolve(engine, task);
+            for (int s=0;s<SEQUENCES.length;s++) {
+                PositionMask mask=condition.getMask(SEQUENCES[s], task);
+                String message=condition.getOperandAString()+" "+condition.getComparator()+" "+condition.getOperandBString()+" (not="+condition.negateAll()+") in "+SEQUENCES[s];
+                assertSameAsCondition(message, condition, mask, s);
+                assertSame(mask, condition.getMask(SEQUENCES[s], task)); // the mask is reused
+            }
+        }
+    }
+
+    /**
+     * Test of getMask method, of class Condition_position_boolean, for compound conditions with AND and OR (including negated and nested conditions).
+     */
+    @Test
+    public void testCompoundConditionMasks() throws Exception {
+        ArrayList<Condition_position> conditions=createConditions();
+        for (int i=0;i<40;i++) {
+            Condition_position first=conditions.get(random.nextInt(conditions.size())).clone();
+            Condition_position second=conditions.get(random.nextInt(conditions.size())).clone();
+            Condition_position third=conditions.get(random.nextInt(conditions.size())).clone();
+            int type=(random.nextBoolean())?Condition_boolean.AND:Condition_boolean.OR;
+            Condition_position_boolean inner=new Condition_position_boolean(first, second, type);
+            if (random.nextBoolean()) inner.setNegateAll(Boolean.TRUE);
+            Condition_position_boolean outer=new Condition_position_boolean((type==Condition_boolean.AND)?Condition_boolean.OR:Condition_boolean.AND);
+            outer.addCondition(inner);
+            outer.addCondition(third);
+            if (random.nextBoolean()) outer.setNegateAll(Boolean.TRUE);
+            for (Condition_position condition:new Condition_position[]{inner, outer}) {
+                condition.resolve(engine, task);
+                for (int s=0;s<SEQUENCES.length;s++) assertSameAsCondition("Compound condition "+i, condition, condition.getMask(SEQUENCES[s], task), s);
+            }
+        }
+    }
+
+    /**
+     * Test of getMask method, of class Condition_within, for windows inside, across the edges of and outside the sequences.
+     */
+    @Test
+    public void testWithinMasks() throws Exception {
+        String windows=SEQUENCES[0]+":"+(OFFSET+10)+"-"+(OFFSET+20)+","+SEQUENCES[0]+":"+(OFFSET+15)+"-"+(OFFSET+40)+","+SEQUENCES[0]+":"+(OFFSET-5)+"-"+(OFFSET+2)+","+SEQUENCES[0]+":"+(OFFSET+290)+"-"+(OFFSET+400)
+                      +","+SEQUENCES[2]+":"+OFFSET+"-"+OFFSET;
+        for (String operand:new String[]{windows, SEQUENCES[1]+":"+(OFFSET+500)+"-"+(OFFSET+600), null}) {
+            for (boolean negate:new boolean[]{false,true}) {
+                Condition_within within=new Condition_within();
+                if (operand!=null) within.setOperandAString(operand);
+                if (negate) within.setNegateAll(Boolean.TRUE);
+                within.resolve(engine, task);
+                for (int s=0;s<SEQUENCES.length;s++) {
+                    PositionMask mask=within.getMask(SEQUENCES[s], task);
+                    String message="Within "+operand+" (not="+negate+") in "+SEQUENCES[s];
+                    assertEquals(message, OFFSET, mask.getStart());
+                    for (int pos=OFFSET;pos<OFFSET+LENGTHS[s];pos++) assertEquals(message+" at position "+pos, within.isConditionSatisfied(SEQUENCES[s], pos, task), mask.get(pos));
+                    assertMaskConsistent(message, mask);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test of and method, of class PositionMask, and the combined mask of where- and within-conditions in FeatureTransformOperation.
+     */
+    @Test
+    public void testCombinedMasks() throws Exception {
+        Condition_position condition=createCondition(DATASETS[2], ">", "0.5", null, false);
+        condition.resolve(engine, task);
+        Condition_within within=new Condition_within();
+        within.setOperandAString(SEQUENCES[0]+":"+(OFFSET+50)+"-"+(OFFSET+150));
+        within.resolve(engine, task);
+        task.setParameter("where", condition);
+        task.setParameter("within", within);
+        Operation_apply operation=new Operation_apply();
+        for (int s=0;s<SEQUENCES.length;s++) {
+            PositionMask mask=operation.getPositionMask(SEQUENCES[s], task);
+            for (int pos=OFFSET;pos<OFFSET+LENGTHS[s];pos++) {
+                boolean expected=within.isConditionSatisfied(SEQUENCES[s], pos, task) && condition.isConditionSatisfied(SEQUENCES[s], pos, task);
+                assertEquals("Position "+pos, expected, mask.get(pos));
+                assertEquals("Position "+pos, expected, operation.positionSatisfiesCondition(SEQUENCES[s], pos, task));
+            }
+            assertMaskConsistent(SEQUENCES[s], mask);
+        }
+        BitSet bits=new BitSet();
+        bits.set(2, 5);
+        PositionMask empty=new PositionMask(10, 0, new BitSet());
+        assertEquals(Integer.MAX_VALUE, empty.nextSetPosition(10));
+        assertFalse(empty.get(10));
+        PositionMask mask=new PositionMask(10, 4, bits); // the bit at relative position 4 lies outside the mask
+        assertTrue(mask.get(12));
+        assertFalse(mask.get(14));
+        assertEquals(12, mask.nextSetPosition(0));
+        assertEquals(13, mask.nextSetPosition(13));
+        assertEquals(Integer.MAX_VALUE, mask.nextSetPosition(14));
+        task.setParameter("where", null);
+        task.setParameter("within", null);
+        assertNull(operation.getPositionMask(SEQUENCES[0], task));
+    }
+}
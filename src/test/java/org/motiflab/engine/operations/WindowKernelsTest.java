@@ -0,0 +1,267 @@
+package org.motiflab.engine.operations;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.motiflab.engine.data.NumericConstant;
+import org.motiflab.engine.data.NumericSequenceData;
+import org.motiflab.engine.task.OperationTask;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the sliding window kernels give the same results as computing every window from scratch,
+ * and that the "apply" operation gives the same results as the original per-position code
+ * both when the whole sequence is transformed at once and when it is transformed in tiles
+ *
+ * @author kjetikl
+ */
+public class WindowKernelsTest {
+
+    private static final int LENGTH=2500; // long enough for several FFT blocks
+    private static final int[] WINDOW_SIZES=new int[]{1,2,4,5,17,256,301,1100};
+
+    private Random random;
+    private double[] values;
+
+    public WindowKernelsTest() {
+    }
+
+    @Before
+    public void setUp() {
+        random=new Random(42);
+        values=new double[LENGTH];
+        for (int i=0;i<LENGTH;i++) values[i]=(random.nextDouble()-0.3)*100;
+    }
+
+    private static double[] withSpecialValues(double[] values) {
+        double[] result=values.clone();
+        result[3]=Double.NaN;
+        result[500]=Double.POSITIVE_INFINITY;
+        result[510]=Double.NEGATIVE_INFINITY;
+        result[result.length-1]=Double.NaN;
+        return result;
+    }
+
+    private static void assertClose(String message, double expected, double actual) {
+        assertEquals(message, expected, actual, 1e-9*Math.max(1, Math.abs(expected)));
+    }
+
+    /**
+     * Test of getSum, getAverage and getCount methods, of class WindowKernels.WindowSums,
+     * compared to direct summation for windows that lie inside, across the edges of and outside the array.
+     */
+    @Test
+    public void testWindowSums() {
+        for (double[] array:new double[][]{new double[0], new double[]{7.5}, values, withSpecialValues(values)}) {
+            WindowKernels.WindowSums sums=new WindowKernels.WindowSums(array);
+            for (int size:WINDOW_SIZES) {
+                for (int start=-size-2;start<=array.length+2;start+=(array.length>100)?7:1) {
+                    int end=start+size-1;
+                    double sum=0;
+                    int count=0;
+                    for (int j=start;j<=end;j++) {
+                        if (j<0 || j>=array.length) continue;
+                        sum+=array[j];
+                        count++;
+                    }
+                    String message="Window "+start+"-"+end;
+                    assertEquals(message, count, sums.getCount(start, end));
+                    assertClose(message, sum, sums.getSum(start, end));
+                    assertClose(message, (count>0)?sum/count:0, sums.getAverage(start, end));
+                }
+            }
+        }
+    }
+
+    /**
+     * Test of get method, of class WindowKernels.SlidingExtremum, compared to scanning every window.
+     */
+    @Test
+    public void testSlidingExtremum() {
+        double[] missing=new double[50];
+        Arrays.fill(missing, Double.NaN);
+        for (double[] array:new double[][]{new double[0], new double[]{7.5}, values, withSpecialValues(values), missing}) {
+            for (boolean maximum:new boolean[]{false,true}) {
+                for (int size:WINDOW_SIZES) {
+                    WindowKernels.SlidingExtremum extremum=new WindowKernels.SlidingExtremum(array, maximum);
+                    for (int start=-size-2;start<=array.length+2;start++) {
+                        int end=start+size-1;
+                        double expected=Double.NaN;
+                        for (int j=Math.max(0, start);j<=Math.min(array.length-1, end);j++) {
+                            double value=array[j];
+                            if (Double.isNaN(value)) continue;
+                            if (Double.isNaN(expected) || (maximum && value>expected) || (!maximum && value<expected)) expected=value;
+                        }
+                        assertEquals("Window "+start+"-"+end, expected, extremum.get(start, end), 0);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Test of correlate method, of class WindowKernels, compared to direct summation.
+     * Windows with at least 256 weights are applied with FFTs in blocks, so ranges that span several blocks are included.
+     */
+    @Test
+    public void testCorrelate() {
+        for (double[] array:new double[][]{new double[0], new double[]{7.5}, values, withSpecialValues(values)}) {
+            for (int size:WINDOW_SIZES) {
+                double[] weights=new double[size];
+                for (int k=0;k<size;k++) weights[k]=random.nextGaussian();
+                for (int offset:new int[]{-size/2, 0, -size+1}) {
+                    int[][] ranges=new int[][]{{0,array.length-1},{0,0},{5,4},{array.length-1,array.length-1},{1,Math.min(array.length-1, 1500)},{-3,array.length+3}};
+                    for (int[] range:ranges) {
+                        int first=range[0], last=range[1];
+                        double[] result=WindowKernels.correlate(array, weights, offset, first, last);
+                        assertEquals(Math.max(0, last-first+1), result.length);
+                        for (int p=first;p<=last;p++) {
+                            double expected=0;
+                            for (int k=0;k<size;k++) {
+                                int j=p+offset+k;
+                                if (j>=0 && j<array.length) expected+=array[j]*weights[k];
+                            }
+                            assertEquals("Size "+size+", position "+p, expected, result[p-first], 1e-9*Math.max(1, Math.abs(expected))*size);
+                        }
+                    }
+                }
+            }
+        }
+        assertEquals(0, WindowKernels.correlate(values, new double[0], 0, 0, 10)[0], 0);
+    }
+
+    /** Returns the new value for one window as computed by the original per-position code in Operation_apply */
+    private static double getExpectedValue(double[] values, int start, int end, String windowType, double[] window) {
+        int size=values.length;
+        if (windowType.equals("Uniform") || windowType.equals("Sum")) {
+            double result=0;
+            double counted=0;
+            for (int j=start;j<=end;j++) {
+                if (j<0 || j>=size) continue;
+                counted++;
+                result+=values[j];
+            }
+            if (windowType.equals("Uniform") && counted>0) result=result/counted;
+            return result;
+        } else if (windowType.equals("Shift")) {
+            return (start<0 || start>=size)?0:values[start];
+        } else if (windowType.equals("Minimum") || windowType.equals("Maximum")) {
+            boolean maximum=windowType.equals("Maximum");
+            double result=(maximum)?-Double.MAX_VALUE:Double.MAX_VALUE;
+            for (int j=start;j<=end;j++) {
+                if (j<0 || j>=size) continue;
+                if ((maximum && values[j]>result) || (!maximum && values[j]<result)) result=values[j];
+            }
+            return result;
+        } else if (windowType.equals("Peak") || windowType.startsWith("Valley")) {
+            boolean peak=windowType.equals("Peak");
+            int windowsize=end-start+1;
+            int center=Math.min(Math.max(start+(int)(windowsize/2), 0), size-1);
+            double currentValue=values[center];
+            int leftWindowStart=Math.min(Math.max(start, 0), size-1);
+            int leftWindowEnd=Math.min(Math.max(start+(int)(windowsize*0.4), 0), size-1);
+            int rightWindowStart=Math.min(Math.max(start+(int)(windowsize*0.6), 0), size-1);
+            int rightWindowEnd=Math.min(Math.max(end, 0), size-1);
+            double left=(peak)?Double.MAX_VALUE:-Double.MAX_VALUE;
+            double right=left;
+            for (int j=leftWindowStart;j<=leftWindowEnd;j++) {
+                if ((peak && values[j]<left) || (!peak && values[j]>left)) left=values[j];
+            }
+            for (int j=rightWindowStart;j<=rightWindowEnd;j++) {
+                if ((peak && values[j]<right) || (!peak && values[j]>right)) right=values[j];
+            }
+            if (peak) {
+                double maxofmin=(left>right)?left:right;
+                return (maxofmin<0.1*currentValue)?currentValue:0;
+            }
+            double minofmax=(left<right)?left:right;
+            if (currentValue<0.9*minofmax) return (windowType.equals("Valley2"))?minofmax-currentValue:minofmax;
+            else return 0;
+        } else { // Gaussian, Bartlett or Edge
+            double result=0;
+            for (int j=start;j<=end;j++) {
+                double value=(j>=0 && j<size)?values[j]:0;
+                result+=value*window[j-start];
+            }
+            return result;
+        }
+    }
+
+    /** Returns the weights used by Operation_apply for the given window type (or NULL if the window type does not use weights) */
+    private static double[] getWeights(String windowType, int windowsize) {
+        if (windowType.equals("Gaussian")) {
+            double[] window=new double[windowsize];
+            double total=0;
+            for (int i=0;i<windowsize;i++) {
+                double k=(-((double)windowsize-1f)/2f)+i;
+                double powarg=2.5*k/(((double)windowsize)/2f);
+                window[i]=Math.exp(-0.5*Math.pow(powarg,2));
+                total+=window[i];
+            }
+            for (int i=0;i<windowsize;i++) window[i]=window[i]/total;
+            return window;
+        } else if (windowType.equals("Bartlett")) {
+            double[] window=new double[windowsize];
+            double half=((int)(windowsize/2))+1;
+            for (int i=0;i<half;i++) {
+                window[i]=(1f/half)*(i+1);
+                window[windowsize-(i+1)]=(1f/half)*(i+1);
+            }
+            double total=0;
+            for (int i=0;i<windowsize;i++) total+=window[i];
+            for (int i=0;i<windowsize;i++) window[i]=window[i]/total;
+            return window;
+        } else if (windowType.equals("Edge")) {
+            double[] window=new double[windowsize];
+            for (int i=0;i<windowsize/2;i++) {
+                window[i]=-1;
+                window[windowsize-(i+1)]=+1;
+            }
+            return window;
+        } else return null;
+    }
+
+    /**
+     * Test of transformSequence method, of class Operation_apply, for all window types and anchors.
+     * The sequence is transformed as a whole and in tiles of different sizes, and compared to the original per-position code.
+     */
+    @Test
+    public void testApplyInTiles() throws Exception {
+        Operation_apply operation=new Operation_apply();
+        int length=700;
+        int offset=1001; // genomic start of the sequence
+        double[] source=new double[length];
+        for (int i=0;i<length;i++) source[i]=(random.nextInt(5)==0)?random.nextDouble()*0.05:random.nextDouble()*100; // gives both peaks and valleys
+        NumericSequenceData sequence=new NumericSequenceData("seq1", "chr1", offset, offset+length-1, source.clone());
+        for (String windowType:Operation_apply.getWindowTypes()) {
+            for (String anchor:Operation_apply.getWindowAnchors()) {
+                for (int windowsize:new int[]{1,4,5,300}) {
+                    OperationTask task=new OperationTask("apply");
+                    task.setParameter(Operation_apply.WINDOW_TYPE, windowType);
+                    task.setParameter(Operation_apply.ANCHOR, anchor);
+                    task.setParameter("windowSizeValue", new NumericConstant("size", windowsize));
+                    double[] weights=getWeights(windowType, windowsize);
+                    int start, end; // the window relative to the position, for sequences on the direct strand
+                    if (anchor.equals(Operation_apply.UPSTREAM)) {start=0; end=windowsize-1;}
+                    else if (anchor.equals(Operation_apply.DOWNSTREAM)) {start=-windowsize+1; end=0;}
+                    else if (windowsize%2==0) {start=-windowsize/2+1; end=windowsize/2;}
+                    else {start=-windowsize/2; end=windowsize/2;}
+                    if (windowType.equals("Shift") && !anchor.equals(Operation_apply.DOWNSTREAM)) start=end;
+                    double[] expected=new double[length];
+                    for (int p=0;p<length;p++) expected[p]=getExpectedValue(source, p+start, p+end, windowType, weights);
+                    for (int tilesize:new int[]{length,1,7,128,333}) {
+                        NumericSequenceData target=new NumericSequenceData("seq1", "chr1", offset, offset+length-1, new double[length]);
+                        for (int tileStart=offset;tileStart<offset+length;tileStart+=tilesize) {
+                            operation.transformSequence(sequence, target, tileStart, Math.min(tileStart+tilesize-1, offset+length-1), task);
+                        }
+                        for (int p=0;p<length;p++) {
+                            String message=windowType+" window of size "+windowsize+" anchored at "+anchor+" in tiles of "+tilesize+", position "+p;
+                            assertClose(message, expected[p], target.getValueAtRelativePosition(p));
+                        }
+                    }
+                }
+            }
+        }
+    }
+}